@@ -4,6 +4,8 @@
 
 package com.cosmo.kite.action;
 
+import org.openqa.selenium.By;
+
 import javax.json.JsonObject;
 
 /**
@@ -150,7 +152,323 @@ public class JSActionScript {
       + "return 0 "
       + "}";
   }
-  
+
+  /**
+   * Returns the async script checking all the videos of the page at once. The frames of the
+   * videos are drawn on a downscaled canvas every interval, until all the videos changed or the
+   * window elapsed. For each video, in the order of the page, the script returns the result
+   * ("blank" if not decoded or all black, "still" if the frames did not change, "video"
+   * otherwise), the first and last pixel sums and the video dimensions.
+   *
+   * @param interval time between two frames, in ms.
+   * @param window   maximum duration of the check, in ms.
+   *
+   * @return the script as string.
+   */
+  public static String getAllVideosCheckScript(int interval, int window) {
+    return "var callback = arguments[arguments.length - 1];"
+      + "var videos = Array.prototype.slice.call(document.getElementsByTagName('video'));"
+      + "var canvas = document.createElement('canvas');"
+      + "var ctx = canvas.getContext('2d');"
+      + "var checks = videos.map(function () {"
+      + "  return {result: 'blank', checksum1: -1, checksum2: -1, hash: null, width: 0, height: 0};"
+      + "});"
+      + "var frame = function (video) {"
+      + "  if (!video.videoWidth || !video.videoHeight || video.readyState < 2) return null;"
+      + "  canvas.width = 64;"
+      + "  canvas.height = Math.max(1, Math.round(64 * video.videoHeight / video.videoWidth));"
+      + "  ctx.drawImage(video, 0, 0, canvas.width, canvas.height);"
+      + "  var data = ctx.getImageData(0, 0, canvas.width, canvas.height).data;"
+      + "  var sum = 0, hash = 0;"
+      + "  for (var i = 0; i < data.length; i++) {"
+      + "    if (i % 4 === 3) continue;"
+      + "    sum += data[i];"
+      + "    hash = (hash * 31 + data[i]) | 0;"
+      + "  }"
+      + "  return {sum: sum, hash: hash};"
+      + "};"
+      + "var sample = function () {"
+      + "  var done = true;"
+      + "  videos.forEach(function (video, i) {"
+      + "    var check = checks[i];"
+      + "    if (check.result === 'video') return;"
+      + "    var f = null;"
+      + "    try {"
+      + "      f = frame(video);"
+      + "    } catch (err) {"
+      + "    }"
+      + "    if (f) {"
+      + "      check.width = video.videoWidth;"
+      + "      check.height = video.videoHeight;"
+      + "      if (check.checksum1 < 0) check.checksum1 = f.sum;"
+      + "      check.checksum2 = f.sum;"
+      + "      if (check.hash !== null && check.hash !== f.hash) {"
+      + "        check.result = 'video';"
+      + "        return;"
+      + "      }"
+      + "      check.hash = f.hash;"
+      + "      if (f.sum > 0) check.result = 'still';"
+      + "    }"
+      + "    done = false;"
+      + "  });"
+      + "  return done;"
+      + "};"
+      + "var start = Date.now();"
+      + "var next = function () {"
+      + "  if (sample() || Date.now() - start + " + interval + " > " + window + ") {"
+      + "    callback(checks.map(function (check) {"
+      + "      return {result: check.result, checksum1: Math.max(check.checksum1, 0),"
+      + "        checksum2: Math.max(check.checksum2, 0), width: check.width, height: check.height};"
+      + "    }));"
+      + "  } else {"
+      + "    setTimeout(next, " + interval + ");"
+      + "  }"
+      + "};"
+      + "next();";
+  }
+
+  /**
+   * Returns the script starting the video monitor of the page, if not started yet. The monitor
+   * counts the frames rendered by every video element of the page, including the ones added
+   * later, with requestVideoFrameCallback() or, when not supported, by comparing downscaled
+   * frames every 50ms. A freeze is an interval between two frames longer than
+   * max(3 * average interval, average interval + 150ms).
+   *
+   * @return the script as string.
+   */
+  public static String startVideoMonitorScript() {
+    return "if (window.KITEVideoMonitor) return;"
+      + "var m = window.KITEVideoMonitor = {videos: [], ticks: 0};"
+      + "var canvas = document.createElement('canvas');"
+      + "var ctx = canvas.getContext('2d');"
+      + "var isFreeze = function (v, delay) {"
+      + "  if (v.intervals < 3) return false;"
+      + "  var avg = v.totalInterval / v.intervals;"
+      + "  return delay > Math.max(3 * avg, avg + 150);"
+      + "};"
+      + "var frame = function (v, count, width, height) {"
+      + "  var now = Date.now();"
+      + "  if (v.lastFrame) {"
+      + "    var delay = now - v.lastFrame;"
+      + "    if (isFreeze(v, delay / count)) {"
+      + "      v.freezeCount++;"
+      + "      v.freezeDuration += delay;"
+      + "    } else {"
+      + "      v.totalInterval += delay;"
+      + "      v.intervals += count;"
+      + "    }"
+      + "  } else {"
+      + "    v.firstFrame = now;"
+      + "  }"
+      + "  v.lastFrame = now;"
+      + "  v.frames += count;"
+      + "  if (width && height && (width !== v.width || height !== v.height)) {"
+      + "    if (v.width) v.resolutionChanges++;"
+      + "    v.width = width;"
+      + "    v.height = height;"
+      + "  }"
+      + "};"
+      + "var track = function (video) {"
+      + "  video.kiteMonitored = true;"
+      + "  var v = {video: video, mode: 'canvas', start: Date.now(), frames: 0, firstFrame: 0,"
+      + "    lastFrame: 0, totalInterval: 0, intervals: 0, freezeCount: 0, freezeDuration: 0,"
+      + "    width: 0, height: 0, resolutionChanges: 0, hash: null, presentedFrames: null};"
+      + "  m.videos.push(v);"
+      + "  if (typeof video.requestVideoFrameCallback === 'function') {"
+      + "    v.mode = 'requestVideoFrameCallback';"
+      + "    var onFrame = function (now, metadata) {"
+      + "      if (m.stopped) return;"
+      + "      var count = v.presentedFrames === null ? 1"
+      + "        : Math.max(metadata.presentedFrames - v.presentedFrames, 1);"
+      + "      v.presentedFrames = metadata.presentedFrames;"
+      + "      frame(v, count, metadata.width, metadata.height);"
+      + "      video.requestVideoFrameCallback(onFrame);"
+      + "    };"
+      + "    video.requestVideoFrameCallback(onFrame);"
+      + "  }"
+      + "};"
+      + "var sample = function (v) {"
+      + "  var video = v.video;"
+      + "  if (!video.videoWidth || !video.videoHeight || video.readyState < 2) return;"
+      + "  canvas.width = 32;"
+      + "  canvas.height = Math.max(1, Math.round(32 * video.videoHeight / video.videoWidth));"
+      + "  ctx.drawImage(video, 0, 0, canvas.width, canvas.height);"
+      + "  var data = ctx.getImageData(0, 0, canvas.width, canvas.height).data;"
+      + "  var hash = 0, sum = 0;"
+      + "  for (var i = 0; i < data.length; i++) {"
+      + "    if (i % 4 === 3) continue;"
+      + "    sum += data[i];"
+      + "    hash = (hash * 31 + data[i]) | 0;"
+      + "  }"
+      + "  if (sum > 0 && hash !== v.hash) {"
+      + "    v.hash = hash;"
+      + "    frame(v, 1, video.videoWidth, video.videoHeight);"
+      + "  }"
+      + "};"
+      + "var tick = function () {"
+      + "  if (m.ticks++ % 10 === 0) {"
+      + "    var videos = document.getElementsByTagName('video');"
+      + "    for (var i = 0; i < videos.length; i++) {"
+      + "      if (!videos[i].kiteMonitored) track(videos[i]);"
+      + "    }"
+      + "  }"
+      + "  m.videos.forEach(function (v) {"
+      + "    if (v.mode !== 'canvas') return;"
+      + "    try {"
+      + "      sample(v);"
+      + "    } catch (err) {"
+      + "    }"
+      + "  });"
+      + "};"
+      + "m.isFreeze = isFreeze;"
+      + "m.timer = setInterval(tick, 50);"
+      + "tick();";
+  }
+
+  /**
+   * Returns the script getting the metrics of the video monitor (see startVideoMonitorScript()),
+   * or null if it is not started. For each monitored video, the script returns its index in the
+   * video elements of the page (-1 if removed), its id, the monitoring mode and duration, the
+   * number of frames, the frame rate, the number and total duration of freezes (including the
+   * current one), whether the video is frozen, its resolution and number of resolution changes,
+   * and the result: "blank" if no frame was rendered, "still" if frozen or a single frame was
+   * rendered, "video" otherwise.
+   *
+   * @return the script as string.
+   */
+  public static String getVideoMetricsScript() {
+    return "var m = window.KITEVideoMonitor;"
+      + "if (!m) return null;"
+      + "var now = Date.now();"
+      + "var videos = Array.prototype.slice.call(document.getElementsByTagName('video'));"
+      + "return m.videos.map(function (v) {"
+      + "  var frozenFor = v.lastFrame ? now - v.lastFrame : 0;"
+      + "  var frozen = v.lastFrame > 0 && m.isFreeze(v, frozenFor);"
+      + "  var elapsed = v.firstFrame ? now - v.firstFrame : 0;"
+      + "  return {"
+      + "    index: videos.indexOf(v.video),"
+      + "    id: v.video.id || '',"
+      + "    mode: v.mode,"
+      + "    duration: now - v.start,"
+      + "    frames: v.frames,"
+      + "    fps: elapsed > 0 ? Math.round(v.frames * 10000 / elapsed) / 10 : 0,"
+      + "    freezeCount: v.freezeCount + (frozen ? 1 : 0),"
+      + "    freezeDuration: v.freezeDuration + (frozen ? frozenFor : 0),"
+      + "    frozen: frozen,"
+      + "    width: v.width,"
+      + "    height: v.height,"
+      + "    resolutionChanges: v.resolutionChanges,"
+      + "    result: v.frames === 0 ? 'blank' : (frozen || v.frames < 2) ? 'still' : 'video'"
+      + "  };"
+      + "});";
+  }
+
+  /**
+   * Returns the script stopping the video monitor of the page.
+   *
+   * @return the script as string.
+   */
+  public static String stopVideoMonitorScript() {
+    return "var m = window.KITEVideoMonitor;"
+      + "if (!m) return;"
+      + "m.stopped = true;"
+      + "clearInterval(m.timer);"
+      + "m.videos.forEach(function (v) { delete v.video.kiteMonitored; });"
+      + "delete window.KITEVideoMonitor;";
+  }
+
+  /**
+   * Returns the async script waiting for a condition to be true. The condition is evaluated
+   * whenever the DOM changes (with a MutationObserver) and every 250ms for the changes that are
+   * not DOM mutations. The arguments of the script are available to the condition as args.
+   *
+   * @param condition JS expression of the condition.
+   * @param timeout   maximum duration of the wait, in ms.
+   *
+   * @return the script as string, calling back with true if the condition became true, false if
+   * the wait timed out.
+   */
+  public static String waitForConditionScript(String condition, int timeout) {
+    return "var callback = arguments[arguments.length - 1];"
+      + "var args = Array.prototype.slice.call(arguments, 0, arguments.length - 1);"
+      + "var check = function () {"
+      + "  try {"
+      + "    return !!(" + condition + ");"
+      + "  } catch (err) {"
+      + "    return false;"
+      + "  }"
+      + "};"
+      + "if (check()) {"
+      + "  callback(true);"
+      + "  return;"
+      + "}"
+      + "var done = false, observer, poll, timer;"
+      + "var finish = function (result) {"
+      + "  if (done) return;"
+      + "  done = true;"
+      + "  observer.disconnect();"
+      + "  clearInterval(poll);"
+      + "  clearTimeout(timer);"
+      + "  callback(result);"
+      + "};"
+      + "observer = new MutationObserver(function () { if (check()) finish(true); });"
+      + "observer.observe(document, {childList: true, subtree: true, attributes: true,"
+      + "  characterData: true});"
+      + "poll = setInterval(function () { if (check()) finish(true); }, 250);"
+      + "timer = setTimeout(function () { finish(check()); }, " + timeout + ");";
+  }
+
+  /**
+   * Returns the JS expression of the array of the elements located by a selector, given as the
+   * argument args[index] of the script, or null if the selector cannot be evaluated in the page.
+   *
+   * @param selector the Selenium selector.
+   * @param index    the index of the argument with the value of the selector.
+   *
+   * @return the JS expression as string.
+   */
+  public static String findElementsExpression(By selector, int index) {
+    String value = "args[" + index + "]";
+    String type = selector.toString();
+    type = type.substring(0, Math.max(type.indexOf(':'), 0));
+    switch (type) {
+      case "By.id":
+        return "[document.getElementById(" + value + ")].filter(Boolean)";
+      case "By.cssSelector":
+        return "Array.prototype.slice.call(document.querySelectorAll(" + value + "))";
+      case "By.className":
+        return "Array.prototype.slice.call(document.getElementsByClassName(" + value + "))";
+      case "By.tagName":
+        return "Array.prototype.slice.call(document.getElementsByTagName(" + value + "))";
+      case "By.name":
+        return "Array.prototype.slice.call(document.getElementsByName(" + value + "))";
+      case "By.xpath":
+        return "(function (r) {"
+          + "  var elements = [];"
+          + "  for (var i = 0; i < r.snapshotLength; i++) elements.push(r.snapshotItem(i));"
+          + "  return elements;"
+          + "})(document.evaluate(" + value + ", document, null,"
+          + "  XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null))";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the JS expression checking whether an element is visible, as in Selenium.
+   *
+   * @param element JS expression of the element.
+   *
+   * @return the JS expression as string.
+   */
+  public static String isVisibleExpression(String element) {
+    return "(function (e) {"
+      + "  var style = window.getComputedStyle(e);"
+      + "  return style.visibility !== 'hidden' && style.display !== 'none'"
+      + "    && (e.offsetWidth > 0 || e.offsetHeight > 0 || e.getClientRects().length > 0);"
+      + "})(" + element + ")";
+  }
+
   /**
    * Script to input a value to an element by executing JS code
    *
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.executor;
+
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shared ExecutorService running at most a given number of tasks at the same time, the other
+ * tasks being queued.
+ * <p>
+ * The tasks run either on a pool of reused platform threads, or on a new virtual thread per task
+ * (in which case the limit is enforced by a semaphore). In both cases the number of queued and
+ * active tasks is counted.
+ * <p>
+ * A caller which must not use more than a part of a pool gets a view of it with view(): the view
+ * runs its tasks on the pool, at most its own limit at the same time, the other tasks being queued
+ * in the view without holding a thread of the pool.
+ * <p>
+ * A BoundedExecutor is shared by the whole process and is only shut down by
+ * KiteExecutors.shutdown(): its shutdown() and shutdownNow() only log a warning. A view belongs to
+ * its caller and has its own lifecycle: once shut down, it rejects the new tasks, and it is
+ * terminated when its own queued and active tasks are done, the pool keeping running.
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+
+  private static final Logger logger = Logger.getLogger(BoundedExecutor.class.getName());
+
+  private final String name;
+  private final int limit;
+  private final boolean virtual;
+  private final ExecutorService backend;
+  /* null when the backend already limits the number of threads */
+  private final Semaphore permits;
+  /* the pool of a view, null if this BoundedExecutor is not a view */
+  private final BoundedExecutor parent;
+  private final Queue<Runnable> pending;
+  private final AtomicInteger dispatched;
+  private volatile boolean shutdownCalled = false;
+
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger largestActive = new AtomicInteger();
+  private final AtomicLong completed = new AtomicLong();
+
+  /**
+   * Constructs a new BoundedExecutor.
+   *
+   * @param name    the name of the pool
+   * @param limit   the maximum number of tasks executed at the same time
+   * @param backend the ExecutorService running the tasks
+   * @param virtual true if the backend starts a new virtual thread per task, in which case the
+   *                limit is enforced by this BoundedExecutor
+   */
+  BoundedExecutor(String name, int limit, ExecutorService backend, boolean virtual) {
+    this.name = name;
+    this.limit = limit;
+    this.backend = backend;
+    this.virtual = virtual;
+    this.permits = virtual ? new Semaphore(limit, true) : null;
+    this.parent = null;
+    this.pending = null;
+    this.dispatched = null;
+  }
+
+  private BoundedExecutor(BoundedExecutor parent, int limit) {
+    this.name = parent.name + "/view";
+    this.limit = limit;
+    this.backend = parent;
+    this.virtual = parent.virtual;
+    this.permits = null;
+    this.parent = parent;
+    this.pending = new ConcurrentLinkedQueue<>();
+    this.dispatched = new AtomicInteger();
+  }
+
+  /**
+   * Gets a view of this pool running at most the given number of tasks at the same time, which
+   * are also counted by this pool. The tasks beyond the limit of the view wait in the view, not in
+   * the pool.
+   *
+   * @param limit the maximum number of tasks of the view executed at the same time
+   * @return a new BoundedExecutor running its tasks on this pool
+   */
+  public BoundedExecutor view(int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("The limit of a view must be positive: " + limit);
+    }
+    return new BoundedExecutor(this, limit);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    if (this.parent != null && this.shutdownCalled) {
+      throw new RejectedExecutionException("The view " + this.name + " is shut down");
+    }
+    this.queued.incrementAndGet();
+    if (this.parent != null) {
+      this.pending.add(command);
+      this.dispatch();
+      return;
+    }
+    try {
+      this.backend.execute(() -> this.run(command));
+    } catch (RejectedExecutionException e) {
+      this.queued.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Submits the pending tasks of a view to its pool while the view is under its limit.
+   */
+  private void dispatch() {
+    while (true) {
+      int count = this.dispatched.get();
+      if (count >= this.limit) {
+        return;
+      }
+      if (!this.dispatched.compareAndSet(count, count + 1)) {
+        continue;
+      }
+      Runnable command = this.pending.poll();
+      if (command == null) {
+        this.dispatched.decrementAndGet();
+        // a task may have been added while this slot was taken
+        if (this.pending.isEmpty()) {
+          return;
+        }
+        continue;
+      }
+      try {
+        this.parent.execute(() -> {
+          try {
+            this.run(command);
+          } finally {
+            this.dispatched.decrementAndGet();
+            this.dispatch();
+            this.signalTermination();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        this.dispatched.decrementAndGet();
+        this.queued.decrementAndGet();
+        this.signalTermination();
+        throw e;
+      }
+    }
+  }
+
+  private void run(Runnable command) {
+    if (this.permits != null) {
+      try {
+        this.permits.acquire();
+      } catch (InterruptedException e) {
+        // Only interrupted by KiteExecutors.shutdown(), the task is dropped
+        this.queued.decrementAndGet();
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    this.queued.decrementAndGet();
+    int running = this.active.incrementAndGet();
+    this.largestActive.accumulateAndGet(running, Math::max);
+    try {
+      command.run();
+    } finally {
+      this.active.decrementAndGet();
+      this.completed.incrementAndGet();
+      if (this.permits != null) {
+        this.permits.release();
+      }
+    }
+  }
+
+  /**
+   * Gets the name of the pool.
+   *
+   * @return the name of the pool
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Gets the maximum number of tasks executed at the same time.
+   *
+   * @return the limit of the pool
+   */
+  public int getLimit() {
+    return this.limit;
+  }
+
+  /**
+   * Checks whether the tasks run on virtual threads.
+   *
+   * @return true if the tasks run on virtual threads
+   */
+  public boolean isVirtual() {
+    return this.virtual;
+  }
+
+  /**
+   * Gets the number of tasks waiting for a thread.
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    return this.queued.get();
+  }
+
+  /**
+   * Gets the number of tasks being executed.
+   *
+   * @return the active count
+   */
+  public int getActiveCount() {
+    return this.active.get();
+  }
+
+  /**
+   * Gets the largest number of tasks that have been executed at the same time.
+   *
+   * @return the largest active count
+   */
+  public int getLargestActiveCount() {
+    return this.largestActive.get();
+  }
+
+  /**
+   * Gets the number of tasks that have been executed.
+   *
+   * @return the completed count
+   */
+  public long getCompletedCount() {
+    return this.completed.get();
+  }
+
+  /**
+   * Gets the metrics of the pool.
+   *
+   * @return a JsonObject with the limit, the queue depth, the active, largest active and completed
+   * counts.
+   */
+  public JsonObject getMetrics() {
+    return Json.createObjectBuilder()
+      .add("limit", this.limit)
+      .add("virtual", this.virtual)
+      .add("queueDepth", this.getQueueDepth())
+      .add("activeCount", this.getActiveCount())
+      .add("largestActiveCount", this.getLargestActiveCount())
+      .add("completedCount", this.getCompletedCount())
+      .build();
+  }
+
+  /**
+   * Shuts down a view: the new tasks are rejected, the queued tasks are still executed. Does
+   * nothing but logging a warning on a pool, which is shared by the whole process and is shut down
+   * by KiteExecutors.shutdown().
+   */
+  @Override
+  public void shutdown() {
+    if (this.parent == null) {
+      logger.warn("Ignoring shutdown() of the shared pool " + this.name
+        + ", it is shut down by KiteExecutors.shutdown()");
+      return;
+    }
+    this.shutdownCalled = true;
+    this.signalTermination();
+  }
+
+  /**
+   * Shuts down a view and removes its tasks still waiting in the view. The active tasks are not
+   * interrupted, since they run on the threads of the shared pool. Does nothing but logging a
+   * warning on a pool, which is shared by the whole process and is shut down by
+   * KiteExecutors.shutdown().
+   *
+   * @return the tasks of the view which have not been started, an empty list for a pool.
+   */
+  @Override
+  public List<Runnable> shutdownNow() {
+    if (this.parent == null) {
+      logger.warn("Ignoring shutdownNow() of the shared pool " + this.name
+        + ", it is shut down by KiteExecutors.shutdown()");
+      return Collections.emptyList();
+    }
+    this.shutdownCalled = true;
+    List<Runnable> removed = new ArrayList<>();
+    Runnable command;
+    while ((command = this.pending.poll()) != null) {
+      this.queued.decrementAndGet();
+      removed.add(command);
+    }
+    this.signalTermination();
+    return removed;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return this.parent == null ? this.backend.isShutdown() : this.shutdownCalled;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    if (this.parent == null) {
+      return this.backend.isTerminated();
+    }
+    return this.shutdownCalled && this.dispatched.get() == 0 && this.pending.isEmpty();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    if (this.parent == null) {
+      return this.backend.awaitTermination(timeout, unit);
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (this) {
+      while (!this.isTerminated()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Wakes up the threads waiting for the termination of a view once it is terminated.
+   */
+  private void signalTermination() {
+    if (this.isTerminated()) {
+      synchronized (this) {
+        this.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Shuts down the backend, the queued and active tasks being completed. Not called on a view.
+   */
+  void close() {
+    this.backend.shutdown();
+  }
+
+  /**
+   * Shuts down the backend, interrupting the active tasks.
+   */
+  void closeNow() {
+    this.backend.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return this.name + this.getMetrics();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.executor;
+
+/**
+ * The shared thread pools of KITE, each one for a kind of task.
+ * <p>
+ * The tasks waiting for the tasks of another pool must not be run in the same pool, otherwise
+ * the waiting tasks can hold all the threads of the pool while the tasks they are waiting for
+ * are queued behind them.
+ * <p>
+ * The limit of a pool can be changed with the system property kite.executor.[name].limit, for
+ * instance -Dkite.executor.browser-io.limit=2000.
+ */
+public enum ExecutorPool {
+
+  /**
+   * Executes the tests of the matrices, each test waiting for its browsers.
+   */
+  SCHEDULING("scheduling", 512),
+
+  /**
+   * Drives the browsers of the tests, one task per browser. All the browsers of a test run at
+   * the same time, so the limit must be greater than the number of browsers used at once.
+   */
+  BROWSER_IO("browser-io", 1024),
+
+  /**
+   * Runs the tasks that mostly wait: remote grids queries, matrices waiting for their tests.
+   */
+  BLOCKING("blocking", 256),
+
+  /**
+   * Posts the results and writes the reports.
+   */
+  REPORTING("reporting", 16);
+
+  private final String name;
+  private final int defaultLimit;
+
+  ExecutorPool(String name, int defaultLimit) {
+    this.name = name;
+    this.defaultLimit = defaultLimit;
+  }
+
+  /**
+   * Gets the name of the pool, used in the thread names, the metrics and the system properties.
+   *
+   * @return the name of the pool
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Gets the maximum number of tasks of this pool executed at the same time, as set by the
+   * system property kite.executor.[name].limit or the default limit.
+   *
+   * @return the limit of the pool
+   */
+  public int getLimit() {
+    String limit = System.getProperty("kite.executor." + this.name + ".limit");
+    if (limit != null) {
+      try {
+        int value = Integer.parseInt(limit.trim());
+        if (value > 0) {
+          return value;
+        }
+      } catch (NumberFormatException e) {
+        // fall back to the default limit
+      }
+    }
+    return this.defaultLimit;
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.executor;
+
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of the shared thread pools of the process, one BoundedExecutor per ExecutorPool.
+ * <p>
+ * The pools are created on first use. The platform threads are daemon threads reused across the
+ * tests and stopped after one minute of inactivity. With the system property
+ * kite.executor.virtual=true, the tasks run on virtual threads instead when the JVM supports them
+ * (Java 21 or later), the pools still enforcing their limits.
+ */
+public final class KiteExecutors {
+
+  private static final Logger logger = Logger.getLogger(KiteExecutors.class.getName());
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static final Map<ExecutorPool, BoundedExecutor> pools = new EnumMap<>(ExecutorPool.class);
+
+  private KiteExecutors() {
+  }
+
+  /**
+   * Gets the shared BoundedExecutor of the given pool, creating it if needed.
+   *
+   * @param pool the ExecutorPool
+   * @return the BoundedExecutor of the pool
+   */
+  public static synchronized BoundedExecutor get(ExecutorPool pool) {
+    BoundedExecutor executor = pools.get(pool);
+    if (executor == null || executor.isShutdown()) {
+      executor = create(pool);
+      pools.put(pool, executor);
+    }
+    return executor;
+  }
+
+  /**
+   * Gets the metrics of the pools created so far.
+   *
+   * @return a JsonObject with the metrics of each pool, by name
+   */
+  public static synchronized JsonObject getMetrics() {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    for (BoundedExecutor executor : pools.values()) {
+      builder.add(executor.getName(), executor.getMetrics());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Logs the metrics of the pools created so far.
+   */
+  public static void logMetrics() {
+    logger.info("Thread pools: " + getMetrics());
+  }
+
+  /**
+   * Shuts down all the pools, waiting for the queued and active tasks to complete within the
+   * given time before interrupting them. The pools are created again if used afterwards.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of the timeout
+   */
+  public static void shutdown(long timeout, TimeUnit unit) {
+    BoundedExecutor[] executors;
+    synchronized (KiteExecutors.class) {
+      executors = pools.values().toArray(new BoundedExecutor[0]);
+      pools.clear();
+    }
+    for (BoundedExecutor executor : executors) {
+      executor.close();
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (BoundedExecutor executor : executors) {
+      try {
+        if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+          logger.warn("Interrupting the " + executor.getActiveCount() + " active tasks of the pool "
+            + executor.getName());
+          executor.closeNow();
+        }
+      } catch (InterruptedException e) {
+        executor.closeNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static BoundedExecutor create(ExecutorPool pool) {
+    int limit = pool.getLimit();
+    if (Boolean.getBoolean("kite.executor.virtual")) {
+      ExecutorService backend = newVirtualThreadPerTaskExecutor();
+      if (backend != null) {
+        return new BoundedExecutor(pool.getName(), limit, backend, true);
+      }
+    }
+    ThreadPoolExecutor backend = new ThreadPoolExecutor(limit, limit, KEEP_ALIVE_SECONDS,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory(pool.getName()));
+    backend.allowCoreThreadTimeOut(true);
+    return new BoundedExecutor(pool.getName(), limit, backend, false);
+  }
+
+  /**
+   * Creates an ExecutorService starting a new virtual thread per task, looked up by reflection
+   * since KITE is compiled for Java 8.
+   *
+   * @return the ExecutorService, or null if the JVM does not support virtual threads.
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (Exception e) {
+      logger.warn("Virtual threads are not supported by this JVM (" + System.getProperty(
+        "java.version") + "), using platform threads");
+      return null;
+    }
+  }
+
+  /**
+   * Creates daemon threads named after their pool.
+   */
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private DaemonThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "kite-" + this.name + "-" + this.count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
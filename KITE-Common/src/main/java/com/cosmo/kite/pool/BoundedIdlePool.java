@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.pool;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * A pool creating its objects on demand and keeping at most a given number of idle objects.
+ * <p>
+ * Unlike BoundedBlockingPool, no object is created in advance and get() never blocks: it returns
+ * the most recently released valid object, or a new one from the ObjectFactory. The objects that
+ * are not valid anymore, when taken or released, and the objects released while the pool is full
+ * are invalidated. The new objects can also be created by a factory given to each get() call, when
+ * the way to create them depends on the caller.
+ *
+ * @param <T> the type parameter
+ */
+public class BoundedIdlePool<T> extends AbstractPool<T> {
+  final private ObjectFactory<T> objectFactory;
+  final private Pool.Validator<T> validator;
+  final private BlockingDeque<T> idleObjects;
+  private volatile boolean shutdownCalled;
+
+  /**
+   * Instantiates a new Bounded idle pool.
+   *
+   * @param maxIdle       the maximum number of idle objects
+   * @param validator     the validator
+   * @param objectFactory the object factory
+   */
+  public BoundedIdlePool(int maxIdle, Pool.Validator<T> validator, ObjectFactory<T> objectFactory) {
+    super();
+
+    this.objectFactory = objectFactory;
+    this.validator = validator;
+
+    idleObjects = new LinkedBlockingDeque<T>(Math.max(maxIdle, 1));
+
+    shutdownCalled = false;
+  }
+
+  /**
+   * Instantiates a new Bounded idle pool without default object factory, whose new objects are
+   * created by the factory given to get(ObjectFactory).
+   *
+   * @param maxIdle   the maximum number of idle objects
+   * @param validator the validator
+   */
+  public BoundedIdlePool(int maxIdle, Pool.Validator<T> validator) {
+    this(maxIdle, validator, null);
+  }
+
+  @Override
+  public T get() {
+    if (objectFactory == null) {
+      throw new IllegalStateException("The pool has no default object factory");
+    }
+    return get(objectFactory);
+  }
+
+  /**
+   * Gets the most recently released valid object, or a new one from the given factory.
+   *
+   * @param objectFactory the factory creating the object if there is no valid idle object
+   *
+   * @return an object of the pool
+   */
+  public T get(ObjectFactory<T> objectFactory) {
+    T t = poll();
+    return t != null ? t : objectFactory.createNew();
+  }
+
+  /**
+   * Gets the most recently released valid object, without creating a new one.
+   *
+   * @return an idle object of the pool, null if there is no valid idle object
+   */
+  public T poll() {
+    if (shutdownCalled) {
+      throw new IllegalStateException("Object pool is already shutdown");
+    }
+
+    T t;
+    while ((t = idleObjects.pollFirst()) != null) {
+      if (validator.isValid(t)) {
+        return t;
+      }
+      validator.invalidate(t);
+    }
+    return null;
+  }
+
+  /**
+   * Gets the number of idle objects.
+   *
+   * @return the number of objects waiting in the pool
+   */
+  public int getIdleCount() {
+    return idleObjects.size();
+  }
+
+  @Override
+  protected void handleInvalidReturn(T t) {
+    validator.invalidate(t);
+  }
+
+  @Override
+  protected boolean isValid(T t) {
+    return validator.isValid(t);
+  }
+
+  @Override
+  protected void returnToPool(T t) {
+    if (shutdownCalled || !idleObjects.offerFirst(t)) {
+      validator.invalidate(t);
+    } else if (shutdownCalled && idleObjects.remove(t)) {
+      // shut down while the object was returned
+      validator.invalidate(t);
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    shutdownCalled = true;
+
+    T t;
+    while ((t = idleObjects.pollFirst()) != null) {
+      validator.invalidate(t);
+    }
+  }
+}
@@ -70,4 +70,22 @@ public final class PoolFactory {
                                                       Validator<T> validator) {
     return new BoundedPool<T>(size, validator, factory);
   }
+  
+  /**
+   * Creates a and returns a new object pool,
+   * that is an implementation of the {@link Pool}
+   * creating its objects on demand and keeping
+   * at most <tt> maxIdle </tt> idle objects.
+   *
+   * @param <T>       the type parameter
+   * @param maxIdle   the maximum number of idle objects in the pool.
+   * @param factory   the factory to create new objects.
+   * @param validator the validator to validate the re-usability of the objects.
+   *
+   * @return a non-blocking object pool keeping at most <tt> maxIdle </tt> idle objects
+   */
+  public static <T> Pool<T> newBoundedIdlePool(int maxIdle, ObjectFactory<T> factory,
+                                               Validator<T> validator) {
+    return new BoundedIdlePool<T>(maxIdle, validator, factory);
+  }
 }
@@ -26,6 +26,20 @@ public class AllureTestReport extends AllureStepReport {
     Reporter.getInstance().addTest(this);
   }
   
+  /**
+   * Sets the history id. Reports sharing the same history id are displayed by Allure as retries
+   * of the same test.
+   *
+   * @param historyId the history id
+   */
+  public void setHistoryId(String historyId) {
+    this.historyId = historyId;
+  }
+  
+  public String getHistoryId() {
+    return historyId;
+  }
+  
   public void setFullName(String fullName) {
     this.fullName = fullName;
   }
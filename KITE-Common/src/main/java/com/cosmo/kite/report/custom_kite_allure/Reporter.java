@@ -6,8 +6,11 @@ import org.apache.log4j.Logger;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.cosmo.kite.util.ReportUtils.getStackTrace;
 import static com.cosmo.kite.util.ReportUtils.timestamp;
@@ -22,13 +25,13 @@ public class Reporter {
     return instance;
   }
 
-  private final String DEFAULT_REPORT_FOLDER = "kite-allure-reports/";
+  public static final String DEFAULT_REPORT_FOLDER = "kite-allure-reports/";
   private String reportPath = DEFAULT_REPORT_FOLDER;
   private static Reporter instance = new Reporter();
   
-  private List<Container> containers = new ArrayList<>();
-  private List<AllureTestReport> tests = new ArrayList<>();;
-  private List<CustomAttachment> attachments = new ArrayList<>();;
+  private List<Container> containers = new CopyOnWriteArrayList<>();
+  private Map<String, AllureTestReport> tests = new ConcurrentHashMap<>();
+  private Set<CustomAttachment> attachments = ConcurrentHashMap.newKeySet();
   
   public void setReportPath(String reportPath) {
     if (reportPath != null) {      
@@ -36,6 +39,10 @@ public class Reporter {
     }
   }
 
+  public String getReportPath() {
+    return this.reportPath;
+  }
+
   public void jsonAttachment(AllureStepReport step, String name, JsonValue jsonObject) {
     jsonAttachment(step, name, (JsonObject)jsonObject);
   }
@@ -87,7 +94,7 @@ public class Reporter {
   }
   
   public void addTest(AllureTestReport test) {
-    this.tests.add(test);
+    this.tests.put(test.getUuid(), test);
   }
   
   public void updateContainers() {
@@ -101,7 +108,7 @@ public class Reporter {
   public void generateReportFiles(){
     updateContainers();
     
-    for (AllureTestReport test : tests) {
+    for (AllureTestReport test : tests.values()) {
       String fileName = this.reportPath + test.getUuid() + "-result.json";
       printJsonTofile(test.toString(), fileName);
     }
@@ -111,6 +118,33 @@ public class Reporter {
     }
   }
   
+  /**
+   * Writes the result file and the attachments of a finished test, then releases them so they
+   * are not kept in memory until the end of the run.
+   *
+   * @param uuid the uuid of the test report
+   */
+  public void generateReportFiles(String uuid) {
+    AllureTestReport test = uuid == null ? null : tests.remove(uuid);
+    if (test == null) {
+      return;
+    }
+    prepareReportFolder();
+    printJsonTofile(test.toString(), this.reportPath + test.getUuid() + "-result.json");
+    saveAttachments(test);
+  }
+  
+  private void saveAttachments(AllureStepReport step) {
+    for (CustomAttachment attachment : step.getAttachments()) {
+      if (attachments.remove(attachment)) {
+        attachment.saveToFile(reportPath);
+      }
+    }
+    for (AllureStepReport child : step.getSteps()) {
+      saveAttachments(child);
+    }
+  }
+  
   public void processException(AllureStepReport report, Exception e) {
     StatusDetails details = new StatusDetails();
     Status status;
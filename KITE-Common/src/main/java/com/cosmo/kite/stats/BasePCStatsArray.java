@@ -7,12 +7,18 @@ import com.cosmo.kite.util.ReportUtils;
 import org.apache.log4j.Logger;
 
 import javax.json.JsonObject;
+import javax.json.JsonValue;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * RTCPeerConnectionStats, with attributes dataChannelsOpened, dataChannelsClosed
+ * <p>
+ * As the stats are added, the distributions of the audio jitter, the sent video RTT, and the
+ * bitrates and packet losses over each interval between two stats are recorded in histograms.
  */
 public abstract class BasePCStatsArray extends ArrayList<JsonObject> {
   
@@ -30,6 +36,122 @@ public abstract class BasePCStatsArray extends ArrayList<JsonObject> {
   protected static final DecimalFormat df = new DecimalFormat("#0.0000");
   private static final Logger logger = Logger.getLogger(BasePCStatsArray.class.getName());
   
+  private final Map<String, StatsHistogram> histograms = new LinkedHashMap<>();
+  
+  /**
+   * Constructs a new BasePCStatsArray, with the same histograms whatever the stats.
+   */
+  protected BasePCStatsArray() {
+    for (String name : new String[] {"sentAudioBitrate (bps)", "sentVideoBitrate (bps)",
+      "receivedAudioBitrate (bps)", "receivedVideoBitrate (bps)", "audioPacketsLoss (%)",
+      "videoPacketsLoss (%)", "audioJitter (ms)", "sentVideoRtt (ms)"}) {
+      histograms.put(name, new StatsHistogram());
+    }
+  }
+  
+  /**
+   * Adds a stat object and records its values in the histograms.
+   *
+   * @param statObject the stat object
+   *
+   * @return true
+   */
+  @Override
+  public boolean add(JsonObject statObject) {
+    JsonObject previous = isEmpty() ? null : get(size() - 1);
+    Map<String, JsonObject> groups = getStatsGroups(statObject);
+    Map<String, JsonObject> previousGroups = previous != null ? getStatsGroups(previous) : null;
+    for (Map.Entry<String, JsonObject> group : groups.entrySet()) {
+      JsonObject previousGroup = previousGroups != null ? previousGroups.get(group.getKey()) : null;
+      for (Map.Entry<String, JsonValue> item : group.getValue().entrySet()) {
+        try {
+          if (item.getValue() instanceof JsonObject) {
+            JsonObject previousItem = previousGroup != null && previousGroup.get(item.getKey())
+              instanceof JsonObject ? previousGroup.getJsonObject(item.getKey()) : null;
+            recordItem((JsonObject) item.getValue(), previousItem);
+          }
+        } catch (Exception e) {
+          // not an audio or video stat object
+        }
+      }
+    }
+    return super.add(statObject);
+  }
+  
+  private void recordItem(JsonObject item, JsonObject previousItem) {
+    for (String mediaType : new String[] {AUDIO, VIDEO}) {
+      boolean sent = isSendAV(item, mediaType);
+      if (!sent && !isRecvAV(item, mediaType)) {
+        continue;
+      }
+      if (sent && VIDEO.equals(mediaType)) {
+        record("sentVideoRtt (ms)", item.getString("googRtt", null));
+      }
+      if (!sent && AUDIO.equals(mediaType)) {
+        record("audioJitter (ms)", item.getString("googJitterReceived", null));
+      }
+      if (previousItem == null) {
+        continue;
+      }
+      String bytes = sent ? "bytesSent" : "bytesReceived";
+      long duration = getLong(item, "timestamp") - getLong(previousItem, "timestamp");
+      long byteCount = getLong(item, bytes) - getLong(previousItem, bytes);
+      if (duration > 0 && byteCount >= 0) {
+        histograms.get((sent ? "sent" : "received") + (AUDIO.equals(mediaType) ? "Audio" : "Video")
+          + "Bitrate (bps)").record(8000d * byteCount / duration);
+      }
+      if (!sent) {
+        long lost = getLong(item, "packetsLost") - getLong(previousItem, "packetsLost");
+        long received = getLong(item, "packetsReceived") - getLong(previousItem, "packetsReceived");
+        if (lost >= 0 && received + lost > 0) {
+          histograms.get(mediaType + "PacketsLoss (%)").record(100d * lost / (received + lost));
+        }
+      }
+    }
+  }
+  
+  private void record(String name, String value) {
+    try {
+      if (value != null) {
+        histograms.get(name).record(Double.parseDouble(value));
+      }
+    } catch (NumberFormatException e) {
+      // not reported
+    }
+  }
+  
+  private static long getLong(JsonObject item, String key) {
+    return Long.parseLong(item.getString(key));
+  }
+  
+  /**
+   * Gets the stats groups of a stat object, each group containing stats objects by id.
+   *
+   * @param statObject the stat object
+   *
+   * @return the stats groups, by name
+   */
+  protected Map<String, JsonObject> getStatsGroups(JsonObject statObject) {
+    Map<String, JsonObject> groups = new LinkedHashMap<>();
+    for (Map.Entry<String, JsonValue> entry : statObject.entrySet()) {
+      if (entry.getValue() instanceof JsonObject) {
+        groups.put(entry.getKey(), (JsonObject) entry.getValue());
+      }
+    }
+    return groups;
+  }
+  
+  /**
+   * Gets the distributions of the stats added so far: the audio jitter and the sent video RTT of
+   * each stat object, and the bitrates and packet losses (in %) of each interval between two stat
+   * objects.
+   *
+   * @return the histograms, by metric name
+   */
+  public Map<String, StatsHistogram> getHistograms() {
+    return Collections.unmodifiableMap(histograms);
+  }
+  
   /**
    * Compute avg bitrate long.
    *
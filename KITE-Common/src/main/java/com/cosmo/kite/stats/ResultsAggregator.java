@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+package com.cosmo.kite.stats;
+
+import com.cosmo.kite.util.TestUtils;
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Aggregates the results of the CallableTesters of a load test as they complete, so that the
+ * results do not need to be kept until the end of the test.
+ * <p>
+ * The aggregator counts the passed, failed and errored testers, records the page loading and test
+ * completion times in StatsHistograms, and reports them with the stats histograms of the test
+ * (bitrates, packet losses, jitter and RTT) in a compact summary. The summary file is rewritten at
+ * most once per flush interval as the results are added, giving a live picture of the test.
+ */
+public class ResultsAggregator {
+
+  private static final Logger logger = Logger.getLogger(ResultsAggregator.class.getName());
+
+  private static final String[] TIMES = {"pageLoadingTime", "testCompletionTime"};
+
+  private final String name;
+  private final String dirPath;
+  private final Map<String, StatsHistogram> statsHistograms;
+  private final long flushInterval;
+  private final Map<String, StatsHistogram> timeHistograms = new LinkedHashMap<>();
+  private final long startTime = System.currentTimeMillis();
+
+  private long resultCount;
+  private long passCount;
+  private long failCount;
+  private long errorCount;
+  private long lastFlush = startTime;
+
+  /**
+   * Constructs a new ResultsAggregator.
+   *
+   * @param name            the name of the summary file, without extension
+   * @param dirPath         the directory of the summary file
+   * @param statsHistograms the stats histograms of the test, by metric name, merged as the
+   *                        testers complete
+   * @param flushInterval   the minimum time between two writes of the summary file, in ms
+   */
+  public ResultsAggregator(String name, String dirPath, Map<String, StatsHistogram> statsHistograms,
+                           long flushInterval) {
+    this.name = name;
+    this.dirPath = TestUtils.verifyPathFormat(dirPath);
+    this.statsHistograms = statsHistograms;
+    this.flushInterval = flushInterval;
+    for (String time : TIMES) {
+      timeHistograms.put(time + " (ms)", new StatsHistogram());
+    }
+  }
+
+  /**
+   * Adds the result of a CallableTester, and writes the summary if the flush interval has elapsed.
+   *
+   * @param result the JsonObject returned by the CallableTester
+   * @param pass   true if the tester passed
+   */
+  public synchronized void add(JsonObject result, boolean pass) {
+    resultCount++;
+    if (pass) {
+      passCount++;
+    } else {
+      failCount++;
+    }
+    for (String time : TIMES) {
+      JsonValue value = result.get(time);
+      if (value instanceof JsonNumber) {
+        timeHistograms.get(time + " (ms)").record(((JsonNumber) value).doubleValue());
+      }
+    }
+    flushIfDue();
+  }
+
+  /**
+   * Counts a CallableTester which threw an exception or timed out without a result.
+   */
+  public synchronized void addError() {
+    errorCount++;
+    flushIfDue();
+  }
+
+  /**
+   * Gets the number of testers which passed.
+   *
+   * @return the number of passed testers
+   */
+  public synchronized long getPassCount() {
+    return passCount;
+  }
+
+  /**
+   * Builds the summary of the results added so far.
+   *
+   * @param buckets true to add the buckets of the histograms, to merge them later
+   *
+   * @return the summary JsonObject
+   */
+  public synchronized JsonObject getSummary(boolean buckets) {
+    JsonObjectBuilder builder = Json.createObjectBuilder()
+      .add("timeStamp", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()))
+      .add("elapsedTime (s)", (System.currentTimeMillis() - startTime) / 1000)
+      .add("results", resultCount + errorCount)
+      .add("passed", passCount)
+      .add("failed", failCount)
+      .add("errors", errorCount);
+    for (Map.Entry<String, StatsHistogram> entry : timeHistograms.entrySet()) {
+      builder.add(entry.getKey(), entry.getValue().getJsonObjectBuilder(buckets));
+    }
+    return builder.add("stats", StatsHistogram.toJson(statsHistograms, buckets)).build();
+  }
+
+  /**
+   * Writes the summary file.
+   *
+   * @param buckets true to add the buckets of the histograms
+   */
+  public synchronized void flush(boolean buckets) {
+    lastFlush = System.currentTimeMillis();
+    TestUtils.createDirs(dirPath);
+    TestUtils.printJsonTofile(getSummary(buckets).toString(), dirPath + name + ".json");
+  }
+
+  /**
+   * Writes the summary file if the flush interval has elapsed since the last write, to be called
+   * periodically while no result is added.
+   */
+  public synchronized void flushIfDue() {
+    if (System.currentTimeMillis() - lastFlush >= flushInterval) {
+      flush(false);
+      logger.info("Results so far: " + (resultCount + errorCount) + ", passed: " + passCount
+        + ", failed: " + failCount + ", errors: " + errorCount);
+    }
+  }
+}
@@ -18,6 +18,15 @@ public class SinglePCStatsArray extends BasePCStatsArray {
   
   private static final Logger logger = Logger.getLogger(SinglePCStatsArray.class.getName());
   
+  @Override
+  protected Map<String, JsonObject> getStatsGroups(JsonObject statObject) {
+    Map<String, JsonObject> groups = new HashMap<>();
+    if (statObject.get("localStats") instanceof JsonObject) {
+      groups.put("localStats", statObject.getJsonObject("localStats"));
+    }
+    return groups;
+  }
+  
   public Map<String, String> getAVAvgBitrate(String mediaType) {
     Map<String, String> videosAvgBitrateMap = new HashMap<>();
     if (this.size() <= 1) {
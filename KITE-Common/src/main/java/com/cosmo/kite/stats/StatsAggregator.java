@@ -0,0 +1,543 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+package com.cosmo.kite.stats;
+
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.cosmo.kite.util.StatsUtils.formatTimestamp;
+import static com.cosmo.kite.util.StatsUtils.getRTCStats;
+import static com.cosmo.kite.util.StatsUtils.getSuccessfulCandidate;
+import static com.cosmo.kite.util.StatsUtils.isDouble;
+import static com.cosmo.kite.util.StatsUtils.isLong;
+
+/**
+ * Computes the summary of the stats of a peer connection (bitrates, round trip times, jitter,
+ * packet loss and byte totals) in a single pass over the samples.
+ * <p>
+ * The samples are given one at a time to add(), either as the rows of a StatsStore, whose typed
+ * columns are read without any parsing, or as the items of the statsArray returned by
+ * StatsUtils.getPCStatOvertime(). The summary has the same keys and values as
+ * StatsUtils.extractStats(). Only the successful candidate pair and the first inbound and outbound
+ * RTP stats of each media type are read from each sample, into primitive accumulators.
+ * <p>
+ * The aggregator also records the distribution of the current round trip time, of the audio
+ * jitter, and of the bitrates and packet losses over each sampling interval in StatsHistograms,
+ * which give the percentiles hidden by the averages.
+ */
+public class StatsAggregator {
+
+  private static final Logger logger = Logger.getLogger(StatsAggregator.class.getName());
+
+  private final boolean inbound;
+  private final boolean outbound;
+  private int sampleCount;
+
+  private final Map<String, StatsHistogram> histograms = new LinkedHashMap<>();
+  private final Average currentRoundTripTime;
+  private final Average totalRoundTripTime;
+  private final Maximum bytesReceived = new Maximum("bytesReceived");
+  private final Maximum bytesSent = new Maximum("bytesSent");
+  private final Bitrate sentBitrate;
+  private final Bitrate receivedBitrate;
+  private final Bitrate inboundAudioBitrate;
+  private final Bitrate inboundVideoBitrate;
+  private final Bitrate outboundAudioBitrate;
+  private final Bitrate outboundVideoBitrate;
+  private final PacketsLoss audioPacketsLoss;
+  private final PacketsLoss videoPacketsLoss;
+
+  private double jitter;
+  private int jitterCount;
+  private boolean jitterMissing;
+  private StatsHistogram jitterHistogram;
+  private Stat lastInboundAudio;
+  private Stat lastInboundVideo;
+
+  /**
+   * Constructs a new StatsAggregator.
+   *
+   * @param direction "in", "out" or "both", the RTP stats to summarize
+   */
+  public StatsAggregator(String direction) {
+    this.inbound = "both".equalsIgnoreCase(direction) || "in".equalsIgnoreCase(direction);
+    this.outbound = "both".equalsIgnoreCase(direction) || "out".equalsIgnoreCase(direction);
+    this.currentRoundTripTime = new Average("currentRoundTripTime", histogram("currentRoundTripTime (ms)"));
+    this.totalRoundTripTime = new Average("totalRoundTripTime", null);
+    this.sentBitrate = new Bitrate("bytesSent", histogram("sentBitrate (bps)"));
+    this.receivedBitrate = new Bitrate("bytesReceived", histogram("receivedBitrate (bps)"));
+    this.inboundAudioBitrate = new Bitrate("bytesReceived", inbound ? histogram("inboundAudioBitrate (bps)") : null);
+    this.inboundVideoBitrate = new Bitrate("bytesReceived", inbound ? histogram("inboundVideoBitrate (bps)") : null);
+    this.outboundAudioBitrate = new Bitrate("bytesSent", outbound ? histogram("outboundAudioBitrate (bps)") : null);
+    this.outboundVideoBitrate = new Bitrate("bytesSent", outbound ? histogram("outboundVideoBitrate (bps)") : null);
+    if (inbound) {
+      this.jitterHistogram = histogram("audioJitter (ms)");
+    }
+    this.audioPacketsLoss = new PacketsLoss(inbound ? histogram("audioPacketsLoss (%)") : null);
+    this.videoPacketsLoss = new PacketsLoss(inbound ? histogram("videoPacketsLoss (%)") : null);
+  }
+
+  private StatsHistogram histogram(String name) {
+    StatsHistogram histogram = new StatsHistogram();
+    histograms.put(name, histogram);
+    return histogram;
+  }
+
+  /**
+   * Adds a sample.
+   *
+   * @param stats the stats of the sample, by type and id, as in the statsArray
+   */
+  public void add(JsonObject stats) {
+    add(jsonStat(getSuccessfulCandidate(stats)),
+      inbound ? jsonStat(getRTCStats(stats, "inbound-rtp", "audio")) : null,
+      inbound ? jsonStat(getRTCStats(stats, "inbound-rtp", "video")) : null,
+      outbound ? jsonStat(getRTCStats(stats, "outbound-rtp", "audio")) : null,
+      outbound ? jsonStat(getRTCStats(stats, "outbound-rtp", "video")) : null);
+  }
+
+  /**
+   * Adds a sample of a StatsStore, reading its typed values. All the stats of the sample are read,
+   * as in the statsArray built without selected stats.
+   *
+   * @param statsStore the stats store
+   * @param row        the row of the sample
+   */
+  public void add(StatsStore statsStore, int row) {
+    add(storeStat(statsStore, getSuccessfulCandidateId(statsStore, row), row),
+      inbound ? storeStat(statsStore, getRTCStatsId(statsStore, "inbound-rtp", "audio", row), row) : null,
+      inbound ? storeStat(statsStore, getRTCStatsId(statsStore, "inbound-rtp", "video", row), row) : null,
+      outbound ? storeStat(statsStore, getRTCStatsId(statsStore, "outbound-rtp", "audio", row), row) : null,
+      outbound ? storeStat(statsStore, getRTCStatsId(statsStore, "outbound-rtp", "video", row), row) : null);
+  }
+
+  private void add(Stat candidatePair, Stat inboundAudio, Stat inboundVideo, Stat outboundAudio,
+                   Stat outboundVideo) {
+    int index = sampleCount++;
+    currentRoundTripTime.add(candidatePair);
+    totalRoundTripTime.add(candidatePair);
+    bytesReceived.add(candidatePair);
+    bytesSent.add(candidatePair);
+    sentBitrate.add(candidatePair, index);
+    receivedBitrate.add(candidatePair, index);
+    if (inbound) {
+      inboundAudioBitrate.add(inboundAudio, index);
+      inboundVideoBitrate.add(inboundVideo, index);
+      addJitter(inboundAudio);
+      audioPacketsLoss.add(inboundAudio);
+      videoPacketsLoss.add(inboundVideo);
+      lastInboundAudio = inboundAudio;
+      lastInboundVideo = inboundVideo;
+    }
+    if (outbound) {
+      outboundAudioBitrate.add(outboundAudio, index);
+      outboundVideoBitrate.add(outboundVideo, index);
+    }
+  }
+
+  /**
+   * Gets the number of samples added.
+   *
+   * @return the number of samples
+   */
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Gets the distributions of the metrics over the samples added so far: the current round trip
+   * time and the audio jitter of each sample, and the bitrates and the packet losses (in %) of
+   * each interval between two samples, with the names of the corresponding CSV keys.
+   *
+   * @return the histograms, by metric name
+   */
+  public Map<String, StatsHistogram> getHistograms() {
+    return Collections.unmodifiableMap(histograms);
+  }
+
+  /**
+   * Builds the summary of the samples added so far.
+   *
+   * @return the JsonObjectBuilder of the summary, with the keys of the CSV report
+   */
+  public JsonObjectBuilder getCsvBuilder() {
+    JsonObjectBuilder csvBuilder = Json.createObjectBuilder();
+    csvBuilder.add("currentRoundTripTime (ms)", currentRoundTripTime.getValue());
+    csvBuilder.add("totalRoundTripTime (ms)", totalRoundTripTime.getValue());
+    csvBuilder.add("totalBytesReceived (Bytes)", bytesReceived.getValue());
+    csvBuilder.add("totalBytesSent (Bytes)", bytesSent.getValue());
+    csvBuilder.add("avgSentBitrate (bps)", sentBitrate.getValue(sampleCount));
+    csvBuilder.add("avgReceivedBitrate (bps)", receivedBitrate.getValue(sampleCount));
+    if (inbound) {
+      csvBuilder.add("inboundAudioBitrate (bps)", inboundAudioBitrate.getValue(sampleCount));
+      csvBuilder.add("inboundVideoBitrate (bps)", inboundVideoBitrate.getValue(sampleCount));
+    }
+    if (outbound) {
+      csvBuilder.add("outboundAudioBitrate (bps)", outboundAudioBitrate.getValue(sampleCount));
+      csvBuilder.add("outboundVideoBitrate (bps)", outboundVideoBitrate.getValue(sampleCount));
+    }
+    if (inbound) {
+      csvBuilder.add("audioJitter (ms)", getAudioJitter());
+      csvBuilder.add("audioPacketsLoss (%)", getPacketsLoss(lastInboundAudio, "audio"));
+      csvBuilder.add("videoPacketsLoss (%)", getPacketsLoss(lastInboundVideo, "video"));
+    }
+    return csvBuilder;
+  }
+
+  private void addJitter(Stat audio) {
+    Object s = audio.get("jitter");
+    Double value = toDouble(s);
+    if (value != null) {
+      jitterHistogram.record(1000 * value);
+    }
+    if (jitterMissing) {
+      return;
+    }
+    if (s == null) {
+      jitterMissing = true;
+      logger.error("Unable to find jitter in the inbound audio stats.");
+    } else if (value != null) {
+      jitter += 1000 * value;
+      jitterCount++;
+    }
+  }
+
+  /**
+   * Computes the average audio jitter, in ms.
+   *
+   * @return the average jitter, or "" if less than 2 samples or a sample misses the jitter.
+   */
+  private String getAudioJitter() {
+    if (sampleCount < 2 || jitterMissing || jitterCount == 0) {
+      return "";
+    }
+    return "" + (jitter / jitterCount);
+  }
+
+  /**
+   * Computes the packet losses of the last sample as a % packetLost/total packets
+   *
+   * @param myObject  the inbound RTP stats of the last sample
+   * @param mediaType "audio" or "video"
+   *
+   * @return the packet losses (% packetLost/total packets)
+   */
+  private String getPacketsLoss(Stat myObject, String mediaType) {
+    if (sampleCount < 1) {
+      return "";
+    }
+    Object s = myObject.get("packetsReceived");
+    Object l = myObject.get("packetsLost");
+    Long received = toLong(s);
+    Long lost = toLong(l);
+    if (s == null || l == null) {
+      logger.error("computePacketsLoss packetsReceived or packetsLost not found in "
+        + ("inbound-" + mediaType + "_" + (sampleCount - 1)));
+    } else if (received != null && lost != null) {
+      long packetsLost = lost;
+      long totalPackets = received + packetsLost;
+      if (totalPackets > 0) {
+        double packetLoss = (packetsLost * 1000) / totalPackets;
+        return "" + (new DecimalFormat("#0.000").format(packetLoss / 1000));
+      }
+    } else {
+      logger.error(
+        "computePacketsLoss  \r\n ---------------\r\n"
+          + "inbound-" + mediaType + ": packetsReceived = " + s + ", packetsLost = " + l
+          + "\r\n ---------------\r\n");
+    }
+    return "";
+  }
+
+  /**
+   * Converts a stat value, a number of the StatsStore or a string of the statsArray, which is
+   * only parsed if StatsUtils.isDouble() accepts it.
+   *
+   * @return the value, or null if not a double
+   */
+  private static Double toDouble(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    if (value instanceof String && !"NA".equals(value) && isDouble((String) value)) {
+      return Double.parseDouble((String) value);
+    }
+    return null;
+  }
+
+  /**
+   * Converts a stat value, a number of the StatsStore or a string of the statsArray, which is
+   * only parsed if StatsUtils.isLong() accepts it.
+   *
+   * @return the value, or null if not a long
+   */
+  private static Long toLong(Object value) {
+    if (value instanceof Long || value instanceof Integer) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof String && !"NA".equals(value) && isLong((String) value)) {
+      return Long.parseLong((String) value);
+    }
+    return null;
+  }
+
+  /**
+   * Gets the successful candidate pair of a sample, as StatsUtils.getSuccessfulCandidate().
+   *
+   * @return the id of the candidate pair, or null if not found
+   */
+  private static String getSuccessfulCandidateId(StatsStore statsStore, int row) {
+    List<String> ids = statsStore.getIds("candidate-pair");
+    for (String id : ids) {
+      if (statsStore.contains(id, row) && "succeeded".equals(statsStore.getString(id, "state", row))) {
+        return id;
+      }
+    }
+    for (String id : ids) {
+      //sometimes there are no "succeeded" pair, but the "in-progress" with
+      //a valid currentRoundTripTime value looks just fine.
+      String currentRoundTripTime = statsStore.getString(id, "currentRoundTripTime", row);
+      if (statsStore.contains(id, row) && "in-progress".equals(statsStore.getString(id, "state", row))
+        && currentRoundTripTime != null && !"NA".equals(currentRoundTripTime)) {
+        return id;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the first RTP stats of a media type in a sample, as StatsUtils.getRTCStats().
+   *
+   * @return the id of the RTP stats, or null if not found
+   */
+  private static String getRTCStatsId(StatsStore statsStore, String stats, String mediaType, int row) {
+    for (String id : statsStore.getIds(stats)) {
+      if (statsStore.contains(id, row) && mediaType.equals(statsStore.getString(id, "mediaType", row))) {
+        return id;
+      }
+    }
+    return null;
+  }
+
+  private static Stat jsonStat(JsonObject jsonObject) {
+    return name -> jsonObject != null ? jsonObject.getString(name, null) : null;
+  }
+
+  /**
+   * The missing values of a stat of the store are "NA" and the timestamps are formatted by
+   * StatsUtils.formatTimestamp(), as in the statsArray. The formatting leaves the longs of up to
+   * 13 characters unchanged.
+   */
+  private static Stat storeStat(StatsStore statsStore, String id, int row) {
+    return name -> {
+      if (id == null) {
+        return null;
+      }
+      Object value = statsStore.getValue(id, name, row);
+      if (value == null) {
+        return "NA";
+      }
+      if ("timestamp".equals(name) && !(value instanceof Long
+        && (Long) value > -1000000000000L && (Long) value < 10000000000000L)) {
+        return formatTimestamp(value.toString());
+      }
+      return value;
+    };
+  }
+
+  /**
+   * A stat of a sample.
+   */
+  private interface Stat {
+    /**
+     * Gets a value of the stat.
+     *
+     * @param name the metric name
+     *
+     * @return the value, a String or a Number, or null if the stat is missing
+     */
+    Object get(String name);
+  }
+
+  /**
+   * The average of the valid (> 0) values of a candidate pair round trip time, in ms. As in the
+   * former computation, the average stops at the first sample without a successful candidate pair.
+   */
+  private static final class Average {
+    private final String key;
+    private final StatsHistogram histogram;
+    private double sum;
+    private int count;
+    private boolean stopped;
+
+    private Average(String key, StatsHistogram histogram) {
+      this.key = key;
+      this.histogram = histogram;
+    }
+
+    private void add(Stat candidatePair) {
+      Object s = candidatePair.get(key);
+      // "0" as in the statsArray, a 0.0 double is formatted as "0.0" there
+      boolean zero = s instanceof Long || s instanceof Integer ? ((Number) s).longValue() == 0
+        : "0".equals(s);
+      Double value = zero ? null : toDouble(s);
+      if (value != null && histogram != null) {
+        histogram.record(1000 * value);
+      }
+      if (stopped) {
+        return;
+      }
+      if (s == null) {
+        stopped = true;
+        logger.error("Unable to find " + key + " in the stats. ");
+      } else if (value != null) {
+        sum += 1000 * value;
+        count++;
+      }
+    }
+
+    private String getValue() {
+      return count > 0 ? "" + ((int) sum / count) : "";
+    }
+  }
+
+  /**
+   * The maximum of a candidate pair byte count. As in the former computation, the maximum stops at
+   * the first sample without a successful candidate pair.
+   */
+  private static final class Maximum {
+    private final String key;
+    private long max;
+    private boolean stopped;
+
+    private Maximum(String key) {
+      this.key = key;
+    }
+
+    private void add(Stat candidatePair) {
+      if (stopped) {
+        return;
+      }
+      Object s = candidatePair.get(key);
+      Long value = toLong(s);
+      if (s == null) {
+        stopped = true;
+        logger.error("Unable to find \"" + key + "\" in the stats. ");
+      } else if (value != null) {
+        max = Math.max(value, max);
+      }
+    }
+
+    private String getValue() {
+      return "" + max;
+    }
+  }
+
+  /**
+   * The average bitrate between the first and the last samples, from the smallest and the largest
+   * byte counts. The bitrate is not computed if a sample misses the stats. The bitrate over each
+   * interval between two valid samples is recorded in the histogram.
+   */
+  private static final class Bitrate {
+    private final String key;
+    private final StatsHistogram histogram;
+    private long bytesStart;
+    private long bytesEnd;
+    private long tsStart;
+    private long tsEnd;
+    private boolean missing;
+    private long previousBytes = -1;
+    private long previousTs = -1;
+
+    private Bitrate(String key, StatsHistogram histogram) {
+      this.key = key;
+      this.histogram = histogram;
+    }
+
+    private void add(Stat stat, int index) {
+      Object s = stat.get(key);
+      Object ts = stat.get("timestamp");
+      Long bytes = toLong(s);
+      Long time = toLong(ts);
+      if (bytes != null && time != null && histogram != null) {
+        if (previousTs >= 0 && time > previousTs && bytes >= previousBytes) {
+          histogram.record(8000d * (bytes - previousBytes) / (time - previousTs));
+        }
+        previousBytes = bytes;
+        previousTs = time;
+      }
+      if (missing) {
+        return;
+      }
+      if (s == null || ts == null) {
+        missing = true;
+        return;
+      }
+      if (bytes != null) {
+        long b = bytes;
+        bytesStart = (bytesStart == 0 || b < bytesStart) ? b : bytesStart;
+        bytesEnd = (bytesEnd == 0 || b > bytesEnd) ? b : bytesEnd;
+      }
+      // the timestamps of the first and of the last samples, 0 if invalid
+      long t = time != null ? time : 0;
+      if (index == 0) {
+        tsStart = t;
+      }
+      tsEnd = t;
+    }
+
+    private String getValue(int sampleCount) {
+      if (sampleCount < 2) {
+        return "Error: less than 2 stats";
+      }
+      if (missing) {
+        logger.error("Unable to find \"" + key + "\" or \"timestamp\" in the stats, "
+          + "bitrate not computed");
+        return "";
+      }
+      if (tsEnd != tsStart) {
+        long avgBitrate = (8000 * (bytesEnd - bytesStart)) / (tsEnd - tsStart);
+        return "" + Math.abs(avgBitrate);
+      }
+      logger.error("computeBitrate() tsEnd == tsStart : " + tsEnd + " , " + tsStart);
+      return "";
+    }
+  }
+
+  /**
+   * The packet loss over each interval between two valid samples, in % of the packets expected
+   * during the interval.
+   */
+  private static final class PacketsLoss {
+    private final StatsHistogram histogram;
+    private long previousReceived = -1;
+    private long previousLost = -1;
+
+    private PacketsLoss(StatsHistogram histogram) {
+      this.histogram = histogram;
+    }
+
+    private void add(Stat stat) {
+      Long received = toLong(stat.get("packetsReceived"));
+      Long lost = toLong(stat.get("packetsLost"));
+      if (received == null || lost == null || histogram == null) {
+        return;
+      }
+      long expected = (received - previousReceived) + (lost - previousLost);
+      if (previousReceived >= 0 && expected > 0 && lost >= previousLost) {
+        histogram.record(100d * (lost - previousLost) / expected);
+      }
+      previousReceived = received;
+      previousLost = lost;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+package com.cosmo.kite.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delta encoding of the getStats() samples of a StatsSampler.
+ * <p>
+ * The stats of a peer connection are encoded in the browser relatively to the previous stats
+ * retrieved for the same peer connection. The first stats are sent in full, the next ones only
+ * contain the fields that changed, keyed by stat id:
+ * <pre>
+ * null                                      getStats() failed
+ * {"f": [stat, ...]}                        full stats
+ * {"d": {id: {field: value}}, "n": [stat], "r": [id]}
+ *                                           changed fields, new or replaced stats, removed stats
+ * </pre>
+ * A stat losing one of its fields is sent in full in "n". Most of the stats (certificates, codecs,
+ * candidates) never change and are not sent at all after the first sample.
+ */
+final class StatsDeltaCodec {
+
+  /**
+   * JavaScript defining encodeStats(stats, base) with the encoded stats of a peer connection,
+   * relatively to the base stats, which may be undefined.
+   */
+  static final String ENCODER = ""
+    + "var encodeStats = function (stats, base) {"
+    + "  if (!stats) return null;"
+    + "  if (!base) return {f: stats};"
+    + "  var same = function (a, b) {"
+    + "    return a === b || (typeof a === 'object' && typeof b === 'object'"
+    + "      && JSON.stringify(a) === JSON.stringify(b));"
+    + "  };"
+    + "  var previous = {};"
+    + "  base.forEach(function (stat) { previous[stat.id] = stat; });"
+    + "  var changes = {}, added = [], present = {};"
+    + "  stats.forEach(function (stat) {"
+    + "    present[stat.id] = true;"
+    + "    var prev = previous[stat.id];"
+    + "    if (!prev) {"
+    + "      added.push(stat);"
+    + "      return;"
+    + "    }"
+    + "    var changed = null;"
+    + "    for (var k in prev) {"
+    + "      if (!(k in stat)) {"
+    + "        added.push(stat);"
+    + "        return;"
+    + "      }"
+    + "    }"
+    + "    for (var k in stat) {"
+    + "      if (!same(stat[k], prev[k])) {"
+    + "        changed = changed || {};"
+    + "        changed[k] = stat[k];"
+    + "      }"
+    + "    }"
+    + "    if (changed) changes[stat.id] = changed;"
+    + "  });"
+    + "  var removed = [];"
+    + "  base.forEach(function (stat) { if (!present[stat.id]) removed.push(stat.id); });"
+    + "  return {d: changes, n: added, r: removed};"
+    + "};";
+
+  private StatsDeltaCodec() {
+  }
+
+  /**
+   * Decodes the stats of a peer connection.
+   *
+   * @param encoded the encoded stats
+   * @param base    the previous stats of the peer connection, null if none
+   *
+   * @return the list of stats, each one being an unmodifiable map, or null if getStats() failed.
+   * The stats that did not change are the same instances as in the base.
+   */
+  static List<Object> decode(Object encoded, List<?> base) {
+    if (encoded == null) {
+      return null;
+    }
+    Map<?, ?> map = (Map<?, ?>) encoded;
+    if (map.containsKey("f")) {
+      List<Object> stats = new ArrayList<>();
+      for (Object stat : (List<?>) map.get("f")) {
+        stats.add(Collections.unmodifiableMap((Map<?, ?>) stat));
+      }
+      return stats;
+    }
+    if (base == null) {
+      throw new IllegalStateException("Delta stats without base stats");
+    }
+    Map<?, ?> changes = (Map<?, ?>) map.get("d");
+    Set<Object> removed = new HashSet<Object>((List<?>) map.get("r"));
+    Map<Object, Map<?, ?>> added = new LinkedHashMap<>();
+    for (Object stat : (List<?>) map.get("n")) {
+      Map<?, ?> statMap = (Map<?, ?>) stat;
+      added.put(statMap.get("id"), Collections.unmodifiableMap(statMap));
+    }
+
+    List<Object> stats = new ArrayList<>(base.size() + added.size());
+    for (Object stat : base) {
+      Map<?, ?> statMap = (Map<?, ?>) stat;
+      Object id = statMap.get("id");
+      if (removed.contains(id)) {
+        continue;
+      }
+      Map<?, ?> replacement = added.remove(id);
+      Map<?, ?> changed = (Map<?, ?>) changes.get(String.valueOf(id));
+      if (replacement != null) {
+        stats.add(replacement);
+      } else if (changed != null) {
+        Map<Object, Object> updated = new LinkedHashMap<Object, Object>(statMap);
+        updated.putAll(changed);
+        stats.add(Collections.unmodifiableMap(updated));
+      } else {
+        stats.add(statMap);
+      }
+    }
+    stats.addAll(added.values());
+    return stats;
+  }
+}
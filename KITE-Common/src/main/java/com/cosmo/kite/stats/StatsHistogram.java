@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+package com.cosmo.kite.stats;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Histogram of non negative values with logarithmic buckets, giving the percentiles of a metric
+ * (round trip time, jitter, bitrate, packet loss...) in a fixed memory whatever the number of
+ * values.
+ * <p>
+ * As in HdrHistogram, each power of two is divided in 32 linear sub-buckets, so that a percentile
+ * is given within 1.6% of the recorded values. The values from 2^-10 to 2^40 have their own
+ * buckets, the smaller values being counted as 0 and the larger ones in the last bucket, while
+ * the exact minimum and maximum are kept. All the histograms have the same buckets and can be
+ * merged, for instance across the peer connections of a participant and across the participants
+ * of a test.
+ * <p>
+ * The histograms are thread-safe.
+ */
+public class StatsHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MIN_EXPONENT = -10;
+  private static final int MAX_EXPONENT = 40;
+  /* bucket 0 holds the values below 2^MIN_EXPONENT */
+  private static final int BUCKET_COUNT = 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+  private static final long MANTISSA_MASK = (1L << 52) - 1;
+
+  /* allocated on the first value */
+  private long[] counts;
+  private long count;
+  private double sum;
+  private double min = Double.NaN;
+  private double max = Double.NaN;
+
+  /**
+   * Records a value.
+   *
+   * @param value the value, ignored if negative, NaN or infinite
+   */
+  public synchronized void record(double value) {
+    if (value < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+      return;
+    }
+    if (counts == null) {
+      counts = new long[BUCKET_COUNT];
+    }
+    counts[getBucket(value)]++;
+    count++;
+    sum += value;
+    min = count == 1 ? value : Math.min(min, value);
+    max = count == 1 ? value : Math.max(max, value);
+  }
+
+  /**
+   * Adds the values of another histogram to this histogram.
+   *
+   * @param histogram the histogram to merge
+   */
+  public void merge(StatsHistogram histogram) {
+    long[] otherCounts;
+    long otherCount;
+    double otherSum, otherMin, otherMax;
+    synchronized (histogram) {
+      if (histogram.count == 0) {
+        return;
+      }
+      otherCounts = histogram.counts.clone();
+      otherCount = histogram.count;
+      otherSum = histogram.sum;
+      otherMin = histogram.min;
+      otherMax = histogram.max;
+    }
+    synchronized (this) {
+      if (counts == null) {
+        counts = new long[BUCKET_COUNT];
+      }
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] += otherCounts[i];
+      }
+      min = count == 0 ? otherMin : Math.min(min, otherMin);
+      max = count == 0 ? otherMax : Math.max(max, otherMax);
+      count += otherCount;
+      sum += otherSum;
+    }
+  }
+
+  /**
+   * Gets the number of values.
+   *
+   * @return the number of values recorded
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the smallest value.
+   *
+   * @return the minimum, or NaN if no value was recorded
+   */
+  public synchronized double getMin() {
+    return min;
+  }
+
+  /**
+   * Gets the largest value.
+   *
+   * @return the maximum, or NaN if no value was recorded
+   */
+  public synchronized double getMax() {
+    return max;
+  }
+
+  /**
+   * Gets the mean of the values.
+   *
+   * @return the mean, or NaN if no value was recorded
+   */
+  public synchronized double getMean() {
+    return count > 0 ? sum / count : Double.NaN;
+  }
+
+  /**
+   * Gets the value at a given percentile, for instance 99 for the value which 99% of the values
+   * are lower than or equal to.
+   *
+   * @param percentile the percentile, between 0 and 100
+   *
+   * @return the value at the percentile, within the precision of the buckets, or NaN if no value
+   * was recorded
+   */
+  public synchronized double getValueAtPercentile(double percentile) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count));
+    if (rank >= count) {
+      return max;
+    }
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += counts[i];
+      if (total >= rank) {
+        return Math.min(Math.max(getBucketValue(i), min), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Returns a JsonObjectBuilder with the count, min, max, mean, p50, p90, p99 and, if requested,
+   * the buckets, as [index increment, count] pairs of the non empty buckets in a flat array. The
+   * values are 0 if the histogram is empty.
+   *
+   * @param buckets true to add the buckets, to merge the histogram later with fromJson()
+   *
+   * @return JsonObjectBuilder json object builder
+   */
+  public synchronized JsonObjectBuilder getJsonObjectBuilder(boolean buckets) {
+    JsonObjectBuilder builder = Json.createObjectBuilder()
+      .add("count", count)
+      // the exact min and max with the buckets, for the merged histograms
+      .add("min", buckets && count > 0 ? min : round(min))
+      .add("max", buckets && count > 0 ? max : round(max))
+      .add("mean", round(getMean()))
+      .add("p50", round(getValueAtPercentile(50)))
+      .add("p90", round(getValueAtPercentile(90)))
+      .add("p99", round(getValueAtPercentile(99)));
+    if (buckets) {
+      JsonArrayBuilder array = Json.createArrayBuilder();
+      int previous = 0;
+      for (int i = 0; count > 0 && i < BUCKET_COUNT; i++) {
+        if (counts[i] > 0) {
+          array.add(i - previous).add(counts[i]);
+          previous = i;
+        }
+      }
+      builder.add("sum", sum).add("buckets", array);
+    }
+    return builder;
+  }
+
+  /**
+   * Rebuilds a histogram serialized with its buckets by getJsonObjectBuilder(true).
+   *
+   * @param jsonObject the serialized histogram
+   *
+   * @return the histogram
+   */
+  public static StatsHistogram fromJson(JsonObject jsonObject) {
+    StatsHistogram histogram = new StatsHistogram();
+    histogram.count = jsonObject.getJsonNumber("count").longValue();
+    if (histogram.count > 0) {
+      histogram.counts = new long[BUCKET_COUNT];
+      histogram.sum = jsonObject.getJsonNumber("sum").doubleValue();
+      histogram.min = jsonObject.getJsonNumber("min").doubleValue();
+      histogram.max = jsonObject.getJsonNumber("max").doubleValue();
+      JsonArray buckets = jsonObject.getJsonArray("buckets");
+      int index = 0;
+      for (int i = 0; i + 1 < buckets.size(); i += 2) {
+        index += buckets.getInt(i);
+        histogram.counts[index] = buckets.getJsonNumber(i + 1).longValue();
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Merges named histograms into others, the missing histograms being created.
+   *
+   * @param histograms the histograms to merge into, by name
+   * @param others     the histograms to merge, by name
+   */
+  public static void merge(Map<String, StatsHistogram> histograms, Map<String, StatsHistogram> others) {
+    synchronized (histograms) {
+      for (Map.Entry<String, StatsHistogram> entry : others.entrySet()) {
+        StatsHistogram histogram = histograms.get(entry.getKey());
+        if (histogram == null) {
+          histogram = new StatsHistogram();
+          histograms.put(entry.getKey(), histogram);
+        }
+        histogram.merge(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns a JsonObject of named histograms.
+   *
+   * @param histograms the histograms, by name
+   * @param buckets    true to add the buckets of the histograms
+   *
+   * @return the histograms JsonObject, by name
+   */
+  public static JsonObject toJson(Map<String, StatsHistogram> histograms, boolean buckets) {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    synchronized (histograms) {
+      for (Map.Entry<String, StatsHistogram> entry : histograms.entrySet()) {
+        builder.add(entry.getKey(), entry.getValue().getJsonObjectBuilder(buckets));
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Rebuilds named histograms serialized by toJson() with their buckets.
+   *
+   * @param jsonObject the histograms JsonObject, by name
+   *
+   * @return the histograms, by name
+   */
+  public static Map<String, StatsHistogram> fromJsonMap(JsonObject jsonObject) {
+    Map<String, StatsHistogram> histograms = new LinkedHashMap<>();
+    for (String name : jsonObject.keySet()) {
+      histograms.put(name, fromJson(jsonObject.getJsonObject(name)));
+    }
+    return histograms;
+  }
+
+  private static int getBucket(double value) {
+    int exponent = Math.getExponent(value);
+    if (value == 0 || exponent < MIN_EXPONENT) {
+      return 0;
+    }
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int subBucket = (int) ((Double.doubleToRawLongBits(value) & MANTISSA_MASK) >>> (52 - SUB_BUCKET_BITS));
+    return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Gets the value in the middle of a bucket.
+   */
+  private static double getBucketValue(int bucket) {
+    if (bucket == 0) {
+      return 0;
+    }
+    int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+    int subBucket = (bucket - 1) % SUB_BUCKETS;
+    return Math.scalb(1 + (subBucket + 0.5) / SUB_BUCKETS, exponent);
+  }
+
+  /**
+   * Rounds a value to 3 decimals for the reports, NaN being reported as 0.
+   */
+  private static double round(double value) {
+    return Double.isNaN(value) ? 0 : Math.round(value * 1000) / 1000d;
+  }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+package com.cosmo.kite.stats;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.cosmo.kite.util.TestUtils.waitAround;
+
+/**
+ * Samples getStats() in the browser at a fixed interval.
+ * <p>
+ * The sampler injected in the page calls getStats() on every peer connection at each interval and
+ * keeps the samples in a ring buffer of a given capacity, the oldest samples being dropped when
+ * the buffer is full. The samples are timestamped by the browser and retrieved in batches, so that
+ * a collection window only takes a few WebDriver round trips whatever the number of samples.
+ * <p>
+ * The peer connections are given as a JavaScript expression evaluated at each interval, returning
+ * a peer connection or a collection (array, Map or object) of peer connections, for instance
+ * "window.pc" or "APP.conference._room.rtc.peerConnections".
+ */
+public class StatsSampler {
+
+  private static final Logger logger = Logger.getLogger(StatsSampler.class.getName());
+
+  /**
+   * The default number of samples kept in the browser.
+   */
+  public static final int DEFAULT_CAPACITY = 300;
+  /**
+   * The default maximum number of samples retrieved per round trip.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 50;
+  /**
+   * Time given to the last getStats() call to complete, in ms.
+   */
+  private static final int STATS_TIMEOUT = 10000;
+
+  private static final AtomicInteger count = new AtomicInteger();
+
+  private static final String CONVERT_STATS_FUNCTIONS = ""
+    + "var getStatsValues = function (p) {"
+    + "  return Promise.resolve().then(function () {"
+    + "    return p.getStats();"
+    + "  }).then(function (report) {"
+    + "    var values = [];"
+    + "    report.forEach(function (value) { values.push(value); });"
+    + "    return values;"
+    + "  });"
+    + "};"
+    + "var getLegacyStatsValues = function (p) {"
+    + "  return new Promise(function (resolve, reject) {"
+    + "    var promise = p.getStats(function (res) {"
+    + "      var items = [];"
+    + "      res.result().forEach(function (result) {"
+    + "        var item = {};"
+    + "        result.names().forEach(function (name) {"
+    + "          item[name] = result.stat(name);"
+    + "        });"
+    + "        item.id = result.id;"
+    + "        item.type = result.type;"
+    + "        item.timestamp = result.timestamp.getTime().toString();"
+    + "        items.push(item);"
+    + "      });"
+    + "      resolve(items);"
+    + "    });"
+    + "    if (promise && promise.catch) promise.catch(reject);"
+    + "  });"
+    + "};";
+
+  private final WebDriver webDriver;
+  private final String peerConnections;
+  private final boolean legacy;
+  private final int interval;
+  private final int capacity;
+  private final String id;
+
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private boolean deltaEncoding = true;
+  private Sample lastSample;
+  /* the last batch of samples received, acknowledged to the browser with the next retrieval */
+  private long ackedBatch;
+  private long droppedCount;
+  private long skippedCount;
+
+  /**
+   * Constructs a new StatsSampler using the standard getStats() and the default capacity.
+   *
+   * @param webDriver       the web driver
+   * @param peerConnections the JavaScript expression giving the peer connections
+   * @param interval        the sampling interval, in ms
+   */
+  public StatsSampler(WebDriver webDriver, String peerConnections, int interval) {
+    this(webDriver, peerConnections, false, interval, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a new StatsSampler.
+   *
+   * @param webDriver       the web driver
+   * @param peerConnections the JavaScript expression giving the peer connections
+   * @param legacy          true to use the legacy callback-based getStats(), returning the
+   *                        results as in GetStatsUtils.getStatsOnce()
+   * @param interval        the sampling interval, in ms
+   * @param capacity        the maximum number of samples kept in the browser
+   */
+  public StatsSampler(WebDriver webDriver, String peerConnections, boolean legacy, int interval,
+                      int capacity) {
+    if (interval < 1 || capacity < 1) {
+      throw new IllegalArgumentException("interval and capacity must be positive, now interval = "
+        + interval + ", capacity = " + capacity);
+    }
+    this.webDriver = webDriver;
+    this.peerConnections = peerConnections;
+    this.legacy = legacy;
+    this.interval = interval;
+    this.capacity = capacity;
+    this.id = "sampler" + count.incrementAndGet();
+  }
+
+  /**
+   * Sets the maximum number of samples retrieved per round trip.
+   *
+   * @param batchSize the batch size
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = Math.max(batchSize, 1);
+  }
+
+  /**
+   * Sets whether the samples are delta encoded in the browser (see StatsDeltaCodec), which is the
+   * default. The samples are decoded when their stats are read.
+   *
+   * @param deltaEncoding true to retrieve the changes since the previous sample only
+   */
+  public void setDeltaEncoding(boolean deltaEncoding) {
+    this.deltaEncoding = deltaEncoding;
+  }
+
+  /**
+   * Gets the number of samples dropped because the buffer was full.
+   *
+   * @return the dropped count, as of the last retrieval
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Gets the number of intervals skipped because the previous getStats() calls were not complete.
+   *
+   * @return the skipped count, as of the last retrieval
+   */
+  public long getSkippedCount() {
+    return skippedCount;
+  }
+
+  /**
+   * Starts sampling in the browser, the first sample being taken immediately.
+   */
+  public void start() {
+    this.lastSample = null;
+    this.ackedBatch = 0;
+    execute("var samplers = window.KITEStatsSamplers = window.KITEStatsSamplers || {};"
+      + "if (samplers['" + id + "']) clearInterval(samplers['" + id + "'].timer);"
+      + "var capacity = " + capacity + ";"
+      + "var s = samplers['" + id + "'] = {"
+      + "  items: new Array(capacity), head: 0, size: 0,"
+      + "  seq: 0, dropped: 0, skipped: 0, busy: false, base: [], batchId: 0, batch: null"
+      + "};"
+      + CONVERT_STATS_FUNCTIONS
+      + "var getStats = " + (legacy ? "getLegacyStatsValues" : "getStatsValues") + ";"
+      + "var getPeerConnections = function () {"
+      + "  var pcs = " + peerConnections + ";"
+      + "  var list = [];"
+      + "  if (!pcs) return list;"
+      + "  if (typeof pcs.getStats === 'function') return [pcs];"
+      + "  if (typeof pcs.forEach === 'function') pcs.forEach(function (p) { list.push(p); });"
+      + "  else for (var k in pcs) list.push(pcs[k]);"
+      + "  return list;"
+      + "};"
+      + "var sample = function () {"
+      + "  if (s.busy) {"
+      + "    s.skipped++;"
+      + "    return;"
+      + "  }"
+      + "  s.busy = true;"
+      + "  var timestamp = Date.now();"
+      + "  var pcs;"
+      + "  try {"
+      + "    pcs = getPeerConnections();"
+      + "  } catch (err) {"
+      + "    pcs = [];"
+      + "  }"
+      + "  Promise.all(pcs.map(function (p) {"
+      + "    return getStats(p).catch(function () { return null; });"
+      + "  })).then(function (stats) {"
+      + "    s.busy = false;"
+      + "    var item = {seq: s.seq++, timestamp: timestamp, stats: stats};"
+      + "    if (s.size === capacity) {"
+      + "      s.head = (s.head + 1) % capacity;"
+      + "      s.size--;"
+      + "      s.dropped++;"
+      + "    }"
+      + "    s.items[(s.head + s.size) % capacity] = item;"
+      + "    s.size++;"
+      + "  });"
+      + "};"
+      + "s.timer = setInterval(sample, " + interval + ");"
+      + "sample();");
+  }
+
+  /**
+   * Retrieves the oldest samples of the buffer, in a single round trip.
+   *
+   * @return at most batchSize samples, oldest first
+   */
+  public List<Sample> drain() {
+    return retrieve(false);
+  }
+
+  /**
+   * Retrieves all the samples of the buffer, in as many round trips as needed.
+   *
+   * @return the samples, oldest first
+   */
+  public List<Sample> drainAll() {
+    List<Sample> samples = new ArrayList<>();
+    List<Sample> batch;
+    do {
+      batch = drain();
+      samples.addAll(batch);
+    } while (batch.size() == batchSize);
+    return samples;
+  }
+
+  /**
+   * Stops sampling and retrieves the remaining samples. The sampler is removed from the page once
+   * its buffer is empty.
+   *
+   * @return the remaining samples, oldest first
+   */
+  public List<Sample> stop() {
+    List<Sample> samples = new ArrayList<>();
+    List<Sample> batch = retrieve(true);
+    samples.addAll(batch);
+    while (batch.size() == batchSize) {
+      batch = drain();
+      samples.addAll(batch);
+    }
+    return samples;
+  }
+
+  /**
+   * Samples the stats until the given number of samples is collected, retrieving them every
+   * capacity / 2 intervals.
+   *
+   * @param sampleCount the number of samples to collect
+   *
+   * @return the samples, oldest first
+   */
+  public List<Sample> collect(int sampleCount) {
+    List<Sample> samples = new ArrayList<>();
+    collect(sampleCount, samples::add);
+    return samples;
+  }
+
+  /**
+   * Samples the stats until the given number of samples is collected, retrieving them every
+   * capacity / 2 intervals and passing them to the consumer as they are retrieved, so that they
+   * do not have to be kept until the end of the collection.
+   *
+   * @param sampleCount the number of samples to collect
+   * @param consumer    the consumer of the samples, called oldest first
+   *
+   * @return the number of samples collected
+   */
+  public int collect(int sampleCount, Consumer<Sample> consumer) {
+    if (sampleCount < 1) {
+      return 0;
+    }
+    int collected = 0;
+    long retrievalPeriod = (long) interval * Math.max(capacity / 2, 1);
+    long lastSampleTime = System.currentTimeMillis() + (long) interval * (sampleCount - 1);
+    start();
+    try {
+      while (collected < sampleCount) {
+        long now = System.currentTimeMillis();
+        if (now > lastSampleTime + interval + STATS_TIMEOUT) {
+          logger.warn("Only " + collected + "/" + sampleCount + " samples collected by " + id);
+          break;
+        }
+        waitAround((int) Math.max(Math.min(lastSampleTime - now, retrievalPeriod), interval / 10 + 1));
+        collected = accept(drainAll(), collected, sampleCount, consumer);
+      }
+    } finally {
+      collected = accept(stop(), collected, sampleCount, consumer);
+    }
+    if (droppedCount > 0 || skippedCount > 0) {
+      logger.warn(id + " dropped " + droppedCount + " samples and skipped " + skippedCount
+        + " intervals");
+    }
+    return collected;
+  }
+
+  private static int accept(List<Sample> samples, int collected, int sampleCount,
+                            Consumer<Sample> consumer) {
+    for (Sample sample : samples) {
+      if (collected == sampleCount) {
+        break;
+      }
+      consumer.accept(sample);
+      collected++;
+    }
+    return collected;
+  }
+
+  /**
+   * Retrieves a batch of samples. The delta encoding base of the batch only becomes the base of
+   * the next batch once the batch is acknowledged, with the next retrieval: if the batch is lost
+   * on the way (timeout, WebDriver error), the next batch is encoded against the same base as the
+   * lost one, which is still the base of the last sample received, and the lost samples are
+   * counted as dropped.
+   */
+  private List<Sample> retrieve(boolean stop) {
+    Object result = execute("var samplers = window.KITEStatsSamplers || {};"
+      + "var s = samplers['" + id + "'];"
+      + "if (!s) return null;"
+      + "if (s.batch && s.batch.id === " + ackedBatch + ") s.base = s.batch.base;"
+      + "else if (s.batch) s.dropped += s.batch.size;"
+      + (stop ? "clearInterval(s.timer); s.stopped = true;" : "")
+      + StatsDeltaCodec.ENCODER
+      + "var base = s.base.slice();"
+      + "var samples = [];"
+      + "while (s.size > 0 && samples.length < " + batchSize + ") {"
+      + "  var item = s.items[s.head];"
+      + (deltaEncoding
+      ? "  item.stats = item.stats.map(function (stats, i) {"
+      + "    var encoded = encodeStats(stats, base[i]);"
+      + "    if (stats) base[i] = stats;"
+      + "    return encoded;"
+      + "  });"
+      + "  item.encoded = true;"
+      : "")
+      + "  samples.push(item);"
+      + "  s.items[s.head] = undefined;"
+      + "  s.head = (s.head + 1) % s.items.length;"
+      + "  s.size--;"
+      + "}"
+      + "s.batch = {id: ++s.batchId, base: base, size: samples.length};"
+      + "if (s.stopped && s.size === 0) delete samplers['" + id + "'];"
+      + "return {samples: samples, dropped: s.dropped, skipped: s.skipped, batch: s.batch.id};");
+    if (result == null) {
+      return Collections.emptyList();
+    }
+    Map<?, ?> map = (Map<?, ?>) result;
+    List<Sample> samples = new ArrayList<>();
+    Sample previous = lastSample;
+    for (Object item : (List<?>) map.get("samples")) {
+      Sample sample = new Sample(this, (Map<?, ?>) item, previous);
+      samples.add(sample);
+      previous = sample;
+    }
+    this.droppedCount = ((Number) map.get("dropped")).longValue();
+    this.skippedCount = ((Number) map.get("skipped")).longValue();
+    this.lastSample = previous;
+    this.ackedBatch = ((Number) map.get("batch")).longValue();
+    return samples;
+  }
+
+  private Object execute(String script) {
+    return ((JavascriptExecutor) webDriver).executeScript(script);
+  }
+
+  /**
+   * A getStats() sample of all the peer connections, decoded on first access.
+   */
+  public static class Sample {
+
+    private final Object lock;
+    private final long seq;
+    private final long timestamp;
+    /* the previous sample and the encoded stats, until decoded */
+    private Sample previous;
+    private List<?> encoded;
+    private List<?> stats;
+    /* the last stats of each peer connection, as of this sample */
+    private List<?> bases;
+
+    private Sample(Object lock, Map<?, ?> sample, Sample previous) {
+      this.lock = lock;
+      this.seq = ((Number) sample.get("seq")).longValue();
+      this.timestamp = ((Number) sample.get("timestamp")).longValue();
+      List<?> stats = (List<?>) sample.get("stats");
+      if (stats == null) {
+        stats = Collections.emptyList();
+      }
+      if (Boolean.TRUE.equals(sample.get("encoded"))) {
+        this.previous = previous;
+        this.encoded = stats;
+      } else {
+        this.stats = stats;
+        this.bases = Collections.emptyList();
+      }
+    }
+
+    /**
+     * Gets the sequence number of the sample, consecutive unless samples were dropped.
+     *
+     * @return the sequence number
+     */
+    public long getSeq() {
+      return seq;
+    }
+
+    /**
+     * Gets the time at which the sample was taken, in ms since epoch, as given by the browser.
+     *
+     * @return the timestamp
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * Gets the number of peer connections in the sample.
+     *
+     * @return the number of peer connections
+     */
+    public int getPeerConnectionCount() {
+      return getDecodedStats().size();
+    }
+
+    /**
+     * Gets the stats of a peer connection, as returned by StatsUtils.getPCStatOnce() or
+     * GetStatsUtils.getStatsOnce() for the legacy getStats().
+     *
+     * @param index the index of the peer connection
+     *
+     * @return the stats, or null if getStats() failed on this peer connection
+     */
+    public Object getStats(int index) {
+      List<?> stats = getDecodedStats();
+      return index < stats.size() ? stats.get(index) : null;
+    }
+
+    private List<?> getDecodedStats() {
+      synchronized (lock) {
+        if (stats == null) {
+          // decode the previous samples first, oldest first
+          Deque<Sample> samples = new ArrayDeque<>();
+          for (Sample sample = this; sample != null && sample.stats == null; sample = sample.previous) {
+            samples.push(sample);
+          }
+          while (!samples.isEmpty()) {
+            samples.pop().decode();
+          }
+        }
+        return stats;
+      }
+    }
+
+    private void decode() {
+      List<?> previousBases = previous != null ? previous.bases : Collections.emptyList();
+      List<Object> decoded = new ArrayList<>(encoded.size());
+      List<Object> newBases = new ArrayList<>(Math.max(encoded.size(), previousBases.size()));
+      for (int i = 0; i < encoded.size(); i++) {
+        List<?> base = i < previousBases.size() ? (List<?>) previousBases.get(i) : null;
+        List<Object> pcStats = StatsDeltaCodec.decode(encoded.get(i), base);
+        decoded.add(pcStats);
+        newBases.add(pcStats != null ? pcStats : base);
+      }
+      for (int i = encoded.size(); i < previousBases.size(); i++) {
+        newBases.add(previousBases.get(i));
+      }
+      bases = newBases;
+      stats = decoded;
+      previous = null;
+      encoded = null;
+    }
+  }
+}
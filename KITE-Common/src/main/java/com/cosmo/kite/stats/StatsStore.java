@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+package com.cosmo.kite.stats;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Columnar store of the getStats() samples of a peer connection.
+ * <p>
+ * Each sample is a row, with its timestamp in a column shared by all the stats. The values of
+ * every stat id and metric are kept in their own column, as primitive longs or doubles when
+ * numeric (including the numeric strings of the legacy getStats()), so that the samples are parsed
+ * once at ingestion and the computations, such as the StatsAggregator, read typed values with
+ * getValue(). The JSON is only built at report time, with toJsonObject(), or from the stat maps
+ * rebuilt by getStats().
+ * <p>
+ * A StatsStore is not thread-safe.
+ */
+public class StatsStore {
+
+  private static final int INITIAL_CAPACITY = 16;
+  /* the doubles holding longs up to this magnitude convert back to the same longs */
+  private static final long MAX_EXACT_LONG = 1L << 53;
+
+  private final Map<String, Series> series = new LinkedHashMap<>();
+  private final BitSet failedRows = new BitSet();
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+  private int rowCount;
+
+  /**
+   * Adds a sample of the stats of a peer connection.
+   *
+   * @param sample the sample
+   * @param index  the index of the peer connection in the sample
+   *
+   * @return the row of the sample
+   */
+  public int add(StatsSampler.Sample sample, int index) {
+    return add(sample.getTimestamp(), sample.getStats(index));
+  }
+
+  /**
+   * Adds a sample of stats, as returned by StatsUtils.getPCStatOnce() or
+   * GetStatsUtils.getStatsOnce().
+   *
+   * @param timestamp the time of the sample, in ms
+   * @param stats     the list of stat maps, or null if getStats() failed
+   *
+   * @return the row of the sample
+   */
+  public int add(long timestamp, Object stats) {
+    int row = rowCount++;
+    if (row == timestamps.length) {
+      timestamps = Arrays.copyOf(timestamps, row * 2);
+    }
+    timestamps[row] = timestamp;
+    if (stats == null) {
+      failedRows.set(row);
+      return row;
+    }
+    for (Object item : (List<?>) stats) {
+      if (!(item instanceof Map)) {
+        continue;
+      }
+      Map<?, ?> statMap = (Map<?, ?>) item;
+      Object id = statMap.get("id");
+      if (id == null) {
+        continue;
+      }
+      Series stat = series.get(id.toString());
+      if (stat == null) {
+        Object type = statMap.get("type");
+        stat = new Series(type != null ? type.toString() : null);
+        series.put(id.toString(), stat);
+      }
+      stat.rows.set(row);
+      for (Map.Entry<?, ?> entry : statMap.entrySet()) {
+        if (entry.getValue() != null) {
+          String name = entry.getKey().toString();
+          Column column = stat.columns.get(name);
+          if (column == null) {
+            column = new Column(row);
+            stat.columns.put(name, column);
+          }
+          column.set(row, entry.getValue());
+        }
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Gets the number of samples.
+   *
+   * @return the number of rows
+   */
+  public int size() {
+    return rowCount;
+  }
+
+  /**
+   * Gets the timestamp of a sample.
+   *
+   * @param row the row of the sample
+   *
+   * @return the timestamp given to add()
+   */
+  public long getTimestamp(int row) {
+    checkRow(row);
+    return timestamps[row];
+  }
+
+  /**
+   * Checks whether getStats() succeeded for a sample.
+   *
+   * @param row the row of the sample
+   *
+   * @return false if the sample was added with null stats
+   */
+  public boolean hasStats(int row) {
+    checkRow(row);
+    return !failedRows.get(row);
+  }
+
+  /**
+   * Gets the ids of all the stats, in order of first appearance.
+   *
+   * @return the stat ids
+   */
+  public Set<String> getIds() {
+    return Collections.unmodifiableSet(series.keySet());
+  }
+
+  /**
+   * Gets the ids of the stats of a given type, in order of first appearance.
+   *
+   * @param type the stat type, for instance "inbound-rtp" or "ssrc" for the legacy getStats()
+   *
+   * @return the stat ids
+   */
+  public List<String> getIds(String type) {
+    List<String> ids = new ArrayList<>();
+    for (Map.Entry<String, Series> entry : series.entrySet()) {
+      if (type.equals(entry.getValue().type)) {
+        ids.add(entry.getKey());
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Gets the type of a stat.
+   *
+   * @param id the stat id
+   *
+   * @return the type, or null if unknown
+   */
+  public String getType(String id) {
+    Series stat = series.get(id);
+    return stat != null ? stat.type : null;
+  }
+
+  /**
+   * Checks whether a stat is in a sample.
+   *
+   * @param id  the stat id
+   * @param row the row of the sample
+   *
+   * @return true if the stat is in the sample
+   */
+  public boolean contains(String id, int row) {
+    Series stat = series.get(id);
+    return stat != null && stat.rows.get(row);
+  }
+
+  /**
+   * Checks whether a stat has a value for a metric in a sample.
+   *
+   * @param id   the stat id
+   * @param name the metric name
+   * @param row  the row of the sample
+   *
+   * @return true if the value is present
+   */
+  public boolean contains(String id, String name, int row) {
+    return getColumn(id, name, row) != null;
+  }
+
+  /**
+   * Gets the value of a metric of a stat as a String, as formatted in the stats JSON.
+   *
+   * @param id   the stat id
+   * @param name the metric name
+   * @param row  the row of the sample
+   *
+   * @return the value, or null if missing
+   */
+  public String getString(String id, String name, int row) {
+    Column column = getColumn(id, name, row);
+    return column != null ? column.get(row).toString() : null;
+  }
+
+  /**
+   * Gets the value of a metric of a stat.
+   *
+   * @param id   the stat id
+   * @param name the metric name
+   * @param row  the row of the sample
+   *
+   * @return the value, a Long or a Double for the numbers, or null if missing
+   */
+  public Object getValue(String id, String name, int row) {
+    Column column = getColumn(id, name, row);
+    return column != null ? column.get(row) : null;
+  }
+
+  /**
+   * Rebuilds the stat maps of a sample, for the code processing the getStats() results.
+   *
+   * @param row the row of the sample
+   *
+   * @return the list of stat maps, or null if getStats() failed for this sample
+   */
+  public List<Object> getStats(int row) {
+    if (!hasStats(row)) {
+      return null;
+    }
+    List<Object> stats = new ArrayList<>();
+    for (Series stat : series.values()) {
+      if (stat.rows.get(row)) {
+        Map<Object, Object> statMap = new LinkedHashMap<>();
+        for (Map.Entry<String, Column> entry : stat.columns.entrySet()) {
+          if (entry.getValue().contains(row)) {
+            statMap.put(entry.getKey(), entry.getValue().get(row));
+          }
+        }
+        stats.add(statMap);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Builds the stats JSON of a sample, with the same content as GetStatsUtils.buildStatArray().
+   *
+   * @param row the row of the sample
+   *
+   * @return the stats JsonObject, by stat id, or null if getStats() failed for this sample
+   */
+  public JsonObject toJsonObject(int row) {
+    if (!hasStats(row)) {
+      return null;
+    }
+    JsonObjectBuilder statObjectBuilder = Json.createObjectBuilder();
+    for (Map.Entry<String, Series> stat : series.entrySet()) {
+      if (stat.getValue().rows.get(row)) {
+        JsonObjectBuilder tmp = Json.createObjectBuilder();
+        for (Map.Entry<String, Column> entry : stat.getValue().columns.entrySet()) {
+          if (entry.getValue().contains(row)) {
+            tmp.add(entry.getKey(), entry.getValue().get(row).toString());
+          }
+        }
+        statObjectBuilder.add(stat.getKey(), tmp);
+      }
+    }
+    return statObjectBuilder.build();
+  }
+
+  private Column getColumn(String id, String name, int row) {
+    checkRow(row);
+    Series stat = series.get(id);
+    if (stat == null) {
+      return null;
+    }
+    Column column = stat.columns.get(name);
+    return column != null && column.contains(row) ? column : null;
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException("row " + row + ", size " + rowCount);
+    }
+  }
+
+  /**
+   * Parses a numeric string of the legacy getStats(), only if formatting the number gives the
+   * same string back.
+   *
+   * @return a Long or a Double, or null if the string is not numeric
+   */
+  private static Number parseNumber(String s) {
+    if (s.isEmpty() || s.length() > 24) {
+      return null;
+    }
+    char c = s.charAt(0);
+    if (c != '-' && (c < '0' || c > '9')) {
+      return null;
+    }
+    try {
+      if (s.indexOf('.') < 0 && s.indexOf('E') < 0) {
+        Long value = Long.parseLong(s);
+        return value.toString().equals(s) ? value : null;
+      }
+      Double value = Double.parseDouble(s);
+      return value.toString().equals(s) ? value : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The columns of a stat id.
+   */
+  private static final class Series {
+    private final String type;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private final BitSet rows = new BitSet();
+
+    private Series(String type) {
+      this.type = type;
+    }
+  }
+
+  /**
+   * The values of a metric, from its first row. The column holds longs until a double is added,
+   * then doubles, and the boxed values once a non numeric value is added. The numeric strings are
+   * stored as numbers, which format back to the same strings.
+   */
+  private static final class Column {
+    private final int start;
+    private final BitSet present = new BitSet();
+    private long[] longs;
+    private double[] doubles;
+    /* the rows of a double column that hold longs */
+    private BitSet integral;
+    private Object[] objects;
+
+    private Column(int start) {
+      this.start = start;
+    }
+
+    private boolean contains(int row) {
+      return row >= start && present.get(row - start);
+    }
+
+    private void set(int row, Object value) {
+      int i = row - start;
+      Object number = value;
+      if (value instanceof String) {
+        Number parsed = parseNumber((String) value);
+        if (parsed != null) {
+          number = parsed;
+        }
+      }
+      if (objects == null && (number instanceof Long || number instanceof Integer)) {
+        long l = ((Number) number).longValue();
+        if (doubles == null) {
+          longs = ensureCapacity(longs != null ? longs : new long[INITIAL_CAPACITY], i);
+          longs[i] = l;
+        } else if (Math.abs(l) <= MAX_EXACT_LONG) {
+          doubles = ensureCapacity(doubles, i);
+          doubles[i] = l;
+          integral.set(i);
+        } else {
+          toObjects();
+        }
+      } else if (objects == null && (number instanceof Double || number instanceof Float)) {
+        if (doubles == null) {
+          toDoubles();
+        }
+        if (doubles != null) {
+          doubles = ensureCapacity(doubles, i);
+          doubles[i] = ((Number) number).doubleValue();
+        }
+      } else if (objects == null) {
+        toObjects();
+      }
+      if (objects != null) {
+        objects = ensureCapacity(objects, i);
+        // share the repeated values, most of the non numeric values do not change
+        Object last = i > 0 ? objects[i - 1] : null;
+        objects[i] = number.equals(last) ? last : number;
+      }
+      present.set(i);
+    }
+
+    private Object get(int row) {
+      int i = row - start;
+      if (objects != null) {
+        return objects[i];
+      }
+      if (doubles != null) {
+        return integral.get(i) ? (Object) (long) doubles[i] : (Object) doubles[i];
+      }
+      return longs[i];
+    }
+
+    /**
+     * Converts a long column to doubles, or to objects if a long cannot be exactly converted.
+     */
+    private void toDoubles() {
+      integral = new BitSet();
+      if (longs == null) {
+        doubles = new double[INITIAL_CAPACITY];
+        return;
+      }
+      double[] values = new double[longs.length];
+      for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+        if (Math.abs(longs[i]) > MAX_EXACT_LONG) {
+          integral = null;
+          toObjects();
+          return;
+        }
+        values[i] = longs[i];
+        integral.set(i);
+      }
+      doubles = values;
+      longs = null;
+    }
+
+    /**
+     * Converts a numeric column to boxed values.
+     */
+    private void toObjects() {
+      int length = doubles != null ? doubles.length : longs != null ? longs.length : INITIAL_CAPACITY;
+      Object[] values = new Object[length];
+      for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+        values[i] = get(start + i);
+      }
+      objects = values;
+      longs = null;
+      doubles = null;
+      integral = null;
+    }
+
+    private static long[] ensureCapacity(long[] values, int i) {
+      return i < values.length ? values : Arrays.copyOf(values, Math.max(values.length * 2, i + 1));
+    }
+
+    private static double[] ensureCapacity(double[] values, int i) {
+      return i < values.length ? values : Arrays.copyOf(values, Math.max(values.length * 2, i + 1));
+    }
+
+    private static Object[] ensureCapacity(Object[] values, int i) {
+      return i < values.length ? values : Arrays.copyOf(values, Math.max(values.length * 2, i + 1));
+    }
+  }
+}
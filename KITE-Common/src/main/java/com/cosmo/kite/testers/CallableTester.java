@@ -8,16 +8,20 @@ import com.cosmo.kite.instrumentation.NWInstConfig;
 import com.cosmo.kite.stats.BasePCStatsArray;
 import com.cosmo.kite.stats.MultiPCStatsArray;
 import com.cosmo.kite.stats.SinglePCStatsArray;
+import com.cosmo.kite.stats.StatsHistogram;
+import com.cosmo.kite.stats.StatsSampler;
 import com.cosmo.kite.tests.KiteLoadTest;
 import com.cosmo.kite.util.GetStatsUtils;
 import com.cosmo.kite.util.ReportUtils;
 import com.cosmo.kite.util.TestUtils;
+import com.cosmo.kite.util.WebDriverUtils;
 import org.apache.log4j.Logger;
 import org.openqa.selenium.*;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import java.io.File;
@@ -648,16 +652,12 @@ public abstract class CallableTester implements Callable<JsonObjectBuilder> {
         result = "404";
         throw new Exception("Error 404");
       }
-      List<WebElement> videos = new ArrayList<>();
-      for (int i = 0; i < loadTest.getTestTimeout() * 1000; i += INTERVAL) {
-        videos = webDriver.findElements(By.tagName("video"));
-        if (videos.size() < numberOfVideos) {
-          Thread.sleep(INTERVAL);
-        } else {
-          videosLoadingTime = System.currentTimeMillis() - currentTime;
-          break;
-        }
+      if (WebDriverUtils.waitForCondition(webDriver,
+        "document.getElementsByTagName('video').length >= args[0]",
+        loadTest.getTestTimeout() * 1000, numberOfVideos)) {
+        videosLoadingTime = System.currentTimeMillis() - currentTime;
       }
+      List<WebElement> videos = webDriver.findElements(By.tagName("video"));
       if (videos.size() < numberOfVideos) {
         result = RESULT_FAIL;
         logger.info(
@@ -675,47 +675,24 @@ public abstract class CallableTester implements Callable<JsonObjectBuilder> {
             + "- Computing canvas data of "
             + videos.size()
             + " videos.");
-        // Checking video display
-        String errMsg = "";
+        // Checking video display, all the videos at once
+        JsonArray checks = Json.createArrayBuilder().build();
+        try {
+          checks = TestUtils.videoCheckAll(webDriver, loadTest.getTestTimeout() * 200);
+        } catch (WebDriverException e) {
+          logger.warn(
+            logHeader
+              + "- stepCountVideos(): Failed to check the "
+              + videos.size()
+              + " videos: "
+              + e.getLocalizedMessage()
+              + "\r\n"
+              + ReportUtils.getStackTrace(e));
+        }
         for (int i = startIndex; i < videos.size(); i++) {
-          canvasData[i] = "blank";
-          for (int j = 0; j < loadTest.getTestTimeout() * 100; j += INTERVAL) {
-            try {
-              JsonObject checksumResult = TestUtils.videoCheckSum(webDriver, i);
-              canvasData[i] = checksumResult.getString("result").toLowerCase();
-              if (canvasData[i].equalsIgnoreCase("blank")
-                || canvasData[i].equalsIgnoreCase("still")) {
-                Thread.sleep(INTERVAL);
-              } else {
-                validVideos++;
-                break;
-              }
-            } catch (InterruptedException e) {
-              logger.warn(logHeader
-                + "- stepCountVideos(): InterruptedException "
-                + e.getLocalizedMessage());
-              Thread.currentThread().interrupt();
-            } catch (JavascriptException e) {
-              if (errMsg.equals(e.getLocalizedMessage())) {
-                // no need to try again 60 times.
-                break;
-              }
-              logger.warn(
-                logHeader
-                  + "- stepCountVideos(): Attempt "
-                  + (j + 1)
-                  + "/"
-                  + loadTest.getTestTimeout()
-                  + " to get video "
-                  + (i + 1)
-                  + "/"
-                  + videos.size()
-                  + " failed: "
-                  + e.getLocalizedMessage()
-                  + "\r\n"
-                  + ReportUtils.getStackTrace(e));
-              errMsg = e.getLocalizedMessage();
-            }
+          canvasData[i] = i < checks.size() ? checks.getJsonObject(i).getString("result") : "blank";
+          if (canvasData[i].equalsIgnoreCase("video")) {
+            validVideos++;
           }
           canvasAllVideos += canvasData[i] + (i < videos.size() - 1 ? "|" : "");
         }
@@ -890,48 +867,59 @@ public abstract class CallableTester implements Callable<JsonObjectBuilder> {
     return success;
   }
   
-  private JsonObject stepStatOnce(JsonObjectBuilder steps, String prefix) throws InterruptedException {
+  /**
+   * Gets the JavaScript expression giving the peer connections whose stats are collected, the
+   * local peer connection first.
+   *
+   * @return the peer connections expression for the StatsSampler
+   */
+  private String statsPeerConnections() {
+    if (loadTest.getPageTitle().equals("Jitsi")) {
+      return "APP.conference._room.rtc.peerConnections";
+    }
+    if (loadTest.getPageTitle().equals("parsys")) {
+      return "remotePc";
+    }
+    if (multiPcTests.contains(loadTest.getPageTitle())) {
+      return "[pc].concat(Object.keys(window.remotePc || {}).map(function (i) { return remotePc[i]; }))";
+    }
+    return "pc";
+  }
+  
+  private JsonObject stepStatOnce(JsonObjectBuilder steps, String prefix, StatsSampler.Sample sample) {
     JsonObjectBuilder statObjectBuilder = Json.createObjectBuilder();
     
     if (loadTest.getPageTitle().equals("Jitsi")) {
-      Object allPcStatArray = GetStatsUtils.getStatsOnce("jitsi", webDriver);
-      if (allPcStatArray == null) {
-        logger.error(logHeader + " - failed to getStatsOnce(\"jitsi\")");
+      if (sample.getPeerConnectionCount() == 0) {
+        logger.error(logHeader + " - failed to get the stats of the jitsi peer connections");
         return null;
       }
-      ArrayList allStatsArray = (ArrayList) allPcStatArray;
-      // allStatsArray is supposed to only have one item (localStats), but add the others if they exist.
-      for (int i = 0; i < allStatsArray.size(); i++) {
-        statObjectBuilder.add((i == 0 ? "localStats" : "PC_" + i + "_stats"), GetStatsUtils.buildStatArray(allStatsArray.get(i)));
+      // the sample is supposed to only have one item (localStats), but add the others if they exist.
+      for (int i = 0; i < sample.getPeerConnectionCount(); i++) {
+        if (sample.getStats(i) != null) {
+          statObjectBuilder.add((i == 0 ? "localStats" : "PC_" + i + "_stats"), GetStatsUtils.buildStatArray(sample.getStats(i)));
+        }
       }
     } else if (loadTest.getPageTitle().equals("parsys")) {
-      Object remoteStats = GetStatsUtils.getStatsOnce("remote", webDriver);
-      if (remoteStats == null) {
-        logger.error(logHeader + " - failed to getStatsOnce(\"remote\")");
-      } else {
-        ArrayList remoteStatsArray = (ArrayList) remoteStats;
-        for (int i = 0; i < remoteStatsArray.size(); i++) {
-          statObjectBuilder.add(i == 0 ? "local" : "remoteStats" + i, GetStatsUtils.buildStatArray(remoteStatsArray.get(i)));
+      if (sample.getPeerConnectionCount() == 0) {
+        logger.error(logHeader + " - failed to get the stats of the remote peer connections");
+      }
+      for (int i = 0; i < sample.getPeerConnectionCount(); i++) {
+        if (sample.getStats(i) != null) {
+          statObjectBuilder.add(i == 0 ? "local" : "remoteStats" + i, GetStatsUtils.buildStatArray(sample.getStats(i)));
         }
       }
     } else {
-      Object localStatArray = GetStatsUtils.getStatsOnce("local", webDriver);
-      if (localStatArray == null) {
-        logger.error(logHeader + " - failed to getStatsOnce(\"local\")");
+      if (sample.getStats(0) == null) {
+        logger.error(logHeader + " - failed to get the stats of the local peer connection");
         return null;
       }
       
-      statObjectBuilder.add("localStats", GetStatsUtils.buildStatArray(localStatArray));
+      statObjectBuilder.add("localStats", GetStatsUtils.buildStatArray(sample.getStats(0)));
       
-      if (multiPcTests.contains(loadTest.getPageTitle())) {
-        Object remoteStats = GetStatsUtils.getStatsOnce("remote", webDriver);
-        if (remoteStats == null) {
-          logger.error(logHeader + " - failed to getStatsOnce(\"remote\")");
-        } else {
-          ArrayList remoteStatsArray = (ArrayList) remoteStats;
-          for (int i = 0; i < remoteStatsArray.size(); i++) {
-            statObjectBuilder.add("remoteStats" + i, GetStatsUtils.buildStatArray(remoteStatsArray.get(i)));
-          }
+      for (int i = 1; i < sample.getPeerConnectionCount(); i++) {
+        if (sample.getStats(i) != null) {
+          statObjectBuilder.add("remoteStats" + (i - 1), GetStatsUtils.buildStatArray(sample.getStats(i)));
         }
       }
     }
@@ -963,9 +951,13 @@ public abstract class CallableTester implements Callable<JsonObjectBuilder> {
         logger.info(logHeader + " getting stats as OnePCStatsArray for " + loadTest.getTestName());
       }
       
-      for (int i = 0; i < collectionTime; i += collectionInterval) {
-        Thread.sleep(collectionInterval * 1000);
-        JsonObject jsonStatObject = stepStatOnce(steps, prefix);
+      // the stats are sampled in the browser, one sample every interval after the first interval
+      int sampleCount = (collectionTime + collectionInterval - 1) / collectionInterval;
+      StatsSampler sampler = new StatsSampler(webDriver, statsPeerConnections(), true,
+        collectionInterval * 1000, StatsSampler.DEFAULT_CAPACITY);
+      Thread.sleep(collectionInterval * 1000);
+      for (StatsSampler.Sample sample : sampler.collect(sampleCount)) {
+        JsonObject jsonStatObject = stepStatOnce(steps, prefix, sample);
         if (jsonStatObject != null) {
           //print all stats into an individual json file, into a separate folder for each node
           TestUtils.printJsonTofile(prefix + "getstats_" + this.botName, jsonStatObject.toString(),
@@ -976,6 +968,9 @@ public abstract class CallableTester implements Callable<JsonObjectBuilder> {
       logger.info(logHeader + "- Time to get Stats : " + ((System.currentTimeMillis() - startTime) / 1000) + "s");
       steps.add(prefix + "videoStats", allVideoStats(statsArray));
       steps.add(prefix + "audioStats", allAudioStats(statsArray));
+      // the percentiles of the participant, the histograms being merged into the test's ones
+      steps.add(prefix + "statsPercentiles", StatsHistogram.toJson(statsArray.getHistograms(), false));
+      loadTest.addStatsHistograms(statsArray.getHistograms());
     } else {
       logger.error("Check config file, both collectionTime and collectionInterval must be positive, now" +
         " collectionTime = " + collectionTime + ", collectionInterval = " + collectionInterval);
@@ -1,6 +1,9 @@
 package com.cosmo.kite.tests;
 
 import com.cosmo.kite.exception.KiteTestException;
+import com.cosmo.kite.executor.BoundedExecutor;
+import com.cosmo.kite.executor.ExecutorPool;
+import com.cosmo.kite.executor.KiteExecutors;
 import com.cosmo.kite.report.custom_kite_allure.AllureStepReport;
 import com.cosmo.kite.report.custom_kite_allure.AllureTestReport;
 import com.cosmo.kite.report.custom_kite_allure.Reporter;
@@ -12,19 +15,28 @@ import org.webrtc.kite.config.App;
 import org.webrtc.kite.config.Browser;
 import org.webrtc.kite.config.EndPoint;
 import org.webrtc.kite.exception.KiteGridException;
+import org.webrtc.kite.wdmgmt.WebDriverPool;
 import org.webrtc.kite.wdmgmt.WebDriverUtility;
 
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.cosmo.kite.util.ReportUtils.getStackTrace;
 import static com.cosmo.kite.util.ReportUtils.timestamp;
@@ -51,6 +63,21 @@ public abstract class KiteBaseTest {
   
   protected AllureTestReport report;
   
+  /**
+   * True if the web drivers could not be created, in which case the test can be retried.
+   */
+  protected boolean gridFailure = false;
+  
+  /**
+   * Maximum time to create all the web drivers of the test, in seconds.
+   */
+  protected int webDriverCreationTimeout = 300;
+  
+  /**
+   * The time taken to create each web driver, reported in the initiation step.
+   */
+  protected JsonObject webDriverCreationTimes = null;
+  
   public KiteBaseTest() {
     fillOutReport();
   }
@@ -69,7 +96,7 @@ public abstract class KiteBaseTest {
       Reporter.getInstance().processException(report,e);
     } finally {
       if (!webDriverList.isEmpty()) {
-        WebDriverUtility.closeDrivers(this.webDriverList);
+        closeDrivers(this.webDriverList);
       }
     }
     return report.toJson();
@@ -86,10 +113,13 @@ public abstract class KiteBaseTest {
         Reporter.getInstance().jsonAttachment(initStep, "Test payload", this.payload);
       }
       populateDrivers();
+      attachWebDriverCreationTimes(initStep);
       populateInfoFromNavigator();
       populateCallables();
       setTestScript();
     } catch (KiteGridException e) {
+      attachWebDriverCreationTimes(initStep);
+      this.gridFailure = true;
       logger.error("Exception while populating web drivers, " +
         "closing already created webdrivers...\r\n" + getStackTrace(e));
       Reporter.getInstance().textAttachment(initStep, "KiteGridException", getStackTrace(e), "plain");
@@ -107,10 +137,8 @@ public abstract class KiteBaseTest {
    * @throws Exception if an Exception occurs during method execution.
    */
   private void testInParallel() throws Exception {
-    ExecutorService executorService = Executors.newFixedThreadPool(callables.size());
-    List<Future<Object>> futureList =
-      executorService.invokeAll(callables, this.calculateTestTimeOut(), TimeUnit.MINUTES);
-    executorService.shutdown();
+    List<Future<Object>> futureList = KiteExecutors.get(ExecutorPool.BROWSER_IO)
+      .invokeAll(callables, this.calculateTestTimeOut(), TimeUnit.MINUTES);
     for (Future<Object> future : futureList) {
       future.get();
     }
@@ -160,24 +188,223 @@ public abstract class KiteBaseTest {
   
   /**
    * Constructs a list of web drivers against the number of provided config objects.
+   * <p>
+   * The sessions are created at the same time on the shared browser pool and must all be created
+   * within webDriverCreationTimeout. If one of them fails, the sessions already created are closed
+   * with closeDrivers().
    *
-   * @throws MalformedURLException if no protocol is specified in the remoteAddress of a config object, or
-   *                               an unknown protocol is found, or spec is null.
+   * @throws KiteGridException if a web driver could not be created in time.
    */
 //  @AllureStepReport("Populating webdriver from endpoints")
   protected void populateDrivers() throws KiteGridException {
-    for (EndPoint endPoint : this.endPointList) {
+    BoundedExecutor executor = KiteExecutors.get(ExecutorPool.BROWSER_IO);
+    int size = this.endPointList.size();
+    // written by the creations, read by this thread before they are all done
+    AtomicLongArray durations = new AtomicLongArray(size);
+    AtomicReferenceArray<String> statuses = new AtomicReferenceArray<>(size);
+    List<DriverCreation> creations = new ArrayList<>();
+    List<Future<WebDriver>> futures = new ArrayList<>();
+    long startTime = System.currentTimeMillis();
+    for (int index = 0; index < size; index++) {
+      statuses.set(index, "pending");
+      DriverCreation creation = new DriverCreation(this.endPointList.get(index), index, durations,
+        statuses);
+      creations.add(creation);
+      futures.add(executor.submit(creation));
+    }
+    
+    long deadline = startTime + TimeUnit.SECONDS.toMillis(this.webDriverCreationTimeout);
+    WebDriver[] webDrivers = new WebDriver[size];
+    KiteGridException failure = null;
+    for (int index = 0; index < size && failure == null; index++) {
+      EndPoint endPoint = this.endPointList.get(index);
       try {
-        WebDriver webDriver =
-          WebDriverUtility.getWebDriverForConfigObject(this.name, endPoint);
-        this.webDriverList.add(webDriver);
-      } catch (Exception e) {
-        e.printStackTrace();
-        
-        throw new KiteGridException(e.getClass().getSimpleName() + " creating webdriver for \n"
+        webDrivers[index] = futures.get(index)
+          .get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        logger.error("Exception creating webdriver for " + endPoint.getJsonObject(), cause);
+        failure = new KiteGridException(cause.getClass().getSimpleName() + " creating webdriver for \n"
+          + endPoint.getJsonObject().toString() + ":\n"
+          + cause.getLocalizedMessage());
+      } catch (TimeoutException e) {
+        statuses.compareAndSet(index, "pending", "timeout");
+        failure = new KiteGridException("Timeout creating webdriver for \n"
           + endPoint.getJsonObject().toString() + ":\n"
-          + e.getLocalizedMessage());
+          + "no session after " + this.webDriverCreationTimeout + " seconds");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = new KiteGridException("Interrupted while creating webdriver for \n"
+          + endPoint.getJsonObject().toString());
+      }
+    }
+    this.webDriverCreationTimes = this.buildWebDriverCreationTimes(
+      System.currentTimeMillis() - startTime, durations, statuses);
+    
+    if (failure != null) {
+      this.quitDrivers(creations, futures);
+      throw failure;
+    }
+    this.webDriverList.addAll(Arrays.asList(webDrivers));
+  }
+  
+  /**
+   * Quits the web drivers created before one failed. The creations which have not started are
+   * dropped, and the web drivers still being created are quit by their creation as soon as they
+   * are, without waiting for them.
+   *
+   * @param creations the web driver creations
+   * @param futures   the futures of the creations
+   */
+  private void quitDrivers(List<DriverCreation> creations, List<Future<WebDriver>> futures) {
+    List<WebDriver> createdDrivers = new ArrayList<>();
+    for (int index = 0; index < creations.size(); index++) {
+      int state = creations.get(index).abandon();
+      if (state == DriverCreation.PENDING) {
+        // not started, it will not run
+        futures.get(index).cancel(false);
+      }
+      if (state != DriverCreation.CREATED) {
+        // not started, failed, or quit by the creation itself when it is done
+        continue;
+      }
+      try {
+        // the creation is returning its web driver
+        createdDrivers.add(futures.get(index).get());
+      } catch (Exception e) {
+        logger.warn("Unable to get the webdriver of " + this.endPointList.get(index), e);
+      }
+    }
+    if (!createdDrivers.isEmpty()) {
+      logger.info("Closing the " + createdDrivers.size() + " webdrivers already created...");
+      closeDrivers(createdDrivers);
+    }
+  }
+  
+  /**
+   * The creation of the web driver of an endpoint, which can be abandoned at any time: if it has
+   * not started, the web driver is not created, if it is running, the web driver is quit as soon
+   * as it is created.
+   */
+  private class DriverCreation implements Callable<WebDriver> {
+    
+    private static final int PENDING = 0;
+    private static final int STARTED = 1;
+    private static final int CREATED = 2;
+    private static final int ABANDONED = 3;
+    
+    private final EndPoint endPoint;
+    private final int index;
+    private final AtomicLongArray durations;
+    private final AtomicReferenceArray<String> statuses;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    
+    private DriverCreation(EndPoint endPoint, int index, AtomicLongArray durations,
+                           AtomicReferenceArray<String> statuses) {
+      this.endPoint = endPoint;
+      this.index = index;
+      this.durations = durations;
+      this.statuses = statuses;
+    }
+    
+    @Override
+    public WebDriver call() throws Exception {
+      if (!this.state.compareAndSet(PENDING, STARTED)) {
+        return null;
+      }
+      long start = System.currentTimeMillis();
+      WebDriver webDriver;
+      try {
+        webDriver = createWebDriver(this.endPoint);
+      } catch (Exception e) {
+        this.statuses.compareAndSet(this.index, "pending", "failed");
+        this.state.set(ABANDONED);
+        throw e;
+      } finally {
+        this.durations.set(this.index, System.currentTimeMillis() - start);
+      }
+      this.statuses.compareAndSet(this.index, "pending", "created");
+      if (!this.state.compareAndSet(STARTED, CREATED)) {
+        logger.info("Closing the webdriver created for " + this.endPoint
+          + " after the creation of the others failed");
+        closeDrivers(Collections.singletonList(webDriver));
+        return null;
       }
+      return webDriver;
+    }
+    
+    /**
+     * Abandons the creation.
+     *
+     * @return the state of the creation when it was abandoned, CREATED if its web driver has to be
+     * quit by the caller.
+     */
+    private int abandon() {
+      return this.state.getAndSet(ABANDONED);
+    }
+  }
+  
+  /**
+   * Creates the web driver of an endpoint, or takes an idle session from the WebDriverPool if it
+   * is enabled.
+   *
+   * @param endPoint the endpoint
+   * @return the web driver
+   * @throws MalformedURLException if the remote address of the endpoint is invalid.
+   */
+  protected WebDriver createWebDriver(EndPoint endPoint) throws MalformedURLException {
+    if (WebDriverPool.isEnabled()) {
+      return WebDriverPool.getInstance().getWebDriver(this.name, endPoint);
+    }
+    return WebDriverUtility.getWebDriverForConfigObject(this.name, endPoint);
+  }
+  
+  /**
+   * Closes the given web drivers, or gives them back to the WebDriverPool if it is enabled.
+   *
+   * @param webDrivers the web drivers
+   */
+  protected void closeDrivers(List<WebDriver> webDrivers) {
+    if (WebDriverPool.isEnabled()) {
+      WebDriverPool.getInstance().release(webDrivers);
+    } else {
+      WebDriverUtility.closeDrivers(webDrivers);
+    }
+  }
+  
+  /**
+   * Builds the report of the web driver creations.
+   *
+   * @param totalDuration the time taken to create all the web drivers, in ms
+   * @param durations     the time taken to create each web driver, in ms
+   * @param statuses      the status of each creation
+   * @return a JsonObject with the total duration and the duration of each endpoint
+   */
+  private JsonObject buildWebDriverCreationTimes(long totalDuration, AtomicLongArray durations,
+                                                 AtomicReferenceArray<String> statuses) {
+    JsonArrayBuilder endPoints = Json.createArrayBuilder();
+    for (int index = 0; index < durations.length(); index++) {
+      endPoints.add(Json.createObjectBuilder()
+        .add("endPoint", this.endPointList.get(index).getJsonObject())
+        .add("status", statuses.get(index))
+        .add("duration", durations.get(index)));
+    }
+    return Json.createObjectBuilder()
+      .add("duration", totalDuration)
+      .add("endPoints", endPoints)
+      .build();
+  }
+  
+  /**
+   * Attaches the time taken to create each web driver to the given step, if the web drivers have
+   * been created by populateDrivers().
+   *
+   * @param step the AllureStepReport
+   */
+  private void attachWebDriverCreationTimes(AllureStepReport step) {
+    if (this.webDriverCreationTimes != null) {
+      Reporter.getInstance().jsonAttachment(step, "WebDriver creation times",
+        this.webDriverCreationTimes);
     }
   }
   
@@ -193,6 +420,16 @@ public abstract class KiteBaseTest {
     }
   }
   
+  /**
+   * Sets the maximum time to create all the web drivers of the test, the sessions being created
+   * at the same time.
+   *
+   * @param webDriverCreationTimeout the timeout in seconds
+   */
+  public void setWebDriverCreationTimeout(int webDriverCreationTimeout) {
+    this.webDriverCreationTimeout = webDriverCreationTimeout;
+  }
+  
   public void setTupleSize(int tupleSize) {
     this.tupleSize = tupleSize;
   }
@@ -234,6 +471,15 @@ public abstract class KiteBaseTest {
     return report;
   }
   
+  /**
+   * Checks whether the test failed because the web drivers could not be created.
+   *
+   * @return true if populating the web drivers threw a KiteGridException.
+   */
+  public boolean hasGridFailure() {
+    return gridFailure;
+  }
+  
   protected String generateTestCaseName() {
     String name = "";
     for (int index = 0; index < endPointList.size(); index ++) {
@@ -4,8 +4,14 @@
 
 package com.cosmo.kite.tests;
 
+import com.cosmo.kite.executor.BoundedExecutor;
+import com.cosmo.kite.executor.ExecutorPool;
+import com.cosmo.kite.executor.KiteExecutors;
 import com.cosmo.kite.instrumentation.NWInstConfig;
 import com.cosmo.kite.manager.RoomManager;
+import com.cosmo.kite.report.custom_kite_allure.Reporter;
+import com.cosmo.kite.stats.ResultsAggregator;
+import com.cosmo.kite.stats.StatsHistogram;
 import com.cosmo.kite.testers.CallableTester;
 import com.cosmo.kite.util.ReportUtils;
 import com.cosmo.kite.util.TestHelper;
@@ -14,18 +20,25 @@ import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 import org.openqa.selenium.WebDriver;
 
+import javax.json.Json;
 import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -115,9 +128,13 @@ public abstract class KiteLoadTest extends KiteBaseTest {
   private String resultPath = "results/" + uid + "/";
   private String screenshotPath = resultPath + "screenshots/";
   private Map<WebDriver, Map<String, String>> sessionData;
+  private final Map<String, StatsHistogram> statsHistograms = new LinkedHashMap<>();
   private int statsCollectionInterval = 1;
   private int statsCollectionTime = 10;
   private int stayInTime = 0;
+  private int summaryInterval = 60;
+  private boolean keepResults = false;
+  private JsonObject resultsSummary = null;
   private boolean takeScreenshotForEachTest = false; // false by default
   private int testTimeout = 60;
   private Vector<CallableTester> testerList = new Vector<>();
@@ -302,6 +319,24 @@ public abstract class KiteLoadTest extends KiteBaseTest {
     return statsCollectionTime;
   }
   
+  /**
+   * Merges the stats histograms of a participant into the histograms of the test.
+   *
+   * @param histograms the histograms of the participant, by metric name
+   */
+  public void addStatsHistograms(Map<String, StatsHistogram> histograms) {
+    StatsHistogram.merge(statsHistograms, histograms);
+  }
+  
+  /**
+   * Gets the stats histograms of the test, merged from all the participants.
+   *
+   * @return the histograms, by metric name
+   */
+  public Map<String, StatsHistogram> getStatsHistograms() {
+    return statsHistograms;
+  }
+  
   /**
    * Gets stay in time.
    *
@@ -361,65 +396,173 @@ public abstract class KiteLoadTest extends KiteBaseTest {
   /**
    * This method can be overridden to return the test statistics at anytime especially if it fails
    * due to some exception.
-   * By default it will process each callableTester.getUserData() method and build the csv report file
+   * By default it will process each callableTester.getUserData() method as soon as it completes,
+   * writing it into the csv report file and the json results file, and aggregating it into a
+   * summary which is written every summaryInterval seconds, see getResultsSummary(). The result
+   * of a tester is dropped once written and aggregated, unless the payload sets keepResults.
    *
-   * @return Some custom stats object with a toString() implementation. By default, it returns a Vector<JsonObject> containing the results of the CallableTester.getUserData();
+   * @return Some custom stats object with a toString() implementation. By default, it returns the
+   * JsonObject summary of the results, with the histograms buckets, the path of the json results
+   * file in "resultsFile" if it was created, and all the results in "results" if keepResults is
+   * set.
    */
   public Object getUserData() {
     logger.info("\r\n          ==========================================================\r\n"
       + "                              KiteLoadTest.getUserData()"
       + "\r\n          ==========================================================\r\n");
-    Vector<JsonObject> results = new Vector<>();
-    for (int i = 0; i < testerList.size(); i += this.increment) {
-      try {
-        Vector<CallableTester> callableTesters = new Vector<>();
-        for (int j = i; j < i + this.increment; j++) {
-          if (j < testerList.size()) {
-            callableTesters.add(testerList.elementAt(j));
-          } else {
-            break;
+    JsonArrayBuilder results = keepResults ? Json.createArrayBuilder() : null;
+    int resultCount = 0;
+    String reportPath = resultPath + "reports/";
+    long summaryIntervalMillis = summaryInterval * 1000L;
+    ResultsAggregator aggregator = new ResultsAggregator(END + "_" + testName + "_summary",
+      reportPath, statsHistograms, summaryIntervalMillis);
+    String resultsFile = createJsonFile ? getJsonFileName(END + "_" + testName, reportPath) : null;
+    PrintWriter resultWriter = resultsFile != null ? openJsonArray(resultsFile) : null;
+    // the testers of this load test do not take more than increment threads of the shared pool
+    BoundedExecutor executor = KiteExecutors.get(ExecutorPool.BROWSER_IO).view(this.increment);
+    try {
+      for (int i = 0; i < testerList.size(); i += this.increment) {
+        try {
+          CompletionService<JsonObjectBuilder> completionService =
+            new ExecutorCompletionService<>(executor);
+          // the futures of the testers not completed yet, a future holding the result of its tester
+          List<Future<JsonObjectBuilder>> futureList = new ArrayList<>();
+          for (int j = i; j < i + this.increment && j < testerList.size(); j++) {
+            futureList.add(completionService.submit(testerList.elementAt(j)));
           }
-        }
-        ExecutorService executorService = Executors.newFixedThreadPool(this.increment);
-        List<Future<JsonObjectBuilder>> futureList =
-          executorService.invokeAll(callableTesters, expectedTestDuration, TimeUnit.MINUTES);
-        
-        executorService.shutdown();
-        
-        int successCount = 0;
-        for (Future<JsonObjectBuilder> future : futureList) {
-          try {
-            JsonObjectBuilder jsonObjBuilder = future.get();
-            JsonObject jsonObject = jsonObjBuilder.build();
-            results.add(jsonObject);
-            if (createCSVReport) {
-              TestHelper.getInstance(END).println(jsonObject, resultPath);
+          long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(expectedTestDuration);
+          // the results are processed in their order of completion
+          while (!futureList.isEmpty()) {
+            Future<JsonObjectBuilder> future = null;
+            long remaining = deadline - System.currentTimeMillis();
+            // the summary is also written while waiting for slow testers
+            while (future == null && remaining > 0) {
+              long timeout = summaryIntervalMillis > 0 ? Math.min(remaining, summaryIntervalMillis) : remaining;
+              future = completionService.poll(timeout, TimeUnit.MILLISECONDS);
+              if (future == null) {
+                aggregator.flushIfDue();
+              }
+              remaining = deadline - System.currentTimeMillis();
+            }
+            if (future == null) {
+              future = completionService.poll();
+            }
+            if (future == null) {
+              logger.error("Exception in KiteLoadTest: " + futureList.size()
+                + " tests not completed after " + expectedTestDuration + " minutes");
+              for (Future<JsonObjectBuilder> f : futureList) {
+                f.cancel(true);
+                aggregator.addError();
+              }
+              futureList.clear();
+              break;
+            }
+            futureList.remove(future);
+            try {
+              JsonObjectBuilder jsonObjBuilder = future.get();
+              JsonObject jsonObject = jsonObjBuilder.build();
+              if (resultWriter != null) {
+                resultWriter.print((resultCount == 0 ? "" : ",\r\n") + "    " + jsonObject.toString());
+              }
+              resultCount++;
+              if (results != null) {
+                results.add(jsonObject);
+              }
+              if (createCSVReport) {
+                TestHelper.getInstance(END).println(jsonObject, resultPath);
+              }
+              String url = jsonObject.getString("url", "null");
+              url = url.contains("/") ? url.substring(url.lastIndexOf("/")) : url;
+              String res = jsonObject.getString("result", "null");
+              aggregator.add(jsonObject, res.contains(CallableTester.RESULT_PASS));
+              logger.info("Load Reached Test for " + url + " = " + res);
+            } catch (Exception e) {
+              aggregator.addError();
+              logger.error(
+                "Exception in KiteLoadTest: "
+                  + e.getLocalizedMessage()
+                  + "\r\n"
+                  + ReportUtils.getStackTrace(e));
             }
-            String url = jsonObject.getString("url", "null");
-            url = url.contains("/") ? url.substring(url.lastIndexOf("/")) : url;
-            String res = jsonObject.getString("result", "null");
-            successCount += res.contains(CallableTester.RESULT_PASS) ? 1 : 0;
-            logger.info("Load Reached Test for " + url + " = " + res);
-          } catch (Exception e) {
-            logger.error(
-              "Exception in KiteLoadTest: "
-                + e.getLocalizedMessage()
-                + "\r\n"
-                + ReportUtils.getStackTrace(e));
           }
+        } catch (Exception e) {
+          logger.error(ReportUtils.getStackTrace(e));
         }
-      } catch (Exception e) {
-        logger.error(ReportUtils.getStackTrace(e));
       }
-    }
-    String resultStr = TestUtils.createJsonArray("resultObj", results);
-    
-    //logger.info("Test resultObj = \r\n" + resultStr);
-    if (createJsonFile) {
-      TestUtils.printJsonTofile(END + "_" + testName, resultStr, resultPath + "reports/");
+    } finally {
+      executor.shutdown();
+      if (resultWriter != null) {
+        closeJsonArray(resultWriter, resultCount);
+      }
+      aggregator.flush(true);
+      resultsSummary = aggregator.getSummary(true);
     }
     //TestHelper.getInstance(END).close();
-    return results;
+    JsonObjectBuilder userData = Json.createObjectBuilder(resultsSummary);
+    if (resultWriter != null) {
+      userData.add("resultsFile", resultsFile);
+    }
+    if (results != null) {
+      userData.add("results", results);
+    }
+    return userData.build();
+  }
+  
+  /**
+   * Gets the summary of the results of the last getUserData(), with the histograms buckets.
+   *
+   * @return the summary JsonObject, or null if getUserData() has not completed
+   */
+  public JsonObject getResultsSummary() {
+    return resultsSummary;
+  }
+  
+  /**
+   * Gets the path of a json file named after the current date, creating its directory.
+   *
+   * @param name    the name of the file, which will include the date
+   * @param dirPath the directory path where to save the file
+   *
+   * @return the path of the file
+   */
+  private String getJsonFileName(String name, String dirPath) {
+    TestUtils.createDirs(dirPath);
+    return TestUtils.verifyPathFormat(dirPath) + name.replace(" ", "") + "_"
+      + new SimpleDateFormat("yyyyMMdd_hhmmss").format(new Date()) + ".json";
+  }
+  
+  /**
+   * Opens a json file to write a json array, one JsonObject at a time, in the format of
+   * TestUtils.createJsonArray("resultObj", jsonList).
+   *
+   * @param filename the path of the file
+   *
+   * @return the PrintWriter of the file, or null if it could not be created
+   */
+  private PrintWriter openJsonArray(String filename) {
+    try {
+      PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+      writer.print("{ \"resultObj\" : \r\n  [\r\n");
+      return writer;
+    } catch (IOException e) {
+      logger.error("Unable to create " + filename + "\r\n" + ReportUtils.getStackTrace(e));
+      return null;
+    }
+  }
+  
+  /**
+   * Closes the json array opened by openJsonArray(String), and the file.
+   *
+   * @param writer the PrintWriter of the file
+   * @param count  the number of JsonObjects written
+   */
+  private void closeJsonArray(PrintWriter writer, int count) {
+    writer.print(count > 0 ? "\r\n  ]\r\n}" : "  ]\r\n}");
+    // a PrintWriter does not throw, the write errors are only reported by checkError()
+    if (writer.checkError()) {
+      logger.error("Error writing the json results file of " + testName);
+    }
+    writer.close();
   }
   
   /**
@@ -448,6 +591,8 @@ public abstract class KiteLoadTest extends KiteBaseTest {
       latencyCollectionTime = jsonPayload.getInt("latencyCollectionTime", latencyCollectionTime);
       latencyCollectionInterval = jsonPayload.getInt("latencyCollectionInterval", latencyCollectionInterval);
       stayInTime = jsonPayload.getInt("stayInTime", stayInTime);
+      summaryInterval = jsonPayload.getInt("summaryInterval", summaryInterval);
+      keepResults = jsonPayload.getBoolean("keepResults", keepResults);
       if (stayInTime > 2 * 60 * testTimeout) {
         //increase test timeout (in min) to be > stayingTime (in s)
         testTimeout = (stayInTime * 2) / 60;
@@ -534,7 +679,8 @@ public abstract class KiteLoadTest extends KiteBaseTest {
     /*
     List<CallableTester> callableTesters = getTesterList(webDriverList);
     testerList.addAll(callableTesters);
-    ExecutorService executorService = Executors.newFixedThreadPool(webDriverList.size());
+    BoundedExecutor executorService =
+      KiteExecutors.get(ExecutorPool.BROWSER_IO).view(webDriverList.size());
     List<Future<JsonObjectBuilder>> futureList =
       executorService.invokeAll(callableTesters, expectedTestDuration, TimeUnit.MINUTES);
     executorService.shutdown();
@@ -592,6 +738,23 @@ public abstract class KiteLoadTest extends KiteBaseTest {
   @Override
   public void setTestScript() {}
 
+  /**
+   * Executes the test, attaching the stats histograms merged from all the participants, if any,
+   * to the report.
+   *
+   * @return the report of the test
+   */
+  @Override
+  public JsonObject execute() {
+    JsonObject result = super.execute();
+    if (statsHistograms.isEmpty()) {
+      return result;
+    }
+    Reporter.getInstance().jsonAttachment(report, "statsHistograms",
+      StatsHistogram.toJson(statsHistograms, true));
+    return report.toJson();
+  }
+
   public JsonObject testScript(String testDescription) {
     this.testDescription = testDescription;
     return execute();
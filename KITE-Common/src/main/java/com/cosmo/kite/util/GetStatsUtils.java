@@ -5,7 +5,10 @@
 package com.cosmo.kite.util;
 
 
+import org.apache.log4j.Logger;
 import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.ScriptTimeoutException;
+import org.openqa.selenium.UnsupportedCommandException;
 import org.openqa.selenium.WebDriver;
 
 import javax.json.Json;
@@ -19,8 +22,49 @@ import java.util.Map;
  */
 public class GetStatsUtils {
   
+  private static final Logger logger = Logger.getLogger(GetStatsUtils.class.getName());
+  
+  /* time given to getStats() to resolve in an async script, in ms */
+  private static final long STATS_SCRIPT_TIMEOUT = 10000;
+  
+  /* time after which the stats stashed by a sync script are read back, in ms */
   private static final int INTERVAL = 500;
   
+  /**
+   * JavaScript calling the legacy callback-based getStats() of the given peer connections, the
+   * callback being called once with the stats of all the peer connections, in the same order.
+   */
+  private static final String LEGACY_STATS_FUNCTIONS = "function getLegacyStats(pcs, done) {"
+    + "  var stats = new Array(pcs.length);"
+    + "  var pending = pcs.length;"
+    + "  if (pending === 0) {"
+    + "    done(stats);"
+    + "    return;"
+    + "  }"
+    + "  var collect = function (index, items) {"
+    + "    stats[index] = items;"
+    + "    if (--pending === 0) done(stats);"
+    + "  };"
+    + "  pcs.forEach(function (p, index) {"
+    + "    var promise = p.getStats(function (res) {"
+    + "      var items = [];"
+    + "      res.result().forEach(function (result) {"
+    + "        var item = {};"
+    + "        result.names().forEach(function (name) {"
+    + "          item[name] = result.stat(name);"
+    + "        });"
+    + "        item.id = result.id;"
+    + "        item.type = result.type;"
+    + "        item.timestamp = result.timestamp.getTime().toString();"
+    + "        items.push(item);"
+    + "      });"
+    + "      collect(index, items);"
+    + "    });"
+    // the browsers without the legacy getStats() reject the callback
+    + "    if (promise && promise.catch) promise.catch(function () { collect(index, null); });"
+    + "  });"
+    + "}";
+  
   /**
    * Build a stats Json object from a stats array
    *
@@ -47,7 +91,10 @@ public class GetStatsUtils {
   }
   
   /**
-   * Gets stats once.
+   * Gets stats once, in a single round trip returning as soon as getStats() completes.
+   * <p>
+   * If the webdriver does not support async scripts, or if getStats() takes longer than the
+   * script timeout, the stats are stashed then read back with two synchronous scripts.
    *
    * @param statsType the stats type
    * @param webDriver the web driver
@@ -56,32 +103,36 @@ public class GetStatsUtils {
    * @throws InterruptedException the interrupted exception
    */
   public static Object getStatsOnce(String statsType, WebDriver webDriver) throws InterruptedException {
-    ((JavascriptExecutor) webDriver).executeScript(stashStatsScript(statsType));
-    if (statsType.equals("kite"))
-      Thread.sleep(INTERVAL);
+    try {
+      return WebDriverUtils.executeAsyncJsScript(webDriver,
+        "var callback = arguments[arguments.length - 1];" + stashStatsScript(statsType),
+        STATS_SCRIPT_TIMEOUT);
+    } catch (ScriptTimeoutException | UnsupportedCommandException e) {
+      logger.warn("Unable to get the stats with an async script, falling back to a sync script: "
+        + e.getClass().getSimpleName());
+    }
+    ((JavascriptExecutor) webDriver).executeScript(
+      "var callback = function () {};" + stashStatsScript(statsType));
+    Thread.sleep(INTERVAL);
     return ((JavascriptExecutor) webDriver).executeScript(getStatsScript(statsType));
   }
   
   /**
-   * @return the JavaScript as string, depending on needed stats.
+   * @return the JavaScript returning the stats stashed by stashStatsScript(statsType).
    */
-  private static final String getStatsScript(String statsType) {
-    String jsQuery = "";
+  private static String getStatsScript(String statsType) {
     switch (statsType) {
       case "kite":
-        jsQuery = "return window.KITEStats;";
-        break;
+        return "return window.KITEStats;";
       case "local":
-        jsQuery = "return window.LocalStats;";
-        break;
+        return "return window.LocalStats;";
       case "remote":
-        jsQuery = "return window.RemoteStats;";
-        break;
+        return "return window.RemoteStats;";
       case "jitsi":
-        jsQuery = "return window.JitsiStats;";
-        break;
+        return "return window.JitsiStats;";
+      default:
+        return "return null;";
     }
-    return jsQuery;
   }
   
   /**
@@ -135,8 +186,9 @@ public class GetStatsUtils {
   }
   
   /**
-   * Calls getStats from the peer connection object and stash them in a global variable.
-   * JS function depends on the test type.
+   * Calls getStats from the peer connection object, stashes them in a global variable and passes
+   * them to the function callback, which must be declared before. JS function depends on the test
+   * type.
    *
    * @param statsType type of needed stats:
    *                  - "kite" for data.values which should be filtered after
@@ -150,87 +202,55 @@ public class GetStatsUtils {
     String jsQuery = "";
     switch (statsType) {
       case "kite":
-        jsQuery = "const getStatsValues = () =>"
+        jsQuery += "try {"
           + "  pc.getStats()"
           + "    .then(data => {"
-          + "      return [...data.values()];"
-          + "    });"
-          + "const stashStats = async () => {"
-          + "  window.KITEStats = await getStatsValues();"
-          + "  return window.KITEStats;"
-          + "};"
-          + "stashStats();";
+          + "      window.KITEStats = [...data.values()];"
+          + "      callback(window.KITEStats);"
+          + "    }, err => callback(null));"
+          + "} catch (err) {"
+          + "  callback(null);"
+          + "}";
         break;
       case "local":
-        jsQuery = "const getLocalStatsValues = () =>"
-          + "  pc.getStats(function (res) {"
-          + "            var items = [];"
-          + "            res.result().forEach(function (result) {"
-          + "                var item = {};"
-          + "                result.names().forEach(function (name) {"
-          + "                    item[name] = result.stat(name);"
-          + "                });"
-          + "                item.id = result.id;"
-          + "                item.type = result.type;"
-          + "                item.timestamp = result.timestamp.getTime().toString();"
-          + "                items.push(item);"
-          + "            });"
-          + "            window.LocalStats = items;"
-          + "        });"
-          + "const stashLocalStats = async () => {"
-          + "  await getLocalStatsValues();"
-          + "  return window.LocalStats;"
-          + "};"
-          + "stashLocalStats();";
+        jsQuery += LEGACY_STATS_FUNCTIONS
+          + "try {"
+          + "  getLegacyStats([pc], function (stats) {"
+          + "    window.LocalStats = stats[0];"
+          + "    callback(window.LocalStats);"
+          + "  });"
+          + "} catch (err) {"
+          + "  callback(null);"
+          + "}";
         break;
       case "remote":
-        jsQuery = "const getRemoteStatsValues = (i) =>"
-          + "  remotePc[i].getStats(function (res) {"
-          + "            var items = [];"
-          + "            res.result().forEach(function (result) {"
-          + "                var item = {};"
-          + "                result.names().forEach(function (name) {"
-          + "                    item[name] = result.stat(name);"
-          + "                });"
-          + "                item.id = result.id;"
-          + "                item.type = result.type;"
-          + "                item.timestamp = result.timestamp.getTime().toString();"
-          + "                items.push(item);"
-          + "            });"
-          + "            if (!window.RemoteStats) window.RemoteStats = [items]; "
-          + "            else window.RemoteStats.push(items);"
-          + "        });"
-          + "const stashRemoteStats = async () => {"
-          + "  window.RemoteStats = [];"
-          + "  for (i in remotePc) await getRemoteStatsValues(i);"
-          + "  return window.RemoteStats;"
-          + "};"
-          + "stashRemoteStats();";
+        jsQuery += LEGACY_STATS_FUNCTIONS
+          + "try {"
+          + "  var pcs = [];"
+          + "  for (var i in remotePc) pcs.push(remotePc[i]);"
+          + "  getLegacyStats(pcs, function (stats) {"
+          + "    window.RemoteStats = stats;"
+          + "    callback(window.RemoteStats);"
+          + "  });"
+          + "} catch (err) {"
+          + "  callback(null);"
+          + "}";
         break;
       case "jitsi":
-        jsQuery = "const getJitsiStatsValues = (p) =>"
-          + "  p.getStats(function (res) {"
-          + "            var items = [];"
-          + "            res.result().forEach(function (result) {"
-          + "                var item = {};"
-          + "                result.names().forEach(function (name) {"
-          + "                    item[name] = result.stat(name);"
-          + "                });"
-          + "                item.id = result.id;"
-          + "                item.type = result.type;"
-          + "                item.timestamp = result.timestamp.getTime().toString();"
-          + "                items.push(item);"
-          + "            });"
-          + "            if (!window.JitsiStats) window.JitsiStats = [items]; "
-          + "            else window.JitsiStats.push(items);"
-          + "        });"
-          + "const stashJitsiStats = async () => {"
-          + "  window.JitsiStats = [];"
-          + "  APP.conference._room.rtc.peerConnections.forEach(await function(p){getJitsiStatsValues(p);});"
-          + "  return window.JitsiStats;"
-          + "};"
-          + "stashJitsiStats();";
+        jsQuery += LEGACY_STATS_FUNCTIONS
+          + "try {"
+          + "  var pcs = [];"
+          + "  APP.conference._room.rtc.peerConnections.forEach(function (p) { pcs.push(p); });"
+          + "  getLegacyStats(pcs, function (stats) {"
+          + "    window.JitsiStats = stats;"
+          + "    callback(window.JitsiStats);"
+          + "  });"
+          + "} catch (err) {"
+          + "  callback(null);"
+          + "}";
         break;
+      default:
+        jsQuery += "callback(null);";
     }
     return jsQuery;
   }
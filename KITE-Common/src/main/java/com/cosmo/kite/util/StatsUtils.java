@@ -8,19 +8,20 @@ import com.cosmo.kite.stats.*;
 import com.cosmo.kite.report.custom_kite_allure.Status;
 import org.apache.log4j.Logger;
 import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.ScriptTimeoutException;
+import org.openqa.selenium.UnsupportedCommandException;
 import org.openqa.selenium.WebDriver;
 
 import javax.json.*;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static com.cosmo.kite.entities.Timeouts.ONE_SECOND_INTERVAL;
-import static com.cosmo.kite.util.ReportUtils.getStackTrace;
 import static com.cosmo.kite.util.TestHelper.jsonToString;
 import static com.cosmo.kite.util.TestUtils.waitAround;
+import static com.cosmo.kite.util.WebDriverUtils.executeAsyncJsScript;
 import static com.cosmo.kite.util.WebDriverUtils.executeJsScript;
 
 /**
@@ -30,6 +31,9 @@ public class StatsUtils {
 
   private static final Logger logger = Logger.getLogger(StatsUtils.class.getName());
 
+  /* time given to getStats() to resolve in an async script, in ms */
+  private static final long STATS_SCRIPT_TIMEOUT = 10000;
+
   /**
    * Create a JsonObjectBuilder Object to eventually build a Json object
    * from data obtained via tests.
@@ -47,7 +51,7 @@ public class StatsUtils {
    * Create a JsonObjectBuilder Object to eventually build a Json object
    * from data obtained via tests.
    *
-   * @param clientStats   array of data sent back from test
+   * @param clientStats   SDP offer and answer, and the StatsStore of the samples
    * @param selectedStats list of selected stats
    * @return JsonObjectBuilder.
    */
@@ -56,10 +60,11 @@ public class StatsUtils {
       JsonObjectBuilder jsonObjectBuilder = Json.createObjectBuilder();
       Map<String, Object> clientStatMap = clientStats;
 
-      List<Object> clientStatArray = (ArrayList) clientStatMap.get("stats");
+      StatsStore statsStore = (StatsStore) clientStatMap.get("stats");
       JsonArrayBuilder jsonclientStatArray = Json.createArrayBuilder();
-      for (Object stats : clientStatArray) {
-        JsonObjectBuilder jsonStatObjectBuilder = buildSingleStatObject(stats, selectedStats);
+      for (int row = 0; statsStore != null && row < statsStore.size(); row++) {
+        // the stat maps of each sample are only rebuilt from the store while building its JSON
+        JsonObjectBuilder jsonStatObjectBuilder = buildSingleStatObject(statsStore.getStats(row), selectedStats);
         jsonclientStatArray.add(jsonStatObjectBuilder);
       }
       if (selectedStats == null) {
@@ -414,30 +419,44 @@ public class StatsUtils {
 
 
   /**
-   * Stashes stats into a global variable and collects them 1s after
+   * Collects the stats of a peer connection in a single round trip, the script returning as soon
+   * as the getStats() promise resolves. The stats are also stashed into window.KITEStats.
+   * <p>
+   * If the webdriver does not support async scripts, or if getStats() takes longer than the
+   * script timeout, the stats are stashed then read back 1s later with two synchronous scripts.
    *
    * @param webDriver      used to execute command.
    * @param peerConnection the peer connection
    *
-   * @return String. pc stat once
-   * @throws InterruptedException
+   * @return the array of stats values, or null if getStats() failed.
    */
   public static Object getPCStatOnce(WebDriver webDriver, String peerConnection) {
-    String stashStatsScript = "const getStatsValues = () =>" +
-      peerConnection + "  .getStats()" +
-      "    .then(data => {" +
-      "      return [...data.values()];" +
-      "    });" +
-      "const stashStats = async () => {" +
-      "  window.KITEStats = await getStatsValues();" +
-      "  return 0;" +
-      "};" +
-      "stashStats();";
-    String getStashedStatsScript = "return window.KITEStats;";
-
-    executeJsScript(webDriver, stashStatsScript);
+    try {
+      return executeAsyncJsScript(webDriver, "var callback = arguments[arguments.length - 1];"
+        + getPCStatScript(peerConnection), STATS_SCRIPT_TIMEOUT);
+    } catch (ScriptTimeoutException | UnsupportedCommandException e) {
+      logger.warn("Unable to get the stats with an async script, falling back to a sync script: "
+        + e.getClass().getSimpleName());
+    }
+    executeJsScript(webDriver, "var callback = function () {};" + getPCStatScript(peerConnection));
     waitAround(ONE_SECOND_INTERVAL);
-    return executeJsScript(webDriver, getStashedStatsScript);
+    return executeJsScript(webDriver, "return window.KITEStats;");
+  }
+
+  /**
+   * Returns the script stashing the stats of a peer connection into window.KITEStats, and passing
+   * them to the function callback, which must be declared before.
+   */
+  private static String getPCStatScript(String peerConnection) {
+    return "try {" +
+      "  " + peerConnection + ".getStats()" +
+      "    .then(data => {" +
+      "      window.KITEStats = [...data.values()];" +
+      "      callback(window.KITEStats);" +
+      "    }, err => callback(null));" +
+      "} catch (err) {" +
+      "  callback(null);" +
+      "}";
   }
 
   /**
@@ -463,7 +482,8 @@ public class StatsUtils {
    * @param webDriver              used to execute command.
    * @param peerConnection         the peer connection
    * @param durationInMilliSeconds during which the stats will be collected.
-   * @param intervalInMilliSeconds between each time getStats gets called.
+   * @param intervalInMilliSeconds between each time getStats gets called, by the StatsSampler
+   *                               injected in the page.
    * @param selectedStats          list of selected stats.
    *
    * @return JsonObjectBuilder of the stat object
@@ -472,31 +492,120 @@ public class StatsUtils {
   public static JsonObject getPCStatOvertime(WebDriver webDriver, String peerConnection, int durationInMilliSeconds, int intervalInMilliSeconds, JsonArray selectedStats)
     throws KiteTestException {
     Map<String, Object> statMap = new HashMap<String, Object>();
-    for (int timer = 0; timer < durationInMilliSeconds; timer += intervalInMilliSeconds) {
-      // No sleep needed since already sleep in getPCStatOnce
-      Object stats = getPCStatOnce(webDriver, peerConnection);
-      if (timer == 0) {
-        statMap.put("stats", new ArrayList<>());
-
-        Object offer = getSDPMessage(webDriver, peerConnection, "offer");
-        Object answer = getSDPMessage(webDriver, peerConnection, "answer");
-        statMap.put("offer", offer);
-        statMap.put("answer", answer);
-      }
-      List<Object> tmp = (List) statMap.get("stats");
-      tmp.add(stats);
+    // one sample at the start of each interval, as many as in the former Java sampling loop
+    int sampleCount = (int) ((durationInMilliSeconds + (long) intervalInMilliSeconds - 1) / intervalInMilliSeconds);
+    if (sampleCount > 0) {
+      Object offer = getSDPMessage(webDriver, peerConnection, "offer");
+      Object answer = getSDPMessage(webDriver, peerConnection, "answer");
+      statMap.put("offer", offer);
+      statMap.put("answer", answer);
+
+      // the samples are stored as typed columns as soon as retrieved, the JSON is built at the end
+      StatsStore statsStore = new StatsStore();
+      StatsSampler sampler = new StatsSampler(webDriver, peerConnection, intervalInMilliSeconds);
+      sampler.collect(sampleCount, sample -> statsStore.add(sample, 0));
+      statMap.put("stats", statsStore);
     }
     return buildClientStatObject(statMap, selectedStats);
   }
 
   /**
-   * Gets the successful
+   * Collects the stats of several peer connections over the same period, each sample of all the
+   * peer connections being taken at the same time by a single StatsSampler, so that the collection
+   * lasts durationInMilliSeconds whatever the number of peer connections.
+   *
+   * @param webDriver              used to execute command.
+   * @param peerConnections        the peer connections, for instance "window.pc" and
+   *                               "window.remotePc[0]".
+   * @param durationInMilliSeconds during which the stats will be collected.
+   * @param intervalInMilliSeconds between each time getStats gets called, by the StatsSampler
+   *                               injected in the page.
+   * @param selectedStats          list of selected stats.
+   *
+   * @return the stat objects, as returned by getPCStatOvertime() for a single peer connection, in
+   * the order of the peer connections.
+   * @throws KiteTestException the kite test exception
+   */
+  public static List<JsonObject> getPCStatOvertime(WebDriver webDriver, List<String> peerConnections, int durationInMilliSeconds, int intervalInMilliSeconds, JsonArray selectedStats)
+    throws KiteTestException {
+    List<StatsStore> statsStores = collectPCStats(webDriver, peerConnections, durationInMilliSeconds, intervalInMilliSeconds);
+    List<JsonObject> statObjects = new ArrayList<>();
+    for (int i = 0; i < peerConnections.size(); i++) {
+      statObjects.add(buildPCStatObject(webDriver, peerConnections.get(i), statsStores.get(i), selectedStats));
+    }
+    return statObjects;
+  }
+
+  /**
+   * Collects the stats of several peer connections over the same period, as getPCStatOvertime(),
+   * keeping the samples in StatsStores, whose typed values can be summarized by extractStats()
+   * without building the stats JSON.
+   *
+   * @param webDriver              used to execute command.
+   * @param peerConnections        the peer connections, for instance "window.pc" and
+   *                               "window.remotePc[0]".
+   * @param durationInMilliSeconds during which the stats will be collected.
+   * @param intervalInMilliSeconds between each time getStats gets called, by the StatsSampler
+   *                               injected in the page.
+   *
+   * @return the StatsStores of the samples, in the order of the peer connections.
+   */
+  public static List<StatsStore> collectPCStats(WebDriver webDriver, List<String> peerConnections, int durationInMilliSeconds, int intervalInMilliSeconds) {
+    int sampleCount = (int) ((durationInMilliSeconds + (long) intervalInMilliSeconds - 1) / intervalInMilliSeconds);
+    List<StatsStore> statsStores = new ArrayList<>();
+    StringBuilder expression = new StringBuilder("[");
+    for (String peerConnection : peerConnections) {
+      statsStores.add(new StatsStore());
+      // a missing peer connection only fails its own stats
+      expression.append(expression.length() > 1 ? ", " : "")
+        .append("(function () { try { return ").append(peerConnection)
+        .append("; } catch (err) { return null; } })()");
+    }
+    expression.append("]");
+    if (sampleCount > 0 && !peerConnections.isEmpty()) {
+      StatsSampler sampler = new StatsSampler(webDriver, expression.toString(), intervalInMilliSeconds);
+      sampler.collect(sampleCount, sample -> {
+        for (int i = 0; i < statsStores.size(); i++) {
+          statsStores.get(i).add(sample, i);
+        }
+      });
+    }
+    return statsStores;
+  }
+
+  /**
+   * Builds the stat object of a peer connection from the samples collected by collectPCStats(),
+   * as returned by getPCStatOvertime().
+   *
+   * @param webDriver      used to execute command.
+   * @param peerConnection the peer connection
+   * @param statsStore     the samples of the peer connection
+   * @param selectedStats  list of selected stats.
+   *
+   * @return the stat object
+   * @throws KiteTestException the kite test exception
+   */
+  public static JsonObject buildPCStatObject(WebDriver webDriver, String peerConnection, StatsStore statsStore, JsonArray selectedStats)
+    throws KiteTestException {
+    Map<String, Object> statMap = new HashMap<String, Object>();
+    if (statsStore.size() > 0) {
+      statMap.put("offer", getSDPMessage(webDriver, peerConnection, "offer"));
+      statMap.put("answer", getSDPMessage(webDriver, peerConnection, "answer"));
+    }
+    statMap.put("stats", statsStore);
+    return buildClientStatObject(statMap, selectedStats);
+  }
+
+  /**
+   * Gets the first RTP stats of a media type
    *
    * @param jsonObject of the stats
+   * @param stats      "inbound-rtp" or "outbound-rtp"
+   * @param mediaType  "audio" or "video"
    *
-   * @return
+   * @return the RTP stats, or null if not found
    */
-  private static JsonObject getRTCStats(JsonObject jsonObject, String stats, String mediaType) {
+  public static JsonObject getRTCStats(JsonObject jsonObject, String stats, String mediaType) {
     JsonObject myObj = jsonObject.getJsonObject(stats);
     if (myObj != null) {
       for (String key : myObj.keySet()) {
@@ -549,9 +658,9 @@ public class StatsUtils {
    *
    * @param jsonObject of the successful candidate pair
    *
-   * @return
+   * @return the successful candidate pair, or null if not found
    */
-  private static JsonObject getSuccessfulCandidate(JsonObject jsonObject) {
+  public static JsonObject getSuccessfulCandidate(JsonObject jsonObject) {
     JsonObject candObj = jsonObject.getJsonObject("candidate-pair");
     if (candObj == null) {
       return null;
@@ -581,10 +690,6 @@ public class StatsUtils {
 
 
 
-  private static final String[] candidatePairStats = {"bytesSent", "bytesReceived", "currentRoundTripTime", "totalRoundTripTime", "timestamp"};
-  private static final String[] inboundStats = {"bytesReceived", "packetsReceived", "packetsLost", "jitter", "timestamp"};
-  private static final String[] outboundStats = {"bytesSent", "timestamp"};
-
   /**
    * Build a simple JsonObject of selected stats meant to test NW Instrumentation. * Stats
    * includes bitrate, packetLoss, Jitter and RTT
@@ -594,50 +699,58 @@ public class StatsUtils {
    * @return
    */
   public static JsonObject extractStats(JsonObject senderStats, List<JsonObject> receiverStats) {
+    return extractStats(senderStats, receiverStats, null);
+  }
+
+  /**
+   * Build a simple JsonObject of selected stats meant to test NW Instrumentation, and merges the
+   * distributions of the RTT, jitter, bitrates and packet losses of all the PCs into histograms.
+   *
+   * @param senderStats the sender's PC stats
+   * @param receiverStats the list of receiver PCs stats
+   * @param histograms the histograms of the participant, by metric name, or null
+   * @return the JsonObject of the selected stats of each PC
+   */
+  public static JsonObject extractStats(JsonObject senderStats, List<JsonObject> receiverStats,
+                                        Map<String, StatsHistogram> histograms) {
     JsonObjectBuilder mainBuilder = Json.createObjectBuilder();
-    mainBuilder.add("localPC", extractStats(senderStats, "out"));
+    mainBuilder.add("localPC", extractStats(senderStats, "out", histograms));
     int i = 0;
     for (JsonObject recvStats : receiverStats) {
-      mainBuilder.add("remotePC[" + i++ + "]", extractStats(recvStats, "in"));
+      mainBuilder.add("remotePC[" + i++ + "]", extractStats(recvStats, "in", histograms));
     }
     return mainBuilder.build();
   }
 
   /**
    * Build a simple JsonObject of selected stats meant to test NW Instrumentation.
-   * Stats includes bitrate, packetLoss, Jitter and RTT
+   * Stats includes bitrate, packetLoss, Jitter and RTT, computed by a StatsAggregator in a single
+   * pass over the statsArray.
    *
    * @param obj
    * @return
    */
   public static JsonObjectBuilder extractStats(JsonObject obj, String direction) {
-    JsonObjectBuilder mainBuilder = Json.createObjectBuilder();
+    return extractStats(obj, direction, null);
+  }
+
+  /**
+   * Build a simple JsonObject of selected stats meant to test NW Instrumentation, and merges the
+   * distributions of the RTT, jitter, bitrates and packet losses over the statsArray into
+   * histograms.
+   *
+   * @param obj the PC stats
+   * @param direction "in", "out" or "both"
+   * @param histograms the histograms to merge into, by metric name, or null
+   * @return the JsonObjectBuilder of the selected stats
+   */
+  public static JsonObjectBuilder extractStats(JsonObject obj, String direction,
+                                               Map<String, StatsHistogram> histograms) {
+    StatsAggregator aggregator = new StatsAggregator(direction);
     JsonArray jsonArray = obj.getJsonArray("statsArray");
-    int noStats = 0;
     if (jsonArray != null) {
-      noStats = jsonArray.size();
-      for (int i = 0; i < noStats; i++) {
-        mainBuilder.add("candidate-pair_" + i, getStatsJsonBuilder(jsonArray.getJsonObject(i), candidatePairStats, "candidate-pair", ""));
-        if ("both".equalsIgnoreCase(direction) || "in".equalsIgnoreCase(direction)) {
-          mainBuilder.add(
-              "inbound-audio_" + i,
-              getStatsJsonBuilder(
-                  jsonArray.getJsonObject(i), inboundStats, "inbound-rtp", "audio"));
-          mainBuilder.add(
-              "inbound-video_" + i,
-              getStatsJsonBuilder(
-                  jsonArray.getJsonObject(i), inboundStats, "inbound-rtp", "video"));
-        }
-        if ("both".equalsIgnoreCase(direction) || "out".equalsIgnoreCase(direction)) {
-          mainBuilder.add(
-              "outbound-audio_" + i,
-              getStatsJsonBuilder(
-                  jsonArray.getJsonObject(i), outboundStats, "outbound-rtp", "audio"));
-          mainBuilder.add(
-              "outbound-video_" + i,
-              getStatsJsonBuilder(
-                  jsonArray.getJsonObject(i), outboundStats, "outbound-rtp", "video"));
-        }
+      for (JsonObject stats : jsonArray.getValuesAs(JsonObject.class)) {
+        aggregator.add(stats);
       }
     } else {
       logger.error(
@@ -645,257 +758,52 @@ public class StatsUtils {
           + obj.toString()
           + "\r\n ---------------\r\n");
     }
-    JsonObject result = mainBuilder.build();
-    JsonObjectBuilder csvBuilder = Json.createObjectBuilder();
-    csvBuilder.add("currentRoundTripTime (ms)", computeRoundTripTime(result, noStats, "current"));
-    csvBuilder.add("totalRoundTripTime (ms)", computeRoundTripTime(result, noStats, "total"));
-    csvBuilder.add("totalBytesReceived (Bytes)", totalBytes(result, noStats, "Received"));
-    csvBuilder.add("totalBytesSent (Bytes)", totalBytes(result, noStats, "Sent"));
-    csvBuilder.add("avgSentBitrate (bps)", computeBitrate(result, noStats, "Sent", "candidate-pair"));
-    csvBuilder.add("avgReceivedBitrate (bps)", computeBitrate(result, noStats, "Received", "candidate-pair"));
-    if ("both".equalsIgnoreCase(direction) || "in".equalsIgnoreCase(direction)) {
-      csvBuilder.add("inboundAudioBitrate (bps)", computeBitrate(result, noStats, "in", "audio"));
-      csvBuilder.add("inboundVideoBitrate (bps)", computeBitrate(result, noStats, "in", "video"));
-    }
-    if ("both".equalsIgnoreCase(direction) || "out".equalsIgnoreCase(direction)) {
-      csvBuilder.add("outboundAudioBitrate (bps)", computeBitrate(result, noStats, "out", "audio"));
-      csvBuilder.add("outboundVideoBitrate (bps)", computeBitrate(result, noStats, "out", "video"));
-    }
-    if ("both".equalsIgnoreCase(direction) || "in".equalsIgnoreCase(direction)) {
-      csvBuilder.add("audioJitter (ms)", computeAudioJitter(result, noStats));
-      csvBuilder.add("audioPacketsLoss (%)", computePacketsLoss(result, noStats, "audio"));
-      csvBuilder.add("videoPacketsLoss (%)", computePacketsLoss(result, noStats, "video"));
-    }
-    //uncomment the following line to add the detailed stats to the CSV
-//    csvBuilder.add("stats", result);
-    return csvBuilder;
-  }
-
-
-
-
-  /**
-   * Computes the average bitrate.
-   *
-   * @param jsonObject object containing the list getStats result.
-   * @param noStats how many stats in jsonObject
-   * @param direction "in" or "out" or "Sent" or "Received"
-   * @param mediaType "audio", "video" or "candidate-pair"
-   * @return totalNumberBytes sent or received
-   */
-  private static String computeBitrate(JsonObject jsonObject, int noStats, String direction, String mediaType) {
-    long bytesStart = 0;
-    long bytesEnd = 0;
-    long tsStart = 0;
-    long tsEnd = 0;
-    long avgBitrate = 0;
-    try {
-      if (noStats < 2) {
-        return "Error: less than 2 stats";
-      }
-      String jsonObjName = getJsonObjectName(direction, mediaType);
-      String jsonKey = getJsonKey(direction);
-      boolean debug = false;
-      if (debug) {
-        logger.info(" jsonObject:     " + jsonObject );
-        logger.info("-----------------------------");
-        logger.info(" jsonKey:     " + jsonKey );
-      }
-      for (int i = 0; i < noStats; i++) {
-        if (debug) {
-          logger.info("jsonObjName: " + jsonObjName + i);
-        }
-        String s = jsonObject.getJsonObject(jsonObjName + i).getString(jsonKey);
-        if (s != null && !"NA".equals(s) && isLong(s)) {
-          long b = Long.parseLong(s);
-          bytesStart = (bytesStart == 0 || b < bytesStart) ? b : bytesStart;
-          bytesEnd = (bytesEnd == 0 || b > bytesEnd) ? b : bytesEnd;
-        }
-        String ts = jsonObject.getJsonObject(jsonObjName + i).getString("timestamp");
-        if (ts != null && !"NA".equals(ts) && isLong(ts)) {
-          long b = Long.parseLong(ts);
-          if (i == 0) {
-            tsStart = b;
-          }
-          if (i == noStats - 1) {
-            tsEnd = b;
-          }
-        }
-        if (debug) {
-          logger.info("jsonKey:     " + jsonKey);
-          logger.info("bytesEnd:   " + bytesEnd);
-          logger.info("bytesStart: " + bytesStart);
-          logger.info("tsEnd:   " + tsEnd);
-          logger.info("tsStart: " + tsStart);
-        }
-      }
-
-      if (tsEnd != tsStart) {
-        long timediff = (tsEnd - tsStart);
-        avgBitrate = (8000 * (bytesEnd - bytesStart)) / timediff;
-        avgBitrate = (avgBitrate < 0) ? avgBitrate * -1 : avgBitrate;
-        if (debug) {
-          logger.info(
-            "computeBitrate()(8000 * ( " + bytesEnd + " - " + bytesStart + " )) /" + timediff);
-        }
-        return "" + (avgBitrate);
-      } else {
-        logger.error("computeBitrate() tsEnd == tsStart : " + tsEnd + " , " + tsStart);
-      }
-    } catch (NullPointerException npe) {
-      logger.error("NullPointerException in computeBitrate");
-      logger.error("" + getStackTrace(npe));
-    }
-    return "";
-  }
-
-  /**
-   *  Computes the average roundTripTime
-   *
-   * @param jsonObject object containing the list getStats result.
-   * @param noStats how many stats in jsonObject
-   * @return the average of valid (> 0) "totalRoundTripTime"
-   */
-  private static String computeRoundTripTime(JsonObject jsonObject, int noStats, String prefix) {
-    double rtt = 0;
-    int ct = 0;
-    try {
-      for (int i = 0; i < noStats; i++) {
-        String s = jsonObject.getJsonObject("candidate-pair_" + i).getString(prefix + "RoundTripTime");
-        if (s != null && !"NA".equals(s) && !"0".equals(s) && isDouble(s)) {
-          rtt += 1000 * Double.parseDouble(s);
-          ct++;
-        }
-      }
-    } catch (NullPointerException npe) {
-      logger.error("Unable to find " + prefix + "RoundTripTime in the stats. ");
-      logger.error("" + getStackTrace(npe));
-    }
-    if (ct > 0) {
-      return "" + ((int)rtt/ct);
+    if (histograms != null) {
+      StatsHistogram.merge(histograms, aggregator.getHistograms());
     }
-    return "";
+    return aggregator.getCsvBuilder();
   }
 
   /**
-   *  Computes the average audioJitter
+   * Build a simple JsonObject of selected stats meant to test NW Instrumentation, as
+   * extractStats(JsonObject, List, Map), from the typed values of the StatsStores returned by
+   * collectPCStats().
    *
-   * @param jsonObject object containing the list getStats result.
-   * @param noStats how many stats in jsonObject
-   * @return the average "audioJitter"
-   */
-  private static String computeAudioJitter(JsonObject jsonObject, int noStats) {
-    double jitter = 0;
-    int ct = 0;
-    if (noStats < 2) return ""; //min two stats
-    try {
-      for (int i = 0; i < noStats; i++) {
-        JsonObject myObject = jsonObject.getJsonObject("inbound-audio_" + i);
-        if (myObject != null) {
-          String s = myObject.getString("jitter");
-          if (s != null && !"NA".equals(s) && isDouble(s)) {
-            jitter += (1000 * Double.parseDouble(s));
-            ct++;
-          }
-        }
-      }
-      if (ct > 0) {
-        return "" + (jitter/ct);
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    return "";
-  }
-
-  /**
-   * Computes the packet losses as a % packetLost/total packets
-   *
-   * @param jsonObject object containing the list getStats result.
-   * @param noStats how many stats in jsonObject
-   * @param mediaType "audio" or "video"
-   * @return the packet losses (% packetLost/total packets)
+   * @param senderStats the sender's PC stats
+   * @param receiverStats the list of receiver PCs stats
+   * @param histograms the histograms of the participant, by metric name, or null
+   * @return the JsonObject of the selected stats of each PC
    */
-  private static String computePacketsLoss(JsonObject jsonObject, int noStats, String mediaType) {
-    if (noStats < 1) return ""; // min one stats
-    try {
-      JsonObject myObject = jsonObject.getJsonObject("inbound-" + mediaType + "_" + (noStats - 1));
-      if (myObject != null) {
-        String s = myObject.getString("packetsReceived");
-        String l = myObject.getString("packetsLost");
-        if (s != null && !"NA".equals(s) && isLong(s)
-          && l != null && !"NA".equals(l) && isLong(l)) {
-          long packetsLost = Long.parseLong(l);
-          long totalPackets = Long.parseLong(s) + packetsLost;
-          if (totalPackets > 0) {
-            double packetLoss = (packetsLost * 1000) / totalPackets;
-            return "" + (new DecimalFormat("#0.000").format(packetLoss/1000));
-          }
-        } else {
-          logger.error(
-            "computePacketsLoss  \r\n ---------------\r\n"
-              + myObject.toString()
-              + "\r\n ---------------\r\n");
-        }
-      } else {
-        logger.error(
-          "computePacketsLoss  my object is null " + ("inbound-" + mediaType + "_" + (noStats - 1)));
-
-      }
-    } catch (Exception e) {
-      logger.error("" + getStackTrace(e));
+  public static JsonObject extractStats(StatsStore senderStats, List<StatsStore> receiverStats,
+                                        Map<String, StatsHistogram> histograms) {
+    JsonObjectBuilder mainBuilder = Json.createObjectBuilder();
+    mainBuilder.add("localPC", extractStats(senderStats, "out", histograms));
+    int i = 0;
+    for (StatsStore recvStats : receiverStats) {
+      mainBuilder.add("remotePC[" + i++ + "]", extractStats(recvStats, "in", histograms));
     }
-    return "";
+    return mainBuilder.build();
   }
 
   /**
-   * Computes the total bytes sent or received by the candidate
+   * Build a simple JsonObject of selected stats meant to test NW Instrumentation, as
+   * extractStats(JsonObject, String, Map), from the typed values of a StatsStore.
    *
-   * @param jsonObject object containing the list getStats result.
-   * @param noStats how many stats in jsonObject
-   * @param direction Sent or Received
-   * @return totalNumberBytes sent or received
+   * @param statsStore the PC stats
+   * @param direction "in", "out" or "both"
+   * @param histograms the histograms to merge into, by metric name, or null
+   * @return the JsonObjectBuilder of the selected stats
    */
-  private static String totalBytes(JsonObject jsonObject, int noStats, String direction) {
-    long bytes = 0;
-    try {
-      for (int i = 0; i < noStats; i++) {
-        String s = jsonObject.getJsonObject("candidate-pair_" + i).getString("bytes" + direction);
-        if (s != null && !"NA".equals(s) && isLong(s)) {
-          long b = Long.parseLong(s);
-          bytes = Math.max(b, bytes);
-        }
-      }
-    } catch (NullPointerException npe) {
-      logger.error("Unable to find \"bytes" + direction + "\" in the stats. ");
-      logger.error("" + getStackTrace(npe));
+  public static JsonObjectBuilder extractStats(StatsStore statsStore, String direction,
+                                               Map<String, StatsHistogram> histograms) {
+    StatsAggregator aggregator = new StatsAggregator(direction);
+    for (int row = 0; row < statsStore.size(); row++) {
+      aggregator.add(statsStore, row);
     }
-    return "" + bytes;
-  }
-
-
-  private static JsonObjectBuilder getStatsJsonBuilder(JsonObject jsonObject, String[] stringArray, String stats, String mediaType) {
-    JsonObjectBuilder subBuilder = Json.createObjectBuilder();
-    if ("candidate-pair".equals(stats)) {
-      JsonObject successfulCandidate = getSuccessfulCandidate(jsonObject);
-      if (successfulCandidate != null) {
-        for (int j = 0; j < stringArray.length; j++) {
-          if (successfulCandidate.containsKey(stringArray[j])) {
-            subBuilder.add(stringArray[j], successfulCandidate.getString(stringArray[j]));
-          }
-        }
-      }
-    } else {
-      JsonObject myObj = getRTCStats(jsonObject, stats, mediaType);
-      if (myObj != null) {
-        for (int j = 0; j < stringArray.length; j++) {
-          if (myObj.containsKey(stringArray[j])) {
-            subBuilder.add(stringArray[j], myObj.getString(stringArray[j]));
-          }
-        }
-      }
+    if (histograms != null) {
+      StatsHistogram.merge(histograms, aggregator.getHistograms());
     }
-    return subBuilder;
+    return aggregator.getCsvBuilder();
   }
 
 
@@ -905,7 +813,7 @@ public class StatsUtils {
    * @param s the String to check
    * @return true if the String is a double
    */
-  private static boolean isDouble(String s) {
+  public static boolean isDouble(String s) {
     try {
       Double.parseDouble(s);
       return true;
@@ -920,7 +828,7 @@ public class StatsUtils {
    * @param s the String to check
    * @return true if the String is a long
    */
-  private static boolean isLong(String s) {
+  public static boolean isLong(String s) {
     try {
       Long.parseLong(s);
       return true;
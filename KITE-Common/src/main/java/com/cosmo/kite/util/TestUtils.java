@@ -33,10 +33,12 @@ import java.util.List;
 import java.util.*;
 import java.util.regex.Pattern;
 
+import static com.cosmo.kite.action.JSActionScript.getAllVideosCheckScript;
 import static com.cosmo.kite.action.JSActionScript.getVideoFrameValueSumByIndexScript;
 import static com.cosmo.kite.action.JSActionScript.recordVideoStreamScript;
 import static com.cosmo.kite.entities.Timeouts.ONE_SECOND_INTERVAL;
 import static com.cosmo.kite.util.ReportUtils.getStackTrace;
+import static com.cosmo.kite.util.WebDriverUtils.executeAsyncJsScript;
 import static com.cosmo.kite.util.WebDriverUtils.executeJsScript;
 import static com.cosmo.kite.util.WebDriverUtils.getConsoleLog;
 
@@ -48,6 +50,10 @@ public class TestUtils {
   static private final String IPV4_REGEX = "(([0-1]?[0-9]{1,2}\\.)|(2[0-4][0-9]\\.)|(25[0-5]\\.)){3}(([0-1]?[0-9]{1,2})|(2[0-4][0-9])|(25[0-5]))";
 
   private static final Logger logger = Logger.getLogger(TestUtils.class.getName());
+  /* longest window checked in a single call, so that the results of long checks are merged */
+  private static final int MAX_VIDEO_CHECK_WINDOW = 20000;
+  /* time given to the video check script to return after its window elapsed */
+  private static final int VIDEO_CHECK_SCRIPT_MARGIN = 10000;
   static private Pattern IPV4_PATTERN = Pattern.compile(IPV4_REGEX);
   
   /**
@@ -446,6 +452,64 @@ public class TestUtils {
     return result;
   }
   
+  /**
+   * Checks all the videos of the page at once, in the page, by comparing downscaled frames taken
+   * every 500ms until all the videos changed or the window elapsed. Long windows are split into
+   * several calls of at most 20s, the script timeout of the webdriver being raised to cover each
+   * call.
+   *
+   * @param webDriver webdriver that control the browser
+   * @param window    maximum duration of the check, in ms
+   *
+   * @return for each video element of the page, an object with the result ("blank", "still" or
+   * "video"), the first and last pixel sums checksum1 and checksum2, the width and height.
+   * @throws ScriptTimeoutException if the browser did not return the results of a call in time
+   */
+  public static JsonArray videoCheckAll(WebDriver webDriver, int window) {
+    List<Map<?, ?>> checks = null;
+    long end = System.currentTimeMillis() + window;
+    do {
+      int callWindow = (int) Math.min(Math.max(end - System.currentTimeMillis(), 0),
+        MAX_VIDEO_CHECK_WINDOW);
+      List<Map<?, ?>> results = new ArrayList<>();
+      for (Object result : (List<?>) executeAsyncJsScript(webDriver,
+        getAllVideosCheckScript(ONE_SECOND_INTERVAL / 2, callWindow),
+        callWindow + VIDEO_CHECK_SCRIPT_MARGIN)) {
+        results.add((Map<?, ?>) result);
+      }
+      if (checks == null || checks.size() != results.size()) {
+        checks = results;
+      } else {
+        // a video that changed during a previous call is a video
+        for (int i = 0; i < results.size(); i++) {
+          if (!"video".equals(checks.get(i).get("result"))) {
+            checks.set(i, results.get(i));
+          }
+        }
+      }
+    } while (!allVideos(checks) && System.currentTimeMillis() < end);
+
+    JsonArrayBuilder videos = Json.createArrayBuilder();
+    for (Map<?, ?> check : checks) {
+      videos.add(Json.createObjectBuilder()
+        .add("checksum1", ((Number) check.get("checksum1")).longValue())
+        .add("checksum2", ((Number) check.get("checksum2")).longValue())
+        .add("result", (String) check.get("result"))
+        .add("width", ((Number) check.get("width")).longValue())
+        .add("height", ((Number) check.get("height")).longValue()));
+    }
+    return videos.build();
+  }
+
+  private static boolean allVideos(List<Map<?, ?>> checks) {
+    for (Map<?, ?> check : checks) {
+      if (!"video".equals(check.get("result"))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Waits for a duration
    *
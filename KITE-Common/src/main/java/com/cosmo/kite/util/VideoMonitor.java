@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.util;
+
+import org.openqa.selenium.WebDriver;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.List;
+import java.util.Map;
+
+import static com.cosmo.kite.action.JSActionScript.getVideoMetricsScript;
+import static com.cosmo.kite.action.JSActionScript.startVideoMonitorScript;
+import static com.cosmo.kite.action.JSActionScript.stopVideoMonitorScript;
+import static com.cosmo.kite.util.WebDriverUtils.executeJsScript;
+
+/**
+ * Utility class with static methods to monitor the videos of a page.
+ * <p>
+ * Once started, the monitor runs in the page and accumulates, for every video element, the frames
+ * rendered, the frame rate, the freezes and the resolution changes, which are retrieved in a
+ * single call. Unlike TestUtils.videoCheck(), checking the videos with the monitor does not wait.
+ */
+public class VideoMonitor {
+
+  /**
+   * Starts the video monitor in the page, if not started yet.
+   *
+   * @param webDriver the web driver
+   */
+  public static void start(WebDriver webDriver) {
+    executeJsScript(webDriver, startVideoMonitorScript());
+  }
+
+  /**
+   * Stops the video monitor of the page.
+   *
+   * @param webDriver the web driver
+   */
+  public static void stop(WebDriver webDriver) {
+    executeJsScript(webDriver, stopVideoMonitorScript());
+  }
+
+  /**
+   * Gets the metrics of the monitored videos.
+   *
+   * @param webDriver the web driver
+   *
+   * @return for each monitored video, an object with its index in the video elements of the page
+   * (-1 if removed), id, mode, duration (ms), frames, fps, freezeCount, freezeDuration (ms), frozen,
+   * width, height, resolutionChanges and result ("blank", "still" or "video"), or null if the
+   * monitor is not started.
+   */
+  public static JsonArray getMetrics(WebDriver webDriver) {
+    Object metrics = executeJsScript(webDriver, getVideoMetricsScript());
+    if (metrics == null) {
+      return null;
+    }
+    JsonArrayBuilder videos = Json.createArrayBuilder();
+    for (Object video : (List<?>) metrics) {
+      JsonObjectBuilder builder = Json.createObjectBuilder();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) video).entrySet()) {
+        String key = entry.getKey().toString();
+        Object value = entry.getValue();
+        if (value instanceof Boolean) {
+          builder.add(key, (Boolean) value);
+        } else if (value instanceof Double) {
+          builder.add(key, (Double) value);
+        } else if (value instanceof Number) {
+          builder.add(key, ((Number) value).longValue());
+        } else {
+          builder.add(key, String.valueOf(value));
+        }
+      }
+      videos.add(builder);
+    }
+    return videos.build();
+  }
+
+  /**
+   * Gets the metrics of the video at the given index in the video elements of the page.
+   *
+   * @param metrics     the metrics returned by getMetrics()
+   * @param index       index of the video element on the page
+   * @param minDuration minimum monitoring duration of the video, in ms
+   *
+   * @return the metrics of the video, or null if the video is not monitored or was monitored for
+   * less than minDuration.
+   */
+  public static JsonObject getVideoMetrics(JsonArray metrics, int index, long minDuration) {
+    if (metrics != null) {
+      for (JsonObject video : metrics.getValuesAs(JsonObject.class)) {
+        if (video.getInt("index") == index) {
+          return video.getJsonNumber("duration").longValue() >= minDuration ? video : null;
+        }
+      }
+    }
+    return null;
+  }
+}
@@ -19,10 +19,16 @@ import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 
+import static com.cosmo.kite.action.JSActionScript.findElementsExpression;
+import static com.cosmo.kite.action.JSActionScript.isVisibleExpression;
+import static com.cosmo.kite.action.JSActionScript.waitForConditionScript;
 import static com.cosmo.kite.entities.Timeouts.*;
 import static com.cosmo.kite.util.TestUtils.waitAround;
 
@@ -31,6 +37,16 @@ import static com.cosmo.kite.util.TestUtils.waitAround;
  */
 public class WebDriverUtils {
   
+  /* kept below the script timeout set for the waits */
+  private static final int MAX_ASYNC_WAIT = 20000;
+  
+  /* script timeout of the async scripts which do not give their own, in ms */
+  private static final long DEFAULT_SCRIPT_TIMEOUT = 30000;
+  
+  /* script timeout set on each webdriver, to set it only when it has to be raised */
+  private static final Map<WebDriver, Long> scriptTimeouts =
+    Collections.synchronizedMap(new WeakHashMap<>());
+  
   /**
    * Handles alert popup if exists
    *
@@ -109,6 +125,69 @@ public class WebDriverUtils {
     return ((JavascriptExecutor) webDriver).executeScript(scriptString);
   }
   
+  /**
+   * Executes a JS script string with arguments with a given webdriver
+   *
+   * @param webDriver    the webdriver
+   * @param scriptString the JS script to execute
+   * @param args         the arguments of the script
+   *
+   * @return the result of the script execution
+   */
+  public static Object executeJsScript(WebDriver webDriver, String scriptString, Object... args) {
+    return ((JavascriptExecutor) webDriver).executeScript(scriptString, args);
+  }
+
+  /**
+   * Executes an asynchronous JS script string with a given webdriver, in a single round trip.
+   * The script is given a callback as last argument (arguments[arguments.length - 1]) and must
+   * call it with its result within 30s.
+   *
+   * @param webDriver    the webdriver
+   * @param scriptString the JS script to execute
+   *
+   * @return the value passed to the callback by the script
+   * @throws ScriptTimeoutException if the script did not call the callback in time
+   */
+  public static Object executeAsyncJsScript(WebDriver webDriver, String scriptString) {
+    return executeAsyncJsScript(webDriver, scriptString, DEFAULT_SCRIPT_TIMEOUT);
+  }
+
+  /**
+   * Executes an asynchronous JS script string with a given webdriver, in a single round trip.
+   * The script is given a callback as last argument (arguments[arguments.length - 1]) and must
+   * call it with its result within the given timeout.
+   *
+   * @param webDriver    the webdriver
+   * @param scriptString the JS script to execute
+   * @param timeout      the time given to the script to call the callback, in ms
+   * @param args         the arguments of the script
+   *
+   * @return the value passed to the callback by the script
+   * @throws ScriptTimeoutException if the script did not call the callback in time
+   */
+  public static Object executeAsyncJsScript(WebDriver webDriver, String scriptString, long timeout,
+                                            Object... args) {
+    ensureScriptTimeout(webDriver, timeout);
+    return ((JavascriptExecutor) webDriver).executeAsyncScript(scriptString, args);
+  }
+
+  /**
+   * Makes sure that the script timeout of the webdriver, within which the async scripts must
+   * return, is at least the given timeout. The timeout is only set on the webdriver when it has to
+   * be raised, which costs a round trip.
+   *
+   * @param webDriver the webdriver
+   * @param timeout   the minimum script timeout, in ms
+   */
+  public static void ensureScriptTimeout(WebDriver webDriver, long timeout) {
+    Long current = scriptTimeouts.get(webDriver);
+    if (current == null || current < timeout) {
+      webDriver.manage().timeouts().setScriptTimeout(timeout, TimeUnit.MILLISECONDS);
+      scriptTimeouts.put(webDriver, timeout);
+    }
+  }
+
   /**
    * Find all elements with the corresponding locator and iterate through the list to find the one
    * that is required.
@@ -440,6 +519,15 @@ public class WebDriverUtils {
    * @throws KiteTestException if an Exception occurs during method execution or fail.
    */
   public static void waitForElement(WebDriver webDriver, By selector, int timeout) throws KiteTestException {
+    String elements = findElementsExpression(selector, 0);
+    if (elements != null) {
+      if (waitForCondition(webDriver, elements + ".some(function (e) { return "
+        + isVisibleExpression("e") + "; })", timeout, getSelectorValue(selector))) {
+        setImplicitWait(webDriver, SHORT_TIMEOUT);
+        return;
+      }
+      throw new KiteTestException("Timeout waiting for element: " + selector.toString(), Status.BROKEN);
+    }
     setImplicitWait(webDriver, ONE_SECOND_INTERVAL);
     WebDriverWait driverWait = new WebDriverWait(webDriver, 1);
     for (int waitTime = 0; waitTime < timeout; waitTime += ONE_SECOND_INTERVAL) {
@@ -469,6 +557,16 @@ public class WebDriverUtils {
    * @throws KiteTestException if an Exception occurs during method execution or fail.
    */
   public static void waitForExpectedNumberOfElements(WebDriver webDriver, By selector, int expectedNumber) throws KiteTestException {
+    String elements = findElementsExpression(selector, 0);
+    if (elements != null) {
+      if (waitForCondition(webDriver, elements + ".length === args[1]", DEFAULT_TIMEOUT,
+        getSelectorValue(selector), expectedNumber)) {
+        // let the elements load
+        waitAround(ONE_SECOND_INTERVAL);
+        return;
+      }
+      throw new KiteTestException("Timeout waiting for " + expectedNumber + " elements: " + selector.toString(), Status.BROKEN);
+    }
     for (int waitTime = 0; waitTime < DEFAULT_TIMEOUT; waitTime += ONE_SECOND_INTERVAL) {
       try {
         waitAround(ONE_SECOND_INTERVAL / 2);
@@ -483,7 +581,66 @@ public class WebDriverUtils {
     }
     throw new KiteTestException("Timeout waiting for " + expectedNumber + " elements: " + selector.toString(), Status.BROKEN);
   }
-
+  
+  /**
+   * Waits for a JS condition to be true, in the page. The condition is evaluated by an async
+   * script whenever the DOM changes, the wait returning as soon as the condition is true, in a
+   * single round trip for waits shorter than 20s. If the webdriver does not support async
+   * scripts, the condition is polled at increasing intervals, up to one second.
+   *
+   * @param webDriver the webdriver.
+   * @param condition the JS expression of the condition, the arguments being available as args
+   * @param timeout   the maximum duration of the wait, in ms.
+   * @param args      the arguments of the condition (e.g. WebElements, strings, numbers)
+   *
+   * @return true if the condition became true, false if the wait timed out.
+   */
+  public static boolean waitForCondition(WebDriver webDriver, String condition, int timeout, Object... args) {
+    long end = System.currentTimeMillis() + timeout;
+    try {
+      do {
+        int remaining = (int) Math.max(end - System.currentTimeMillis(), 0);
+        Object result = executeAsyncJsScript(webDriver,
+          waitForConditionScript(condition, Math.min(remaining, MAX_ASYNC_WAIT)),
+          MAX_ASYNC_WAIT + ONE_SECOND_INTERVAL, args);
+        if (Boolean.TRUE.equals(result)) {
+          return true;
+        }
+      } while (System.currentTimeMillis() < end);
+      return false;
+    } catch (ScriptTimeoutException | UnsupportedCommandException | JavascriptException e) {
+      // the script timeout of the webdriver is shorter than the wait, or no async script support
+    }
+    String script = "var args = arguments; return !!(" + condition + ");";
+    int interval = 100;
+    while (true) {
+      try {
+        if (Boolean.TRUE.equals(executeJsScript(webDriver, script, args))) {
+          return true;
+        }
+      } catch (JavascriptException e) {
+        // the condition cannot be evaluated yet
+      }
+      long remaining = end - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      waitAround((int) Math.min(interval, remaining));
+      interval = Math.min(interval * 2, ONE_SECOND_INTERVAL);
+    }
+  }
+  
+  /**
+   * Gets the value of a selector, e.g. "foo" for By.id("foo").
+   *
+   * @param selector the selector
+   *
+   * @return the value of the selector
+   */
+  private static String getSelectorValue(By selector) {
+    String value = selector.toString();
+    return value.substring(value.indexOf(": ") + 2);
+  }
 
   /**
    * Load the page, waiting for document.readyState to be complete
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite.wdmgmt;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A WebDriver session kept by the WebDriverPool, with the information needed to decide whether it
+ * can be reused.
+ */
+class PooledWebDriver {
+  
+  private static final Logger logger = Logger.getLogger(PooledWebDriver.class.getName());
+  
+  private static final String CLEAR_STORAGE_SCRIPT = "try { window.localStorage.clear(); } catch (e) {}"
+    + "try { window.sessionStorage.clear(); } catch (e) {}";
+  
+  private final String key;
+  private final WebDriver webDriver;
+  private final long creationTime = System.currentTimeMillis();
+  private int uses = 0;
+  private boolean broken = false;
+  
+  /**
+   * Constructs a new PooledWebDriver.
+   *
+   * @param key       the session key of the WebDriver
+   * @param webDriver the WebDriver
+   */
+  PooledWebDriver(String key, WebDriver webDriver) {
+    this.key = key;
+    this.webDriver = webDriver;
+  }
+  
+  String getKey() {
+    return this.key;
+  }
+  
+  WebDriver getWebDriver() {
+    return this.webDriver;
+  }
+  
+  long getCreationTime() {
+    return this.creationTime;
+  }
+  
+  int getUses() {
+    return this.uses;
+  }
+  
+  boolean isBroken() {
+    return this.broken;
+  }
+  
+  /**
+   * Counts a new use of the session by a test.
+   */
+  void use() {
+    this.uses++;
+  }
+  
+  /**
+   * Resets the session before another test uses it: closes the windows opened by the test, clears
+   * the local and session storage and the cookies of the current page, then navigates to
+   * about:blank, which also closes the peer connections of the page. The session is marked as
+   * broken if any of these fails.
+   * <p>
+   * WebDriver can only reach the storage and cookies of the origin of the current page: the ones of
+   * the other origins visited by the test (other pages, iframes, redirections) are kept by the
+   * session. The tests relying on a clean state on several origins should not pool their sessions.
+   */
+  void reset() {
+    try {
+      Set<String> handles = this.webDriver.getWindowHandles();
+      Iterator<String> iterator = handles.iterator();
+      String mainWindow = iterator.next();
+      while (iterator.hasNext()) {
+        this.webDriver.switchTo().window(iterator.next());
+        this.webDriver.close();
+      }
+      this.webDriver.switchTo().window(mainWindow);
+      ((JavascriptExecutor) this.webDriver).executeScript(CLEAR_STORAGE_SCRIPT);
+      this.webDriver.manage().deleteAllCookies();
+      this.webDriver.get("about:blank");
+    } catch (Exception e) {
+      logger.warn("Unable to reset the session, it will be closed: " + e.getLocalizedMessage());
+      this.broken = true;
+    }
+  }
+  
+}
@@ -21,6 +21,7 @@ import io.appium.java_client.ios.IOSDriver;
 import io.appium.java_client.remote.MobileCapabilityType;
 import org.apache.log4j.Logger;
 import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.ImmutableCapabilities;
 import org.openqa.selenium.MutableCapabilities;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebDriverException;
@@ -38,9 +39,16 @@ import org.webrtc.kite.config.Browser;
 import org.webrtc.kite.config.EndPoint;
 import org.webrtc.kite.config.Mobile;
 
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 /**
@@ -50,6 +58,9 @@ public class WebDriverFactory {
   
   private static final Logger logger = Logger.getLogger(WebDriverFactory.class.getName());
   
+  /* capabilities templates, by template key */
+  private static final Map<String, Capabilities> templates = new ConcurrentHashMap<>();
+  
   /**
    * Creates a web driver based on the given Browser object.
    *
@@ -103,13 +114,101 @@ public class WebDriverFactory {
   }
   
   /**
-   * Creates a Capabilities object based on the given EndPoint object.
+   * Gets a key identifying the sessions created for the given Browser, made of its template key
+   * and gateway, so that two browsers with the same key get equivalent sessions.
+   *
+   * @param browser the Browser
+   * @return the session key
+   */
+  static String getSessionKey(Browser browser) {
+    return getTemplateKey(browser) + " " + browser.getGateway();
+  }
+  
+  /**
+   * Gets a key identifying the capabilities template of the given EndPoint, made of all the
+   * settings used by createCapabilitiesTemplate().
+   *
+   * @param endPoint the EndPoint
+   * @return the template key
+   */
+  private static String getTemplateKey(EndPoint endPoint) {
+    JsonObjectBuilder builder = Json.createObjectBuilder()
+      .add("remoteAddress", String.valueOf(endPoint.getRemoteAddress()))
+      .add("extraCapabilities", String.valueOf(new TreeMap<>(endPoint.getExtraCapabilities())))
+      .add("platform", String.valueOf(endPoint.getPlatform()));
+    if (endPoint instanceof Browser) {
+      Browser browser = (Browser) endPoint;
+      builder
+        .add("browserName", String.valueOf(browser.getBrowserName()))
+        .add("version", String.valueOf(browser.getVersion()))
+        .add("useFakeMedia", browser.useFakeMedia())
+        .add("fakeMediaFile", String.valueOf(browser.getFakeMediaFile()))
+        .add("fakeMediaAudio", String.valueOf(browser.getFakeMediaAudio()))
+        .add("headless", browser.isHeadless())
+        .add("windowSize", String.valueOf(browser.getWindowSize()))
+        .add("flags", String.valueOf(browser.getFlags()))
+        .add("technologyPreview", browser.isTechnologyPreview())
+        .add("pathToBinary", String.valueOf(browser.getPathToBinary()));
+      if (browser.getMobile() != null) {
+        builder.add("mobile", browser.getMobile().getJsonObjectBuilder());
+      }
+    } else {
+      App app = (App) endPoint;
+      builder
+        .add("appPath", String.valueOf(app.getAppPath()))
+        .add("deviceName", String.valueOf(app.getDeviceName()))
+        .add("reset", app.getReset())
+        .add("appPackage", String.valueOf(app.getAppPackage()))
+        .add("appActivity", String.valueOf(app.getAppActivity()));
+    }
+    return builder.build().toString();
+  }
+  
+  /**
+   * Creates a Capabilities object based on the given EndPoint object, from the template of its
+   * configuration and the fields specific to the session.
    *
    * @param endPoint kite config object
    * @param testName         name for individual test case
    * @return Capabilities
    */
   private static Capabilities createCapabilities(EndPoint endPoint, String testName, String id) {
+    String key = getTemplateKey(endPoint);
+    Capabilities template = templates.get(key);
+    if (template == null) {
+      template = createCapabilitiesTemplate(endPoint);
+      Capabilities previous = templates.putIfAbsent(key, template);
+      if (previous != null) {
+        template = previous;
+      }
+    }
+    if (!(endPoint instanceof Browser)) {
+      return template;
+    }
+    
+    MutableCapabilities capabilities = new MutableCapabilities(template);
+    // Remote test identifier
+    if (testName != null) {
+      capabilities.setCapability("name", testName);
+    }
+    if (id != null) {
+      capabilities.setCapability("id", id);
+    }
+    if (endPoint.getGateway() != null) {
+      capabilities.setCapability("gateway", endPoint.getGateway());
+    }
+    return capabilities;
+  }
+  
+  /**
+   * Creates the immutable capabilities shared by all the sessions of the configuration of the given
+   * EndPoint, without the test name, id and gateway. The extensions and profiles are read and
+   * encoded once here instead of for each session.
+   *
+   * @param endPoint kite config object
+   * @return Capabilities
+   */
+  private static Capabilities createCapabilitiesTemplate(EndPoint endPoint) {
     
     MutableCapabilities capabilities = new MutableCapabilities();
     
@@ -126,17 +225,6 @@ public class WebDriverFactory {
       if (browser.getPlatform() != null) {
         capabilities.setCapability(CapabilityType.PLATFORM_NAME, browser.getPlatform());
       }
-      // Remote test identifier
-      if (testName != null) {
-        capabilities.setCapability("name", testName);
-      }
-      if (id != null) {
-        capabilities.setCapability("id", id);
-      }
-
-      if (browser.getGateway() != null) {
-        capabilities.setCapability("gateway", browser.getGateway());
-      }
       
       // Only consider next code block if this is a browser.
       switch (browser.getBrowserName()) {
@@ -294,8 +382,28 @@ public class WebDriverFactory {
       }
       
     }
-    return capabilities;
+    return freeze(capabilities);
     
   }
   
+  /**
+   * Copies the given capabilities into immutable capabilities made of encoded values only, the
+   * nested options being already encoded by asMap() but not the legacy Firefox profile.
+   */
+  private static Capabilities freeze(MutableCapabilities capabilities) {
+    Map<String, Object> values = new HashMap<>();
+    for (Map.Entry<String, ?> entry : capabilities.asMap().entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof FirefoxProfile) {
+        try {
+          value = ((FirefoxProfile) value).toJson();
+        } catch (IOException e) {
+          throw new WebDriverException("Unable to encode the Firefox profile", e);
+        }
+      }
+      values.put(entry.getKey(), value);
+    }
+    return new ImmutableCapabilities(values);
+  }
+  
 }
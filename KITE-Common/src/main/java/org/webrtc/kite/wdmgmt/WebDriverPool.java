@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite.wdmgmt;
+
+import com.cosmo.kite.executor.ExecutorPool;
+import com.cosmo.kite.executor.KiteExecutors;
+import com.cosmo.kite.pool.BoundedIdlePool;
+import org.apache.log4j.Logger;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.webrtc.kite.config.Browser;
+import org.webrtc.kite.config.EndPoint;
+
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the WebDriver sessions of the finished tests to reuse them in the next tests needing the
+ * same capabilities, instead of creating a new session for each test.
+ * <p>
+ * The pool is disabled by default and enabled with the system property kite.session.pool=true.
+ * The sessions are grouped by session key (remote address and capabilities) in a BoundedIdlePool
+ * keeping at most kite.session.pool.maxIdle sessions (4 by default). A new session is named after
+ * the test requesting it, a reused session keeps the name of the test which created it. A released
+ * session is reset (extra windows closed, storage and cookies of the current origin cleared,
+ * about:blank) and kept only if it is still alive, has been used by fewer than
+ * kite.session.pool.maxReuse tests (20 by default) and is younger than kite.session.pool.ttl
+ * seconds (600 by default). Mobile browsers and apps are never pooled.
+ * <p>
+ * The sessions of the upcoming tuples can also be created in advance with prefetch(), while the
+ * current tuples run. A test needing a session which is being prefetched waits for it instead of
+ * creating another one.
+ */
+public class WebDriverPool {
+  
+  private static final Logger logger = Logger.getLogger(WebDriverPool.class.getName());
+  
+  private static final WebDriverPool instance = new WebDriverPool(
+    Integer.getInteger("kite.session.pool.maxIdle", 4),
+    Integer.getInteger("kite.session.pool.maxReuse", 20),
+    TimeUnit.SECONDS.toMillis(Integer.getInteger("kite.session.pool.ttl", 600)));
+  
+  private final int maxIdle;
+  private final WebDriverSessionValidator validator;
+  private final Map<String, BoundedIdlePool<PooledWebDriver>> pools = new ConcurrentHashMap<>();
+  private final Map<WebDriver, PooledWebDriver> borrowed = new ConcurrentHashMap<>();
+  /* number of sessions being prefetched, by session key */
+  private final Map<String, Integer> prefetching = new HashMap<>();
+  /* number of sessions whose prefetch is running, not queued, by session key */
+  private final Map<String, Integer> creating = new HashMap<>();
+  /* number of prefetches which have ended, by session key */
+  private final Map<String, Long> prefetched = new HashMap<>();
+  /* number of tests waiting for a session being prefetched, by session key */
+  private final Map<String, Integer> awaiting = new HashMap<>();
+  
+  private WebDriverPool(int maxIdle, int maxReuse, long timeToLive) {
+    this.maxIdle = maxIdle;
+    this.validator = new WebDriverSessionValidator(maxReuse, timeToLive);
+  }
+  
+  /**
+   * Gets the WebDriverPool.
+   *
+   * @return the WebDriverPool
+   */
+  public static WebDriverPool getInstance() {
+    return instance;
+  }
+  
+  /**
+   * Checks whether the sessions are pooled, as set by the system property kite.session.pool.
+   *
+   * @return true if the sessions are pooled
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("kite.session.pool");
+  }
+  
+  /**
+   * Gets a web driver for the given endPoint, reusing an idle session with the same capabilities
+   * if there is one, or the session being prefetched with these capabilities if no other test
+   * waits for it.
+   *
+   * @param testName the test name
+   * @param endPoint the endPoint
+   *
+   * @return the web driver for endPoint
+   * @throws MalformedURLException if the remote address of the endPoint is invalid
+   */
+  public WebDriver getWebDriver(String testName, EndPoint endPoint) throws MalformedURLException {
+    if (!isPoolable(endPoint)) {
+      return WebDriverUtility.getWebDriverForConfigObject(testName, endPoint);
+    }
+    Browser browser = (Browser) endPoint;
+    String key = WebDriverFactory.getSessionKey(browser);
+    BoundedIdlePool<PooledWebDriver> pool = this.getPool(key);
+    PooledWebDriver pooledWebDriver = pool.poll();
+    if (pooledWebDriver == null && this.awaitPrefetch(key)) {
+      // the prefetched session may have been taken by a test which was not waiting for it
+      pooledWebDriver = pool.poll();
+    }
+    if (pooledWebDriver == null) {
+      pooledWebDriver = new WebDriverSessionFactory(key, testName, browser).createNew();
+    }
+    pooledWebDriver.use();
+    if (pooledWebDriver.getUses() > 1 && logger.isDebugEnabled()) {
+      logger.debug("Reusing session (" + pooledWebDriver.getUses() + " uses) for " + endPoint);
+    }
+    WebDriver webDriver = pooledWebDriver.getWebDriver();
+    this.borrowed.put(webDriver, pooledWebDriver);
+    Capabilities capabilities = ((RemoteWebDriver) webDriver).getCapabilities();
+    browser.setWebDriverVersion(capabilities.getVersion());
+    browser.setWebDriverPlatform(capabilities.getPlatform().name());
+    return webDriver;
+  }
+  
+  /**
+   * Creates in the background the sessions that the given upcoming tuples will need and that are
+   * neither idle nor being created, so that their tests find them ready. For each session key, at
+   * most maxIdle sessions are kept ahead.
+   *
+   * @param testName    the test name
+   * @param tuples      the endpoints of the upcoming tuples
+   * @param maxSessions the maximum number of idle and prefetching sessions, usually the number of
+   *                    sessions the grid can host besides the running tests.
+   * @return the number of sessions whose creation has started
+   */
+  public synchronized int prefetch(String testName, List<List<EndPoint>> tuples, int maxSessions) {
+    Map<String, Integer> needed = new LinkedHashMap<>();
+    Map<String, Browser> browsers = new HashMap<>();
+    for (List<EndPoint> tuple : tuples) {
+      for (EndPoint endPoint : tuple) {
+        if (isPoolable(endPoint)) {
+          String key = WebDriverFactory.getSessionKey((Browser) endPoint);
+          needed.merge(key, 1, Integer::sum);
+          browsers.putIfAbsent(key, (Browser) endPoint);
+        }
+      }
+    }
+    
+    int available = maxSessions - this.getIdleCount();
+    for (int count : this.prefetching.values()) {
+      available -= count;
+    }
+    int started = 0;
+    for (Map.Entry<String, Integer> entry : needed.entrySet()) {
+      String key = entry.getKey();
+      BoundedIdlePool<PooledWebDriver> pool = this.getPool(key);
+      int missing = Math.min(entry.getValue(), this.maxIdle) - pool.getIdleCount()
+        - this.prefetching.getOrDefault(key, 0);
+      for (int i = 0; i < missing && available > 0; i++, available--, started++) {
+        this.prefetching.merge(key, 1, Integer::sum);
+        WebDriverSessionFactory factory =
+          new WebDriverSessionFactory(key, testName, browsers.get(key));
+        KiteExecutors.get(ExecutorPool.BROWSER_IO).execute(() -> this.prefetch(key, pool, factory));
+      }
+    }
+    return started;
+  }
+  
+  private void prefetch(String key, BoundedIdlePool<PooledWebDriver> pool,
+                        WebDriverSessionFactory factory) {
+    synchronized (this) {
+      this.creating.merge(key, 1, Integer::sum);
+    }
+    try {
+      pool.release(factory.createNew());
+    } catch (Exception e) {
+      logger.warn("Unable to prefetch a session: " + e.getLocalizedMessage());
+    } finally {
+      synchronized (this) {
+        this.prefetching.merge(key, -1, Integer::sum);
+        this.creating.merge(key, -1, Integer::sum);
+        this.prefetched.merge(key, 1L, Long::sum);
+        this.notifyAll();
+      }
+    }
+  }
+  
+  /**
+   * Waits for the end of a prefetch of the given session key, if one of the sessions being
+   * created is not already awaited by another test. The prefetches still queued are not awaited,
+   * since they may wait for the thread of the caller.
+   *
+   * @return true if a prefetch has ended, its session being idle unless the prefetch failed.
+   */
+  private synchronized boolean awaitPrefetch(String key) {
+    if (this.creating.getOrDefault(key, 0) <= this.awaiting.getOrDefault(key, 0)) {
+      return false;
+    }
+    long ended = this.prefetched.getOrDefault(key, 0L);
+    this.awaiting.merge(key, 1, Integer::sum);
+    try {
+      while (this.prefetched.getOrDefault(key, 0L) == ended) {
+        this.wait();
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      this.awaiting.merge(key, -1, Integer::sum);
+    }
+  }
+  
+  private BoundedIdlePool<PooledWebDriver> getPool(String key) {
+    return this.pools.computeIfAbsent(key,
+      k -> new BoundedIdlePool<>(this.maxIdle, this.validator));
+  }
+  
+  /**
+   * Gives back the web drivers of a finished test. The pooled sessions are reset and kept if they
+   * can be reused, the other web drivers are closed.
+   *
+   * @param webDriverList the web drivers
+   */
+  public void release(List<WebDriver> webDriverList) {
+    for (WebDriver webDriver : webDriverList) {
+      PooledWebDriver pooledWebDriver = this.borrowed.remove(webDriver);
+      if (pooledWebDriver == null) {
+        WebDriverUtility.closeDrivers(Collections.singletonList(webDriver));
+        continue;
+      }
+      pooledWebDriver.reset();
+      BoundedIdlePool<PooledWebDriver> pool = this.pools.get(pooledWebDriver.getKey());
+      if (pool != null) {
+        pool.release(pooledWebDriver);
+      } else {
+        this.validator.invalidate(pooledWebDriver);
+      }
+    }
+  }
+  
+  /**
+   * Gets the number of idle sessions.
+   *
+   * @return the number of sessions waiting to be reused
+   */
+  public int getIdleCount() {
+    int count = 0;
+    for (BoundedIdlePool<PooledWebDriver> pool : this.pools.values()) {
+      count += pool.getIdleCount();
+    }
+    return count;
+  }
+  
+  /**
+   * Closes all the idle sessions. The sessions still used by a test are closed when released, the
+   * sessions being prefetched as soon as they are created.
+   */
+  public synchronized void shutdown() {
+    int idleCount = this.getIdleCount();
+    if (idleCount > 0) {
+      logger.info("Closing " + idleCount + " pooled sessions");
+    }
+    for (String key : this.pools.keySet()) {
+      BoundedIdlePool<PooledWebDriver> pool = this.pools.remove(key);
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+  
+  /**
+   * Checks whether the sessions of the given endPoint can be pooled. The mobile devices only host
+   * one session at a time and the apps are reinstalled for each test, so only the desktop browsers
+   * are pooled.
+   */
+  private static boolean isPoolable(EndPoint endPoint) {
+    if (!(endPoint instanceof Browser)) {
+      return false;
+    }
+    Browser browser = (Browser) endPoint;
+    return browser.getMobile() == null && !"fennec".equalsIgnoreCase(browser.getBrowserName())
+      && (browser.getVersion() == null || !browser.getVersion().startsWith("fennec"));
+  }
+  
+}
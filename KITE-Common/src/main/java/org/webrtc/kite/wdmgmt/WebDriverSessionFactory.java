@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite.wdmgmt;
+
+import com.cosmo.kite.pool.ObjectFactory;
+import org.openqa.selenium.WebDriverException;
+import org.webrtc.kite.config.Browser;
+
+import java.net.MalformedURLException;
+
+/**
+ * Creates a session of a WebDriverPool for a test, when no idle session with the same session key
+ * can be reused. A new factory is used for each request of a session, so that the session is
+ * named after the test requesting it.
+ */
+class WebDriverSessionFactory implements ObjectFactory<PooledWebDriver> {
+  
+  private final String key;
+  private final String testName;
+  private final Browser browser;
+  
+  /**
+   * Constructs a new WebDriverSessionFactory.
+   *
+   * @param key      the session key
+   * @param testName the name of the test requesting the session
+   * @param browser  the Browser of the test, with this session key
+   */
+  WebDriverSessionFactory(String key, String testName, Browser browser) {
+    this.key = key;
+    this.testName = testName;
+    this.browser = browser;
+  }
+  
+  /**
+   * Creates a new session.
+   *
+   * @return a new PooledWebDriver
+   * @throws WebDriverException if the session could not be created
+   */
+  @Override
+  public PooledWebDriver createNew() {
+    try {
+      return new PooledWebDriver(this.key,
+        WebDriverFactory.createWebDriver(this.browser, this.testName, ""));
+    } catch (MalformedURLException e) {
+      throw new WebDriverException("Invalid remote address " + this.browser.getRemoteAddress(), e);
+    }
+  }
+  
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite.wdmgmt;
+
+import com.cosmo.kite.pool.Pool.Validator;
+
+import java.util.Collections;
+
+/**
+ * Decides whether a session of a WebDriverPool can be reused: it must not have been broken by its
+ * reset, must not have been used too many times or for too long, and must still answer.
+ * The invalid sessions are quit.
+ */
+class WebDriverSessionValidator implements Validator<PooledWebDriver> {
+  
+  private final int maxReuse;
+  private final long timeToLive;
+  
+  /**
+   * Constructs a new WebDriverSessionValidator.
+   *
+   * @param maxReuse   the maximum number of tests using the same session
+   * @param timeToLive the maximum age of a session, in ms
+   */
+  WebDriverSessionValidator(int maxReuse, long timeToLive) {
+    this.maxReuse = maxReuse;
+    this.timeToLive = timeToLive;
+  }
+  
+  @Override
+  public void invalidate(PooledWebDriver pooledWebDriver) {
+    WebDriverUtility.closeDrivers(Collections.singletonList(pooledWebDriver.getWebDriver()));
+  }
+  
+  @Override
+  public boolean isValid(PooledWebDriver pooledWebDriver) {
+    if (pooledWebDriver.isBroken() || pooledWebDriver.getUses() >= this.maxReuse
+      || System.currentTimeMillis() - pooledWebDriver.getCreationTime() >= this.timeToLive) {
+      return false;
+    }
+    return WebDriverUtility.isAlive(pooledWebDriver.getWebDriver());
+  }
+  
+}
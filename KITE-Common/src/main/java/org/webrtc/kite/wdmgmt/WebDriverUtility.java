@@ -124,7 +124,7 @@ public class WebDriverUtility {
       }
   }
   
-  private static Boolean isAlive(WebDriver webDriver) {
+  static Boolean isAlive(WebDriver webDriver) {
     try {
       webDriver.getCurrentUrl();
       return true;
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.executor;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BoundedExecutorTest extends TestCase {
+
+  private BoundedExecutor pool;
+
+  @Override
+  protected void setUp() {
+    this.pool = new BoundedExecutor("test", 8, new ThreadPoolExecutor(8, 8, 1, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>()), false);
+  }
+
+  @Override
+  protected void tearDown() {
+    this.pool.closeNow();
+  }
+
+  public void testViewRunsAtMostItsLimit() throws Exception {
+    BoundedExecutor view = this.pool.view(3);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger largest = new AtomicInteger();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      futures.add(view.submit(() -> {
+        largest.accumulateAndGet(running.incrementAndGet(), Math::max);
+        Thread.sleep(10);
+        running.decrementAndGet();
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    assertEquals(3, largest.get());
+    // the tasks are counted as completed just after their future
+    long deadline = System.currentTimeMillis() + 10000;
+    while (this.pool.getCompletedCount() < 20 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(20, view.getCompletedCount());
+    assertEquals(20, this.pool.getCompletedCount());
+  }
+
+  public void testViewDoesNotHoldThePoolThreads() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    BoundedExecutor view = this.pool.view(2);
+    for (int i = 0; i < 10; i++) {
+      view.submit(() -> {
+        latch.await();
+        return null;
+      });
+    }
+    // the tasks waiting in the view leave the other threads of the pool available
+    assertEquals("done", this.pool.submit(() -> "done").get(10, TimeUnit.SECONDS));
+    assertEquals(8, view.getQueueDepth());
+    latch.countDown();
+  }
+
+  public void testShutDownViewCompletesItsTasksAndRejectsNewOnes() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    AtomicInteger executed = new AtomicInteger();
+    BoundedExecutor view = this.pool.view(1);
+    for (int i = 0; i < 3; i++) {
+      view.execute(() -> {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        executed.incrementAndGet();
+      });
+    }
+    view.shutdown();
+    assertTrue(view.isShutdown());
+    assertFalse(view.isTerminated());
+    try {
+      view.execute(executed::incrementAndGet);
+      fail("a shut down view must reject the new tasks");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertFalse(view.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+    latch.countDown();
+    assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(view.isTerminated());
+    assertEquals(3, executed.get());
+    // the pool and its other views keep running
+    assertFalse(this.pool.isShutdown());
+    assertEquals("done", this.pool.view(1).submit(() -> "done").get(10, TimeUnit.SECONDS));
+  }
+
+  public void testShutDownNowViewReturnsItsQueuedTasks() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch latch = new CountDownLatch(1);
+    AtomicInteger executed = new AtomicInteger();
+    BoundedExecutor view = this.pool.view(1);
+    view.execute(() -> {
+      started.countDown();
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      executed.incrementAndGet();
+    });
+    for (int i = 0; i < 3; i++) {
+      view.execute(executed::incrementAndGet);
+    }
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertEquals(3, view.shutdownNow().size());
+    assertEquals(0, view.getQueueDepth());
+    // the active task is not interrupted
+    assertFalse(view.isTerminated());
+    latch.countDown();
+    assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, executed.get());
+  }
+
+  public void testPoolShutdownIsIgnored() throws Exception {
+    this.pool.shutdown();
+    assertTrue(this.pool.shutdownNow().isEmpty());
+    assertFalse(this.pool.isShutdown());
+    assertEquals("done", this.pool.submit(() -> "done").get(10, TimeUnit.SECONDS));
+  }
+}
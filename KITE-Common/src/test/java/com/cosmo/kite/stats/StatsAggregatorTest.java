@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.stats;
+
+import junit.framework.TestCase;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class StatsAggregatorTest extends TestCase {
+
+  private static final String[] DIRECTIONS = {"in", "out", "both"};
+
+  public void testStoreAndStatsArrayGiveTheSameSummary() {
+    for (int seed = 0; seed < 200; seed++) {
+      Random random = new Random(seed);
+      StatsStore statsStore = randomStore(random, 1 + random.nextInt(20));
+      JsonObject statsArray = toStatsArray(statsStore);
+      for (String direction : DIRECTIONS) {
+        StatsAggregator fromStore = new StatsAggregator(direction);
+        StatsAggregator fromJson = new StatsAggregator(direction);
+        for (int row = 0; row < statsStore.size(); row++) {
+          fromStore.add(statsStore, row);
+          fromJson.add(statsArray.getJsonArray("statsArray").getJsonObject(row));
+        }
+        String context = "seed " + seed + ", " + direction;
+        assertEquals(context, fromJson.getCsvBuilder().build(), fromStore.getCsvBuilder().build());
+        assertEquals(context, toJson(fromJson.getHistograms()), toJson(fromStore.getHistograms()));
+      }
+    }
+  }
+
+  /**
+   * Generates samples of the stats read by the aggregator, with the values of the standard and of
+   * the legacy getStats(): numbers, numeric strings, invalid and missing values.
+   */
+  static StatsStore randomStore(Random random, int sampleCount) {
+    StatsStore statsStore = new StatsStore();
+    long bytes = 0;
+    long packets = 0;
+    long lost = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      bytes += random.nextInt(100000);
+      packets += random.nextInt(500);
+      lost += random.nextInt(5);
+      long timestamp = 1500000000000L + 1000L * i + random.nextInt(10);
+      if (random.nextInt(20) == 0) {
+        statsStore.add(timestamp, null);
+        continue;
+      }
+      List<Object> stats = new ArrayList<>();
+      for (String id : new String[]{"CP1", "CP2"}) {
+        Map<String, Object> pair = stat(random, id, "candidate-pair", timestamp);
+        put(random, pair, "state", pick(random, "succeeded", "in-progress", "failed"));
+        put(random, pair, "currentRoundTripTime", randomValue(random, random.nextInt(300) / 1000d));
+        put(random, pair, "totalRoundTripTime", randomValue(random, random.nextInt(3000) / 1000d));
+        put(random, pair, "bytesSent", randomValue(random, bytes));
+        put(random, pair, "bytesReceived", randomValue(random, bytes / 2));
+        add(random, stats, pair);
+      }
+      for (String type : new String[]{"inbound-rtp", "outbound-rtp"}) {
+        for (String mediaType : new String[]{"audio", "video"}) {
+          Map<String, Object> rtp = stat(random, type + "-" + mediaType, type, timestamp);
+          put(random, rtp, "mediaType", pick(random, mediaType, mediaType, "audio"));
+          put(random, rtp, "bytesSent", randomValue(random, bytes));
+          put(random, rtp, "bytesReceived", randomValue(random, bytes));
+          put(random, rtp, "packetsReceived", randomValue(random, packets));
+          put(random, rtp, "packetsLost", randomValue(random, lost));
+          put(random, rtp, "jitter", randomValue(random, random.nextInt(100) / 1000d));
+          add(random, stats, rtp);
+        }
+      }
+      add(random, stats, stat(random, "codec1", "codec", timestamp));
+      statsStore.add(timestamp, stats);
+    }
+    return statsStore;
+  }
+
+  /**
+   * Builds the statsArray of the stat maps of a store, as StatsUtils.getPCStatOvertime() does
+   * without selected stats, for the stats read by the aggregator.
+   */
+  static JsonObject toStatsArray(StatsStore statsStore) {
+    JsonArrayBuilder statsArray = Json.createArrayBuilder();
+    for (int row = 0; row < statsStore.size(); row++) {
+      Map<String, JsonObjectBuilder> types = new LinkedHashMap<>();
+      List<Object> stats = statsStore.getStats(row);
+      for (Object stat : stats != null ? stats : new ArrayList<>()) {
+        Map<Object, Object> statMap = new LinkedHashMap<Object, Object>((Map<?, ?>) stat);
+        String type = (String) statMap.get("type");
+        RTCStatObject statObject = "candidate-pair".equals(type) ? new RTCIceCandidatePairStats(statMap)
+          : "inbound-rtp".equals(type) ? new RTCRTPStreamStats(statMap, true)
+          : "outbound-rtp".equals(type) ? new RTCRTPStreamStats(statMap, false)
+          : null;
+        if (statObject != null) {
+          types.computeIfAbsent(type, t -> Json.createObjectBuilder())
+            .add(statObject.getId(), statObject.getJsonObjectBuilder());
+        }
+      }
+      JsonObjectBuilder sample = Json.createObjectBuilder();
+      types.forEach(sample::add);
+      statsArray.add(sample);
+    }
+    return Json.createObjectBuilder().add("statsArray", statsArray).build();
+  }
+
+  private static JsonObject toJson(Map<String, StatsHistogram> histograms) {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    histograms.forEach((name, histogram) -> builder.add(name, histogram.getJsonObjectBuilder(true)));
+    return builder.build();
+  }
+
+  private static Map<String, Object> stat(Random random, String id, String type, long timestamp) {
+    Map<String, Object> stat = new LinkedHashMap<>();
+    stat.put("id", id);
+    stat.put("type", type);
+    stat.put("timestamp", random.nextInt(10) == 0 ? (Object) (timestamp + 0.5)
+      : random.nextBoolean() ? (Object) timestamp : Long.toString(timestamp));
+    return stat;
+  }
+
+  private static void add(Random random, List<Object> stats, Map<String, Object> stat) {
+    if (random.nextInt(10) != 0) {
+      stats.add(stat);
+    }
+  }
+
+  private static void put(Random random, Map<String, Object> stat, String name, Object value) {
+    if (random.nextInt(15) != 0) {
+      stat.put(name, value);
+    }
+  }
+
+  private static Object pick(Random random, Object... values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  /**
+   * The value as a number or a numeric string, or an unusual value.
+   */
+  private static Object randomValue(Random random, Object value) {
+    switch (random.nextInt(12)) {
+      case 0:
+        return 0L;
+      case 1:
+        return "NA";
+      case 2:
+        return "1.50";
+      case 3:
+        return true;
+      case 4:
+      case 5:
+        return value.toString();
+      default:
+        return value;
+    }
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.stats;
+
+import junit.framework.TestCase;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class StatsDeltaCodecTest extends TestCase {
+
+  private final FakePage page = new FakePage();
+  private final StatsSampler sampler = new StatsSampler(page.webDriver(), "window.pc", 1000);
+  /* the stats taken in the page, by sample */
+  private final List<List<List<Map<String, Object>>>> taken = new ArrayList<>();
+
+  @Override
+  protected void setUp() {
+    this.sampler.setBatchSize(4);
+    this.sampler.start();
+  }
+
+  public void testSamplesAreDecodedAsTaken() {
+    Random random = new Random(1);
+    for (int i = 0; i < 30; i++) {
+      this.sample(stats(random, i, 0), stats(random, i, 1));
+    }
+    List<StatsSampler.Sample> samples = this.sampler.drainAll();
+    this.assertDecoded(samples, 0);
+
+    // the stats which did not change are not sent again
+    Map<?, ?> encoded = (Map<?, ?>) this.page.lastEncoded.get(0);
+    assertFalse(encoded.containsKey("f"));
+    assertFalse(((Map<?, ?>) encoded.get("d")).containsKey("RTCCodec_0"));
+  }
+
+  public void testLostBatchIsCountedAsDropped() {
+    Random random = new Random(2);
+    for (int i = 0; i < 3; i++) {
+      this.sample(stats(random, i, 0));
+    }
+    this.assertDecoded(this.sampler.drain(), 0);
+
+    for (int i = 3; i < 6; i++) {
+      this.sample(stats(random, i, 0));
+    }
+    this.page.loseNextBatch = true;
+    try {
+      this.sampler.drain();
+      fail("the batch should have been lost");
+    } catch (WebDriverException e) {
+      // the page has encoded the batch, the sampler has not received it
+    }
+
+    for (int i = 6; i < 9; i++) {
+      this.sample(stats(random, i, 0));
+    }
+    // the next batch is encoded against the base of the last received sample
+    List<StatsSampler.Sample> samples = this.sampler.drain();
+    assertEquals(3, samples.size());
+    this.assertDecoded(samples, 6);
+    assertEquals(3, this.sampler.getDroppedCount());
+  }
+
+  public void testPeerConnectionsComingAndGoing() {
+    Random random = new Random(3);
+    // a second peer connection is added, removed, fails, then comes back
+    this.sample(stats(random, 0, 0));
+    this.sample(stats(random, 1, 0), stats(random, 1, 1));
+    this.sample(stats(random, 2, 0));
+    this.sample(stats(random, 3, 0), null);
+    this.sample();
+    this.sample(stats(random, 5, 0), stats(random, 5, 1));
+    this.sample(null, stats(random, 6, 1));
+    this.sample(stats(random, 7, 0), stats(random, 7, 1));
+
+    List<StatsSampler.Sample> samples = this.sampler.stop();
+    assertEquals(8, samples.size());
+    this.assertDecoded(samples, 0);
+    assertEquals(1, samples.get(2).getPeerConnectionCount());
+    assertNull(samples.get(3).getStats(1));
+    assertEquals(0, samples.get(4).getPeerConnectionCount());
+    assertNull(samples.get(6).getStats(0));
+  }
+
+  public void testSamplesAreDecodedInAnyOrder() {
+    Random random = new Random(4);
+    for (int i = 0; i < 10; i++) {
+      this.sample(stats(random, i, 0));
+    }
+    List<StatsSampler.Sample> samples = this.sampler.drainAll();
+    // the last sample first, its previous samples being decoded before it
+    assertEquals(this.taken.get(9).get(0), samples.get(9).getStats(0));
+    this.assertDecoded(samples, 0);
+  }
+
+  private void sample(List<Map<String, Object>>... pcStats) {
+    List<List<Map<String, Object>>> stats = Arrays.asList(pcStats);
+    this.taken.add(stats);
+    this.page.sample(stats);
+  }
+
+  private void assertDecoded(List<StatsSampler.Sample> samples, int firstSeq) {
+    for (int i = 0; i < samples.size(); i++) {
+      StatsSampler.Sample sample = samples.get(i);
+      assertEquals(firstSeq + i, sample.getSeq());
+      List<List<Map<String, Object>>> stats = this.taken.get((int) sample.getSeq());
+      assertEquals(stats.size(), sample.getPeerConnectionCount());
+      for (int pc = 0; pc < stats.size(); pc++) {
+        assertEquals("sample " + sample.getSeq() + ", pc " + pc, stats.get(pc),
+          sample.getStats(pc));
+      }
+    }
+  }
+
+  /**
+   * Generates the stats of a peer connection: a codec which never changes, an inbound stream whose
+   * counters grow and which loses its qpSum every third sample, and a candidate pair which comes
+   * and goes.
+   */
+  private static List<Map<String, Object>> stats(Random random, int index, int pc) {
+    List<Map<String, Object>> stats = new ArrayList<>();
+    stats.add(stat("RTCCodec_" + pc, "codec", "mimeType", "video/VP8", "clockRate", 90000L));
+    Map<String, Object> inbound = stat("RTCInboundRTPVideoStream_" + pc, "inbound-rtp",
+      "bytesReceived", 1000L * index + random.nextInt(1000),
+      "framesDecoded", 30L * index,
+      "trackIds", Arrays.asList("track" + pc, "track" + (index / 4)));
+    if (index % 3 != 2) {
+      inbound.put("qpSum", (long) random.nextInt(100));
+    }
+    stats.add(inbound);
+    if (index % 5 < 3) {
+      stats.add(stat("RTCIceCandidatePair_" + pc, "candidate-pair",
+        "currentRoundTripTime", random.nextInt(10) / 100.0));
+    }
+    return stats;
+  }
+
+  private static Map<String, Object> stat(String id, String type, Object... fields) {
+    Map<String, Object> stat = new LinkedHashMap<>();
+    stat.put("id", id);
+    stat.put("type", type);
+    for (int i = 0; i < fields.length; i += 2) {
+      stat.put((String) fields[i], fields[i + 1]);
+    }
+    return stat;
+  }
+
+  /**
+   * Encodes the stats of a peer connection as StatsDeltaCodec.ENCODER does in the page.
+   */
+  static Object encodeStats(List<Map<String, Object>> stats, List<Map<String, Object>> base) {
+    if (stats == null) {
+      return null;
+    }
+    if (base == null) {
+      return Collections.singletonMap("f", stats);
+    }
+    Map<Object, Map<String, Object>> previous = new LinkedHashMap<>();
+    for (Map<String, Object> stat : base) {
+      previous.put(stat.get("id"), stat);
+    }
+    Map<String, Object> changes = new LinkedHashMap<>();
+    List<Object> added = new ArrayList<>();
+    Set<Object> present = new LinkedHashSet<>();
+    for (Map<String, Object> stat : stats) {
+      present.add(stat.get("id"));
+      Map<String, Object> prev = previous.get(stat.get("id"));
+      if (prev == null || !stat.keySet().containsAll(prev.keySet())) {
+        added.add(stat);
+        continue;
+      }
+      Map<String, Object> changed = new LinkedHashMap<>();
+      for (Map.Entry<String, Object> field : stat.entrySet()) {
+        // same as JSON.stringify() equality for the values returned by WebDriver
+        if (!Objects.equals(field.getValue(), prev.get(field.getKey()))) {
+          changed.put(field.getKey(), field.getValue());
+        }
+      }
+      if (!changed.isEmpty()) {
+        changes.put(String.valueOf(stat.get("id")), changed);
+      }
+    }
+    List<Object> removed = new ArrayList<>();
+    for (Map<String, Object> stat : base) {
+      if (!present.contains(stat.get("id"))) {
+        removed.add(stat.get("id"));
+      }
+    }
+    Map<String, Object> encoded = new LinkedHashMap<>();
+    encoded.put("d", changes);
+    encoded.put("n", added);
+    encoded.put("r", removed);
+    return encoded;
+  }
+
+  /**
+   * A page running the sampler script of a StatsSampler, without browser: the samples are added by
+   * the test instead of the timer, and the retrieval script is executed as in the page.
+   */
+  static class FakePage {
+
+    private static final Pattern ACKED_BATCH = Pattern.compile("s\\.batch\\.id === (\\d+)\\)");
+    private static final Pattern BATCH_SIZE = Pattern.compile("samples\\.length < (\\d+)\\)");
+
+    private final Deque<Item> items = new ArrayDeque<>();
+    private long seq = 0;
+    private long dropped = 0;
+    private List<List<Map<String, Object>>> base = new ArrayList<>();
+    private long batchId = 0;
+    private Batch batch = null;
+    /* whether the response of the next retrieval is lost on the way */
+    boolean loseNextBatch = false;
+    /* the encoded stats of the last sample retrieved */
+    List<Object> lastEncoded;
+
+    WebDriver webDriver() {
+      return (WebDriver) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+        new Class<?>[]{WebDriver.class, JavascriptExecutor.class}, (proxy, method, args) -> {
+          if (!"executeScript".equals(method.getName())) {
+            throw new UnsupportedOperationException(method.getName());
+          }
+          return this.execute((String) args[0]);
+        });
+    }
+
+    void sample(List<List<Map<String, Object>>> stats) {
+      this.items.add(new Item(this.seq++, System.currentTimeMillis(), stats));
+    }
+
+    private Object execute(String script) {
+      if (script.contains("KITEStatsSamplers = window.KITEStatsSamplers ||")) {
+        // start(): the samples are taken by the test
+        return null;
+      }
+      long ackedBatch = this.parse(ACKED_BATCH, script);
+      if (this.batch != null && this.batch.id == ackedBatch) {
+        this.base = this.batch.base;
+      } else if (this.batch != null) {
+        this.dropped += this.batch.size;
+      }
+      boolean deltaEncoding = script.contains("encodeStats(stats, base[i])");
+      List<List<Map<String, Object>>> base = new ArrayList<>(this.base);
+      List<Object> samples = new ArrayList<>();
+      long batchSize = this.parse(BATCH_SIZE, script);
+      while (!this.items.isEmpty() && samples.size() < batchSize) {
+        Item item = this.items.poll();
+        Map<String, Object> sample = new LinkedHashMap<>();
+        sample.put("seq", item.seq);
+        sample.put("timestamp", item.timestamp);
+        sample.put("stats", item.stats);
+        if (deltaEncoding) {
+          List<Object> encoded = new ArrayList<>();
+          for (int i = 0; i < item.stats.size(); i++) {
+            List<Map<String, Object>> pcStats = item.stats.get(i);
+            encoded.add(encodeStats(pcStats, i < base.size() ? base.get(i) : null));
+            if (pcStats != null) {
+              while (base.size() <= i) {
+                base.add(null);
+              }
+              base.set(i, pcStats);
+            }
+          }
+          sample.put("stats", encoded);
+          sample.put("encoded", true);
+          this.lastEncoded = encoded;
+        }
+        samples.add(sample);
+      }
+      this.batch = new Batch(++this.batchId, base, samples.size());
+      if (this.loseNextBatch) {
+        this.loseNextBatch = false;
+        throw new WebDriverException("Timed out receiving message from renderer");
+      }
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("samples", samples);
+      result.put("dropped", this.dropped);
+      result.put("skipped", 0L);
+      result.put("batch", this.batch.id);
+      return result;
+    }
+
+    private long parse(Pattern pattern, String script) {
+      Matcher matcher = pattern.matcher(script);
+      assertTrue(pattern.pattern(), matcher.find());
+      return Long.parseLong(matcher.group(1));
+    }
+
+    private static class Item {
+
+      final long seq;
+      final long timestamp;
+      final List<List<Map<String, Object>>> stats;
+
+      Item(long seq, long timestamp, List<List<Map<String, Object>>> stats) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.stats = stats;
+      }
+    }
+
+    private static class Batch {
+
+      final long id;
+      final List<List<Map<String, Object>>> base;
+      final int size;
+
+      Batch(long id, List<List<Map<String, Object>>> base, int size) {
+        this.id = id;
+        this.base = base;
+        this.size = size;
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.stats;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class StatsHistogramTest extends TestCase {
+
+  private static final double[] PERCENTILES = {0, 1, 10, 25, 50, 75, 90, 95, 99, 99.9, 100};
+
+  public void testPercentilesAreWithinOneSubBucket() {
+    for (int seed = 0; seed < 50; seed++) {
+      Random random = new Random(seed);
+      StatsHistogram histogram = new StatsHistogram();
+      List<Double> values = new ArrayList<>();
+      int count = 1 + random.nextInt(2000);
+      for (int i = 0; i < count; i++) {
+        // spread over the range of the buckets
+        double value = seed % 2 == 0
+          ? Math.scalb(1 + random.nextDouble(), random.nextInt(50) - 10)
+          : random.nextDouble() * 1000;
+        values.add(value);
+        histogram.record(value);
+      }
+      Collections.sort(values);
+      for (double percentile : PERCENTILES) {
+        double exact = exactPercentile(values, percentile);
+        double value = histogram.getValueAtPercentile(percentile);
+        // the middle of the sub-bucket, 1/32 of its power of two wide
+        assertEquals("seed " + seed + ", p" + percentile, exact, value, exact / 64 * (1 + 1e-12));
+      }
+      assertEquals(values.get(0), histogram.getMin());
+      assertEquals(values.get(count - 1), histogram.getMax());
+      assertEquals(count, histogram.getCount());
+    }
+  }
+
+  public void testValuesAtTheLowerLimit() {
+    double limit = Math.scalb(1d, -10);
+    StatsHistogram histogram = new StatsHistogram();
+    histogram.record(1e-6);
+    histogram.record(Math.nextDown(limit));
+    histogram.record(limit);
+    for (int i = 0; i < 7; i++) {
+      histogram.record(1);
+    }
+    // the values below 2^-10 are counted as 0, the exact minimum being kept
+    assertEquals(1e-6, histogram.getValueAtPercentile(10));
+    assertEquals(1e-6, histogram.getValueAtPercentile(20));
+    assertEquals(1e-6, histogram.getMin());
+    // 2^-10 has its own bucket
+    assertEquals(limit, histogram.getValueAtPercentile(30), limit / 64);
+    assertEquals(1, histogram.getValueAtPercentile(50), 1d / 64);
+
+    StatsHistogram zero = new StatsHistogram();
+    zero.record(0);
+    zero.record(0);
+    zero.record(1);
+    assertEquals(0d, zero.getValueAtPercentile(50));
+  }
+
+  public void testValuesAtTheUpperLimit() {
+    double limit = Math.scalb(1d, 40);
+    StatsHistogram histogram = new StatsHistogram();
+    for (int i = 0; i < 7; i++) {
+      histogram.record(1);
+    }
+    histogram.record(limit);
+    histogram.record(Math.scalb(1d, 45));
+    histogram.record(Math.scalb(1d, 50));
+    // 2^40 has its own bucket
+    assertEquals(limit, histogram.getValueAtPercentile(80), limit / 64);
+    // the larger values are counted in the last bucket, below 2^41, the exact maximum being kept
+    double beyond = histogram.getValueAtPercentile(90);
+    assertTrue(beyond > limit && beyond < Math.scalb(1d, 41));
+    assertEquals(Math.scalb(1d, 50), histogram.getValueAtPercentile(100));
+    assertEquals(Math.scalb(1d, 50), histogram.getMax());
+  }
+
+  public void testInvalidValuesAreIgnored() {
+    StatsHistogram histogram = new StatsHistogram();
+    histogram.record(-1);
+    histogram.record(Double.NaN);
+    histogram.record(Double.POSITIVE_INFINITY);
+    assertEquals(0, histogram.getCount());
+    assertTrue(Double.isNaN(histogram.getValueAtPercentile(50)));
+    histogram.record(2);
+    assertEquals(1, histogram.getCount());
+    assertEquals(2d, histogram.getValueAtPercentile(50));
+  }
+
+  public void testMergeIsTheSameAsRecordingAllTheValues() {
+    Random random = new Random(7);
+    StatsHistogram all = new StatsHistogram();
+    StatsHistogram merged = new StatsHistogram();
+    StatsHistogram mergedFromJson = new StatsHistogram();
+    Map<String, StatsHistogram> byName = new LinkedHashMap<>();
+    for (int participant = 0; participant < 10; participant++) {
+      StatsHistogram histogram = new StatsHistogram();
+      // some participants have no value
+      int count = participant % 4 == 3 ? 0 : random.nextInt(500);
+      for (int i = 0; i < count; i++) {
+        double value = random.nextInt(20) == 0 ? 0 : Math.exp(random.nextGaussian() * 5);
+        histogram.record(value);
+        all.record(value);
+      }
+      merged.merge(histogram);
+      mergedFromJson.merge(StatsHistogram.fromJson(histogram.getJsonObjectBuilder(true).build()));
+      StatsHistogram.merge(byName, Collections.singletonMap("rtt", histogram));
+    }
+
+    for (StatsHistogram histogram : Arrays.asList(merged, mergedFromJson, byName.get("rtt"))) {
+      assertEquals(all.getCount(), histogram.getCount());
+      assertEquals(all.getMin(), histogram.getMin());
+      assertEquals(all.getMax(), histogram.getMax());
+      assertEquals(all.getMean(), histogram.getMean(), all.getMean() * 1e-12);
+      for (double percentile : PERCENTILES) {
+        assertEquals("p" + percentile, all.getValueAtPercentile(percentile),
+          histogram.getValueAtPercentile(percentile));
+      }
+      assertEquals(all.getJsonObjectBuilder(true).build().getJsonArray("buckets"),
+        histogram.getJsonObjectBuilder(true).build().getJsonArray("buckets"));
+    }
+  }
+
+  /* the smallest value which the given percentage of the values are lower than or equal to */
+  private static double exactPercentile(List<Double> sortedValues, double percentile) {
+    int rank = (int) Math.max(1, Math.ceil(percentile / 100 * sortedValues.size()));
+    return sortedValues.get(Math.min(rank, sortedValues.size()) - 1);
+  }
+}
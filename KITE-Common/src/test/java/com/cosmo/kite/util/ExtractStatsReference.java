@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.util;
+
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.text.DecimalFormat;
+
+import static com.cosmo.kite.util.ReportUtils.getStackTrace;
+import static com.cosmo.kite.util.StatsUtils.getRTCStats;
+import static com.cosmo.kite.util.StatsUtils.getSuccessfulCandidate;
+import static com.cosmo.kite.util.StatsUtils.isDouble;
+import static com.cosmo.kite.util.StatsUtils.isLong;
+
+/**
+ * The former multi-pass StatsUtils.extractStats(JsonObject, String), kept as the reference of the
+ * summary computed by the StatsAggregator. The intermediate JSON object of the successful candidate
+ * pair and of the RTP stats of each sample is built first, then walked by each computation.
+ */
+final class ExtractStatsReference {
+
+  private static final Logger logger = Logger.getLogger(ExtractStatsReference.class.getName());
+
+  private static final String[] candidatePairStats = {"bytesSent", "bytesReceived", "currentRoundTripTime", "totalRoundTripTime", "timestamp"};
+  private static final String[] inboundStats = {"bytesReceived", "packetsReceived", "packetsLost", "jitter", "timestamp"};
+  private static final String[] outboundStats = {"bytesSent", "timestamp"};
+
+  private ExtractStatsReference() {
+  }
+
+  static JsonObjectBuilder extractStats(JsonObject obj, String direction) {
+    JsonObjectBuilder mainBuilder = Json.createObjectBuilder();
+    JsonArray jsonArray = obj.getJsonArray("statsArray");
+    int noStats = 0;
+    if (jsonArray != null) {
+      noStats = jsonArray.size();
+      for (int i = 0; i < noStats; i++) {
+        mainBuilder.add("candidate-pair_" + i, getStatsJsonBuilder(jsonArray.getJsonObject(i), candidatePairStats, "candidate-pair", ""));
+        if ("both".equalsIgnoreCase(direction) || "in".equalsIgnoreCase(direction)) {
+          mainBuilder.add("inbound-audio_" + i,
+            getStatsJsonBuilder(jsonArray.getJsonObject(i), inboundStats, "inbound-rtp", "audio"));
+          mainBuilder.add("inbound-video_" + i,
+            getStatsJsonBuilder(jsonArray.getJsonObject(i), inboundStats, "inbound-rtp", "video"));
+        }
+        if ("both".equalsIgnoreCase(direction) || "out".equalsIgnoreCase(direction)) {
+          mainBuilder.add("outbound-audio_" + i,
+            getStatsJsonBuilder(jsonArray.getJsonObject(i), outboundStats, "outbound-rtp", "audio"));
+          mainBuilder.add("outbound-video_" + i,
+            getStatsJsonBuilder(jsonArray.getJsonObject(i), outboundStats, "outbound-rtp", "video"));
+        }
+      }
+    } else {
+      logger.error("statsArray is null");
+    }
+    JsonObject result = mainBuilder.build();
+    JsonObjectBuilder csvBuilder = Json.createObjectBuilder();
+    csvBuilder.add("currentRoundTripTime (ms)", computeRoundTripTime(result, noStats, "current"));
+    csvBuilder.add("totalRoundTripTime (ms)", computeRoundTripTime(result, noStats, "total"));
+    csvBuilder.add("totalBytesReceived (Bytes)", totalBytes(result, noStats, "Received"));
+    csvBuilder.add("totalBytesSent (Bytes)", totalBytes(result, noStats, "Sent"));
+    csvBuilder.add("avgSentBitrate (bps)", computeBitrate(result, noStats, "Sent", "candidate-pair"));
+    csvBuilder.add("avgReceivedBitrate (bps)", computeBitrate(result, noStats, "Received", "candidate-pair"));
+    if ("both".equalsIgnoreCase(direction) || "in".equalsIgnoreCase(direction)) {
+      csvBuilder.add("inboundAudioBitrate (bps)", computeBitrate(result, noStats, "in", "audio"));
+      csvBuilder.add("inboundVideoBitrate (bps)", computeBitrate(result, noStats, "in", "video"));
+    }
+    if ("both".equalsIgnoreCase(direction) || "out".equalsIgnoreCase(direction)) {
+      csvBuilder.add("outboundAudioBitrate (bps)", computeBitrate(result, noStats, "out", "audio"));
+      csvBuilder.add("outboundVideoBitrate (bps)", computeBitrate(result, noStats, "out", "video"));
+    }
+    if ("both".equalsIgnoreCase(direction) || "in".equalsIgnoreCase(direction)) {
+      csvBuilder.add("audioJitter (ms)", computeAudioJitter(result, noStats));
+      csvBuilder.add("audioPacketsLoss (%)", computePacketsLoss(result, noStats, "audio"));
+      csvBuilder.add("videoPacketsLoss (%)", computePacketsLoss(result, noStats, "video"));
+    }
+    return csvBuilder;
+  }
+
+  private static String getJsonObjectName(String direction, String mediaType) {
+    if ("candidate-pair".equals(mediaType)) {
+      return "candidate-pair_";
+    }
+    return direction + "bound-" + mediaType + "_";
+  }
+
+  private static String getJsonKey(String direction) {
+    if ("Sent".equals(direction) || "out".equals(direction)) {
+      return "bytesSent";
+    }
+    if ("Received".equals(direction) || "in".equals(direction)) {
+      return "bytesReceived";
+    }
+    return null;
+  }
+
+  private static String computeBitrate(JsonObject jsonObject, int noStats, String direction, String mediaType) {
+    long bytesStart = 0;
+    long bytesEnd = 0;
+    long tsStart = 0;
+    long tsEnd = 0;
+    long avgBitrate = 0;
+    try {
+      if (noStats < 2) {
+        return "Error: less than 2 stats";
+      }
+      String jsonObjName = getJsonObjectName(direction, mediaType);
+      String jsonKey = getJsonKey(direction);
+      for (int i = 0; i < noStats; i++) {
+        String s = jsonObject.getJsonObject(jsonObjName + i).getString(jsonKey);
+        if (s != null && !"NA".equals(s) && isLong(s)) {
+          long b = Long.parseLong(s);
+          bytesStart = (bytesStart == 0 || b < bytesStart) ? b : bytesStart;
+          bytesEnd = (bytesEnd == 0 || b > bytesEnd) ? b : bytesEnd;
+        }
+        String ts = jsonObject.getJsonObject(jsonObjName + i).getString("timestamp");
+        if (ts != null && !"NA".equals(ts) && isLong(ts)) {
+          long b = Long.parseLong(ts);
+          if (i == 0) {
+            tsStart = b;
+          }
+          if (i == noStats - 1) {
+            tsEnd = b;
+          }
+        }
+      }
+      if (tsEnd != tsStart) {
+        long timediff = (tsEnd - tsStart);
+        avgBitrate = (8000 * (bytesEnd - bytesStart)) / timediff;
+        avgBitrate = (avgBitrate < 0) ? avgBitrate * -1 : avgBitrate;
+        return "" + (avgBitrate);
+      } else {
+        logger.error("computeBitrate() tsEnd == tsStart : " + tsEnd + " , " + tsStart);
+      }
+    } catch (NullPointerException npe) {
+      logger.error("NullPointerException in computeBitrate");
+    }
+    return "";
+  }
+
+  private static String computeRoundTripTime(JsonObject jsonObject, int noStats, String prefix) {
+    double rtt = 0;
+    int ct = 0;
+    try {
+      for (int i = 0; i < noStats; i++) {
+        String s = jsonObject.getJsonObject("candidate-pair_" + i).getString(prefix + "RoundTripTime");
+        if (s != null && !"NA".equals(s) && !"0".equals(s) && isDouble(s)) {
+          rtt += 1000 * Double.parseDouble(s);
+          ct++;
+        }
+      }
+    } catch (NullPointerException npe) {
+      logger.error("Unable to find " + prefix + "RoundTripTime in the stats. ");
+    }
+    if (ct > 0) {
+      return "" + ((int) rtt / ct);
+    }
+    return "";
+  }
+
+  private static String computeAudioJitter(JsonObject jsonObject, int noStats) {
+    double jitter = 0;
+    int ct = 0;
+    if (noStats < 2) return ""; //min two stats
+    try {
+      for (int i = 0; i < noStats; i++) {
+        JsonObject myObject = jsonObject.getJsonObject("inbound-audio_" + i);
+        if (myObject != null) {
+          String s = myObject.getString("jitter");
+          if (s != null && !"NA".equals(s) && isDouble(s)) {
+            jitter += (1000 * Double.parseDouble(s));
+            ct++;
+          }
+        }
+      }
+      if (ct > 0) {
+        return "" + (jitter / ct);
+      }
+    } catch (Exception e) {
+      logger.error("Unable to find jitter in the inbound audio stats.");
+    }
+    return "";
+  }
+
+  private static String computePacketsLoss(JsonObject jsonObject, int noStats, String mediaType) {
+    if (noStats < 1) return ""; // min one stats
+    try {
+      JsonObject myObject = jsonObject.getJsonObject("inbound-" + mediaType + "_" + (noStats - 1));
+      if (myObject != null) {
+        String s = myObject.getString("packetsReceived");
+        String l = myObject.getString("packetsLost");
+        if (s != null && !"NA".equals(s) && isLong(s)
+          && l != null && !"NA".equals(l) && isLong(l)) {
+          long packetsLost = Long.parseLong(l);
+          long totalPackets = Long.parseLong(s) + packetsLost;
+          if (totalPackets > 0) {
+            double packetLoss = (packetsLost * 1000) / totalPackets;
+            return "" + (new DecimalFormat("#0.000").format(packetLoss / 1000));
+          }
+        }
+      }
+    } catch (Exception e) {
+      logger.error("" + getStackTrace(e));
+    }
+    return "";
+  }
+
+  private static String totalBytes(JsonObject jsonObject, int noStats, String direction) {
+    long bytes = 0;
+    try {
+      for (int i = 0; i < noStats; i++) {
+        String s = jsonObject.getJsonObject("candidate-pair_" + i).getString("bytes" + direction);
+        if (s != null && !"NA".equals(s) && isLong(s)) {
+          long b = Long.parseLong(s);
+          bytes = Math.max(b, bytes);
+        }
+      }
+    } catch (NullPointerException npe) {
+      logger.error("Unable to find \"bytes" + direction + "\" in the stats. ");
+    }
+    return "" + bytes;
+  }
+
+  private static JsonObjectBuilder getStatsJsonBuilder(JsonObject jsonObject, String[] stringArray, String stats, String mediaType) {
+    JsonObjectBuilder subBuilder = Json.createObjectBuilder();
+    JsonObject myObj = "candidate-pair".equals(stats) ? getSuccessfulCandidate(jsonObject)
+      : getRTCStats(jsonObject, stats, mediaType);
+    if (myObj != null) {
+      for (String name : stringArray) {
+        if (myObj.containsKey(name)) {
+          subBuilder.add(name, myObj.getString(name));
+        }
+      }
+    }
+    return subBuilder;
+  }
+}
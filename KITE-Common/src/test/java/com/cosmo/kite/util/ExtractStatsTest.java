@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) CoSMo Software Consulting Pte. Ltd. - All Rights Reserved
+ */
+
+package com.cosmo.kite.util;
+
+import junit.framework.TestCase;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.Random;
+
+public class ExtractStatsTest extends TestCase {
+
+  private static final String[] DIRECTIONS = {"in", "out", "both"};
+  private static final String[] STATES = {"succeeded", "in-progress", "waiting"};
+
+  private Level level;
+
+  @Override
+  protected void setUp() {
+    // the invalid stats are logged by both computations
+    this.level = Logger.getRootLogger().getLevel();
+    Logger.getRootLogger().setLevel(Level.OFF);
+  }
+
+  @Override
+  protected void tearDown() {
+    Logger.getRootLogger().setLevel(this.level);
+  }
+
+  public void testSinglePassGivesTheSameSummaryAsTheReference() {
+    int bitrates = 0;
+    for (int seed = 0; seed < 2000; seed++) {
+      Random random = new Random(seed);
+      JsonObject obj = randomStats(random);
+      for (String direction : DIRECTIONS) {
+        JsonObject expected = ExtractStatsReference.extractStats(obj, direction).build();
+        assertEquals("seed " + seed + ", " + direction + ": " + obj, expected,
+          StatsUtils.extractStats(obj, direction).build());
+        if (expected.getString("avgSentBitrate (bps)").matches("[0-9]+")) {
+          bitrates++;
+        }
+      }
+    }
+    // the samples are not all degenerate
+    assertTrue(bitrates > 400);
+  }
+
+  /**
+   * Generates a statsArray with missing stats and invalid values, a missing statsArray once in a
+   * while.
+   */
+  private static JsonObject randomStats(Random random) {
+    int sampleCount = random.nextInt(6);
+    JsonArrayBuilder statsArray = Json.createArrayBuilder();
+    for (int i = 0; i < sampleCount; i++) {
+      statsArray.add(sample(random, 1000L * i + random.nextInt(3)));
+    }
+    if (random.nextInt(50) == 0) {
+      return Json.createObjectBuilder().build();
+    }
+    return Json.createObjectBuilder().add("statsArray", statsArray).build();
+  }
+
+  private static JsonObject sample(Random random, long timestamp) {
+    JsonObjectBuilder sample = Json.createObjectBuilder();
+    if (random.nextInt(8) > 0) {
+      JsonObjectBuilder candidatePairs = Json.createObjectBuilder();
+      int count = 1 + random.nextInt(3);
+      for (int i = 0; i < count; i++) {
+        candidatePairs.add("c" + i, Json.createObjectBuilder()
+          .add("state", STATES[random.nextInt(STATES.length)])
+          .add("currentRoundTripTime", value(random, true))
+          .add("totalRoundTripTime", value(random, true))
+          .add("bytesSent", value(random, false))
+          .add("bytesReceived", value(random, false))
+          .add("timestamp", "" + timestamp));
+      }
+      sample.add("candidate-pair", candidatePairs);
+    }
+    if (random.nextInt(6) > 0) {
+      JsonObjectBuilder inbound = Json.createObjectBuilder();
+      if (random.nextBoolean()) {
+        inbound.add("a", rtp(random, "audio", true, timestamp));
+      }
+      if (random.nextInt(5) > 0) {
+        inbound.add("v", rtp(random, "video", true, timestamp));
+      }
+      sample.add("inbound-rtp", inbound);
+    }
+    if (random.nextInt(6) > 0) {
+      JsonObjectBuilder outbound = Json.createObjectBuilder();
+      if (random.nextInt(5) > 0) {
+        outbound.add("a", rtp(random, "audio", false, timestamp));
+      }
+      if (random.nextBoolean()) {
+        outbound.add("v", rtp(random, "video", false, timestamp));
+      }
+      sample.add("outbound-rtp", outbound);
+    }
+    return sample.build();
+  }
+
+  private static JsonObject rtp(Random random, String mediaType, boolean inbound, long timestamp) {
+    JsonObjectBuilder rtp = Json.createObjectBuilder()
+      .add("mediaType", mediaType)
+      .add("timestamp", random.nextInt(12) == 0 ? "NA" : "" + timestamp);
+    if (inbound) {
+      if (random.nextInt(15) > 0) {
+        rtp.add("bytesReceived", value(random, false));
+      }
+      rtp.add("packetsReceived", value(random, false)).add("packetsLost", value(random, false));
+      if (random.nextInt(15) > 0) {
+        rtp.add("jitter", value(random, true));
+      }
+    } else {
+      rtp.add("bytesSent", value(random, false));
+    }
+    return rtp.build();
+  }
+
+  private static String value(Random random, boolean decimal) {
+    switch (random.nextInt(10)) {
+      case 0:
+        return "NA";
+      case 1:
+        return "0";
+      case 2:
+        return "abc";
+      default:
+        return decimal ? "" + (random.nextDouble() / 10) : "" + random.nextInt(100000);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite.wdmgmt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.openqa.selenium.WebDriver;
+import org.webrtc.kite.config.Browser;
+import org.webrtc.kite.config.EndPoint;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class WebDriverPoolTest extends TestCase {
+
+  private final WebDriverPool pool = WebDriverPool.getInstance();
+  private FakeHub hub;
+
+  @Override
+  protected void setUp() throws IOException {
+    // each test has its own hub, so that its sessions have their own session keys
+    this.hub = new FakeHub();
+  }
+
+  @Override
+  protected void tearDown() {
+    this.pool.shutdown();
+    this.hub.stop();
+  }
+
+  public void testReleasedSessionIsReusedUnderItsFirstName() throws Exception {
+    WebDriver first = this.pool.getWebDriver("Test A", this.hub.browser(70));
+    this.pool.release(Collections.singletonList(first));
+    assertEquals(1, this.pool.getIdleCount());
+    assertEquals(Collections.singletonList("about:blank"), this.hub.navigations);
+
+    WebDriver second = this.pool.getWebDriver("Test B", this.hub.browser(70));
+    assertSame(first, second);
+    assertEquals(0, this.pool.getIdleCount());
+    // the reused session keeps the name of the test which created it
+    assertEquals(Collections.singletonList("Test A"), this.hub.names);
+    assertEquals(1, this.hub.sessions.size());
+    this.pool.release(Collections.singletonList(second));
+  }
+
+  public void testBorrowedSessionsAreNotShared() throws Exception {
+    WebDriver first = this.pool.getWebDriver("Test A", this.hub.browser(70));
+    WebDriver second = this.pool.getWebDriver("Test B", this.hub.browser(70));
+    assertNotSame(first, second);
+    assertEquals(Arrays.asList("Test A", "Test B"), this.hub.names);
+    this.pool.release(Arrays.asList(first, second));
+    assertEquals(2, this.pool.getIdleCount());
+    assertEquals(2, this.hub.sessions.size());
+  }
+
+  public void testCapabilitiesAreNotMixed() throws Exception {
+    WebDriver chrome70 = this.pool.getWebDriver("Test A", this.hub.browser(70));
+    this.pool.release(Collections.singletonList(chrome70));
+    WebDriver chrome71 = this.pool.getWebDriver("Test B", this.hub.browser(71));
+    assertNotSame(chrome70, chrome71);
+    assertEquals(Arrays.asList("Test A", "Test B"), this.hub.names);
+    this.pool.release(Collections.singletonList(chrome71));
+  }
+
+  public void testSessionFailingItsResetIsClosed() throws Exception {
+    WebDriver webDriver = this.pool.getWebDriver("Test A", this.hub.browser(70));
+    this.hub.failing = true;
+    this.pool.release(Collections.singletonList(webDriver));
+    assertEquals(0, this.pool.getIdleCount());
+    assertTrue(this.hub.sessions.isEmpty());
+
+    this.hub.failing = false;
+    WebDriver next = this.pool.getWebDriver("Test B", this.hub.browser(70));
+    assertNotSame(webDriver, next);
+    assertEquals(Arrays.asList("Test A", "Test B"), this.hub.names);
+    this.pool.release(Collections.singletonList(next));
+  }
+
+  public void testDeadSessionIsNotReused() throws Exception {
+    WebDriver webDriver = this.pool.getWebDriver("Test A", this.hub.browser(70));
+    this.pool.release(Collections.singletonList(webDriver));
+    // the grid has closed the idle session
+    this.hub.sessions.clear();
+    WebDriver next = this.pool.getWebDriver("Test B", this.hub.browser(70));
+    assertNotSame(webDriver, next);
+    assertEquals(Arrays.asList("Test A", "Test B"), this.hub.names);
+    this.pool.release(Collections.singletonList(next));
+  }
+
+  public void testPrefetchedSessionsAreBoundedAndReused() throws Exception {
+    List<List<EndPoint>> tuples = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      tuples.add(Arrays.<EndPoint>asList(this.hub.browser(70), this.hub.browser(70)));
+    }
+    // 6 sessions needed, only 3 can be created
+    assertEquals(3, this.pool.prefetch("Test P", tuples, 3));
+    // the sessions already being created are not requested again
+    assertEquals(0, this.pool.prefetch("Test P", tuples, 3));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (this.pool.getIdleCount() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(3, this.pool.getIdleCount());
+    assertEquals(Arrays.asList("Test P", "Test P", "Test P"), this.hub.names);
+
+    List<WebDriver> webDrivers = new ArrayList<>();
+    for (String testName : Arrays.asList("Test A", "Test B", "Test C", "Test D")) {
+      webDrivers.add(this.pool.getWebDriver(testName, this.hub.browser(70)));
+    }
+    // the prefetched sessions are used first
+    assertEquals(Arrays.asList("Test P", "Test P", "Test P", "Test D"), this.hub.names);
+    this.pool.release(webDrivers);
+    assertEquals(4, this.pool.getIdleCount());
+    assertEquals(4, this.hub.sessions.size());
+  }
+
+  public void testShutdownClosesTheIdleSessions() throws Exception {
+    WebDriver first = this.pool.getWebDriver("Test A", this.hub.browser(70));
+    WebDriver second = this.pool.getWebDriver("Test B", this.hub.browser(71));
+    this.pool.release(Collections.singletonList(first));
+    this.pool.shutdown();
+    assertEquals(0, this.pool.getIdleCount());
+    assertEquals(1, this.hub.sessions.size());
+    // the session still used when the pool was shut down is closed when released
+    this.pool.release(Collections.singletonList(second));
+    assertTrue(this.hub.sessions.isEmpty());
+  }
+
+  /**
+   * A Selenium hub answering the W3C commands used by the WebDriverPool, without any browser.
+   */
+  static class FakeHub {
+
+    private final HttpServer server;
+    /* names of the created sessions, in creation order */
+    final List<String> names = Collections.synchronizedList(new ArrayList<>());
+    /* urls opened by the sessions */
+    final List<String> navigations = Collections.synchronizedList(new ArrayList<>());
+    /* ids of the sessions not quit */
+    final Set<String> sessions = ConcurrentHashMap.newKeySet();
+    /* whether the commands other than new session and quit fail */
+    volatile boolean failing = false;
+
+    FakeHub() throws IOException {
+      this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      this.server.createContext("/wd/hub", this::handle);
+      this.server.start();
+    }
+
+    Browser browser(int version) {
+      return new Browser("http://localhost:" + this.server.getAddress().getPort() + "/wd/hub",
+        Json.createObjectBuilder()
+          .add("browserName", "chrome")
+          .add("version", "" + version)
+          .add("platform", "LINUX")
+          .build());
+    }
+
+    void stop() {
+      this.server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      String method = exchange.getRequestMethod();
+      String[] path = exchange.getRequestURI().getPath().substring("/wd/hub/".length()).split("/");
+      JsonObject body = JsonValue.EMPTY_JSON_OBJECT;
+      if ("POST".equals(method)) {
+        try (JsonReader reader = Json.createReader(
+          new InputStreamReader(exchange.getRequestBody(), "UTF-8"))) {
+          body = reader.readObject();
+        }
+      }
+      if (path.length == 1) {
+        JsonObject desired = body.getJsonObject("desiredCapabilities");
+        String sessionId = "session" + this.names.size();
+        this.names.add(desired.getString("name"));
+        this.sessions.add(sessionId);
+        this.reply(exchange, 200, Json.createObjectBuilder()
+          .add("sessionId", sessionId)
+          .add("capabilities", Json.createObjectBuilder()
+            .add("browserName", desired.getString("browserName"))
+            .add("browserVersion", desired.getString("version"))
+            .add("version", desired.getString("version"))
+            .add("platform", "LINUX")
+            .add("platformName", "linux"))
+          .build());
+        return;
+      }
+      String sessionId = path[1];
+      if (!this.sessions.contains(sessionId)) {
+        this.error(exchange, 404, "invalid session id");
+        return;
+      }
+      String command = method + " " + (path.length > 2 ? path[2] : "")
+        + (path.length > 3 ? "/" + path[3] : "");
+      if ("DELETE ".equals(command)) {
+        this.sessions.remove(sessionId);
+        this.reply(exchange, 200, JsonValue.NULL);
+      } else if (this.failing) {
+        this.error(exchange, 500, "unknown error");
+      } else if ("GET url".equals(command)) {
+        this.reply(exchange, 200, Json.createValue("about:blank"));
+      } else if ("POST url".equals(command)) {
+        this.navigations.add(body.getString("url"));
+        this.reply(exchange, 200, JsonValue.NULL);
+      } else if ("GET window/handles".equals(command)) {
+        this.reply(exchange, 200, Json.createArrayBuilder().add("main").build());
+      } else {
+        // window switch, script execution, cookies deletion
+        this.reply(exchange, 200, JsonValue.NULL);
+      }
+    }
+
+    private void error(HttpExchange exchange, int status, String error) throws IOException {
+      this.reply(exchange, status, Json.createObjectBuilder()
+        .add("error", error)
+        .add("message", error)
+        .add("stacktrace", "")
+        .build());
+    }
+
+    private void reply(HttpExchange exchange, int status, JsonValue value) throws IOException {
+      byte[] bytes = Json.createObjectBuilder().add("value", value).build().toString()
+        .getBytes("UTF-8");
+      exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.json.Json;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the generation of a non-permuted matrix by TupleGenerator with the former approach,
+ * which generated all the n^tupleSize permutations and removed the duplicates by comparing every
+ * pair of tuples.
+ * <p>
+ * Run with: mvn -Pbenchmark -pl KITE-Engine test-compile exec:java
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class TupleGeneratorBenchmark {
+
+  @Param({"20", "50", "100"})
+  private int endPoints;
+
+  @Param({"2"})
+  private int tupleSize;
+
+  private List<EndPoint> endPointList;
+
+  @Setup
+  public void setup() {
+    this.endPointList = new ArrayList<>();
+    for (int i = 0; i < this.endPoints; i++) {
+      this.endPointList.add(new Browser("http://localhost:4444/wd/hub",
+        Json.createObjectBuilder()
+          .add("browserName", "chrome")
+          .add("version", String.valueOf(i))
+          .add("platform", "LINUX")
+          .build()));
+    }
+  }
+
+  @Benchmark
+  public long combinations() {
+    return new TupleGenerator(this.endPointList, this.tupleSize, false, false).count();
+  }
+
+  @Benchmark
+  public long filterPermutations() {
+    List<List<EndPoint>> listOfTuples = new ArrayList<>();
+    long totalTuples = (long) Math.pow(this.endPointList.size(), this.tupleSize);
+    for (long tupleIndex = 0; tupleIndex < totalTuples; tupleIndex++) {
+      List<EndPoint> tuple = new ArrayList<>();
+      long index = tupleIndex;
+      for (int i = 0; i < this.tupleSize; i++) {
+        tuple.add(0, this.endPointList.get((int) (index % this.endPointList.size())));
+        index /= this.endPointList.size();
+      }
+      listOfTuples.add(tuple);
+    }
+
+    List<List<EndPoint>> listOfBrowserList = new ArrayList<>(listOfTuples);
+    for (int i = 0; i < listOfBrowserList.size(); i++) {
+      for (int j = i + 1; j < listOfBrowserList.size(); j++) {
+        if (listMatch(listOfBrowserList.get(i), listOfBrowserList.get(j))) {
+          listOfTuples.remove(listOfBrowserList.get(j));
+        }
+      }
+    }
+    return listOfTuples.size();
+  }
+
+  private static boolean listMatch(List<EndPoint> elements1, List<EndPoint> elements2) {
+    if (elements1.size() != elements2.size()) {
+      return false;
+    }
+    List<EndPoint> work = new ArrayList<>(elements2);
+    for (EndPoint element : elements1) {
+      if (!work.remove(element)) {
+        return false;
+      }
+    }
+    return work.isEmpty();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(TupleGeneratorBenchmark.class.getSimpleName())
+      .build()).run();
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import com.cosmo.kite.executor.ExecutorPool;
+import com.cosmo.kite.executor.KiteExecutors;
+import org.apache.log4j.Logger;
+
+import javax.json.JsonObject;
+import java.util.concurrent.Future;
+
+/**
+ * A TestResultListener posting each result to the callback URL of its TestConf.
+ * <p>
+ * The results containing "meta" (first and last tests) are posted synchronously, the others are
+ * posted by the shared reporting pool.
+ */
+public class CallbackResultListener implements TestResultListener {
+
+  private static final Logger logger = Logger.getLogger(CallbackResultListener.class.getName());
+
+  private final String callbackURL;
+
+  /**
+   * Constructs a new CallbackResultListener with the given callbackURL.
+   *
+   * @param callbackURL a string representation of the callback URL.
+   */
+  public CallbackResultListener(String callbackURL) {
+    this.callbackURL = callbackURL;
+  }
+
+  @Override
+  public void onResult(TestManager testManager, Future<Object> future) {
+    JsonObject testResult;
+    try {
+      testResult = (JsonObject) future.get();
+    } catch (Exception e) {
+      logger.error("No result to post for " + testManager.getTestName(), e);
+      return;
+    }
+
+    CallbackThread callbackThread = new CallbackThread(this.callbackURL, testResult);
+    // if no "meta", post result in other thread; if "meta", post result in same thread
+    // "meta" is included for the first and last tests, that are executed synchronously
+    if (testResult.getString("meta", null) == null) {
+      KiteExecutors.get(ExecutorPool.REPORTING).execute(callbackThread::postResult);
+    } else {
+      callbackThread.postResult();
+    }
+  }
+
+}
@@ -26,6 +26,7 @@ import org.webrtc.kite.scheduler.MatrixRunnerJobListener;
 
 import javax.json.JsonException;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -51,15 +52,59 @@ public class Engine {
   //Logger must be called after setting the system property "current.data"
   private static final Logger logger = Logger.getLogger(Engine.class.getName());
 
+  private static final String USAGE = "java -jar KITE.jar <absolute path/config.json>"
+      + " [--shard <i>/<N>] [--run-id <id>] | <absolute path/config.json> --merge <N>"
+      + " [--run-id <id>]";
+
   /**
    * main method
+   * <p>
+   * With --shard i/N, only the i-th of N shards of the matrix is run. With --merge N, the outputs
+   * of the N shards are merged once they are all done (see ShardCoordinator). With --run-id, the
+   * run can be resumed after a crash by restarting it with the same run id (see RunJournal), and
+   * the shards of the run write their outputs in their own folders, merged by the coordinator
+   * started with the same run id.
    *
-   * @param args relative or absolute path of the configuration file.
+   * @param args relative or absolute path of the configuration file, followed by the options.
    */
   public static void main(String[] args) {
 
     if (args.length < 1) {
-      logger.error("Error [Missing Argument]: Use java -jar KITE.jar <absolute path/config.json>");
+      logger.error("Error [Missing Argument]: Use " + USAGE);
+      return;
+    }
+
+    try {
+      if (args.length >= 3 && args[1].equals("--merge")) {
+        String runId = null;
+        if (args.length == 5 && args[3].equals("--run-id")) {
+          Configurator.getInstance().setRunId(args[4]);
+          runId = args[4];
+        } else if (args.length != 3) {
+          throw new IllegalArgumentException("Unexpected options after --merge");
+        }
+        merge(args[0], Integer.parseInt(args[2]), runId);
+        return;
+      }
+      for (int i = 1; i < args.length; i += 2) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing value for " + args[i]);
+        }
+        switch (args[i]) {
+          case "--shard":
+            String[] shard = args[i + 1].split("/");
+            Configurator.getInstance()
+                .setShard(Integer.parseInt(shard[0]), Integer.parseInt(shard[1]));
+            break;
+          case "--run-id":
+            Configurator.getInstance().setRunId(args[i + 1]);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+      }
+    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+      logger.error("Error [Bad Argument]: " + e.getLocalizedMessage() + ". Use " + USAGE);
       return;
     }
 
@@ -138,4 +183,27 @@ public class Engine {
 
   }
 
+  /**
+   * Waits for the shards of a sharded run to be done and merges their outputs.
+   *
+   * @param configFilePath relative or absolute path of the configuration file.
+   * @param shardCount     number of shards.
+   * @param runId          the id of the run, null if the run has no id.
+   */
+  private static void merge(String configFilePath, int shardCount, String runId) {
+    try {
+      String reportFolder = Utility.getJsonObject(configFilePath).getString("reportFolder", null);
+      ShardCoordinator coordinator = new ShardCoordinator(reportFolder, shardCount, runId);
+      coordinator.awaitShards();
+      coordinator.merge();
+    } catch (FileNotFoundException e) {
+      logger.fatal("Error [File Not Found]: '" + configFilePath
+          + "' either doesn't exist or is not a file.", e);
+    } catch (IOException e) {
+      logger.fatal("Error [Merge]: Unable to merge the shards: " + e.getLocalizedMessage(), e);
+    } catch (InterruptedException e) {
+      logger.fatal("Error [Interruption]: The merge has been interrupted", e);
+    }
+  }
+
 }
@@ -21,15 +21,21 @@ import com.cosmo.kite.report.custom_kite_allure.Reporter;
 import org.apache.log4j.Logger;
 import org.webrtc.kite.config.*;
 import org.webrtc.kite.config.EndPoint;
+import org.webrtc.kite.wdmgmt.WebDriverPool;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.cosmo.kite.util.ReportUtils.timestamp;
 
@@ -42,271 +48,379 @@ public class MatrixRunner {
   
   private TestConf testConf;
   private String testName;
-  private List<List<EndPoint>> listOfTuples;
+  private Iterable<List<EndPoint>> listOfTuples;
   private int numberOfThread;
-  private List<List<EndPoint>> multiThreadedList = new ArrayList<List<EndPoint>>();
-  private List<List<EndPoint>> singleThreadedList = new ArrayList<List<EndPoint>>();
   
   private Container testSuite;
+  private List<TestResultListener> resultListeners = new ArrayList<>();
+  private RunJournal journal = null;
+  private SlotBudget slotBudget = null;
+  private String journalPrefix = "";
+  private final Map<TestManager, String> journalKeys = new ConcurrentHashMap<>();
   
   /**
-   * Constructs a new MatrixRunner with the given TestConf and List<List<EndPoint>>.
+   * Constructs a new MatrixRunner with the given TestConf and tuples.
    *
    * @param testConf     TestConf
-   * @param listOfTuples a list of tuples (containing 1 or multiples kite config objects).
+   * @param listOfTuples the tuples (containing 1 or multiples kite config objects), usually a
+   *                     TupleGenerator. Each iteration must return the same tuples in the same
+   *                     order.
    * @param testName     name of the running test suite.
    */
-  public MatrixRunner(TestConf testConf, List<List<EndPoint>> listOfTuples, String testName) {
+  public MatrixRunner(TestConf testConf, Iterable<List<EndPoint>> listOfTuples, String testName) {
     this.testConf = testConf;
+    // The shards must share the same suite name to be merged, it is not timestamped.
     this.testSuite = new Container(testConf.getName().contains("%ts") ?
-      testConf.getName().replaceAll("%ts", "") + " Suite (" + timestamp() + ")" : testConf.getName());
+      testConf.getName().replaceAll("%ts", "") + (Configurator.getInstance().isSharded() ?
+        " Suite" : " Suite (" + timestamp() + ")") : testConf.getName());
     this.testName = testName;
     this.listOfTuples = listOfTuples;
     this.numberOfThread = testConf.getNoOfThreads();
   }
   
   /**
-   * Returns a sublist from the given list of the type of objects specified by the objectClass.
+   * Adds a listener notified each time a test of the matrix has finished, in addition to the
+   * callback, report and progress listeners registered by the MatrixRunner itself.
    *
-   * @param futureList  List of Future<Object>
-   * @param objectClass The class for the desired required object list.
-   * @return A sublist from the given list of the type of objects specified by the objectClass.
+   * @param listener the TestResultListener
    */
-  private List<?> getSubList(List<Future<Object>> futureList, Class<?> objectClass) {
-    List<Object> listOfObject = new ArrayList<Object>();
-    for (Future<Object> future : futureList) {
-      try {
-        Object object = future.get();
-        if (objectClass.isInstance(object)) {
-          listOfObject.add(object);
-        }
-      } catch (InterruptedException | ExecutionException e) {
-        logger.error(e);
-      }
-    }
-    return listOfObject;
+  public void addResultListener(TestResultListener listener) {
+    this.resultListeners.add(listener);
+  }
+  
+  /**
+   * Sets the SlotBudget shared with the other MatrixRunner objects running at the same time. The
+   * share of this matrix depends on the priority and weight of its TestConf.
+   *
+   * @param slotBudget the SlotBudget
+   */
+  public void setSlotBudget(SlotBudget slotBudget) {
+    this.slotBudget = slotBudget;
+  }
+  
+  /**
+   * Sets the RunJournal in which the progress of the matrix is recorded. The tuples already
+   * finished according to the journal are not run again.
+   *
+   * @param journal the RunJournal
+   * @param prefix  prefix of the keys of the tuples of this matrix in the journal, to tell apart
+   *                several executions of the same test in the same run.
+   */
+  public void setJournal(RunJournal journal, String prefix) {
+    this.journal = journal;
+    this.journalPrefix = prefix;
   }
   
   /**
-   * Returns a sublist of the given futureList exclusive of the type of objects specified by the
-   * objectClass.
+   * Checks whether a generated tuple has to be run: the test cases with two identical mobile
+   * clients in them are omitted.
    *
-   * @param futureList  List of Future<Object>
-   * @param objectClass The class for the undesired required object.
-   * @return A sublist of the given futureList exclusive of the type of objects specified by the
-   * objectClass.
+   * @param endPointList the tuple
+   * @return false if the tuple contains the same mobile client twice.
    */
-  private List<Future<Object>> getExclusiveSubList(List<Future<Object>> futureList,
-                                                   Class<?> objectClass) {
-    List<Future<Object>> listOfFutureObjects = new ArrayList<Future<Object>>();
-    for (Future<Object> future : futureList) {
-      try {
-        Object object = future.get();
-        if (!objectClass.isInstance(object)) {
-          listOfFutureObjects.add(future);
+  private static boolean isRunnable(List<EndPoint> endPointList) {
+    int mobileCount = 0;
+    Set<EndPoint> set = new LinkedHashSet<>();
+    for (EndPoint endPoint : endPointList) {
+      if (endPoint instanceof Browser) {
+        if (((Browser)endPoint).getMobile() != null || ((Browser) endPoint).getVersion().startsWith("fennec")) {
+          set.add(endPoint);
+          mobileCount++;
         }
-      } catch (InterruptedException | ExecutionException e) {
-        logger.error(e);
       }
     }
-    return listOfFutureObjects;
+    return mobileCount == set.size();
   }
   
   /**
-   * This method builds up singleThreadedList and multiThreadedList as follows:
-   * <p>
-   * 1) Omit all the test cases having 2 identical mobile browsers. 2) Put all the test cases
-   * having microsoft edge or safari into singleThreadedList. 3) Put all the rest of test cases into
-   * multiThreadedList.
+   * Returns the tuples to run: the runnable generated tuples followed by the custom matrix, with
+   * their index in the whole matrix. If the matrix is sharded, only the tuples of the shard of this
+   * process are returned, the i-th tuple belonging to the shard (i mod shardCount) + 1. If the run
+   * is resumed, the tuples finished according to the RunJournal are skipped.
+   *
+   * @param copy true to copy the endpoints of the generated tuples, which is only needed for the
+   *             tuples that are going to be executed.
+   * @return a lazy Stream<IndexedTuple>
    */
-  private void purgeListOfBrowserList() {
-    
-    List<List<EndPoint>> customBrowserMatrix = Configurator.getInstance().getCustomBrowserMatrix();
-    if (this.listOfTuples == null) {
-      this.singleThreadedList.addAll(customBrowserMatrix);
-      return;
+  private Stream<IndexedTuple> tuples(boolean copy) {
+    long[] index = {0};
+    Stream<IndexedTuple> tuples = Stream.empty();
+    if (this.listOfTuples != null) {
+      tuples = StreamSupport.stream(this.listOfTuples.spliterator(), false)
+        .filter(MatrixRunner::isRunnable)
+        .map(tuple -> new IndexedTuple(index[0]++, tuple, true));
     }
+    // The custom matrix is indexed after the generated tuples, which are consumed first
+    tuples = Stream.concat(tuples, Configurator.getInstance().getCustomBrowserMatrix().stream()
+      .map(tuple -> new IndexedTuple(index[0]++, tuple, false)));
     
-    for (List<EndPoint> endPointList : this.listOfTuples) {
+    Configurator configurator = Configurator.getInstance();
+    if (configurator.isSharded()) {
+      tuples = tuples.filter(tuple -> ShardCoordinator.isInShard(tuple.index,
+        configurator.getShardIndex(), configurator.getShardCount()));
+    }
+    if (this.journal != null) {
+      tuples = tuples
+        .map(tuple -> {
+          tuple.journalKey = this.getJournalKey(tuple);
+          return tuple;
+        })
+        .filter(tuple -> !this.journal.isFinished(tuple.journalKey));
+    }
+    if (copy) {
+      tuples = tuples.map(tuple -> tuple.generated ? tuple.copy() : tuple);
+    }
+    return tuples;
+  }
+  
+  /**
+   * Returns the key identifying a tuple in the RunJournal: the same tuple of the same test must
+   * have the same key when the run is restarted with the same config.
+   */
+  private String getJournalKey(IndexedTuple tuple) {
+    return this.getJournalKeyPrefix() + tuple.index + "#"
+      + Integer.toHexString(tuple.endPointList.toString().hashCode());
+  }
+  
+  private String getJournalKeyPrefix() {
+    return this.journalPrefix + this.testConf.getName() + "#";
+  }
+  
+  /**
+   * Returns an iterator creating the TestManager objects of the matrix as they are requested.
+   * The identifiers of the tests are their index in the whole matrix, even if it is sharded.
+   */
+  private Iterator<TestManager> testManagerIterator() {
+    Iterator<IndexedTuple> tupleIterator = this.tuples(true).iterator();
+    return new Iterator<TestManager>() {
+      @Override
+      public boolean hasNext() {
+        return tupleIterator.hasNext();
+      }
       
-      // Omit test cases with two identical mobile clients in them.
-      int mobileCount = 0;
-      Set<EndPoint> set = new LinkedHashSet<>();
-      for (EndPoint endPoint : endPointList) {
-        if (endPoint instanceof Browser) {
-          if (((Browser)endPoint).getMobile() != null || ((Browser) endPoint).getVersion().startsWith("fennec")) {
-            set.add(endPoint);
-            mobileCount++;
-          }
+      @Override
+      public TestManager next() {
+        IndexedTuple tuple = tupleIterator.next();
+        TestManager manager = new TestManager(testConf, tuple.endPointList,
+          testConf.getRemoteTestIdentifier((int) tuple.index));
+        manager.setTestSuite(testSuite);
+        if (journal != null) {
+          journalKeys.put(manager, tuple.journalKey);
+          journal.scheduled(tuple.journalKey);
         }
+        return manager;
       }
+    };
+  }
+  
+  /**
+   * Returns an iterator over the first count elements of the given iterator.
+   */
+  private static <T> Iterator<T> limit(Iterator<T> iterator, int count) {
+    return new Iterator<T>() {
+      private int remaining = count;
       
-      // Add all the test cases having mobile in single thread list.
-      if (mobileCount > 0) {
-        if (mobileCount == set.size()) {
-          this.singleThreadedList.add(endPointList);
-        }
-        continue;
+      @Override
+      public boolean hasNext() {
+        return this.remaining > 0 && iterator.hasNext();
       }
       
-      // Add the rest of the test cases in multi thread list.
-      this.multiThreadedList.add(endPointList);
-    }
-    
-    this.singleThreadedList.addAll(customBrowserMatrix);
-    
+      @Override
+      public T next() {
+        this.remaining--;
+        return iterator.next();
+      }
+    };
   }
   
   /**
    * Executes the test contained inside the TestManager for the provided matrix.
    * <p>
-   * The algorithm of the method is as follows: 1) Execute the first test. 2) Execute the multi
-   * threaded list. 3) Execute the single threaded list. 4) Execute the last test.
+   * The algorithm of the method is as follows: 1) Execute the first test. 2) Execute all the
+   * other tests but the last one with a TupleScheduler, the tuples containing mobile browsers
+   * being limited to one session per device instead of running in a separate single threaded
+   * phase. Failed tuples are retried individually according to a RetryPolicy. 3) Execute the
+   * last test.
+   * <p>
+   * The TestManager objects, and the copies of the endpoints of their tuple, are only created
+   * when the scheduler is ready to execute them.
+   * <p>
+   * Each result is pushed to the TestResultListener objects as soon as its test has finished: the
+   * result is posted to the callback url, its report files are written and the progress is logged.
    *
-   * @return List<Future   <   Object>>
+   * @return the number of executed tests, 0 if there is no test case.
    * @throws InterruptedException if thread pool is interrupted while waiting, in which case
    *                              unfinished tasks are cancelled
    * @throws ExecutionException   if the computation of the first or last thread threw an exception
    */
-  public List<Future<Object>> run() throws InterruptedException, ExecutionException {
-    
-    // Build single and multi threaded lists
-    this.purgeListOfBrowserList();
+  public int run() throws InterruptedException, ExecutionException {
     
-    int totalTestCases = this.singleThreadedList.size() + this.multiThreadedList.size();
+    if (this.journal != null) {
+      // The results of the tuples finished before the run was resumed are part of this suite
+      for (String reportUuid : this.journal.getFinishedResults(this.getJournalKeyPrefix())) {
+        this.testSuite.addChild(reportUuid);
+      }
+    }
+    int totalTestCases = (int) this.tuples(false).count();
     if (totalTestCases < 1) {
-      return null;
+      if (this.journal != null) {
+        this.testSuite.setStopTimestamp();
+        Reporter.getInstance().generateReportFiles();
+      }
+      return 0;
     }
     
-    int index = 0;
-    TestManager firstTest = null, lastTest = null;
+    Iterator<TestManager> testManagers = this.testManagerIterator();
+    TestManager firstTest = testManagers.next();
+    firstTest.setTotalTests(totalTestCases);
     
-    // singleThreadedList and multiThreadedList manipulation
-    if (this.singleThreadedList.size() > 1) {
-      firstTest = new TestManager(this.testConf, this.singleThreadedList.get(0),
-        this.testConf.getRemoteTestIdentifier(index++));
-      lastTest = new TestManager(this.testConf,
-        this.singleThreadedList.get(this.singleThreadedList.size() - 1),
-        this.testConf.getRemoteTestIdentifier(totalTestCases - 1));
-      
-      this.singleThreadedList.remove(0);
-      this.singleThreadedList.remove(this.singleThreadedList.size() - 1);
-    } else if (this.multiThreadedList.size() > 1) {
-      firstTest = new TestManager(this.testConf, this.multiThreadedList.get(0),
-        this.testConf.getRemoteTestIdentifier(index++));
-      lastTest = new TestManager(this.testConf,
-        this.multiThreadedList.get(this.multiThreadedList.size() - 1),
-        this.testConf.getRemoteTestIdentifier(totalTestCases - 1));
-      
-      this.multiThreadedList.remove(0);
-      this.multiThreadedList.remove(this.multiThreadedList.size() - 1);
-    } else if (this.singleThreadedList.size() == 1 && this.multiThreadedList.size() == 1) {
-      firstTest = new TestManager(this.testConf, this.singleThreadedList.get(0),
-        this.testConf.getRemoteTestIdentifier(index++));
-      lastTest = new TestManager(this.testConf, this.multiThreadedList.get(0),
-        this.testConf.getRemoteTestIdentifier(totalTestCases - 1));
-      
-      this.singleThreadedList.clear();
-      this.multiThreadedList.clear();
-    } else if (this.singleThreadedList.size() == 1) {
-      firstTest = new TestManager(this.testConf, this.singleThreadedList.get(0),
-        this.testConf.getRemoteTestIdentifier(index++));
-      firstTest.setIsLastTest(true);
-      
-      this.singleThreadedList.clear();
-    } else if (this.multiThreadedList.size() == 1) {
-      firstTest = new TestManager(this.testConf, this.multiThreadedList.get(0),
-        this.testConf.getRemoteTestIdentifier(index++));
-      firstTest.setIsLastTest(true);
-      
-      this.multiThreadedList.clear();
+    TupleScheduler scheduler = new TupleScheduler(this.numberOfThread);
+    if (this.testConf.getCallbackURL() == null) {
+      logger.warn("No callback specified for " + this.testConf);
+    } else if (Configurator.getInstance().isSharded()) {
+      // The results are posted by the ShardCoordinator once all the shards are done
+      scheduler.addResultListener(new ShardResultListener(
+        Configurator.getInstance().getShardFolder(), this.testConf.getCallbackURL()));
+    } else {
+      scheduler.addResultListener(new CallbackResultListener(this.testConf.getCallbackURL()));
     }
-    
-    // Set first and last tests
-    if (firstTest != null) {
-      firstTest.setTotalTests(totalTestCases);
+    SlotBudget.Share slotShare = null;
+    if (this.slotBudget != null) {
+      slotShare = this.slotBudget.register(this.testConf.getPriority(), this.testConf.getWeight());
+      scheduler.setSlotShare(slotShare);
     }
-    if (lastTest != null) {
-      lastTest.setIsLastTest(true);
+    if (this.testConf.getPrefetch() > 0) {
+      if (WebDriverPool.isEnabled()) {
+        scheduler.setPrefetch(this.testConf.getPrefetch());
+      } else {
+        logger.warn("prefetch is ignored for " + this.testConf
+          + ", the sessions can only be prefetched with -Dkite.session.pool=true");
+      }
     }
-    
-    List<TestManager> testManagerList = new ArrayList<TestManager>();
-    List<Future<Object>> futureList = null;
-    
-    ExecutorService singleExecutorService = Executors.newFixedThreadPool(1);
-    ExecutorService multiExecutorService =
-      Executors.newFixedThreadPool(this.testConf.getNoOfThreads());
-    
-    logger.info("Executing " + this.testConf + " for " + totalTestCases + " browser tuples ...");
-    
-    try {
-      // Execute the first test
-      if (firstTest != null) {
-        firstTest.setTestSuite(testSuite);
-        testManagerList.add(firstTest);
-        do {
-          futureList = singleExecutorService.invokeAll(testManagerList);
-        } while (futureList.get(0).get() instanceof TestManager); // In case of a needed retry the
-        // instance of TestManger is
-        // simply returned.
-        testManagerList.clear();
+    RetryPolicy retryPolicy = new RetryPolicy(this.testConf);
+    scheduler.setRetryPolicy(retryPolicy);
+    scheduler.addResultListener(new TestResultListener() {
+      @Override
+      public void onResult(TestManager testManager, Future<Object> future) {
+        Reporter.getInstance().generateReportFiles(testManager.getReportUuid());
       }
       
-      // Execute the middle tests in multithreaded mode
-      if (this.multiThreadedList.size() > 0) {
-        for (List<EndPoint> configObjectList : this.multiThreadedList) {
-          TestManager manager = new TestManager(this.testConf, configObjectList,
-            this.testConf.getRemoteTestIdentifier(index++));
-          manager.setTestSuite(testSuite);
-          testManagerList.add(manager);
-        }
-        
-        List<Future<Object>> tempFutureList = null;
-        while (testManagerList.size() > 0) {
-          tempFutureList = multiExecutorService.invokeAll(testManagerList);
-          testManagerList = (List<TestManager>) this.getSubList(tempFutureList, TestManager.class);
-          futureList.addAll(this.getExclusiveSubList(tempFutureList, TestManager.class));
-        }
-        testManagerList.clear();
+      @Override
+      public void onRetry(TestManager testManager, Future<Object> future) {
+        Reporter.getInstance().generateReportFiles(testManager.getReportUuid());
       }
-      
-      // Execute the middle tests in singlethreaded mode
-      if (this.singleThreadedList.size() > 0) {
-        for (List<EndPoint> configObjectList : this.singleThreadedList) {
-          TestManager manager = new TestManager(this.testConf, configObjectList,
-            this.testConf.getRemoteTestIdentifier(index++));
-          manager.setTestSuite(testSuite);
-          testManagerList.add(manager);
+    });
+    if (this.journal != null) {
+      scheduler.addResultListener(new TestResultListener() {
+        @Override
+        public void onStart(TestManager testManager) {
+          journal.started(journalKeys.get(testManager));
         }
-        List<Future<Object>> tempFutureList = null;
-        while (testManagerList.size() > 0) {
-          tempFutureList = singleExecutorService.invokeAll(testManagerList);
-          testManagerList = (List<TestManager>) this.getSubList(tempFutureList, TestManager.class);
-          futureList.addAll(this.getExclusiveSubList(tempFutureList, TestManager.class));
+        
+        @Override
+        public void onResult(TestManager testManager, Future<Object> future) {
+          journal.finished(journalKeys.remove(testManager), testManager.getReportUuid());
         }
-        testManagerList.clear();
+      });
+    }
+    scheduler.addResultListener(new ProgressListener(this.testName, totalTestCases));
+    PhasedEstimate phasedEstimate = new PhasedEstimate();
+    scheduler.addResultListener(phasedEstimate);
+    for (TestResultListener listener : this.resultListeners) {
+      scheduler.addResultListener(listener);
+    }
+    
+    logger.info("Executing " + this.testConf + " for " + totalTestCases + " browser tuples ...");
+    
+    int executedTests = 0;
+    long startTime = System.currentTimeMillis();
+    try {
+      if (totalTestCases == 1) {
+        firstTest.setIsLastTest(true);
       }
-      
-      // Execute the last test
-      if (lastTest != null) {
-        lastTest.setTestSuite(testSuite);
-        testManagerList.add(lastTest);
-        List<Future<Object>> tempFutureList = null;
-        do {
-          tempFutureList = singleExecutorService.invokeAll(testManagerList);
-        } while (tempFutureList.get(0).get() instanceof TestManager); // In case of a needed retry
-        // the instance of TestManger is simply returned.
-        futureList.addAll(tempFutureList);
+      executedTests += scheduler.execute(Collections.singletonList(firstTest).iterator());
+      if (totalTestCases > 1) {
+        executedTests += scheduler.execute(limit(testManagers, totalTestCases - 2));
+        TestManager lastTest = testManagers.next();
+        lastTest.setIsLastTest(true);
+        executedTests += scheduler.execute(Collections.singletonList(lastTest).iterator());
       }
     } finally {
       testSuite.setStopTimestamp();
       Reporter.getInstance().generateReportFiles();
-      multiExecutorService.shutdown();
-      singleExecutorService.shutdown();
+      if (slotShare != null) {
+        slotShare.unregister();
+      }
     }
     
-    return futureList;
+    phasedEstimate.log(executedTests, System.currentTimeMillis() - startTime);
+    logger.info("Retries: " + retryPolicy.getRetries() + " (" + retryPolicy.getRefusedRetries()
+      + " refused), time lost to retries: " + retryPolicy.getTimeLost() / 1000 + "s");
+    return executedTests;
+    
+  }
+  
+  /**
+   * A tuple of the matrix with its index in the whole matrix.
+   */
+  private static class IndexedTuple {
+    
+    private final long index;
+    private final List<EndPoint> endPointList;
+    private final boolean generated;
+    private String journalKey;
+    
+    private IndexedTuple(long index, List<EndPoint> endPointList, boolean generated) {
+      this.index = index;
+      this.endPointList = endPointList;
+      this.generated = generated;
+    }
     
+    /**
+     * Copies the endpoints of a generated tuple so that it can be executed.
+     */
+    private IndexedTuple copy() {
+      IndexedTuple copy = new IndexedTuple(this.index,
+        TupleGenerator.copyTuple(this.endPointList), this.generated);
+      copy.journalKey = this.journalKey;
+      return copy;
+    }
+  }
+  
+  /**
+   * Estimates the wall-clock time the executed tuples would have taken with the former phased
+   * execution (first test, multi threaded list, single threaded list, last test), based on the
+   * measured duration of each test.
+   */
+  private class PhasedEstimate implements TestResultListener {
+    
+    private final PriorityQueue<Long> threadTimes = new PriorityQueue<>();
+    private long sequentialTime = 0;
+    
+    private PhasedEstimate() {
+      for (int i = 0; i < numberOfThread; i++) {
+        this.threadTimes.add(0L);
+      }
+    }
+    
+    @Override
+    public void onResult(TestManager testManager, Future<Object> future) {
+      long timeTaken = testManager.getTimeTaken();
+      if (testManager.isFirstTest() || testManager.isLastTest()
+        || !TupleScheduler.getResources(testManager.getEndPointList()).isEmpty()) {
+        this.sequentialTime += timeTaken;
+      } else {
+        // Middle tests were dispatched to the first free thread by invokeAll.
+        this.threadTimes.add(this.threadTimes.poll() + timeTaken);
+      }
+    }
+    
+    private void log(int executedTests, long wallClockTime) {
+      long phasedTime = Collections.max(this.threadTimes) + this.sequentialTime;
+      logger.info("Executed " + executedTests + " browser tuples in " + wallClockTime / 1000
+        + "s (estimated phased execution: " + phasedTime / 1000 + "s, saved: "
+        + (phasedTime - wallClockTime) / 1000 + "s)");
+    }
   }
   
 }
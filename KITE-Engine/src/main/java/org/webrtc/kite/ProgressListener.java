@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TestResultListener counting the finished tests of a MatrixRunner and logging the progress.
+ */
+public class ProgressListener implements TestResultListener {
+
+  private static final Logger logger = Logger.getLogger(ProgressListener.class.getName());
+
+  private final String name;
+  private final int totalTests;
+  private final long startTime = System.currentTimeMillis();
+  private final AtomicInteger completedTests = new AtomicInteger();
+  private final AtomicInteger failedTests = new AtomicInteger();
+
+  /**
+   * Constructs a new ProgressListener.
+   *
+   * @param name       the name of the running test suite.
+   * @param totalTests the total number of tests to execute.
+   */
+  public ProgressListener(String name, int totalTests) {
+    this.name = name;
+    this.totalTests = totalTests;
+  }
+
+  @Override
+  public void onResult(TestManager testManager, Future<Object> future) {
+    try {
+      future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      this.failedTests.incrementAndGet();
+    }
+    int completed = this.completedTests.incrementAndGet();
+    long elapsed = System.currentTimeMillis() - this.startTime;
+    long remaining = elapsed / completed * (this.totalTests - completed);
+    logger.info(this.name + ": " + completed + "/" + this.totalTests + " tests completed ("
+      + this.failedTests.get() + " with exception), estimated time remaining: "
+      + remaining / 1000 + "s");
+  }
+
+  /**
+   * Gets the number of finished tests.
+   *
+   * @return the number of finished tests
+   */
+  public int getCompletedTests() {
+    return this.completedTests.get();
+  }
+
+  /**
+   * Gets the number of tests that ended with an exception.
+   *
+   * @return the number of failed tests
+   */
+  public int getFailedTests() {
+    return this.failedTests.get();
+  }
+
+  /**
+   * Gets the total number of tests.
+   *
+   * @return the total number of tests
+   */
+  public int getTotalTests() {
+    return this.totalTests;
+  }
+
+}
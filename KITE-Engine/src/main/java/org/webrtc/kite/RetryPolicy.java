@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import org.apache.log4j.Logger;
+import org.webrtc.kite.config.App;
+import org.webrtc.kite.config.Browser;
+import org.webrtc.kite.config.EndPoint;
+import org.webrtc.kite.config.TestConf;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides whether a failed TestManager is retried, and when.
+ * <p>
+ * Each failure of a tuple is accounted to each of its endpoints, identified by their remote address
+ * and their browser name, version and platform, or their mobile device. Several endpoints usually
+ * share the same hub, so a failing node only holds back the tuples of its own endpoints. An
+ * endpoint with consecutive failures is avoided for a backoff period doubling with each failure
+ * (up to MAX_BACKOFF_FACTOR times the initial backoff), during which no tuple using it is
+ * dispatched. The first success on an endpoint resets its backoff. A tuple is retried at most
+ * maxRetryCount times, and the whole matrix at most retryBudget times.
+ */
+public class RetryPolicy {
+
+  private static final Logger logger = Logger.getLogger(RetryPolicy.class.getName());
+
+  private static final int MAX_BACKOFF_FACTOR = 64;
+
+  private final int maxRetryCount;
+  private final int retryBudget;
+  private final long backoff;
+
+  private final Map<String, Integer> consecutiveFailures = new HashMap<>();
+  private final Map<String, Long> avoidUntil = new HashMap<>();
+
+  private int retries = 0;
+  private int refusedRetries = 0;
+  private long timeLost = 0;
+
+  /**
+   * Constructs a new RetryPolicy.
+   *
+   * @param maxRetryCount maximum number of retries per tuple.
+   * @param retryBudget   maximum number of retries for the whole matrix, negative if unlimited.
+   * @param backoff       initial backoff of a failing endpoint, in milliseconds.
+   */
+  public RetryPolicy(int maxRetryCount, int retryBudget, long backoff) {
+    this.maxRetryCount = maxRetryCount;
+    this.retryBudget = retryBudget;
+    this.backoff = backoff;
+  }
+
+  /**
+   * Constructs a new RetryPolicy from the retry settings of the given TestConf.
+   *
+   * @param testConf TestConf
+   */
+  public RetryPolicy(TestConf testConf) {
+    this(testConf.getMaxRetryCount(), testConf.getRetryBudget(), testConf.getRetryBackoff() * 1000L);
+  }
+
+  /**
+   * Accounts the outcome of a finished TestManager to its endpoints and decides whether it has to
+   * be executed again.
+   *
+   * @param testManager the finished TestManager
+   * @return true if the TestManager must be put back in the queue.
+   */
+  public synchronized boolean shouldRetry(TestManager testManager) {
+    Set<String> endPoints = getEndPointIds(testManager.getEndPointList());
+    if (!testManager.isRetryable()) {
+      for (String endPoint : endPoints) {
+        this.consecutiveFailures.remove(endPoint);
+        this.avoidUntil.remove(endPoint);
+      }
+      return false;
+    }
+
+    long now = System.currentTimeMillis();
+    for (String endPoint : endPoints) {
+      int failures = this.consecutiveFailures.merge(endPoint, 1, Integer::sum);
+      long delay = this.backoff * Math.min(1L << Math.min(failures - 1, 30), MAX_BACKOFF_FACTOR);
+      this.avoidUntil.put(endPoint, now + delay);
+    }
+
+    if (testManager.getRetryCount() >= this.maxRetryCount
+      || (this.retryBudget >= 0 && this.retries >= this.retryBudget)) {
+      this.refusedRetries++;
+      logger.warn("Not retrying " + testManager.getTestName() + " after "
+        + testManager.getRetryCount() + " retries (" + this.retries + " retries in total)");
+      return false;
+    }
+
+    this.retries++;
+    this.timeLost += testManager.getTimeTaken();
+    testManager.incrementRetryCount();
+    logger.info("Retrying " + testManager.getTestName() + " (retry " + testManager.getRetryCount()
+      + "/" + this.maxRetryCount + ") in " + (this.getAvailableTime(testManager) - now) / 1000
+      + "s");
+    return true;
+  }
+
+  /**
+   * Gets the time from which the given TestManager can be dispatched, that is when none of its
+   * endpoints is avoided anymore.
+   *
+   * @param testManager the TestManager
+   * @return the time in milliseconds since epoch, 0 if it can be dispatched right away.
+   */
+  public synchronized long getAvailableTime(TestManager testManager) {
+    long availableTime = 0;
+    for (String endPoint : getEndPointIds(testManager.getEndPointList())) {
+      availableTime = Math.max(availableTime, this.avoidUntil.getOrDefault(endPoint, 0L));
+    }
+    return availableTime;
+  }
+
+  /**
+   * Gets the number of retries.
+   *
+   * @return the number of retries
+   */
+  public synchronized int getRetries() {
+    return this.retries;
+  }
+
+  /**
+   * Gets the number of failed tests that have not been retried because their retry count or the
+   * retry budget was exhausted.
+   *
+   * @return the number of refused retries
+   */
+  public synchronized int getRefusedRetries() {
+    return this.refusedRetries;
+  }
+
+  /**
+   * Gets the time spent executing attempts that have been retried, in milliseconds.
+   *
+   * @return the time lost to retries
+   */
+  public synchronized long getTimeLost() {
+    return this.timeLost;
+  }
+
+  /**
+   * Returns the identifiers of the endpoints of a tuple: the remote address followed by the mobile
+   * device, or by the browser name, version and platform.
+   *
+   * @param endPointList the tuple
+   * @return the set of endpoint identifiers
+   */
+  static Set<String> getEndPointIds(List<EndPoint> endPointList) {
+    Set<String> endPoints = new LinkedHashSet<>();
+    for (EndPoint endPoint : endPointList) {
+      String id = String.valueOf(endPoint.getRemoteAddress());
+      if (endPoint instanceof Browser) {
+        Browser browser = (Browser) endPoint;
+        if (browser.getMobile() != null) {
+          id += "/mobile:" + browser.getMobile().getDeviceName();
+        } else {
+          id += "/" + browser.getBrowserName() + "/" + browser.getVersion() + "/"
+            + browser.getPlatform();
+        }
+      } else if (endPoint instanceof App) {
+        id += "/mobile:" + ((App) endPoint).getDeviceName();
+      } else {
+        id += "/" + endPoint.getPlatform();
+      }
+      endPoints.add(id);
+    }
+    return endPoints;
+  }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * An append-only journal of the tuples of a run, used to resume the run after a crash.
+ * <p>
+ * The journal records, one per line, when a tuple is scheduled (S), started (R) and finished (F,
+ * with the uuid of its Allure result), and when the whole run is complete (C). A tuple is
+ * identified by a key that must be the same when the run is restarted with the same config.
+ * <p>
+ * When a journal that is not complete is opened again, the finished tuples are loaded so that
+ * they can be skipped, with the uuids of their results to report them with the resumed run, the
+ * tuples that were in-flight are run again. A complete journal is
+ * discarded and the run starts from the beginning.
+ * <p>
+ * The records are not synced to the disk one by one: they are buffered and written with a single
+ * fsync every second, a crash losing at most the last second of records (the tuples finished in
+ * that second are run again).
+ */
+public class RunJournal implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(RunJournal.class.getName());
+
+  private static final long FLUSH_INTERVAL = 1000;
+  private static final String SEPARATOR = "\t";
+  private static final String SCHEDULED = "S";
+  private static final String STARTED = "R";
+  private static final String FINISHED = "F";
+  private static final String COMPLETE = "C";
+
+  private final String fileName;
+  private final FileOutputStream outputStream;
+  /* the uuids of the Allure results of the finished tuples, by key */
+  private final Map<String, String> finished = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService flusher;
+  private final Object flushLock = new Object();
+  private StringBuilder buffer = new StringBuilder();
+
+  /**
+   * Opens the journal with the given file name, loading the finished tuples if a previous run
+   * with this journal did not complete.
+   *
+   * @param fileName path of the journal file.
+   * @throws IOException if the journal cannot be read or opened for writing.
+   */
+  public RunJournal(String fileName) throws IOException {
+    this.fileName = fileName;
+    File file = new File(fileName);
+    boolean complete = false;
+    if (file.isFile()) {
+      complete = this.load(file);
+    }
+    if (complete) {
+      this.finished.clear();
+    } else if (!this.finished.isEmpty()) {
+      logger.info("Resuming from " + fileName + ": " + this.finished.size()
+        + " tuples already finished");
+    }
+    if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+    this.outputStream = new FileOutputStream(file, !complete);
+    if (!complete && !endsWithNewLine(file)) {
+      // The last record was truncated by the crash
+      this.buffer.append('\n');
+    }
+
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "RunJournal-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL,
+      TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Checks whether a journal file records a run which did not complete, so that opening it would
+   * resume the run.
+   *
+   * @param fileName path of the journal file.
+   * @return true if the journal exists and is not complete.
+   */
+  public static boolean isResumable(String fileName) {
+    File file = new File(fileName);
+    if (!file.isFile()) {
+      return false;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      String last = null;
+      while ((line = reader.readLine()) != null) {
+        last = line;
+      }
+      return last != null && !last.equals(COMPLETE);
+    } catch (IOException e) {
+      logger.warn("Unable to read the journal " + fileName, e);
+      return false;
+    }
+  }
+
+  /**
+   * Checks whether a tuple was finished by a previous run with this journal.
+   *
+   * @param key the key of the tuple.
+   * @return true if the tuple can be skipped.
+   */
+  public boolean isFinished(String key) {
+    return this.finished.containsKey(key);
+  }
+
+  /**
+   * Gets the uuids of the Allure results of the tuples finished by a previous run with this
+   * journal, so that they can be attached to the reports of the resumed run.
+   *
+   * @param keyPrefix the prefix of the keys of the tuples.
+   * @return the uuids of the results of the finished tuples whose key starts with keyPrefix.
+   */
+  public List<String> getFinishedResults(String keyPrefix) {
+    return this.finished.entrySet().stream()
+      .filter(entry -> entry.getKey().startsWith(keyPrefix))
+      .map(Map.Entry::getValue)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Records that a tuple has been taken by the scheduler.
+   *
+   * @param key the key of the tuple.
+   */
+  public void scheduled(String key) {
+    this.append(SCHEDULED + SEPARATOR + key);
+  }
+
+  /**
+   * Records that a tuple has started running.
+   *
+   * @param key the key of the tuple.
+   */
+  public void started(String key) {
+    this.append(STARTED + SEPARATOR + key);
+  }
+
+  /**
+   * Records that a tuple has finished.
+   *
+   * @param key        the key of the tuple.
+   * @param reportUuid the uuid of the Allure result of the tuple.
+   */
+  public void finished(String key, String reportUuid) {
+    this.finished.put(key, reportUuid);
+    this.append(FINISHED + SEPARATOR + key + SEPARATOR + reportUuid);
+  }
+
+  /**
+   * Records that the whole run is complete, so that the next run with this journal starts from the
+   * beginning.
+   */
+  public void complete() {
+    this.append(COMPLETE);
+  }
+
+  /**
+   * Writes the buffered records to the journal file and syncs it to the disk.
+   */
+  public void flush() {
+    synchronized (this.flushLock) {
+      StringBuilder records;
+      synchronized (this) {
+        if (this.buffer.length() == 0) {
+          return;
+        }
+        records = this.buffer;
+        this.buffer = new StringBuilder();
+      }
+      try {
+        this.outputStream.write(records.toString().getBytes(StandardCharsets.UTF_8));
+        this.outputStream.getFD().sync();
+      } catch (IOException e) {
+        logger.error("Unable to write the journal " + this.fileName, e);
+      }
+    }
+  }
+
+  /**
+   * Flushes the remaining records and closes the journal file.
+   */
+  @Override
+  public void close() {
+    this.flusher.shutdown();
+    this.flush();
+    try {
+      this.outputStream.close();
+    } catch (IOException e) {
+      logger.warn("Exception while closing the journal " + this.fileName, e);
+    }
+  }
+
+  private synchronized void append(String record) {
+    this.buffer.append(record).append('\n');
+  }
+
+  private static boolean endsWithNewLine(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      if (randomAccessFile.length() == 0) {
+        return true;
+      }
+      randomAccessFile.seek(randomAccessFile.length() - 1);
+      return randomAccessFile.read() == '\n';
+    }
+  }
+
+  /**
+   * Loads the finished tuples of the journal file, ignoring a truncated last record.
+   *
+   * @return true if the journal is complete.
+   */
+  private boolean load(File file) throws IOException {
+    boolean complete = false;
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] record = line.split(SEPARATOR);
+        if (record[0].equals(FINISHED) && record.length == 3) {
+          this.finished.put(record[1], record[2]);
+        } else if (record[0].equals(COMPLETE)) {
+          complete = true;
+        }
+      }
+    }
+    return complete;
+  }
+
+}
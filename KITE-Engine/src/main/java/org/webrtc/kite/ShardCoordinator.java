@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import com.cosmo.kite.report.custom_kite_allure.Reporter;
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.cosmo.kite.util.TestUtils.createDirs;
+import static com.cosmo.kite.util.TestUtils.printJsonTofile;
+import static com.cosmo.kite.util.TestUtils.verifyPathFormat;
+
+/**
+ * Merges the output of the Engine processes of a sharded run.
+ * <p>
+ * Each Engine process started with --shard i/N runs every N-th tuple of the matrix and writes its
+ * Allure report and its results in the folder 'shard-i-of-N' of the report folder, which must be
+ * shared by all the processes (a network folder when they run on different machines). When the
+ * run has an id (--run-id), the folder is 'shard-i-of-N-runId', so that the shards of different
+ * runs do not share their folders. A shard clears its folder when it starts, unless it resumes an
+ * unfinished run, and writes a marker file in its folder when it is done.
+ * <p>
+ * The coordinator (an Engine process started with --merge N, and the same --run-id as the shards)
+ * waits for the markers of all the shards, then copies the Allure results into the report folder,
+ * merging the containers of the same suite into one, and posts the results of all the shards to
+ * their callback URL. The merged outputs are then removed from the shard folders.
+ */
+public class ShardCoordinator {
+
+  private static final Logger logger = Logger.getLogger(ShardCoordinator.class.getName());
+
+  /**
+   * Name of the file in which a shard saves the results to post to the callback URL.
+   */
+  public static final String CALLBACK_RESULTS_FILE = "callback-results.jsonl";
+
+  private static final String DONE_FILE = "done";
+  private static final String CONTAINER_SUFFIX = "-container.json";
+  private static final long POLLING_INTERVAL = 10000;
+
+  private final String reportFolder;
+  private final int shardCount;
+  private final String runId;
+
+  /**
+   * Constructs a new ShardCoordinator.
+   *
+   * @param reportFolder the report folder of the config file, null for the working directory.
+   * @param shardCount   number of shards.
+   * @param runId        the id of the run, null if the run has no id.
+   */
+  public ShardCoordinator(String reportFolder, int shardCount, String runId) {
+    this.reportFolder = reportFolder;
+    this.shardCount = shardCount;
+    this.runId = runId;
+  }
+
+  /**
+   * Gets the folder of a shard.
+   *
+   * @param reportFolder the report folder of the config file, null for the working directory.
+   * @param shardIndex   index of the shard, from 1 to shardCount.
+   * @param shardCount   number of shards.
+   * @param runId        the id of the run, null if the run has no id.
+   * @return the path of the shard folder, ending with '/'.
+   */
+  public static String getShardFolder(String reportFolder, int shardIndex, int shardCount,
+                                      String runId) {
+    return (reportFolder == null ? "" : verifyPathFormat(reportFolder))
+      + "shard-" + shardIndex + "-of-" + shardCount + (runId == null ? "" : "-" + runId) + "/";
+  }
+
+  /**
+   * Checks whether a tuple of the matrix belongs to a shard: the i-th tuple belongs to the shard
+   * (i mod shardCount) + 1.
+   *
+   * @param tupleIndex index of the tuple in the whole matrix.
+   * @param shardIndex index of the shard, from 1 to shardCount.
+   * @param shardCount number of shards.
+   * @return true if the tuple is run by the shard.
+   */
+  public static boolean isInShard(long tupleIndex, int shardIndex, int shardCount) {
+    return tupleIndex % shardCount == shardIndex - 1;
+  }
+
+  /**
+   * Prepares the folder of a shard before it runs: the marker of a previous run is removed and,
+   * unless the shard resumes an unfinished run, so are the reports and results left in the folder,
+   * so that the coordinator does not merge them with the new ones.
+   *
+   * @param shardFolder the folder of the shard.
+   * @param resume      true if the shard resumes an unfinished run, keeping its finished results.
+   * @throws IOException if the folder cannot be cleared.
+   */
+  public static void prepareShard(String shardFolder, boolean resume) throws IOException {
+    Files.deleteIfExists(new File(shardFolder, DONE_FILE).toPath());
+    if (!resume) {
+      Files.deleteIfExists(new File(shardFolder, CALLBACK_RESULTS_FILE).toPath());
+      deleteFolder(new File(shardFolder + Reporter.DEFAULT_REPORT_FOLDER));
+    }
+  }
+
+  /**
+   * Writes the marker telling the coordinator that a shard is done.
+   *
+   * @param shardFolder the folder of the shard.
+   */
+  public static void markDone(String shardFolder) {
+    createDirs(shardFolder);
+    try {
+      Files.write(new File(shardFolder, DONE_FILE).toPath(),
+        String.valueOf(System.currentTimeMillis()).getBytes());
+    } catch (IOException e) {
+      logger.error("Unable to mark the shard " + shardFolder + " as done", e);
+    }
+  }
+
+  /**
+   * Waits until all the shards are done.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void awaitShards() throws InterruptedException {
+    int lastDone = -1;
+    while (true) {
+      int done = 0;
+      for (int i = 1; i <= this.shardCount; i++) {
+        if (new File(this.getShardFolder(i), DONE_FILE).isFile()) {
+          done++;
+        }
+      }
+      if (done != lastDone) {
+        logger.info(done + "/" + this.shardCount + " shards done");
+        lastDone = done;
+      }
+      if (done == this.shardCount) {
+        return;
+      }
+      Thread.sleep(POLLING_INTERVAL);
+    }
+  }
+
+  /**
+   * Merges the Allure results of the shards into the report folder and posts their results to the
+   * callback URLs. The markers and the posted results are then removed from the shard folders, so
+   * that the next run starts from clean folders.
+   *
+   * @throws IOException if the reports cannot be copied.
+   */
+  public void merge() throws IOException {
+    String reportPath = (this.reportFolder == null ? "" : verifyPathFormat(this.reportFolder))
+      + Reporter.DEFAULT_REPORT_FOLDER;
+    createDirs(reportPath);
+
+    Map<String, List<JsonObject>> containers = new LinkedHashMap<>();
+    int copiedFiles = 0;
+    for (int i = 1; i <= this.shardCount; i++) {
+      File[] files = new File(this.getShardFolder(i) + Reporter.DEFAULT_REPORT_FOLDER).listFiles();
+      if (files == null) {
+        logger.warn("No report found for the shard " + i + "/" + this.shardCount);
+        continue;
+      }
+      for (File file : files) {
+        if (file.getName().endsWith(CONTAINER_SUFFIX)) {
+          JsonObject container = readJsonObject(new String(Files.readAllBytes(file.toPath())));
+          containers.computeIfAbsent(container.getString("name", ""), name -> new ArrayList<>())
+            .add(container);
+        } else {
+          Files.copy(file.toPath(), new File(reportPath, file.getName()).toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+          copiedFiles++;
+        }
+      }
+    }
+    for (List<JsonObject> suite : containers.values()) {
+      JsonObject container = mergeContainers(suite);
+      printJsonTofile(container.toString(),
+        reportPath + container.getString("uuid") + CONTAINER_SUFFIX);
+    }
+    logger.info("Merged " + copiedFiles + " report files and " + containers.size()
+      + " suites into " + reportPath);
+
+    int postedResults = 0;
+    for (int i = 1; i <= this.shardCount; i++) {
+      File file = new File(this.getShardFolder(i), CALLBACK_RESULTS_FILE);
+      if (file.isFile()) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+              JsonObject result = readJsonObject(line);
+              new CallbackThread(result.getString("callback"), result.getJsonObject("result"))
+                .postResult();
+              postedResults++;
+            }
+          }
+        }
+        Files.delete(file.toPath());
+      }
+      deleteFolder(new File(this.getShardFolder(i) + Reporter.DEFAULT_REPORT_FOLDER));
+      Files.deleteIfExists(new File(this.getShardFolder(i), DONE_FILE).toPath());
+    }
+    logger.info("Posted " + postedResults + " results to the callback URLs");
+  }
+
+  private String getShardFolder(int shardIndex) {
+    return getShardFolder(this.reportFolder, shardIndex, this.shardCount, this.runId);
+  }
+
+  private static void deleteFolder(File folder) throws IOException {
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) {
+          deleteFolder(file);
+        } else {
+          Files.delete(file.toPath());
+        }
+      }
+    }
+    Files.deleteIfExists(folder.toPath());
+  }
+
+  /**
+   * Merges the containers of the same suite written by different shards: the merged container is
+   * the first one, with the children of all of them, started with the first one and stopped with
+   * the last one.
+   */
+  private static JsonObject mergeContainers(List<JsonObject> containers) {
+    Set<String> children = new LinkedHashSet<>();
+    long start = Long.MAX_VALUE;
+    long stop = 0;
+    for (JsonObject container : containers) {
+      for (JsonString child : container.getJsonArray("children").getValuesAs(JsonString.class)) {
+        children.add(child.getString());
+      }
+      start = Math.min(start, container.getJsonNumber("start").longValue());
+      stop = Math.max(stop, container.getJsonNumber("stop").longValue());
+    }
+
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    for (Map.Entry<String, JsonValue> entry : containers.get(0).entrySet()) {
+      builder.add(entry.getKey(), entry.getValue());
+    }
+    JsonArrayBuilder childrenArray = Json.createArrayBuilder();
+    for (String child : children) {
+      childrenArray.add(child);
+    }
+    return builder
+      .add("children", childrenArray)
+      .add("start", start)
+      .add("stop", stop)
+      .build();
+  }
+
+  private static JsonObject readJsonObject(String json) {
+    try (JsonReader reader = Json.createReader(new StringReader(json))) {
+      return reader.readObject();
+    }
+  }
+
+}
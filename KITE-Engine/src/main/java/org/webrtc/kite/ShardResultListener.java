@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import org.apache.log4j.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Future;
+
+/**
+ * A TestResultListener used by the shards of a sharded run instead of the CallbackResultListener.
+ * <p>
+ * The results are appended to a file of the shard folder, one JSON object per line, and are
+ * posted to the callback URL by the ShardCoordinator once all the shards are done.
+ */
+public class ShardResultListener implements TestResultListener {
+
+  private static final Logger logger = Logger.getLogger(ShardResultListener.class.getName());
+
+  private final String fileName;
+  private final String callbackURL;
+
+  /**
+   * Constructs a new ShardResultListener.
+   *
+   * @param shardFolder the folder of the shard run by this process.
+   * @param callbackURL a string representation of the callback URL.
+   */
+  public ShardResultListener(String shardFolder, String callbackURL) {
+    this.fileName = shardFolder + ShardCoordinator.CALLBACK_RESULTS_FILE;
+    this.callbackURL = callbackURL;
+  }
+
+  @Override
+  public synchronized void onResult(TestManager testManager, Future<Object> future) {
+    JsonObject testResult;
+    try {
+      testResult = (JsonObject) future.get();
+    } catch (Exception e) {
+      logger.error("No result to save for " + testManager.getTestName(), e);
+      return;
+    }
+
+    JsonObject line = Json.createObjectBuilder()
+      .add("callback", this.callbackURL)
+      .add("test", testManager.getTestName())
+      .add("result", testResult)
+      .build();
+    try (Writer writer = new FileWriter(this.fileName, true)) {
+      writer.write(line.toString() + System.lineSeparator());
+    } catch (IOException e) {
+      logger.error("Exception while saving the result of " + testManager.getTestName(), e);
+    }
+  }
+
+}
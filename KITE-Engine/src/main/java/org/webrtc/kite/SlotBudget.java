@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A budget of browser sessions shared by the MatrixRunner objects running at the same time.
+ * <p>
+ * Each running tuple holds one slot per endpoint. When slots are released, they go first to the
+ * waiting matrices with the highest priority and, among the matrices of the same priority, to the
+ * matrix using the fewest slots relative to its weight (weighted fair share).
+ */
+public class SlotBudget {
+
+  private final int capacity;
+  private int available;
+  private final List<Share> shares = new ArrayList<>();
+
+  /**
+   * Constructs a new SlotBudget.
+   *
+   * @param capacity the number of slots, usually the number of browser sessions the grid can host.
+   */
+  public SlotBudget(int capacity) {
+    this.capacity = capacity;
+    this.available = capacity;
+  }
+
+  /**
+   * Registers a matrix sharing this budget.
+   *
+   * @param priority the priority of the matrix, the highest first.
+   * @param weight   the weight of the matrix among the matrices of the same priority.
+   * @return the Share of the matrix
+   */
+  public synchronized Share register(int priority, int weight) {
+    Share share = new Share(priority, weight);
+    this.shares.add(share);
+    return share;
+  }
+
+  /**
+   * Gets the number of slots.
+   *
+   * @return the capacity of the budget
+   */
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * The part of a SlotBudget used by one matrix.
+   */
+  public class Share {
+
+    private final int priority;
+    private final int weight;
+    private int inUse = 0;
+    /* number of slots refused at the last attempt of the current dispatch, 0 if not waiting */
+    private int waiting = 0;
+
+    private Share(int priority, int weight) {
+      this.priority = priority;
+      this.weight = weight;
+    }
+
+    /**
+     * Tries to acquire the slots needed by a tuple.
+     *
+     * @param slots number of slots, capped to the capacity of the budget.
+     * @return true if the slots have been acquired, false if the tuple must wait.
+     */
+    public boolean tryAcquire(int slots) {
+      synchronized (SlotBudget.this) {
+        slots = Math.min(slots, capacity);
+        if (slots <= available && !this.isPreempted()) {
+          available -= slots;
+          this.inUse += slots;
+          this.waiting = 0;
+          return true;
+        }
+        this.waiting = slots;
+        return false;
+      }
+    }
+
+    /**
+     * Releases the slots of a finished tuple.
+     *
+     * @param slots number of slots, as passed to tryAcquire().
+     */
+    public void release(int slots) {
+      synchronized (SlotBudget.this) {
+        slots = Math.min(slots, capacity);
+        available += slots;
+        this.inUse -= slots;
+      }
+    }
+
+    /**
+     * Gets the number of slots of the budget which are not held by any tuple, and could host the
+     * sessions created in advance for the upcoming tuples.
+     *
+     * @return the number of available slots
+     */
+    public int getAvailable() {
+      synchronized (SlotBudget.this) {
+        return available;
+      }
+    }
+
+    /**
+     * Resets the waiting state of this share before a new dispatch, so that a matrix that stopped
+     * asking for slots does not hold back the others.
+     */
+    public void startDispatch() {
+      synchronized (SlotBudget.this) {
+        this.waiting = 0;
+      }
+    }
+
+    /**
+     * Unregisters this share once its matrix is done.
+     */
+    public void unregister() {
+      synchronized (SlotBudget.this) {
+        shares.remove(this);
+      }
+    }
+
+    /**
+     * Checks whether another waiting share whose tuple fits in the available slots must be served
+     * first.
+     */
+    private boolean isPreempted() {
+      for (Share other : shares) {
+        if (other == this || other.waiting == 0 || other.waiting > available) {
+          continue;
+        }
+        if (other.priority > this.priority) {
+          return true;
+        }
+        if (other.priority == this.priority
+          && (long) other.inUse * this.weight < (long) this.inUse * other.weight) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+}
@@ -37,15 +37,15 @@ import static com.cosmo.kite.util.ReportUtils.timestamp;
  * The algorithm of the thread is as follows: 1) Instantiate the WebDriver objects. 2) Instantiate
  * KiteTest implementation. 3) Set the WebDriver objects to the implementation. 4) Execute the test.
  * 5) Retrieve, parse and populate from userAgent. 6) Get the stack trace of an exception if it
- * occurs during the execution. 7) Quit all WebDrivers. 8) Develop result json. 9) Post the result
- * to the callback url synchronously for the first and last test and asynchronously for the rest of
- * the tests.
+ * occurs during the execution. 7) Quit all WebDrivers. 8) Develop result json.
+ * <p>
+ * The result is then handed to the TestResultListener objects of the MatrixRunner, which post it
+ * to the callback url and write the report files.
  */
 public class TestManager implements Callable<Object> {
   
   private static final Logger logger = Logger.getLogger(TestManager.class.getName());
   
-  private static final boolean ENABLE_CALLBACK = true;
   /**
    * The Web driver list.
    */
@@ -58,6 +58,9 @@ public class TestManager implements Callable<Object> {
   private int totalTests = 0;
   private boolean isLastTest = false;
   private long timeTaken;
+  private String reportUuid;
+  private String historyId;
+  private boolean retryable = false;
   private Status overAllStatus = Status.BROKEN;
   private String textAttachment = null;
   private Container testSuite;
@@ -97,14 +100,87 @@ public class TestManager implements Callable<Object> {
    *
    * @return true if totalTests > 0.
    */
-  private boolean isFirstTest() {
+  public boolean isFirstTest() {
     return this.totalTests > 0;
   }
   
+  /**
+   * Checks whether it is the last test of the batch.
+   *
+   * @return true if it is the last test.
+   */
+  public boolean isLastTest() {
+    return this.isLastTest;
+  }
+  
 
   
+  /**
+   * Gets the tuple executed by this TestManager.
+   *
+   * @return the end point list
+   */
+  public List<EndPoint> getEndPointList() {
+    return this.endPointList;
+  }
+  
+  /**
+   * Gets the test name.
+   *
+   * @return the test name
+   */
+  public String getTestName() {
+    return this.testName;
+  }
+  
+  /**
+   * Gets the time taken by the last execution, in milliseconds.
+   *
+   * @return the time taken
+   */
+  public long getTimeTaken() {
+    return this.timeTaken;
+  }
+  
+  /**
+   * Gets the uuid of the Allure report of the last execution.
+   *
+   * @return the report uuid, null if the test has not been instantiated yet
+   */
+  public String getReportUuid() {
+    return this.reportUuid;
+  }
+  
+  /**
+   * Gets the number of times this TestManager has been retried.
+   *
+   * @return the retry count
+   */
+  public int getRetryCount() {
+    return this.retryCount;
+  }
+  
+  /**
+   * Increments the retry count before the TestManager is executed again.
+   */
+  public void incrementRetryCount() {
+    this.retryCount++;
+  }
+  
+  /**
+   * Checks whether the last execution failed for a reason unrelated to the test itself (the web
+   * drivers could not be created), so that it is worth retrying.
+   *
+   * @return true if the last execution can be retried
+   */
+  public boolean isRetryable() {
+    return this.retryable;
+  }
+  
   @Override
   public Object call() throws Exception {
+    long startTime = System.currentTimeMillis();
+    this.retryable = false;
     String testImpl = this.testConf.getTestImpl();
     KiteBaseTest test;
     if (testImpl.endsWith("js")) {
@@ -113,32 +189,22 @@ public class TestManager implements Callable<Object> {
       test = (KiteBaseTest) Class.forName(this.testConf.getTestImpl()).getConstructor().newInstance();
     }
     
-    testSuite.addChild(test.getReport().getUuid());
+    // All the attempts share the same history id to be displayed as retries in the report
+    if (this.historyId == null) {
+      this.historyId = test.getReport().getHistoryId();
+    } else {
+      test.getReport().setHistoryId(this.historyId);
+    }
+    this.reportUuid = test.getReport().getUuid();
+    testSuite.addChild(this.reportUuid);
     test.setDescription(testConf.getDescription());
     test.setParentSuite(Configurator.getInstance().getName());
     test.setSuite(testSuite.getName());
     test.setPayload(this.testConf.getPayload());
     test.setEndPointList(endPointList);
     JsonObject testResult = test.execute();
-    
-    
-    if (ENABLE_CALLBACK) {
-      if (this.testConf.getCallbackURL() == null) {
-        logger.warn("No callback specified for " + this.testConf);
-      } else {
-        CallbackThread callbackThread =
-          new CallbackThread(this.testConf.getCallbackURL(), testResult);
-        // if no "meta", post result in other thread; if "meta", post result in same thread
-        // "meta" is included for the first and last tests, that are executed synchronously
-        if (testResult.getString("meta", null) == null) {
-          callbackThread.start();
-        } else {
-          callbackThread.postResult();
-        }
-      }
-    }
-    
-    // Update allure report:
+    this.timeTaken = System.currentTimeMillis() - startTime;
+    this.retryable = test.hasGridFailure();
     
     return testResult;
     
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite;
+
+import java.util.concurrent.Future;
+
+/**
+ * A listener notified by the MatrixRunner each time a TestManager has finished, in completion
+ * order, so that results can be processed as they come instead of at the end of the run.
+ */
+public interface TestResultListener {
+
+  /**
+   * Called when a TestManager is submitted to a worker thread, for each attempt.
+   *
+   * @param testManager the starting TestManager
+   */
+  default void onStart(TestManager testManager) {
+  }
+
+  /**
+   * Called when a TestManager has finished.
+   * <p>
+   * The future is already done: Future.get() returns the result without blocking or throws the
+   * ExecutionException raised by the test.
+   *
+   * @param testManager the finished TestManager
+   * @param future      the Future<Object> holding its result
+   */
+  void onResult(TestManager testManager, Future<Object> future);
+
+  /**
+   * Called when a TestManager has failed and is going to be executed again. onResult will be
+   * called once for its last attempt.
+   *
+   * @param testManager the failed TestManager
+   * @param future      the Future<Object> holding the result of the failed attempt
+   */
+  default void onRetry(TestManager testManager, Future<Object> future) {
+  }
+
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite;
+
+import com.cosmo.kite.executor.ExecutorPool;
+import com.cosmo.kite.executor.KiteExecutors;
+import org.apache.log4j.Logger;
+import org.webrtc.kite.config.Browser;
+import org.webrtc.kite.config.EndPoint;
+import org.webrtc.kite.wdmgmt.WebDriverPool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes TestManager objects on the shared scheduling pool of worker threads.
+ * <p>
+ * Instead of running the matrix in separate phases, every tuple is dispatched as soon as a worker
+ * is free and all the resources it needs are available. A resource is an endpoint that can only
+ * host a limited number of sessions at a time (by default one session per mobile device), so a
+ * tuple containing a busy mobile device waits while the other tuples keep running. When several
+ * matrices run at the same time, each tuple also needs slots from their shared SlotBudget.
+ */
+public class TupleScheduler {
+
+  private static final Logger logger = Logger.getLogger(TupleScheduler.class.getName());
+
+  private static final int DEFAULT_RESOURCE_LIMIT = 1;
+
+  /* Maximum number of tuples taken from the source while waiting for their resources or backoff */
+  private static final int MAX_PENDING = 1000;
+
+  /* Interval at which the slots are asked again when they have been refused, in milliseconds */
+  private static final long SLOT_POLLING_INTERVAL = 200;
+
+  private final int numberOfThread;
+  private final CompletionService<Object> completionService;
+
+  private final List<TestResultListener> resultListeners = new ArrayList<>();
+  private final Map<String, Integer> resourceLimits = new HashMap<>();
+  private final Map<String, Integer> resourcesInUse = new HashMap<>();
+  private RetryPolicy retryPolicy = null;
+  private SlotBudget.Share slotShare = null;
+  private boolean slotsRefused = false;
+  private int prefetch = 0;
+
+  /**
+   * Constructs a new TupleScheduler with the given number of worker threads, taken from the
+   * shared scheduling pool.
+   *
+   * @param numberOfThread maximum number of TestManager executed at the same time.
+   */
+  public TupleScheduler(int numberOfThread) {
+    this.numberOfThread = numberOfThread;
+    this.completionService =
+      new ExecutorCompletionService<>(KiteExecutors.get(ExecutorPool.SCHEDULING));
+  }
+
+  /**
+   * Adds a listener notified each time a TestManager has finished.
+   *
+   * @param listener the TestResultListener
+   */
+  public void addResultListener(TestResultListener listener) {
+    this.resultListeners.add(listener);
+  }
+
+  /**
+   * Sets the RetryPolicy deciding whether a failed TestManager is executed again. Without
+   * RetryPolicy, no TestManager is retried.
+   *
+   * @param retryPolicy the RetryPolicy
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Sets the Share of the SlotBudget from which each tuple must acquire one slot per endpoint
+   * before being executed. Without Share, only the worker threads and the resources limit the
+   * tuples.
+   *
+   * @param slotShare the Share of the SlotBudget
+   */
+  public void setSlotShare(SlotBudget.Share slotShare) {
+    this.slotShare = slotShare;
+  }
+
+  /**
+   * Sets the number of upcoming tuples whose sessions are created by the WebDriverPool while the
+   * current tuples run. The TestManager objects of these tuples are taken from the source in
+   * advance and wait in the pending queue.
+   *
+   * @param prefetch the number of prefetched tuples, 0 to create the sessions when the tuples start.
+   */
+  public void setPrefetch(int prefetch) {
+    this.prefetch = prefetch;
+  }
+
+  /**
+   * Sets the maximum number of concurrent sessions for the given resource.
+   *
+   * @param resource the resource identifier, as returned by getResources().
+   * @param limit    the maximum number of tuples using this resource at the same time.
+   */
+  public void setResourceLimit(String resource, int limit) {
+    this.resourceLimits.put(resource, limit);
+  }
+
+  /**
+   * Returns the identifiers of the resources that limit the concurrency of the given tuple.
+   * <p>
+   * Mobile browsers (and fennec) can only host one session per device, so each of them is a
+   * resource. The other endpoints are only limited by the number of worker threads.
+   *
+   * @param endPointList the tuple
+   * @return a set of resource identifiers, empty if the tuple can run alongside any other.
+   */
+  public static Set<String> getResources(List<EndPoint> endPointList) {
+    Set<String> resources = new LinkedHashSet<>();
+    for (EndPoint endPoint : endPointList) {
+      if (endPoint instanceof Browser) {
+        Browser browser = (Browser) endPoint;
+        if (browser.getMobile() != null) {
+          resources.add(
+            "mobile:" + browser.getRemoteAddress() + "/" + browser.getMobile().getDeviceName());
+        } else if (browser.getVersion().startsWith("fennec")) {
+          resources.add("fennec:" + browser.getRemoteAddress() + "/" + browser.getVersion()
+            + "/" + browser.getPlatform());
+        }
+      }
+    }
+    return resources;
+  }
+
+  /**
+   * Executes the given TestManager objects and waits for all of them to finish.
+   * <p>
+   * The TestManager objects are taken from the iterator only when a worker thread is available
+   * for them, so the iterator can create them on demand.
+   * <p>
+   * Each result is handed to the TestResultListener objects as soon as it is available and is
+   * not kept afterwards. A TestManager that the RetryPolicy decides to retry is put back at the end
+   * of the pending queue and is dispatched again once its endpoints are not avoided anymore,
+   * without holding back the other tuples.
+   *
+   * @param testManagers the TestManager objects to execute.
+   * @return the number of completed executions.
+   * @throws InterruptedException if interrupted while waiting, in which case unfinished tasks are
+   *                              cancelled.
+   */
+  public int execute(Iterator<TestManager> testManagers) throws InterruptedException {
+    Deque<TestManager> pending = new ArrayDeque<>();
+    Map<Future<Object>, TestManager> running = new HashMap<>();
+    int completed = 0;
+
+    try {
+      while (testManagers.hasNext() || !pending.isEmpty() || !running.isEmpty()) {
+        long waitTime = this.dispatch(testManagers, pending, running);
+
+        Future<Object> future;
+        if (waitTime > 0) {
+          // Some tuples are waiting for the backoff of their endpoints to expire.
+          future = this.completionService.poll(waitTime, TimeUnit.MILLISECONDS);
+          if (future == null) {
+            continue;
+          }
+        } else if (running.isEmpty()) {
+          // Only reachable if a tuple needs more sessions than its resources allow.
+          logger.error("Unable to schedule " + pending.size() + " tuple(s), resource limits too low.");
+          break;
+        } else {
+          future = this.completionService.take();
+        }
+
+        TestManager manager = running.remove(future);
+        this.release(manager);
+
+        if (this.retryPolicy != null && this.retryPolicy.shouldRetry(manager)) {
+          pending.addLast(manager);
+          this.notifyRetry(manager, future);
+        } else {
+          completed++;
+          this.notifyListeners(manager, future);
+        }
+      }
+    } finally {
+      for (Map.Entry<Future<Object>, TestManager> entry : running.entrySet()) {
+        entry.getKey().cancel(true);
+        this.release(entry.getValue());
+      }
+    }
+
+    return completed;
+  }
+
+  /**
+   * Submits the pending TestManager objects, then the next ones from the source, whose resources
+   * are available and whose endpoints are not avoided, in order, until all the worker threads are
+   * busy. The TestManager objects taken from the source that cannot be submitted yet are added to
+   * the pending queue.
+   *
+   * @return the time to wait in milliseconds before a tuple waiting for a backoff or for slots can
+   * be dispatched, 0 if there is no such tuple or if all the worker threads are busy.
+   */
+  private long dispatch(Iterator<TestManager> source, Deque<TestManager> pending,
+                        Map<Future<Object>, TestManager> running) {
+    long now = System.currentTimeMillis();
+    long nextAvailableTime = Long.MAX_VALUE;
+    this.slotsRefused = false;
+    if (this.slotShare != null) {
+      this.slotShare.startDispatch();
+    }
+    Iterator<TestManager> iterator = pending.iterator();
+    while (running.size() < this.numberOfThread && !this.slotsRefused && iterator.hasNext()) {
+      TestManager manager = iterator.next();
+      long availableTime = this.getAvailableTime(manager);
+      if (availableTime > now) {
+        nextAvailableTime = Math.min(nextAvailableTime, availableTime);
+      } else if (this.trySubmit(manager, running)) {
+        iterator.remove();
+      }
+    }
+    while (running.size() < this.numberOfThread && pending.size() < MAX_PENDING
+      && !this.slotsRefused && source.hasNext()) {
+      TestManager manager = source.next();
+      long availableTime = this.getAvailableTime(manager);
+      if (availableTime > now) {
+        nextAvailableTime = Math.min(nextAvailableTime, availableTime);
+        pending.addLast(manager);
+      } else if (!this.trySubmit(manager, running)) {
+        pending.addLast(manager);
+      }
+    }
+    if (this.slotsRefused) {
+      // The slots are released by the other matrices sharing the budget
+      nextAvailableTime = Math.min(nextAvailableTime, now + SLOT_POLLING_INTERVAL);
+    } else if (this.prefetch > 0) {
+      this.prefetch(source, pending);
+    }
+    if (running.size() >= this.numberOfThread || nextAvailableTime == Long.MAX_VALUE) {
+      return 0;
+    }
+    return Math.max(nextAvailableTime - now, 1);
+  }
+
+  /**
+   * Takes the next tuples from the source until the pending queue holds the prefetched tuples,
+   * then lets the WebDriverPool create the sessions they need.
+   * <p>
+   * Only the tuples whose resources would be available, counting the running tuples and the
+   * prefetched tuples before them, are prefetched, so that no session is created for a tuple
+   * which cannot start before long. The prefetched sessions are bounded by the number of sessions
+   * of these tuples and, with a SlotBudget, by its available slots: the WebDriverPool counts the
+   * idle and in-flight sessions against this bound.
+   */
+  private void prefetch(Iterator<TestManager> source, Deque<TestManager> pending) {
+    while (pending.size() < Math.min(this.prefetch, MAX_PENDING) && source.hasNext()) {
+      pending.addLast(source.next());
+    }
+    List<List<EndPoint>> tuples = new ArrayList<>();
+    Map<String, Integer> resourcesAhead = new HashMap<>(this.resourcesInUse);
+    int sessions = 0;
+    String testName = null;
+    for (TestManager manager : pending) {
+      if (tuples.size() >= this.prefetch) {
+        break;
+      }
+      Set<String> resources = getResources(manager.getEndPointList());
+      if (!this.isAvailable(resources, resourcesAhead)) {
+        continue;
+      }
+      for (String resource : resources) {
+        resourcesAhead.merge(resource, 1, Integer::sum);
+      }
+      tuples.add(manager.getEndPointList());
+      sessions += manager.getEndPointList().size();
+      testName = manager.getTestName();
+    }
+    if (this.slotShare != null) {
+      sessions = Math.min(sessions, this.slotShare.getAvailable());
+    }
+    if (!tuples.isEmpty() && sessions > 0) {
+      this.prefetchSessions(testName, tuples, sessions);
+    }
+  }
+
+  /**
+   * Lets the WebDriverPool create the sessions of the given prefetched tuples.
+   *
+   * @param testName the test name
+   * @param tuples   the endpoints of the prefetched tuples
+   * @param sessions the maximum number of idle and prefetching sessions
+   */
+  void prefetchSessions(String testName, List<List<EndPoint>> tuples, int sessions) {
+    WebDriverPool.getInstance().prefetch(testName, tuples, sessions);
+  }
+
+  private long getAvailableTime(TestManager manager) {
+    return this.retryPolicy == null ? 0 : this.retryPolicy.getAvailableTime(manager);
+  }
+
+  private boolean trySubmit(TestManager manager, Map<Future<Object>, TestManager> running) {
+    Set<String> resources = getResources(manager.getEndPointList());
+    if (!this.tryAcquire(resources)) {
+      return false;
+    }
+    if (this.slotShare != null && !this.slotShare.tryAcquire(manager.getEndPointList().size())) {
+      this.slotsRefused = true;
+      this.release(resources);
+      return false;
+    }
+    this.notifyStart(manager);
+    running.put(this.completionService.submit(manager), manager);
+    return true;
+  }
+
+  /**
+   * Releases the resources and the slots of a TestManager that is not running anymore.
+   */
+  private void release(TestManager manager) {
+    this.release(getResources(manager.getEndPointList()));
+    if (this.slotShare != null) {
+      this.slotShare.release(manager.getEndPointList().size());
+    }
+  }
+
+  private void notifyStart(TestManager manager) {
+    for (TestResultListener listener : this.resultListeners) {
+      try {
+        listener.onStart(manager);
+      } catch (Exception e) {
+        logger.error("Exception in result listener " + listener.getClass().getSimpleName(), e);
+      }
+    }
+  }
+
+  private void notifyListeners(TestManager manager, Future<Object> future) {
+    for (TestResultListener listener : this.resultListeners) {
+      try {
+        listener.onResult(manager, future);
+      } catch (Exception e) {
+        logger.error("Exception in result listener " + listener.getClass().getSimpleName(), e);
+      }
+    }
+  }
+
+  private void notifyRetry(TestManager manager, Future<Object> future) {
+    for (TestResultListener listener : this.resultListeners) {
+      try {
+        listener.onRetry(manager, future);
+      } catch (Exception e) {
+        logger.error("Exception in result listener " + listener.getClass().getSimpleName(), e);
+      }
+    }
+  }
+
+  private boolean tryAcquire(Set<String> resources) {
+    if (!this.isAvailable(resources, this.resourcesInUse)) {
+      return false;
+    }
+    for (String resource : resources) {
+      this.resourcesInUse.merge(resource, 1, Integer::sum);
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the given resources are under their limit, with the given usage.
+   */
+  private boolean isAvailable(Set<String> resources, Map<String, Integer> usage) {
+    for (String resource : resources) {
+      int limit = this.resourceLimits.getOrDefault(resource, DEFAULT_RESOURCE_LIMIT);
+      if (usage.getOrDefault(resource, 0) >= limit) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void release(Set<String> resources) {
+    for (String resource : resources) {
+      this.resourcesInUse.merge(resource, -1, Integer::sum);
+    }
+  }
+
+}
@@ -19,9 +19,10 @@ package org.webrtc.kite.config;
 import com.cosmo.kite.report.custom_kite_allure.Reporter;
 import com.cosmo.kite.usrmgmt.AccountCollection;
 import com.cosmo.kite.usrmgmt.AccountManager;
-import com.cosmo.kite.usrmgmt.AccountRole;
 import org.apache.log4j.Logger;
 import org.quartz.Job;
+import org.webrtc.kite.RunJournal;
+import org.webrtc.kite.ShardCoordinator;
 import org.webrtc.kite.Utility;
 import org.webrtc.kite.exception.KiteGridException;
 import org.webrtc.kite.exception.KiteInsufficientValueException;
@@ -36,11 +37,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 
 import static com.cosmo.kite.util.ReportUtils.timestamp;
+import static com.cosmo.kite.util.TestUtils.verifyPathFormat;
 
 /**
  * Representation of the config file as a singleton.
@@ -91,6 +92,14 @@ public class Configurator {
 
   private ConfigHandler configHandler;
   private boolean skipSame = false;
+  private int coverage = 0;
+  private int slots = 0;
+  private int shardIndex = 1;
+  private int shardCount = 1;
+  private String shardFolder = null;
+  private String runId = null;
+  private long tupleSeed;
+  private String reportFolder = null;
 
 
   /**
@@ -205,6 +214,108 @@ public class Configurator {
     this.configFilePath = configFilePath;
   }
 
+  /**
+   * Gets the number of browser sessions shared by the tests of the config. When set, the tests
+   * run at the same time, each tuple holding one slot per endpoint, instead of one after the
+   * other.
+   *
+   * @return the number of slots, 0 if the tests run one after the other.
+   */
+  public int getSlots() {
+    return this.slots;
+  }
+
+  /**
+   * Makes this Engine process run only one shard of the matrix. The tuples of each TestConf are
+   * distributed round-robin among the shards, in an order that is the same in every process, and
+   * the reports of the shard are written in its own folder, to be merged by the ShardCoordinator.
+   * Must be called before buildConfig().
+   *
+   * @param shardIndex index of the shard run by this process, from 1 to shardCount.
+   * @param shardCount number of shards.
+   */
+  public void setShard(int shardIndex, int shardCount) {
+    if (shardCount < 1 || shardIndex < 1 || shardIndex > shardCount) {
+      throw new IllegalArgumentException("Invalid shard " + shardIndex + "/" + shardCount);
+    }
+    this.shardIndex = shardIndex;
+    this.shardCount = shardCount;
+  }
+
+  /**
+   * Gets the index of the shard run by this process.
+   *
+   * @return the shard index, from 1 to getShardCount().
+   */
+  public int getShardIndex() {
+    return this.shardIndex;
+  }
+
+  /**
+   * Gets the number of shards the matrix is split into.
+   *
+   * @return the shard count, 1 if the matrix is not sharded.
+   */
+  public int getShardCount() {
+    return this.shardCount;
+  }
+
+  /**
+   * Gets the folder in which the reports and results of the shard run by this process are written.
+   *
+   * @return the shard folder, null if the matrix is not sharded.
+   */
+  public String getShardFolder() {
+    return this.shardFolder;
+  }
+
+  /**
+   * Checks whether this process runs only one shard of the matrix.
+   *
+   * @return true if the matrix is split into several shards.
+   */
+  public boolean isSharded() {
+    return this.shardCount > 1;
+  }
+
+  /**
+   * Sets the id of the run, making it resumable: the progress of the run is recorded in a
+   * RunJournal and restarting the Engine with the same config and run id skips the tuples already
+   * finished. Must be called before buildConfig().
+   *
+   * @param runId the run id, made of letters, digits, '.', '_' and '-'.
+   */
+  public void setRunId(String runId) {
+    if (!runId.matches("[A-Za-z0-9._-]+")) {
+      throw new IllegalArgumentException("Invalid run id '" + runId + "'");
+    }
+    this.runId = runId;
+  }
+
+  /**
+   * Gets the id of the run.
+   *
+   * @return the run id, null if the run is not resumable.
+   */
+  public String getRunId() {
+    return this.runId;
+  }
+
+  /**
+   * Gets the path of the RunJournal of the run, in the report folder (or in the shard folder if
+   * the matrix is sharded).
+   *
+   * @return the path of the journal file, null if the run is not resumable.
+   */
+  public String getJournalFile() {
+    if (this.runId == null) {
+      return null;
+    }
+    String folder = this.shardFolder != null ? this.shardFolder
+      : this.reportFolder != null ? verifyPathFormat(this.reportFolder) : "";
+    return folder + "journal-" + this.runId + ".log";
+  }
+
   /**
    * Gets job class.
    *
@@ -255,9 +366,21 @@ public class Configurator {
     }
 
     this.name = "" + Utility.throwNoKeyOrBadValueException(jsonObject, "name", String.class, false);
-    this.name = name.contains("%ts") ? name.replaceAll("%ts", "") + " (" + timestamp() + ")" : name;
+    this.tupleSeed = getTupleSeed(this.name);
+    // The shards must share the same suite names to be merged, they are not timestamped.
+    this.name = name.contains("%ts") && !this.isSharded()
+      ? name.replaceAll("%ts", "") + " (" + timestamp() + ")" : name.replaceAll("%ts", "");
     String reportPath = (String) Utility.throwNoKeyOrBadValueException(jsonObject, "reportFolder", String.class, true);
 
+    this.reportFolder = reportPath;
+    if (this.isSharded()) {
+      this.shardFolder = ShardCoordinator.getShardFolder(reportPath, this.shardIndex,
+        this.shardCount, this.runId);
+      // the outputs of a previous run must not be merged with the ones of this run
+      ShardCoordinator.prepareShard(this.shardFolder,
+        this.runId != null && RunJournal.isResumable(this.getJournalFile()));
+      reportPath = this.shardFolder;
+    }
     Reporter.getInstance().setReportPath(reportPath);
 
     this.interval = Interval.interval(
@@ -329,18 +452,45 @@ public class Configurator {
       this.instrumentation = new Instrumentation(instrumentObject);
     }
     skipSame = jsonObject.getBoolean("skipSame", skipSame);
+    slots = jsonObject.getInt("slots", slots);
+    if (slots < 0) {
+      throw new KiteInsufficientValueException("Invalid slots value: " + slots);
+    }
+    coverage = jsonObject.getInt("coverage", coverage);
+    if (coverage < 0) {
+      throw new KiteInsufficientValueException("Invalid coverage value: " + coverage);
+    }
     logger.info("Finished reading the configuration file");
   }
 
+  /**
+   * Gets the seed of the order of the tuples of a config, which must not depend on the time at
+   * which the config is run: it is computed from the name given in the config file, without the
+   * timestamp requested by '%ts'.
+   *
+   * @param configName the name of the config, as given in the config file.
+   * @return the seed of the TupleGenerator
+   */
+  static long getTupleSeed(String configName) {
+    return configName.replaceAll("%ts", "").hashCode();
+  }
+
   /**
    * Creates a matrix of browser tuples.
+   * <p>
+   * The tuples are not built here: the returned TupleGenerator yields them on demand, already
+   * shuffled and filtered. If a coverage strength t is set in the config file, the matrix is
+   * reduced to a t-wise CoveringArray instead.
    *
    * @param tupleSize tuple size
-   * @return a matrix of browser tuples as List<List<EndPoint>>
+   * @param permute   true to generate permutations, false to generate combinations
+   * @return a matrix of browser tuples, null if only the custom matrix is used
    */
-  public List<List<EndPoint>> buildTuples(int tupleSize, boolean permute) {
+  public Iterable<List<EndPoint>> buildTuples(int tupleSize, boolean permute) {
 
     if (this.customMatrix != null) {
+      // Rebuilt for each test, instead of accumulating the custom matrix of every test
+      this.customBrowserMatrix = new ArrayList<>();
       for (JsonStructure structure : this.customMatrix) {
         JsonArray jsonArray = (JsonArray) structure;
         List<EndPoint> browserList = new ArrayList<>();
@@ -353,98 +503,24 @@ public class Configurator {
         return null;
     }
 
-    List<EndPoint> focusedList = new ArrayList<>();
-    List<EndPoint> browserList = (List<EndPoint>) this.configHandler.getEndPointList();
-    for (EndPoint browser : browserList) {
-      if (browser.isFocus()) {
-        focusedList.add(browser);
-      }
-    }
-
-    List<EndPoint> endPointList =
-      (List<EndPoint>) this.configHandler.getEndPointList();
-    List<List<EndPoint>> listOfTuples = new ArrayList<List<EndPoint>>();
-
-    double totalTuples = Math.pow(endPointList.size(), tupleSize);
-
-    logger.info(totalTuples + " test cases to run");
-
-    for (int i = 0; i < totalTuples; i++) {
-      listOfTuples.add(new ArrayList<>());
-    }
-
-    for (int i = 0; i < tupleSize; i++) {
-      double marge = totalTuples / Math.pow(endPointList.size(), i + 1);
-      double rep = Math.pow(endPointList.size(), i);
-      for (int x = 0; x < rep; x++) {
-        for (int j = 0; j < endPointList.size(); j++) {
-          for (int k = 0; k < marge; k++) {
-            EndPoint endPoint = endPointList.get(j);
-            if (endPoint instanceof Browser) {
-              endPoint = new Browser((Browser) endPoint);
-            } else {
-              endPoint = new App((App) endPoint);
-            }
-            if (i == 0) {
-              endPoint.getTypeRole().setRole(AccountRole.CALLER);
-            }
-            listOfTuples.get((int) (x * totalTuples / rep + j * marge + k))
-              .add(i, endPoint);
-          }
-        }
-      }
+    // All the shards, and a resumed run, must generate the tuples in the same order.
+    TupleGenerator tupleGenerator = this.isSharded() || this.runId != null
+      ? new TupleGenerator((List<EndPoint>) this.configHandler.getEndPointList(), tupleSize,
+        permute, skipSame, this.tupleSeed)
+      : new TupleGenerator((List<EndPoint>) this.configHandler.getEndPointList(), tupleSize,
+        permute, skipSame);
+
+    if (this.coverage > 0) {
+      CoveringArray coveringArray = new CoveringArray(tupleGenerator, tupleSize, this.coverage);
+      coveringArray.logCoverage();
+      return coveringArray;
     }
 
-    if (!permute) filterPermutations(listOfTuples);
-
-    List<List<EndPoint>> tempListOfTuples = new ArrayList<>(listOfTuples);
-    for (List<EndPoint> tuple : tempListOfTuples) {
-      if (Collections.disjoint(tuple, focusedList)
-        || (skipSame && tuple.stream().distinct().limit(2).count() <= 1)) {
-        listOfTuples.remove(tuple);
-      }
-    }
+    logger.info(tupleGenerator.getTotalTuples() + " test cases to run");
 
-    Collections.shuffle(listOfTuples);
-    return listOfTuples;
+    return tupleGenerator;
   }
 
-  private void filterPermutations(List<List<EndPoint>> listOfTuples) {
-    List<List<EndPoint>> listOfBrowserList1 = new ArrayList<>();
-    for (List<EndPoint> browserList : listOfTuples) listOfBrowserList1.add(browserList);
-    List<List<EndPoint>> listOfBrowserList2 = new ArrayList<>();
-    for (List<EndPoint> browserList : listOfTuples) listOfBrowserList2.add(browserList);
-    for (int i = 0; i < listOfBrowserList1.size(); i++) {
-      List<EndPoint> browserList1 = listOfBrowserList1.get(i);
-      for (int j = i + 1; j < listOfBrowserList2.size(); j++) {
-        List<EndPoint> browserList2 = listOfBrowserList2.get(j);
-        if (listMatch(browserList1, browserList2)) {
-          listOfTuples.remove(browserList2);
-        }
-      }
-    }
-  }
-
-  private boolean listMatch(List<EndPoint> elements1, List<EndPoint> elements2) {
-    // Optional quick test since size must match
-    if (elements1.size() != elements2.size()) {
-      return false;
-    }
-    List<EndPoint> work = new ArrayList(elements2);
-    for (EndPoint element : elements1) {
-      if (!work.remove(element)) {
-        return false;
-      }
-    }
-    return work.isEmpty();
-  }
-
-
-
-
-
-
-
   /**
    * Returns a JsonArrayBuilder based on the configObject list.
    *
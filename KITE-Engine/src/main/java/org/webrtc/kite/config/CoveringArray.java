@@ -0,0 +1,330 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite.config;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Reduces a matrix of browser tuples to a t-wise covering array.
+ * <p>
+ * Each tuple position has three factors: the browser name, the version and the platform of the
+ * endpoint at this position. An interaction is a set of t factors taking given values, and the
+ * covering array is a subset of the tuples of the matrix in which every interaction found in the
+ * matrix appears at least once. With t = 2 (pairwise), every pair of browser/version/platform
+ * values, at the same position or at two different positions, is tested while running far fewer
+ * tuples than the full matrix.
+ * <p>
+ * The tuples are selected greedily, without holding the matrix in memory: the matrix is iterated
+ * again for each selection pass, BATCH_SIZE candidate tuples at a time. A pass selects the tuples
+ * of each batch covering at least a threshold of interactions not covered yet, the best ones
+ * first, the gains being recomputed lazily from a priority queue since they can only decrease.
+ * The threshold starts at the number of interactions of a tuple and is halved after each pass, so
+ * the tuples covering the most interactions are selected first, and the last pass, with a
+ * threshold of 1, covers every remaining interaction. Only the batch, the interactions and the
+ * selected tuples are kept, and the tuples are returned in the order of selection.
+ */
+public class CoveringArray implements Iterable<List<EndPoint>> {
+
+  private static final Logger logger = Logger.getLogger(CoveringArray.class.getName());
+
+  private static final int FACTORS_PER_ENDPOINT = 3;
+
+  /* Number of candidate tuples held in memory at a time by a selection pass */
+  private static final int BATCH_SIZE = 10000;
+
+  private final int strength;
+  private final int tupleSize;
+  private final long candidateCount;
+  private final int interactionCount;
+  private final List<List<EndPoint>> tuples = new ArrayList<>();
+  /* newInteractions.get(i) is the number of interactions first covered by the i-th tuple */
+  private final List<Integer> newInteractions = new ArrayList<>();
+
+  private final Map<String, Integer> valueIds = new HashMap<>();
+  private final int[][] factorSets;
+  private final int valueBits;
+  private final int factorBits;
+
+  /**
+   * Constructs the t-wise covering array of the given matrix.
+   *
+   * @param matrix    the tuples of the full matrix, usually a TupleGenerator, all of tupleSize.
+   *                  Each iteration must return the same tuples in the same order.
+   * @param tupleSize tuple size
+   * @param strength  number of factors in an interaction (2 for pairwise), capped to the number of
+   *                  factors of a tuple.
+   * @throws IllegalArgumentException if the interactions of this strength cannot be encoded.
+   */
+  public CoveringArray(Iterable<List<EndPoint>> matrix, int tupleSize, int strength) {
+    this.tupleSize = tupleSize;
+    this.strength = Math.min(strength, tupleSize * FACTORS_PER_ENDPOINT);
+
+    // The values of the endpoints are needed to encode the interactions
+    Map<EndPoint, int[]> endPointValues = new IdentityHashMap<>();
+    long count = 0;
+    for (List<EndPoint> tuple : matrix) {
+      for (EndPoint endPoint : tuple) {
+        endPointValues.computeIfAbsent(endPoint, this::getValues);
+      }
+      count++;
+    }
+    this.candidateCount = count;
+
+    int factorCount = tupleSize * FACTORS_PER_ENDPOINT;
+    this.factorSets = getFactorSets(factorCount, this.strength);
+    this.valueBits = bitLength(this.valueIds.size());
+    this.factorBits = bitLength(factorCount);
+    if ((this.valueBits + this.factorBits) * this.strength > Long.SIZE - 1) {
+      throw new IllegalArgumentException("Coverage strength " + this.strength
+        + " is too high for " + this.valueIds.size() + " browser, version and platform values");
+    }
+
+    Set<Long> uncovered = new HashSet<>();
+    long[] interactions = new long[this.factorSets.length];
+    for (List<EndPoint> tuple : matrix) {
+      this.getInteractions(this.getTupleValues(tuple, endPointValues), interactions);
+      for (long interaction : interactions) {
+        uncovered.add(interaction);
+      }
+    }
+    this.interactionCount = uncovered.size();
+
+    for (int threshold = this.factorSets.length; !uncovered.isEmpty(); threshold /= 2) {
+      threshold = Math.max(threshold, 1);
+      List<List<EndPoint>> batch = new ArrayList<>(BATCH_SIZE);
+      for (Iterator<List<EndPoint>> iterator = matrix.iterator();
+           iterator.hasNext() && !uncovered.isEmpty(); ) {
+        batch.add(iterator.next());
+        if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+          this.select(batch, endPointValues, uncovered, threshold);
+          batch.clear();
+        }
+      }
+      if (threshold == 1) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Selects the tuples of a batch covering at least threshold uncovered interactions, the tuple
+   * covering the most first, and removes the interactions they cover from uncovered.
+   */
+  private void select(List<List<EndPoint>> batch, Map<EndPoint, int[]> endPointValues,
+                      Set<Long> uncovered, int threshold) {
+    long[] interactions = new long[this.factorSets.length];
+    // Entries are {gain, candidate index}, the highest gain first, then the first candidate.
+    PriorityQueue<int[]> queue = new PriorityQueue<>(batch.size(),
+      (a, b) -> a[0] != b[0] ? Integer.compare(b[0], a[0]) : Integer.compare(a[1], b[1]));
+    for (int i = 0; i < batch.size(); i++) {
+      queue.add(new int[]{interactions.length, i});
+    }
+    while (!uncovered.isEmpty() && !queue.isEmpty()) {
+      int[] entry = queue.poll();
+      List<EndPoint> tuple = batch.get(entry[1]);
+      this.getInteractions(this.getTupleValues(tuple, endPointValues), interactions);
+      int gain = 0;
+      for (long interaction : interactions) {
+        if (uncovered.contains(interaction)) {
+          gain++;
+        }
+      }
+      if (gain < threshold) {
+        continue;
+      }
+      if (queue.isEmpty() || gain >= queue.peek()[0]) {
+        for (long interaction : interactions) {
+          uncovered.remove(interaction);
+        }
+        this.tuples.add(tuple);
+        this.newInteractions.add(gain);
+      } else {
+        entry[0] = gain;
+        queue.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of tuples of the full matrix.
+   *
+   * @return the number of candidate tuples
+   */
+  public long getCandidateCount() {
+    return this.candidateCount;
+  }
+
+  /**
+   * Gets the number of tuples of the covering array.
+   *
+   * @return the number of selected tuples
+   */
+  public int size() {
+    return this.tuples.size();
+  }
+
+  /**
+   * Gets the number of distinct interactions found in the full matrix, all of them being covered
+   * by the covering array.
+   *
+   * @return the number of interactions
+   */
+  public int getInteractionCount() {
+    return this.interactionCount;
+  }
+
+  /**
+   * Gets the ratio between the number of tuples of the full matrix and the number of tuples of the
+   * covering array.
+   *
+   * @return the reduction ratio, 1 for an empty matrix
+   */
+  public double getReductionRatio() {
+    return this.tuples.isEmpty() ? 1 : (double) this.candidateCount / this.tuples.size();
+  }
+
+  /**
+   * Gets the number of interactions covered for the first time by the tuple at the given index.
+   *
+   * @param index index of the tuple in the covering array
+   * @return the number of new interactions
+   */
+  public int getNewInteractions(int index) {
+    return this.newInteractions.get(index);
+  }
+
+  /**
+   * Logs the reduction ratio, and the coverage reached after each tuple at debug level.
+   */
+  public void logCoverage() {
+    logger.info(this.strength + "-wise covering array: " + this.tuples.size() + " of "
+      + this.candidateCount + " tuples (reduction ratio " + String.format("%.1f", this.getReductionRatio())
+      + "), covering " + this.interactionCount + " interactions");
+    if (logger.isDebugEnabled()) {
+      int covered = 0;
+      for (int i = 0; i < this.tuples.size(); i++) {
+        covered += this.newInteractions.get(i);
+        logger.debug("Tuple " + (i + 1) + " " + this.tuples.get(i) + ": "
+          + this.newInteractions.get(i) + " new interactions, coverage "
+          + String.format("%.1f", 100.0 * covered / this.interactionCount) + "%");
+      }
+    }
+  }
+
+  /**
+   * Returns an iterator over the tuples of the covering array, in the order of selection.
+   *
+   * @return an Iterator<List<EndPoint>>
+   */
+  @Override
+  public Iterator<List<EndPoint>> iterator() {
+    return Collections.unmodifiableList(this.tuples).iterator();
+  }
+
+  /**
+   * Gets the value id of each factor of a tuple.
+   */
+  private int[] getTupleValues(List<EndPoint> tuple, Map<EndPoint, int[]> endPointValues) {
+    int[] values = new int[this.tupleSize * FACTORS_PER_ENDPOINT];
+    for (int i = 0; i < this.tupleSize; i++) {
+      int[] endPointValue = endPointValues.computeIfAbsent(tuple.get(i), this::getValues);
+      System.arraycopy(endPointValue, 0, values, i * FACTORS_PER_ENDPOINT, FACTORS_PER_ENDPOINT);
+    }
+    return values;
+  }
+
+  /**
+   * Gets the value ids of the browser name, version and platform of the given endpoint.
+   */
+  private int[] getValues(EndPoint endPoint) {
+    String name;
+    String version;
+    if (endPoint instanceof Browser) {
+      name = ((Browser) endPoint).getBrowserName();
+      version = ((Browser) endPoint).getVersion();
+    } else {
+      name = ((App) endPoint).getAppPackage();
+      version = ((App) endPoint).getDeviceName();
+    }
+    return new int[]{
+      this.getValueId("name:" + name),
+      this.getValueId("version:" + version),
+      this.getValueId("platform:" + endPoint.getPlatform())};
+  }
+
+  private int getValueId(String value) {
+    return this.valueIds.computeIfAbsent(value.toLowerCase(), key -> this.valueIds.size());
+  }
+
+  /**
+   * Encodes the interactions of a tuple, given the value id of each of its factors, into the given
+   * array. An interaction is encoded as the concatenation of the bits of the (factor, value) pairs
+   * of its factors, in increasing factor order.
+   */
+  private void getInteractions(int[] values, long[] interactions) {
+    for (int i = 0; i < this.factorSets.length; i++) {
+      long interaction = 0;
+      for (int factor : this.factorSets[i]) {
+        interaction = interaction << (this.factorBits + this.valueBits)
+          | (long) factor << this.valueBits | values[factor];
+      }
+      interactions[i] = interaction;
+    }
+  }
+
+  /**
+   * Returns all the sets of size strength of factors among factorCount, in lexicographic order.
+   */
+  private static int[][] getFactorSets(int factorCount, int strength) {
+    List<int[]> factorSets = new ArrayList<>();
+    int[] factors = new int[strength];
+    for (int i = 0; i < strength; i++) {
+      factors[i] = i;
+    }
+    while (true) {
+      factorSets.add(factors.clone());
+      int i = strength - 1;
+      while (i >= 0 && factors[i] == factorCount - strength + i) {
+        i--;
+      }
+      if (i < 0) {
+        return factorSets.toArray(new int[0][]);
+      }
+      factors[i]++;
+      for (int j = i + 1; j < strength; j++) {
+        factors[j] = factors[j - 1] + 1;
+      }
+    }
+  }
+
+  private static int bitLength(int count) {
+    return Math.max(Integer.SIZE - Integer.numberOfLeadingZeros(count - 1), 1);
+  }
+
+}
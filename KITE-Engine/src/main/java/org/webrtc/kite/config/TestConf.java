@@ -32,6 +32,11 @@ import javax.json.JsonObjectBuilder;
  * "payload": "A custom json object",
  * "noOfThreads": 10,
  * "maxRetryCount": 2,
+ * "retryBudget": 20,
+ * "retryBackoff": 5,
+ * "priority": 0,
+ * "weight": 1,
+ * "prefetch": 0,
  * "callback": "http://test.com/resulthandler"
  * }
  */
@@ -43,6 +48,11 @@ public class TestConf extends Test {
   // Optional
   private int noOfThreads;
   private int maxRetryCount;
+  private int retryBudget;
+  private int retryBackoff;
+  private int priority;
+  private int weight;
+  private int prefetch;
   private String commandName;
   
   /**
@@ -70,6 +80,30 @@ public class TestConf extends Test {
       throw new KiteInsufficientValueException(
         "maxRetryCount for " + this.name + " is a negative value.");
     }
+    
+    // A negative budget means that only maxRetryCount limits the retries
+    this.retryBudget = jsonObject.getInt("retryBudget", -1);
+    
+    this.retryBackoff = jsonObject.getInt("retryBackoff", 5);
+    if (this.retryBackoff < 0) {
+      throw new KiteInsufficientValueException(
+        "retryBackoff for " + this.name + " is a negative value.");
+    }
+    
+    // Only used when the tests share the slots of the config (see Configurator.getSlots())
+    this.priority = jsonObject.getInt("priority", 0);
+    this.weight = jsonObject.getInt("weight", 1);
+    if (this.weight < 1) {
+      throw new KiteInsufficientValueException(
+        "weight for " + this.name + " is less than one.");
+    }
+    
+    // Number of upcoming tuples whose sessions are created in advance (see WebDriverPool)
+    this.prefetch = jsonObject.getInt("prefetch", 0);
+    if (this.prefetch < 0) {
+      throw new KiteInsufficientValueException(
+        "prefetch for " + this.name + " is a negative value.");
+    }
   }
 
   /**
@@ -126,6 +160,98 @@ public class TestConf extends Test {
     this.maxRetryCount = maxRetryCount;
   }
 
+  /**
+   * Gets the maximum number of retries for the whole matrix.
+   *
+   * @return the retry budget, negative if unlimited
+   */
+  public int getRetryBudget() {
+    return retryBudget;
+  }
+
+  /**
+   * Sets the maximum number of retries for the whole matrix.
+   *
+   * @param retryBudget the retry budget, negative if unlimited
+   */
+  public void setRetryBudget(int retryBudget) {
+    this.retryBudget = retryBudget;
+  }
+
+  /**
+   * Gets the initial backoff before retrying a tuple on a failing endpoint, in seconds.
+   *
+   * @return the retry backoff
+   */
+  public int getRetryBackoff() {
+    return retryBackoff;
+  }
+
+  /**
+   * Sets the initial backoff before retrying a tuple on a failing endpoint, in seconds.
+   *
+   * @param retryBackoff the retry backoff
+   */
+  public void setRetryBackoff(int retryBackoff) {
+    this.retryBackoff = retryBackoff;
+  }
+
+  /**
+   * Gets the priority of the test for the shared slots, the highest first.
+   *
+   * @return the priority
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  /**
+   * Sets the priority of the test for the shared slots, the highest first.
+   *
+   * @param priority the priority
+   */
+  public void setPriority(int priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Gets the weight of the test in the fair share of the slots among the tests of the same
+   * priority.
+   *
+   * @return the weight
+   */
+  public int getWeight() {
+    return weight;
+  }
+
+  /**
+   * Sets the weight of the test in the fair share of the slots among the tests of the same
+   * priority.
+   *
+   * @param weight the weight
+   */
+  public void setWeight(int weight) {
+    this.weight = weight;
+  }
+
+  /**
+   * Gets the number of upcoming tuples whose sessions are created while the current tuples run.
+   *
+   * @return the number of prefetched tuples, 0 if the sessions are not prefetched
+   */
+  public int getPrefetch() {
+    return prefetch;
+  }
+
+  /**
+   * Sets the number of upcoming tuples whose sessions are created while the current tuples run.
+   *
+   * @param prefetch the number of prefetched tuples
+   */
+  public void setPrefetch(int prefetch) {
+    this.prefetch = prefetch;
+  }
+
   public String getCommandName() {
     return commandName;
   }
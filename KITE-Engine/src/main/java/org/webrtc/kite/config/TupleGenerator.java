@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.webrtc.kite.config;
+
+import com.cosmo.kite.usrmgmt.AccountRole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Generates the browser tuples of a matrix on demand.
+ * <p>
+ * A tuple is identified by its index in [0, n^tupleSize), the i-th digit of the index in base n
+ * being the position of the i-th endpoint in the endpoint list. Without permutation, the tuples
+ * are the combinations with repetition of the distinct endpoints, identified by their rank in
+ * lexicographic order, so that each combination is generated once instead of filtering out the
+ * permutations afterwards. The indexes are visited in a pseudo-random order (a full period linear
+ * congruential generator over the next power of two, skipping the indexes out of range) so that
+ * the tuples come shuffled without being stored. The focus and skipSame filters are applied while
+ * iterating.
+ * <p>
+ * The generated tuples share the endpoints of the configuration, copyTuple() must be called
+ * before a tuple is executed.
+ */
+public class TupleGenerator implements Iterable<List<EndPoint>> {
+
+  private final List<EndPoint> endPointList;
+  private final int tupleSize;
+  private final boolean permute;
+  private final boolean skipSame;
+  private final long indexCount;
+  private final long seed;
+
+  /* focused[i] is true if the i-th endpoint is in the focus list */
+  private final boolean[] focused;
+  /* classIds[i] is the index of the first endpoint equal to the i-th endpoint */
+  private final int[] classIds;
+  /* indexes of the distinct endpoints, used to build the combinations */
+  private final int[] distinctIndexes;
+  /* binomials[n][k] = C(n, k), used to unrank the combinations */
+  private final long[][] binomials;
+
+  /**
+   * Constructs a new TupleGenerator.
+   *
+   * @param endPointList the endpoints of the configuration
+   * @param tupleSize    tuple size
+   * @param permute      true to generate permutations, false to generate combinations
+   * @param skipSame     true to skip the tuples made of a single endpoint repeated
+   */
+  public TupleGenerator(List<EndPoint> endPointList, int tupleSize, boolean permute,
+                        boolean skipSame) {
+    this(endPointList, tupleSize, permute, skipSame, new Random().nextLong());
+  }
+
+  /**
+   * Constructs a new TupleGenerator returning the tuples in the order given by the seed, so that
+   * several processes can generate the same matrix in the same order.
+   *
+   * @param endPointList the endpoints of the configuration
+   * @param tupleSize    tuple size
+   * @param permute      true to generate permutations, false to generate combinations
+   * @param skipSame     true to skip the tuples made of a single endpoint repeated
+   * @param seed         the seed of the shuffle
+   */
+  public TupleGenerator(List<EndPoint> endPointList, int tupleSize, boolean permute,
+                        boolean skipSame, long seed) {
+    this.endPointList = new ArrayList<>(endPointList);
+    this.tupleSize = tupleSize;
+    this.permute = permute;
+    this.skipSame = skipSame;
+    this.seed = seed;
+
+    List<EndPoint> focusedList = new ArrayList<>();
+    for (EndPoint endPoint : endPointList) {
+      if (endPoint.isFocus()) {
+        focusedList.add(endPoint);
+      }
+    }
+    this.focused = new boolean[endPointList.size()];
+    this.classIds = new int[endPointList.size()];
+    List<Integer> distinctList = new ArrayList<>();
+    for (int i = 0; i < endPointList.size(); i++) {
+      this.focused[i] = focusedList.contains(endPointList.get(i));
+      this.classIds[i] = endPointList.indexOf(endPointList.get(i));
+      if (this.classIds[i] == i) {
+        distinctList.add(i);
+      }
+    }
+    this.distinctIndexes = new int[distinctList.size()];
+    for (int i = 0; i < this.distinctIndexes.length; i++) {
+      this.distinctIndexes[i] = distinctList.get(i);
+    }
+
+    if (permute) {
+      long total = 1;
+      for (int i = 0; i < tupleSize; i++) {
+        total = Math.multiplyExact(total, (long) endPointList.size());
+      }
+      this.binomials = null;
+      this.indexCount = total;
+    } else {
+      // A combination with repetition of tupleSize among m elements is a combination without
+      // repetition of tupleSize among m + tupleSize - 1 elements, C(m + tupleSize - 1, tupleSize)
+      int n = Math.max(this.distinctIndexes.length + tupleSize - 1, 0);
+      this.binomials = new long[n + 1][tupleSize + 1];
+      for (int i = 0; i <= n; i++) {
+        this.binomials[i][0] = 1;
+        for (int j = 1; j <= Math.min(i, tupleSize); j++) {
+          this.binomials[i][j] = Math.addExact(this.binomials[i - 1][j - 1],
+            j < i ? this.binomials[i - 1][j] : 0);
+        }
+      }
+      this.indexCount = this.distinctIndexes.length == 0 ? 0 : this.binomials[n][tupleSize];
+    }
+  }
+
+  /**
+   * Gets the number of tuples before the focus and skipSame filters: n^tupleSize with
+   * permutation, the number of combinations with repetition of the m distinct endpoints,
+   * C(m + tupleSize - 1, tupleSize), without.
+   *
+   * @return the total number of tuples
+   */
+  public long getTotalTuples() {
+    return this.indexCount;
+  }
+
+  /**
+   * Counts the tuples remaining after filtering, by iterating over them.
+   *
+   * @return the number of tuples to run
+   */
+  public long count() {
+    long count = 0;
+    Iterator<List<EndPoint>> iterator = this.iterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Returns a sequential Stream over the tuples.
+   *
+   * @return a Stream<List<EndPoint>>
+   */
+  public Stream<List<EndPoint>> stream() {
+    return StreamSupport.stream(this.spliterator(), false);
+  }
+
+  /**
+   * Returns an iterator over the tuples. All the iterators of a TupleGenerator return the tuples
+   * in the same order.
+   *
+   * @return an Iterator<List<EndPoint>>
+   */
+  @Override
+  public Iterator<List<EndPoint>> iterator() {
+    return new TupleIterator();
+  }
+
+  /**
+   * Copies the endpoints of a generated tuple so that it can be executed, the first endpoint of
+   * the tuple being the caller.
+   *
+   * @param tuple a tuple returned by this generator
+   * @return a new tuple of new endpoints
+   */
+  public static List<EndPoint> copyTuple(List<EndPoint> tuple) {
+    List<EndPoint> copy = new ArrayList<>(tuple.size());
+    for (EndPoint endPoint : tuple) {
+      if (endPoint instanceof Browser) {
+        endPoint = new Browser((Browser) endPoint);
+      } else {
+        endPoint = new App((App) endPoint);
+      }
+      if (copy.isEmpty()) {
+        endPoint.getTypeRole().setRole(AccountRole.CALLER);
+      }
+      copy.add(endPoint);
+    }
+    return copy;
+  }
+
+  /**
+   * Checks whether the tuple made of the given endpoint indexes passes the focus and skipSame
+   * filters.
+   */
+  private boolean accept(int[] indexes) {
+    boolean hasFocus = false;
+    boolean allSame = true;
+    for (int index : indexes) {
+      hasFocus |= this.focused[index];
+      allSame &= this.classIds[index] == this.classIds[indexes[0]];
+    }
+    return hasFocus && !(this.skipSame && allSame);
+  }
+
+  private List<EndPoint> toTuple(int[] indexes) {
+    EndPoint[] tuple = new EndPoint[indexes.length];
+    for (int i = 0; i < indexes.length; i++) {
+      tuple[i] = this.endPointList.get(indexes[i]);
+    }
+    return Arrays.asList(tuple);
+  }
+
+  /**
+   * Decodes a tuple index into the indexes of its endpoints.
+   */
+  private void decode(long tupleIndex, int[] indexes) {
+    if (this.permute) {
+      this.decodePermutation(tupleIndex, indexes);
+    } else {
+      this.decodeCombination(tupleIndex, indexes);
+    }
+  }
+
+  /**
+   * Decodes a tuple index in base n, the first endpoint being the most significant digit.
+   */
+  private void decodePermutation(long tupleIndex, int[] indexes) {
+    for (int i = this.tupleSize - 1; i >= 0; i--) {
+      indexes[i] = (int) (tupleIndex % this.endPointList.size());
+      tupleIndex /= this.endPointList.size();
+    }
+  }
+
+  /**
+   * Decodes the rank of a combination with repetition of the distinct endpoints, in lexicographic
+   * order. The combination is unranked as a combination c without repetition among
+   * m + tupleSize - 1 elements, the i-th endpoint being the distinct endpoint c[i] - i.
+   */
+  private void decodeCombination(long rank, int[] indexes) {
+    int n = this.distinctIndexes.length + this.tupleSize - 1;
+    int element = 0;
+    for (int i = 0; i < this.tupleSize; i++) {
+      // Skip the combinations starting with a smaller element at position i
+      while (this.binomials[n - element - 1][this.tupleSize - i - 1] <= rank) {
+        rank -= this.binomials[n - element - 1][this.tupleSize - i - 1];
+        element++;
+      }
+      indexes[i] = this.distinctIndexes[element - i];
+      element++;
+    }
+  }
+
+  /**
+   * Visits every tuple index once in a pseudo-random order.
+   */
+  private class TupleIterator implements Iterator<List<EndPoint>> {
+
+    private final long mask;
+    private final long multiplier;
+    private final long increment;
+    private long current;
+    private long remainingSteps;
+    private final int[] indexes = new int[tupleSize];
+    private List<EndPoint> next;
+
+    private TupleIterator() {
+      long modulus = Long.highestOneBit(Math.max(indexCount - 1, 1)) << 1;
+      Random random = new Random(seed);
+      this.mask = modulus - 1;
+      // Hull-Dobell theorem: full period for an odd increment and a multiplier equal to 1 mod 4
+      this.multiplier = (random.nextLong() << 2 | 1) & this.mask;
+      this.increment = (random.nextLong() | 1) & this.mask;
+      this.current = random.nextLong() & this.mask;
+      this.remainingSteps = indexCount == 0 ? 0 : modulus;
+      this.advance();
+    }
+
+    private void advance() {
+      this.next = null;
+      while (this.next == null && this.remainingSteps > 0) {
+        this.current = (this.multiplier * this.current + this.increment) & this.mask;
+        this.remainingSteps--;
+        if (this.current < indexCount) {
+          decode(this.current, this.indexes);
+          if (accept(this.indexes)) {
+            this.next = toTuple(this.indexes);
+          }
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.next != null;
+    }
+
+    @Override
+    public List<EndPoint> next() {
+      if (this.next == null) {
+        throw new NoSuchElementException();
+      }
+      List<EndPoint> tuple = this.next;
+      this.advance();
+      return tuple;
+    }
+  }
+
+}
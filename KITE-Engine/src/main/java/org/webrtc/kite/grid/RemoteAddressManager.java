@@ -20,10 +20,10 @@ import java.sql.SQLException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import com.cosmo.kite.executor.ExecutorPool;
+import com.cosmo.kite.executor.KiteExecutors;
 import org.apache.log4j.Logger;
 import org.webrtc.kite.config.Browser;
 import org.webrtc.kite.config.EndPoint;
@@ -63,13 +63,10 @@ public class RemoteAddressManager {
    */
   public void communicateWithRemotes() {
     List<Future<Object>> futureObjectList = null;
-    ExecutorService executorService = Executors.newFixedThreadPool(this.fetcherList.size());
     try {
-      futureObjectList = executorService.invokeAll(this.fetcherList);
+      futureObjectList = KiteExecutors.get(ExecutorPool.BLOCKING).invokeAll(this.fetcherList);
     } catch (InterruptedException e) {
       logger.warn("Threads were interrupted with an exception", e);
-    } finally {
-      executorService.shutdown();
     }
 
     if (futureObjectList != null) {
@@ -16,14 +16,23 @@
 
 package org.webrtc.kite.scheduler;
 
+import com.cosmo.kite.executor.ExecutorPool;
+import com.cosmo.kite.executor.KiteExecutors;
 import org.apache.log4j.Logger;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.webrtc.kite.MatrixRunner;
+import org.webrtc.kite.RunJournal;
+import org.webrtc.kite.ShardCoordinator;
+import org.webrtc.kite.SlotBudget;
 import org.webrtc.kite.config.Configurator;
 import org.webrtc.kite.config.Instrumentation;
 import org.webrtc.kite.config.TestConf;
+import org.webrtc.kite.wdmgmt.WebDriverPool;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -46,68 +55,157 @@ public class MatrixRunnerJob extends KiteJob {
       iterations = instrumentation.getScenarios().size();
     }
 
-    do {
-      String commandName = null;
-      if (instrumentation != null) {
-        try {
-          commandName = instrumentation.runCommand(index);
-        } catch (Exception e) {
-          logger.warn("Exception while running commands", e);
-        }
+    RunJournal journal = null;
+    String journalFile = Configurator.getInstance().getJournalFile();
+    if (journalFile != null) {
+      try {
+        journal = new RunJournal(journalFile);
+      } catch (IOException e) {
+        logger.error("Unable to open the journal " + journalFile + ", the run is not resumable", e);
       }
-      for (TestConf testConf : (List<TestConf>) Configurator.getInstance().getConfigHandler()
-          .getTestList()) {
-        testConf.setCommandName(commandName);
-        try {
-          if (logger.isInfoEnabled()) {
-            logger.info("Running " + testConf + " ...");
+    }
+    boolean complete = true;
+
+    try {
+      do {
+        String commandName = null;
+        if (instrumentation != null) {
+          try {
+            commandName = instrumentation.runCommand(index);
+          } catch (Exception e) {
+            logger.warn("Exception while running commands", e);
+          }
+        }
+        List<TestConf> testConfs =
+            (List<TestConf>) Configurator.getInstance().getConfigHandler().getTestList();
+        int slots = Configurator.getInstance().getSlots();
+        if (slots > 0) {
+          complete &= this.runConcurrently(testConfs, commandName, journal, index,
+              new SlotBudget(slots));
+        } else {
+          for (TestConf testConf : testConfs) {
+            complete &= this.runMatrix(testConf,
+                this.createMatrixRunner(testConf, commandName, journal, index));
           }
+        }
 
-          List<Future<Object>> listOfResults =
-              new MatrixRunner(
-                      testConf,
-                      Configurator.getInstance()
-                          .buildTuples(testConf.getTupleSize(), testConf.isPermute()),
-                      testConf.getName())
-                  .run();
-
-          if (listOfResults != null) {
-            if (logger.isInfoEnabled()) {
-              String testResults = "The following are results for " + testConf + ":\n";
-              for (Future<Object> future : listOfResults) {
-                try {
-                  testResults += "\r\n" + future.get().toString();
-                } catch (Exception e) {
-                  logger.error("Exception while test execution", e);
-                }
-              }
-              testResults += "\r\nEND OF RESULTS\r\n";
-              logger.info("MatrixRunnuerJob Completed");
-              logger.debug(testResults);
-            }
-          } else {
-            logger.warn("No test case was found.");
+        if (instrumentation != null) {
+          try {
+            instrumentation.runCleanCommand(index++);
+          } catch (Exception e) {
+            logger.warn("Exception while running clean commands", e);
           }
-        } catch (InterruptedException e) {
-          logger.fatal("Error [Interruption]: The execution has been interrupted with the "
-              + "following error: " + e.getLocalizedMessage(), e);
-        } catch (ExecutionException e) {
-          logger.fatal(
-              "Error [Execution]: The execution has been ended with the following error: " + e
-                  .getLocalizedMessage(), e);
         }
+      } while (--iterations > 0);
+
+      if (journal != null && complete) {
+        journal.complete();
+      }
+    } finally {
+      if (journal != null) {
+        journal.close();
+      }
+      if (WebDriverPool.isEnabled()) {
+        WebDriverPool.getInstance().shutdown();
       }
+    }
+
+    if (Configurator.getInstance().isSharded()) {
+      ShardCoordinator.markDone(Configurator.getInstance().getShardFolder());
+    }
+    KiteExecutors.logMetrics();
 
-      if (instrumentation != null) {
+  }
+
+  /**
+   * Creates the MatrixRunner of a test.
+   */
+  private MatrixRunner createMatrixRunner(TestConf testConf, String commandName,
+      RunJournal journal, int index) {
+    testConf.setCommandName(commandName);
+    MatrixRunner matrixRunner =
+        new MatrixRunner(
+                testConf,
+                Configurator.getInstance()
+                    .buildTuples(testConf.getTupleSize(), testConf.isPermute()),
+                testConf.getName());
+    if (journal != null) {
+      matrixRunner.setJournal(journal, index + "/");
+    }
+    if (logger.isDebugEnabled()) {
+      matrixRunner.addResultListener((testManager, future) -> {
         try {
-          instrumentation.runCleanCommand(index++);
+          logger.debug("Result for " + testManager.getTestName() + ":\r\n" + future.get());
         } catch (Exception e) {
-          logger.warn("Exception while running clean commands", e);
+          logger.error("Exception while test execution", e);
         }
+      });
+    }
+    return matrixRunner;
+  }
+
+  /**
+   * Runs the matrix of a test.
+   *
+   * @return false if the execution has been interrupted or has failed.
+   */
+  private boolean runMatrix(TestConf testConf, MatrixRunner matrixRunner) {
+    try {
+      if (logger.isInfoEnabled()) {
+        logger.info("Running " + testConf + " ...");
+      }
+
+      if (matrixRunner.run() > 0) {
+        logger.info("MatrixRunnuerJob Completed");
+      } else {
+        logger.warn("No test case was found.");
       }
-    } while (--iterations > 0);
+      return true;
+    } catch (InterruptedException e) {
+      logger.fatal("Error [Interruption]: The execution has been interrupted with the "
+          + "following error: " + e.getLocalizedMessage(), e);
+    } catch (ExecutionException e) {
+      logger.fatal(
+          "Error [Execution]: The execution has been ended with the following error: " + e
+              .getLocalizedMessage(), e);
+    }
+    return false;
+  }
 
+  /**
+   * Runs the matrices of all the tests at the same time, sharing the slots of the given
+   * SlotBudget, each test having its own suite. The matrices are started by decreasing priority.
+   *
+   * @return false if an execution has been interrupted or has failed.
+   */
+  private boolean runConcurrently(List<TestConf> testConfs, String commandName,
+      RunJournal journal, int index, SlotBudget slotBudget) {
+    List<TestConf> sortedTestConfs = new ArrayList<>(testConfs);
+    sortedTestConfs.sort(Comparator.comparingInt(TestConf::getPriority).reversed());
 
+    logger.info("Running " + testConfs.size() + " tests sharing " + slotBudget.getCapacity()
+        + " slots ...");
+    List<Future<Boolean>> futures = new ArrayList<>();
+    try {
+      for (TestConf testConf : sortedTestConfs) {
+        MatrixRunner matrixRunner = this.createMatrixRunner(testConf, commandName, journal, index);
+        matrixRunner.setSlotBudget(slotBudget);
+        futures.add(KiteExecutors.get(ExecutorPool.BLOCKING)
+            .submit(() -> this.runMatrix(testConf, matrixRunner)));
+      }
+      boolean complete = true;
+      for (Future<Boolean> future : futures) {
+        complete &= future.get();
+      }
+      return complete;
+    } catch (InterruptedException | ExecutionException e) {
+      logger.fatal("Error [Interruption]: The execution has been interrupted with the "
+          + "following error: " + e.getLocalizedMessage(), e);
+      for (Future<Boolean> future : futures) {
+        future.cancel(true);
+      }
+      return false;
+    }
   }
 
 }
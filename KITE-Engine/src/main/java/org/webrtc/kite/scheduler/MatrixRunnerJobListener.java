@@ -16,6 +16,7 @@
 
 package org.webrtc.kite.scheduler;
 
+import com.cosmo.kite.executor.KiteExecutors;
 import org.apache.log4j.Logger;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
@@ -23,6 +24,8 @@ import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.listeners.JobListenerSupport;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * A JobListener to shut the scheduler down after it is finished.
  */
@@ -30,6 +33,9 @@ public class MatrixRunnerJobListener extends JobListenerSupport {
 
   private static final Logger logger = Logger.getLogger(MatrixRunnerJobListener.class.getName());
 
+  /* Maximum time to wait for the shared pools to complete their tasks, in seconds */
+  private static final long POOL_SHUTDOWN_TIMEOUT = 60;
+
   @Override public String getName() {
     return MatrixRunnerJobListener.class.getName();
   }
@@ -49,6 +55,8 @@ public class MatrixRunnerJobListener extends JobListenerSupport {
       } catch (SchedulerException se) {
         logger.error("Exception while shutting down the Scheduler", se);
       }
+      // Lets the pending results be posted before the JVM exits
+      KiteExecutors.shutdown(POOL_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
     }
   }
 
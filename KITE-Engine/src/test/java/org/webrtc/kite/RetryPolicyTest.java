@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite;
+
+import junit.framework.TestCase;
+import org.webrtc.kite.TupleSchedulerTest.RecordingListener;
+import org.webrtc.kite.TupleSchedulerTest.StubTestManager;
+import org.webrtc.kite.TupleSchedulerTest.Tracker;
+import org.webrtc.kite.config.EndPoint;
+
+import java.util.Arrays;
+
+import static org.webrtc.kite.TupleSchedulerTest.desktop;
+import static org.webrtc.kite.TupleSchedulerTest.mobile;
+
+public class RetryPolicyTest extends TestCase {
+
+  private static final long BACKOFF = 1000;
+
+  private final Tracker tracker = new Tracker();
+
+  public void testBackoffDoublesUpToItsCap() {
+    RetryPolicy policy = new RetryPolicy(100, -1, BACKOFF);
+    StubTestManager manager = failing("Test 0", desktop(60));
+    long[] factors = {1, 2, 4, 8, 16, 32, 64, 64, 64};
+    for (long factor : factors) {
+      long before = System.currentTimeMillis();
+      assertTrue(policy.shouldRetry(manager));
+      long after = System.currentTimeMillis();
+      long availableTime = policy.getAvailableTime(manager);
+      assertTrue("x" + factor, availableTime >= before + factor * BACKOFF);
+      assertTrue("x" + factor, availableTime <= after + factor * BACKOFF);
+    }
+  }
+
+  public void testSuccessResetsTheBackoff() {
+    RetryPolicy policy = new RetryPolicy(100, -1, BACKOFF);
+    StubTestManager failed = failing("Test 0", desktop(60), desktop(61));
+    policy.shouldRetry(failed);
+    policy.shouldRetry(failed);
+    assertTrue(policy.getAvailableTime(failed) > System.currentTimeMillis());
+
+    // a success on desktop(60) resets its backoff, desktop(61) is still avoided
+    assertFalse(policy.shouldRetry(manager("Test 1", desktop(60))));
+    assertEquals(0, policy.getAvailableTime(manager("Test 2", desktop(60))));
+    assertTrue(policy.getAvailableTime(manager("Test 3", desktop(61))) > 0);
+
+    // the next failure on desktop(60) starts again from the initial backoff
+    StubTestManager failedAgain = failing("Test 4", desktop(60));
+    long before = System.currentTimeMillis();
+    assertTrue(policy.shouldRetry(failedAgain));
+    assertTrue(policy.getAvailableTime(failedAgain) <= System.currentTimeMillis() + BACKOFF);
+    assertTrue(policy.getAvailableTime(failedAgain) >= before + BACKOFF);
+  }
+
+  public void testRetriesAreRefusedAtMaxRetryCount() {
+    RetryPolicy policy = new RetryPolicy(2, -1, 0);
+    StubTestManager manager = failing("Test 0", desktop(60));
+    assertTrue(policy.shouldRetry(manager));
+    assertTrue(policy.shouldRetry(manager));
+    assertEquals(2, manager.getRetryCount());
+    assertFalse(policy.shouldRetry(manager));
+    assertEquals(2, manager.getRetryCount());
+    // the other tuples are still retried
+    assertTrue(policy.shouldRetry(failing("Test 1", desktop(60))));
+  }
+
+  public void testRetriesAreRefusedAtRetryBudget() {
+    RetryPolicy policy = new RetryPolicy(2, 3, 0);
+    assertTrue(policy.shouldRetry(failing("Test 0", desktop(60))));
+    assertTrue(policy.shouldRetry(failing("Test 1", desktop(61))));
+    assertTrue(policy.shouldRetry(failing("Test 2", desktop(62))));
+    StubTestManager manager = failing("Test 3", desktop(60));
+    assertFalse(policy.shouldRetry(manager));
+    assertEquals(0, manager.getRetryCount());
+  }
+
+  public void testAvailableTimeIsTheLatestOfTheEndPoints() {
+    RetryPolicy policy = new RetryPolicy(100, -1, BACKOFF);
+    StubTestManager twice = failing("Test 0", desktop(60));
+    policy.shouldRetry(twice);
+    policy.shouldRetry(twice);
+    policy.shouldRetry(failing("Test 1", mobile("phone1")));
+    long avoid60 = policy.getAvailableTime(manager("Test 2", desktop(60)));
+    long avoidPhone = policy.getAvailableTime(manager("Test 3", mobile("phone1")));
+    assertTrue(avoid60 > avoidPhone);
+
+    assertEquals(avoid60, policy.getAvailableTime(manager("Test 4", mobile("phone1"), desktop(60))));
+    assertEquals(avoidPhone, policy.getAvailableTime(manager("Test 5", mobile("phone1"), desktop(61))));
+    // the endpoints of the same hub which did not fail are not avoided
+    assertEquals(0, policy.getAvailableTime(manager("Test 6", desktop(61), mobile("phone2"))));
+  }
+
+  public void testEndPointsOfTheSameHubAreToldApart() {
+    assertEquals(4, RetryPolicy.getEndPointIds(Arrays.<EndPoint>asList(
+      desktop(60), desktop(61), mobile("phone1"), mobile("phone2"))).size());
+    assertEquals(1, RetryPolicy.getEndPointIds(Arrays.<EndPoint>asList(
+      desktop(60), desktop(60))).size());
+  }
+
+  public void testMetrics() {
+    RetryPolicy policy = new RetryPolicy(1, -1, 0);
+    StubTestManager first = failing("Test 0", desktop(60));
+    first.timeTaken = 1500;
+    StubTestManager second = failing("Test 1", desktop(61));
+    second.timeTaken = 2500;
+    assertTrue(policy.shouldRetry(first));
+    assertTrue(policy.shouldRetry(second));
+    first.timeTaken = 3000;
+    assertFalse(policy.shouldRetry(first));
+    assertFalse(policy.shouldRetry(manager("Test 2", desktop(62))));
+
+    assertEquals(2, policy.getRetries());
+    assertEquals(1, policy.getRefusedRetries());
+    // only the attempts that have been retried are lost
+    assertEquals(4000, policy.getTimeLost());
+  }
+
+  public void testSchedulerRetriesTheFailedTuples() throws InterruptedException {
+    RetryPolicy policy = new RetryPolicy(3, -1, 10);
+    StubTestManager flaky = manager("Test 0", desktop(60));
+    flaky.failures = 2;
+    StubTestManager broken = manager("Test 1", desktop(61));
+    broken.failures = 10;
+    StubTestManager sound = manager("Test 2", desktop(62));
+    RecordingListener listener = new RecordingListener();
+    TupleScheduler scheduler = new TupleScheduler(3);
+    scheduler.setRetryPolicy(policy);
+    scheduler.addResultListener(listener);
+
+    assertEquals(3, scheduler.execute(Arrays.<TestManager>asList(flaky, broken, sound).iterator()));
+    assertEquals(3, flaky.executions.get());
+    assertEquals(4, broken.executions.get());
+    assertEquals(1, sound.executions.get());
+    for (TestManager manager : Arrays.asList(flaky, broken, sound)) {
+      assertEquals(1, (int) listener.results.get(manager));
+    }
+    assertEquals(2, (int) listener.retries.get(flaky));
+    assertEquals(3, (int) listener.retries.get(broken));
+    assertNull(listener.retries.get(sound));
+    assertEquals(5, policy.getRetries());
+    assertEquals(1, policy.getRefusedRetries());
+  }
+
+  private StubTestManager manager(String testName, EndPoint... endPoints) {
+    return new StubTestManager(this.tracker, testName, Arrays.asList(endPoints));
+  }
+
+  private StubTestManager failing(String testName, EndPoint... endPoints) {
+    StubTestManager manager = this.manager(testName, endPoints);
+    manager.retryable = true;
+    return manager;
+  }
+}
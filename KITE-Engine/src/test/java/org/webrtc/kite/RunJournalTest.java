@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+public class RunJournalTest extends TestCase {
+
+  private File file;
+
+  @Override
+  protected void setUp() throws IOException {
+    this.file = File.createTempFile("journal-", ".log");
+    this.file.delete();
+  }
+
+  @Override
+  protected void tearDown() {
+    this.file.delete();
+  }
+
+  public void testResumeReloadsTheFinishedResults() throws IOException {
+    try (RunJournal journal = new RunJournal(this.file.getPath())) {
+      journal.scheduled("Test#0#a1");
+      journal.started("Test#0#a1");
+      journal.finished("Test#0#a1", "uuid-0");
+      journal.scheduled("Test#1#b2");
+      journal.started("Test#1#b2");
+      journal.scheduled("Other#0#c3");
+      journal.finished("Other#0#c3", "uuid-1");
+    }
+    assertTrue(RunJournal.isResumable(this.file.getPath()));
+
+    try (RunJournal journal = new RunJournal(this.file.getPath())) {
+      assertTrue(journal.isFinished("Test#0#a1"));
+      assertFalse(journal.isFinished("Test#1#b2"));
+      assertEquals(Collections.singletonList("uuid-0"), journal.getFinishedResults("Test#"));
+      journal.complete();
+    }
+    assertFalse(RunJournal.isResumable(this.file.getPath()));
+
+    try (RunJournal journal = new RunJournal(this.file.getPath())) {
+      assertFalse(journal.isFinished("Test#0#a1"));
+      assertTrue(journal.getFinishedResults("").isEmpty());
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite;
+
+import com.cosmo.kite.report.custom_kite_allure.Reporter;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.webrtc.kite.TupleSchedulerTest.StubTestManager;
+import org.webrtc.kite.TupleSchedulerTest.Tracker;
+import org.webrtc.kite.config.EndPoint;
+import org.webrtc.kite.config.TupleGenerator;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+public class ShardCoordinatorTest extends TestCase {
+
+  private File reportFolder;
+  private HttpServer server;
+  private final List<JsonObject> posted = Collections.synchronizedList(new ArrayList<>());
+
+  @Override
+  protected void setUp() throws IOException {
+    this.reportFolder = Files.createTempDirectory("shards-").toFile();
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    this.server.createContext("/results", exchange -> {
+      try (InputStream body = exchange.getRequestBody();
+           JsonReader reader = Json.createReader(new InputStreamReader(body, "UTF-8"))) {
+        this.posted.add(reader.readObject());
+      }
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    this.server.start();
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    this.server.stop(0);
+    deleteFolder(this.reportFolder);
+  }
+
+  public void testShardsSplitTheMatrix() {
+    List<EndPoint> endPointList = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      endPointList.add(TupleSchedulerTest.desktop(60 + i));
+    }
+    List<String> matrix = keys(new TupleGenerator(endPointList, 3, true, false, 42), 1, 1);
+    for (int shardCount = 1; shardCount <= 5; shardCount++) {
+      Set<String> merged = new HashSet<>();
+      int total = 0;
+      for (int shardIndex = 1; shardIndex <= shardCount; shardIndex++) {
+        // each shard process generates the matrix again with the same seed
+        List<String> shard = keys(new TupleGenerator(endPointList, 3, true, false, 42),
+          shardIndex, shardCount);
+        total += shard.size();
+        merged.addAll(shard);
+      }
+      assertEquals("disjoint shards of " + shardCount, matrix.size(), total);
+      assertEquals(new HashSet<>(matrix), merged);
+    }
+  }
+
+  public void testMergeCombinesTheSuitesAndPostsEachResultOnce() throws Exception {
+    String callback = "http://localhost:" + this.server.getAddress().getPort() + "/results";
+    int shardCount = 3;
+    Set<String> expectedChildren = new HashSet<>();
+    for (int shardIndex = 1; shardIndex <= shardCount; shardIndex++) {
+      String shardFolder = ShardCoordinator.getShardFolder(this.reportFolder.getPath(), shardIndex,
+        shardCount, "run1");
+      ShardCoordinator.prepareShard(shardFolder, false);
+      File results = new File(shardFolder + Reporter.DEFAULT_REPORT_FOLDER);
+      assertTrue(results.mkdirs());
+      List<String> children = new ArrayList<>();
+      JsonArrayBuilder childrenArray = Json.createArrayBuilder();
+      for (int i = 0; i < shardIndex; i++) {
+        String uuid = "test-" + shardIndex + "-" + i;
+        children.add(uuid);
+        childrenArray.add(uuid);
+        write(new File(results, uuid + "-result.json"), Json.createObjectBuilder()
+          .add("uuid", uuid).build());
+      }
+      expectedChildren.addAll(children);
+      write(new File(results, "suite-" + shardIndex + "-container.json"), Json.createObjectBuilder()
+        .add("uuid", "suite-" + shardIndex)
+        .add("name", "Matrix Suite")
+        .add("children", childrenArray)
+        .add("start", 1000L * shardIndex)
+        .add("stop", 5000L + shardIndex)
+        .build());
+
+      ShardResultListener listener = new ShardResultListener(shardFolder, callback);
+      for (String child : children) {
+        listener.onResult(new StubTestManager(new Tracker(), child, new ArrayList<>()),
+          CompletableFuture.completedFuture(Json.createObjectBuilder().add("id", child).build()));
+      }
+      ShardCoordinator.markDone(shardFolder);
+    }
+
+    ShardCoordinator coordinator = new ShardCoordinator(this.reportFolder.getPath(), shardCount,
+      "run1");
+    coordinator.awaitShards();
+    coordinator.merge();
+
+    File[] merged = new File(this.reportFolder, Reporter.DEFAULT_REPORT_FOLDER).listFiles();
+    assertNotNull(merged);
+    List<File> containers = new ArrayList<>();
+    int resultFiles = 0;
+    for (File file : merged) {
+      if (file.getName().endsWith("-container.json")) {
+        containers.add(file);
+      } else {
+        resultFiles++;
+      }
+    }
+    assertEquals(6, resultFiles);
+    assertEquals(1, containers.size());
+    JsonObject container = read(containers.get(0));
+    Set<String> children = new HashSet<>();
+    for (JsonString child : container.getJsonArray("children").getValuesAs(JsonString.class)) {
+      children.add(child.getString());
+    }
+    assertEquals(expectedChildren, children);
+    assertEquals(1000L, container.getJsonNumber("start").longValue());
+    assertEquals(5003L, container.getJsonNumber("stop").longValue());
+
+    Set<String> postedIds = new HashSet<>();
+    for (JsonObject result : this.posted) {
+      postedIds.add(result.getString("id"));
+    }
+    assertEquals(6, this.posted.size());
+    assertEquals(expectedChildren, postedIds);
+
+    // the merged outputs are removed, merging again posts nothing
+    coordinator.merge();
+    assertEquals(6, this.posted.size());
+    for (int shardIndex = 1; shardIndex <= shardCount; shardIndex++) {
+      String shardFolder = ShardCoordinator.getShardFolder(this.reportFolder.getPath(), shardIndex,
+        shardCount, "run1");
+      assertFalse(new File(shardFolder, ShardCoordinator.CALLBACK_RESULTS_FILE).exists());
+      assertFalse(new File(shardFolder + Reporter.DEFAULT_REPORT_FOLDER).exists());
+    }
+  }
+
+  /* the index and the endpoints of each tuple of the shard */
+  private static List<String> keys(TupleGenerator generator, int shardIndex, int shardCount) {
+    List<String> keys = new ArrayList<>();
+    long index = 0;
+    for (List<EndPoint> tuple : generator) {
+      if (ShardCoordinator.isInShard(index, shardIndex, shardCount)) {
+        keys.add(index + "#" + tuple);
+      }
+      index++;
+    }
+    return keys;
+  }
+
+  private static void write(File file, JsonObject jsonObject) throws IOException {
+    Files.write(file.toPath(), jsonObject.toString().getBytes("UTF-8"));
+  }
+
+  private static JsonObject read(File file) throws IOException {
+    try (JsonReader reader = Json.createReader(Files.newBufferedReader(file.toPath()))) {
+      return reader.readObject();
+    }
+  }
+
+  private static void deleteFolder(File folder) {
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        deleteFolder(file);
+      }
+    }
+    folder.delete();
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite;
+
+import junit.framework.TestCase;
+import org.webrtc.kite.TupleSchedulerTest.StubTestManager;
+import org.webrtc.kite.TupleSchedulerTest.Tracker;
+import org.webrtc.kite.config.EndPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.webrtc.kite.TupleSchedulerTest.desktop;
+
+public class SlotBudgetTest extends TestCase {
+
+  public void testReleasedSlotsGoToTheHighestPriority() {
+    SlotBudget budget = new SlotBudget(4);
+    SlotBudget.Share low = budget.register(0, 1);
+    SlotBudget.Share high = budget.register(1, 1);
+    assertTrue(low.tryAcquire(2));
+    assertTrue(low.tryAcquire(2));
+
+    // both wait for 2 slots, the high priority matrix is served first
+    assertFalse(high.tryAcquire(2));
+    assertFalse(low.tryAcquire(2));
+    low.release(2);
+    assertFalse(low.tryAcquire(2));
+    assertTrue(high.tryAcquire(2));
+    assertEquals(0, low.getAvailable());
+  }
+
+  public void testSamePriorityIsSharedByWeight() {
+    SlotBudget budget = new SlotBudget(6);
+    SlotBudget.Share filler = budget.register(0, 1);
+    SlotBudget.Share light = budget.register(0, 1);
+    SlotBudget.Share heavy = budget.register(0, 2);
+    assertTrue(filler.tryAcquire(6));
+    assertFalse(light.tryAcquire(1));
+    assertFalse(heavy.tryAcquire(1));
+
+    // the slots released one at a time go to the waiting share furthest below its weighted share
+    StringBuilder served = new StringBuilder();
+    for (int i = 0; i < 6; i++) {
+      filler.release(1);
+      boolean toLight = light.tryAcquire(1);
+      boolean toHeavy = heavy.tryAcquire(1);
+      assertTrue(toLight ^ toHeavy);
+      served.append(toLight ? 'L' : 'H');
+      // both keep asking for slots
+      assertFalse(light.tryAcquire(1) || heavy.tryAcquire(1));
+    }
+    assertEquals("LHHLHH", served.toString());
+    assertEquals(0, filler.getAvailable());
+  }
+
+  public void testIdleShareDoesNotHoldBackTheOthers() {
+    SlotBudget budget = new SlotBudget(2);
+    SlotBudget.Share high = budget.register(1, 1);
+    SlotBudget.Share low = budget.register(0, 1);
+    assertTrue(low.tryAcquire(2));
+    assertFalse(high.tryAcquire(2));
+    // the high priority matrix stopped asking for slots
+    high.startDispatch();
+    low.release(2);
+    assertTrue(low.tryAcquire(1));
+    // a share waiting for more slots than available does not block a smaller tuple
+    assertFalse(high.tryAcquire(2));
+    assertTrue(low.tryAcquire(1));
+  }
+
+  public void testUnregisteredShareIsIgnored() {
+    SlotBudget budget = new SlotBudget(2);
+    SlotBudget.Share high = budget.register(1, 1);
+    SlotBudget.Share low = budget.register(0, 1);
+    assertTrue(low.tryAcquire(2));
+    assertFalse(high.tryAcquire(1));
+    high.unregister();
+    low.release(1);
+    assertTrue(low.tryAcquire(1));
+  }
+
+  public void testTuplesLargerThanTheBudgetAreCapped() {
+    SlotBudget budget = new SlotBudget(3);
+    SlotBudget.Share share = budget.register(0, 1);
+    assertTrue(share.tryAcquire(5));
+    assertEquals(0, share.getAvailable());
+    share.release(5);
+    assertEquals(3, share.getAvailable());
+  }
+
+  public void testConcurrentMatricesStayWithinTheBudget() throws Exception {
+    SlotBudget budget = new SlotBudget(5);
+    Tracker tracker = new Tracker();
+    List<TestManager> first = managers(tracker, "A", 20);
+    List<TestManager> second = managers(tracker, "B", 20);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Callable<Integer>> matrices = new ArrayList<>();
+      matrices.add(matrix(budget.register(1, 1), first));
+      matrices.add(matrix(budget.register(0, 1), second));
+      int executed = 0;
+      for (Future<Integer> future : executor.invokeAll(matrices)) {
+        executed += future.get();
+      }
+      assertEquals(40, executed);
+    } finally {
+      executor.shutdown();
+    }
+    // two slots per tuple, at most two tuples at a time
+    assertTrue(tracker.maxRunning.get() <= 2);
+    assertEquals(5, budget.register(0, 1).getAvailable());
+  }
+
+  private static List<TestManager> managers(Tracker tracker, String name, int count) {
+    List<TestManager> managers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      managers.add(new StubTestManager(tracker, name + i,
+        Arrays.<EndPoint>asList(desktop(60 + i % 3), desktop(61 + i % 3))));
+    }
+    return managers;
+  }
+
+  private static Callable<Integer> matrix(SlotBudget.Share share, List<TestManager> managers) {
+    return () -> {
+      TupleScheduler scheduler = new TupleScheduler(4);
+      scheduler.setSlotShare(share);
+      try {
+        return scheduler.execute(managers.iterator());
+      } finally {
+        share.unregister();
+      }
+    };
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite;
+
+import junit.framework.TestCase;
+import org.webrtc.kite.config.Browser;
+import org.webrtc.kite.config.EndPoint;
+import org.webrtc.kite.config.Mobile;
+
+import javax.json.Json;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TupleSchedulerTest extends TestCase {
+
+  private static final String HUB = "http://localhost:4444/wd/hub";
+
+  public void testMatrixRunsEachTupleOnceWithinTheDeviceLimits() throws InterruptedException {
+    Tracker tracker = new Tracker();
+    List<StubTestManager> managers = managers(tracker, new Random(1), 40);
+    RecordingListener listener = new RecordingListener();
+    TupleScheduler scheduler = new TupleScheduler(6);
+    scheduler.setResourceLimit(resource(mobile("tablet")), 2);
+    scheduler.addResultListener(listener);
+
+    // as MatrixRunner.run(): the first tuple, the middle tuples, then the last tuple
+    StubTestManager first = managers.get(0);
+    StubTestManager last = managers.get(managers.size() - 1);
+    int executed = scheduler.execute(Collections.<TestManager>singletonList(first).iterator());
+    executed += scheduler.execute(new ArrayList<TestManager>(
+      managers.subList(1, managers.size() - 1)).iterator());
+    executed += scheduler.execute(Collections.<TestManager>singletonList(last).iterator());
+
+    assertEquals(managers.size(), executed);
+    for (StubTestManager manager : managers) {
+      assertEquals(manager.getTestName(), 1, manager.executions.get());
+      assertEquals(manager.getTestName(), 1, (int) listener.starts.getOrDefault(manager, 0));
+      assertEquals(manager.getTestName(), 1, (int) listener.results.getOrDefault(manager, 0));
+    }
+    assertEquals(1, (int) tracker.maxUsage.get(resource(mobile("phone1"))));
+    assertEquals(1, (int) tracker.maxUsage.get(resource(mobile("phone2"))));
+    assertTrue(tracker.maxUsage.get(resource(mobile("tablet"))) <= 2);
+    assertTrue("the middle tuples run concurrently", tracker.maxRunning.get() > 1);
+    for (StubTestManager manager : managers) {
+      if (manager != first && manager != last) {
+        assertTrue(manager.getTestName(), manager.startTime >= first.endTime);
+        assertTrue(manager.getTestName(), manager.endTime <= last.startTime);
+      }
+    }
+  }
+
+  public void testTupleAboveTheResourceLimitIsNotScheduled() throws InterruptedException {
+    Tracker tracker = new Tracker();
+    StubTestManager manager = new StubTestManager(tracker, "Test 0",
+      Arrays.asList(mobile("phone1"), desktop(60)));
+    TupleScheduler scheduler = new TupleScheduler(2);
+    scheduler.setResourceLimit(resource(mobile("phone1")), 0);
+    assertEquals(0, scheduler.execute(Collections.<TestManager>singletonList(manager).iterator()));
+    assertEquals(0, manager.executions.get());
+  }
+
+  public void testPrefetchSkipsTheTuplesWaitingForTheirDevices() throws InterruptedException {
+    Tracker tracker = new Tracker();
+    StubTestManager running = new StubTestManager(tracker, "Test 0",
+      Arrays.asList(mobile("phone1"), desktop(60)));
+    StubTestManager waiting = new StubTestManager(tracker, "Test 1",
+      Arrays.asList(mobile("phone1"), desktop(61)));
+    StubTestManager ready = new StubTestManager(tracker, "Test 2",
+      Arrays.asList(desktop(62), desktop(60)));
+    PrefetchRecorder scheduler = new PrefetchRecorder(1, tracker);
+    scheduler.setPrefetch(2);
+    SlotBudget.Share share = new SlotBudget(3).register(0, 1);
+    scheduler.setSlotShare(share);
+
+    assertEquals(3,
+      scheduler.execute(Arrays.<TestManager>asList(running, waiting, ready).iterator()));
+    // while the first tuple runs, the phone of the second tuple is busy
+    PrefetchRecorder.Call first = scheduler.calls.get(0);
+    assertEquals(Collections.singletonList(ready.getEndPointList()), first.tuples);
+    // the running tuple holds 2 of the 3 slots
+    assertEquals(1, first.sessions);
+    assertEquals("Test 2", first.testName);
+  }
+
+  public void testPrefetchStaysWithinTheResourceAndSlotLimits() throws InterruptedException {
+    Tracker tracker = new Tracker();
+    List<StubTestManager> managers = managers(tracker, new Random(2), 60);
+    SlotBudget budget = new SlotBudget(8);
+    SlotBudget.Share other = budget.register(0, 1);
+    assertTrue(other.tryAcquire(2));
+    PrefetchRecorder scheduler = new PrefetchRecorder(2, tracker);
+    scheduler.setPrefetch(4);
+    scheduler.setResourceLimit(resource(mobile("tablet")), 2);
+    scheduler.setSlotShare(budget.register(0, 1));
+
+    assertEquals(managers.size(),
+      scheduler.execute(new ArrayList<TestManager>(managers).iterator()));
+    assertFalse(scheduler.calls.isEmpty());
+    boolean slotBound = false;
+    for (PrefetchRecorder.Call call : scheduler.calls) {
+      assertTrue(call.tuples.size() <= 4);
+      int endPoints = 0;
+      for (List<EndPoint> tuple : call.tuples) {
+        endPoints += tuple.size();
+      }
+      assertTrue(call.sessions <= endPoints);
+      assertTrue(call.sessions <= call.availableSlots);
+      slotBound |= call.sessions < endPoints;
+      // the devices of the prefetched tuples are free once the running tuples end
+      for (Map.Entry<String, Integer> entry : call.resourcesAhead.entrySet()) {
+        int limit = entry.getKey().equals(resource(mobile("tablet"))) ? 2 : 1;
+        assertTrue(entry.getKey(), entry.getValue() <= limit);
+      }
+    }
+    // the 2 running tuples leave 2 of the 6 slots, the 4 prefetched tuples need up to 8 sessions
+    assertTrue(slotBound);
+    for (StubTestManager manager : managers) {
+      assertEquals(manager.getTestName(), 1, manager.executions.get());
+    }
+  }
+
+  /**
+   * Generates tuples of two endpoints drawn among desktop browsers, two phones and a tablet, the
+   * same mobile device never appearing twice in a tuple as MatrixRunner.isRunnable() requires.
+   */
+  static List<StubTestManager> managers(Tracker tracker, Random random, int count) {
+    List<EndPoint> endPoints = Arrays.asList(desktop(60), desktop(61), desktop(62),
+      mobile("phone1"), mobile("phone2"), mobile("tablet"));
+    List<StubTestManager> managers = new ArrayList<>();
+    while (managers.size() < count) {
+      EndPoint a = endPoints.get(random.nextInt(endPoints.size()));
+      EndPoint b = endPoints.get(random.nextInt(endPoints.size()));
+      if (a == b && ((Browser) a).getMobile() != null) {
+        continue;
+      }
+      managers.add(new StubTestManager(tracker, "Test " + managers.size(), Arrays.asList(a, b)));
+    }
+    return managers;
+  }
+
+  static Browser desktop(int version) {
+    return new Browser(HUB, Json.createObjectBuilder()
+      .add("browserName", "chrome")
+      .add("version", "" + version)
+      .add("platform", "LINUX")
+      .build());
+  }
+
+  static Browser mobile(String deviceName) {
+    Browser browser = new Browser(HUB, Json.createObjectBuilder()
+      .add("browserName", "chrome")
+      .add("version", "70")
+      .add("platform", "ANDROID")
+      .build());
+    browser.setMobile(new Mobile(Json.createObjectBuilder()
+      .add("deviceName", deviceName)
+      .add("platformName", "Android")
+      .add("platformVersion", "8.0")
+      .build()));
+    return browser;
+  }
+
+  private static String resource(Browser browser) {
+    return TupleScheduler.getResources(Collections.singletonList(browser)).iterator().next();
+  }
+
+  /**
+   * Records the number of tuples running at the same time, in total and for each resource.
+   */
+  static class Tracker {
+
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final Map<String, Integer> usage = new HashMap<>();
+    final Map<String, Integer> maxUsage = new HashMap<>();
+
+    synchronized void start(List<EndPoint> endPointList) {
+      this.maxRunning.accumulateAndGet(this.running.incrementAndGet(), Math::max);
+      for (String resource : TupleScheduler.getResources(endPointList)) {
+        int count = this.usage.merge(resource, 1, Integer::sum);
+        this.maxUsage.merge(resource, count, Math::max);
+      }
+    }
+
+    synchronized void end(List<EndPoint> endPointList) {
+      this.running.decrementAndGet();
+      for (String resource : TupleScheduler.getResources(endPointList)) {
+        this.usage.merge(resource, -1, Integer::sum);
+      }
+    }
+  }
+
+  /**
+   * A TestManager which does not start any browser, taking a few milliseconds to run.
+   */
+  static class StubTestManager extends TestManager {
+
+    final Tracker tracker;
+    final AtomicInteger executions = new AtomicInteger();
+    volatile long startTime;
+    volatile long endTime;
+    volatile boolean retryable = false;
+    volatile long timeTaken = 0;
+    /* number of executions failing with a retryable error */
+    volatile int failures = 0;
+
+    StubTestManager(Tracker tracker, String testName, List<EndPoint> endPointList) {
+      super(null, endPointList, testName);
+      this.tracker = tracker;
+    }
+
+    @Override
+    public boolean isRetryable() {
+      return this.retryable;
+    }
+
+    @Override
+    public long getTimeTaken() {
+      return this.timeTaken;
+    }
+
+    @Override
+    public Object call() throws Exception {
+      this.startTime = System.nanoTime();
+      this.tracker.start(this.getEndPointList());
+      try {
+        Thread.sleep(5);
+        this.retryable = this.executions.incrementAndGet() <= this.failures;
+        return this.getTestName();
+      } finally {
+        this.tracker.end(this.getEndPointList());
+        this.endTime = System.nanoTime();
+      }
+    }
+  }
+
+  /**
+   * A TupleScheduler recording the sessions it would prefetch instead of creating them.
+   */
+  static class PrefetchRecorder extends TupleScheduler {
+
+    final Tracker tracker;
+    final List<Call> calls = new ArrayList<>();
+    private SlotBudget.Share slotShare = null;
+
+    PrefetchRecorder(int numberOfThread, Tracker tracker) {
+      super(numberOfThread);
+      this.tracker = tracker;
+    }
+
+    @Override
+    public void setSlotShare(SlotBudget.Share slotShare) {
+      super.setSlotShare(slotShare);
+      this.slotShare = slotShare;
+    }
+
+    @Override
+    void prefetchSessions(String testName, List<List<EndPoint>> tuples, int sessions) {
+      Call call = new Call();
+      call.testName = testName;
+      call.tuples = new ArrayList<>(tuples);
+      call.sessions = sessions;
+      call.availableSlots =
+        this.slotShare == null ? Integer.MAX_VALUE : this.slotShare.getAvailable();
+      synchronized (this.tracker) {
+        call.resourcesAhead.putAll(this.tracker.usage);
+      }
+      for (List<EndPoint> tuple : tuples) {
+        for (String resource : TupleScheduler.getResources(tuple)) {
+          call.resourcesAhead.merge(resource, 1, Integer::sum);
+        }
+      }
+      this.calls.add(call);
+    }
+
+    static class Call {
+
+      String testName;
+      List<List<EndPoint>> tuples;
+      int sessions;
+      int availableSlots;
+      /* usage of each resource by the running tuples and the prefetched tuples */
+      final Map<String, Integer> resourcesAhead = new HashMap<>();
+    }
+  }
+
+  /**
+   * Counts the notifications of each TestManager.
+   */
+  static class RecordingListener implements TestResultListener {
+
+    final Map<TestManager, Integer> starts = new ConcurrentHashMap<>();
+    final Map<TestManager, Integer> results = new ConcurrentHashMap<>();
+    final Map<TestManager, Integer> retries = new ConcurrentHashMap<>();
+
+    @Override
+    public void onStart(TestManager testManager) {
+      this.starts.merge(testManager, 1, Integer::sum);
+    }
+
+    @Override
+    public void onResult(TestManager testManager, Future<Object> future) {
+      this.results.merge(testManager, 1, Integer::sum);
+    }
+
+    @Override
+    public void onRetry(TestManager testManager, Future<Object> future) {
+      this.retries.merge(testManager, 1, Integer::sum);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite.config;
+
+import junit.framework.TestCase;
+
+import javax.json.Json;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class CoveringArrayTest extends TestCase {
+
+  private static final String[] NAMES = {"chrome", "firefox", "safari", "MicrosoftEdge"};
+  private static final String[] PLATFORMS = {"LINUX", "WINDOWS", "MAC"};
+
+  public void testPairwiseCoversEveryPair() {
+    // 25^3 candidates, more than a batch
+    TupleGenerator matrix = new TupleGenerator(endPoints(25), 3, true, false, 1);
+    CoveringArray coveringArray = new CoveringArray(matrix, 3, 2);
+    assertCovers(matrix, coveringArray, 3, 2);
+    assertEquals(15625, coveringArray.getCandidateCount());
+    assertTrue(coveringArray.size() < coveringArray.getCandidateCount() / 10);
+  }
+
+  public void testThreeWayCoversEveryTriple() {
+    TupleGenerator matrix = new TupleGenerator(endPoints(12), 2, false, true, 2);
+    CoveringArray coveringArray = new CoveringArray(matrix, 2, 3);
+    assertCovers(matrix, coveringArray, 2, 3);
+  }
+
+  public void testStrengthOfTheWholeTupleKeepsEveryDistinctTuple() {
+    TupleGenerator matrix = new TupleGenerator(endPoints(6), 2, true, false, 3);
+    CoveringArray coveringArray = new CoveringArray(matrix, 2, 6);
+    assertCovers(matrix, coveringArray, 2, 6);
+  }
+
+  public void testNewInteractionsAddUpToTheInteractionCount() {
+    TupleGenerator matrix = new TupleGenerator(endPoints(10), 2, true, false, 4);
+    CoveringArray coveringArray = new CoveringArray(matrix, 2, 2);
+    int covered = 0;
+    for (int i = 0; i < coveringArray.size(); i++) {
+      assertTrue(coveringArray.getNewInteractions(i) > 0);
+      covered += coveringArray.getNewInteractions(i);
+    }
+    assertEquals(interactions(matrix, 2, 2).size(), coveringArray.getInteractionCount());
+    assertEquals(coveringArray.getInteractionCount(), covered);
+  }
+
+  /**
+   * Asserts that the covering array only contains tuples of the matrix, and that every t-way
+   * combination of the browser names, versions and platforms of the matrix appears in it.
+   */
+  private static void assertCovers(Iterable<List<EndPoint>> matrix, CoveringArray coveringArray,
+                                   int tupleSize, int strength) {
+    Set<List<EndPoint>> candidates = new HashSet<>();
+    for (List<EndPoint> tuple : matrix) {
+      candidates.add(tuple);
+    }
+    for (List<EndPoint> tuple : coveringArray) {
+      assertTrue(tuple.toString(), candidates.contains(tuple));
+    }
+    Set<String> expected = interactions(matrix, tupleSize, strength);
+    Set<String> covered = interactions(coveringArray, tupleSize, strength);
+    for (String interaction : expected) {
+      assertTrue(interaction, covered.contains(interaction));
+    }
+    assertEquals(expected.size(), coveringArray.getInteractionCount());
+  }
+
+  /**
+   * Enumerates the t-way combinations of factor values of the tuples, each factor being the name,
+   * version or platform of the endpoint at a position.
+   */
+  private static Set<String> interactions(Iterable<List<EndPoint>> tuples, int tupleSize,
+                                          int strength) {
+    Set<String> interactions = new HashSet<>();
+    int factorCount = tupleSize * 3;
+    for (List<EndPoint> tuple : tuples) {
+      String[] factors = new String[factorCount];
+      for (int i = 0; i < tupleSize; i++) {
+        Browser browser = (Browser) tuple.get(i);
+        factors[3 * i] = i + ".name=" + browser.getBrowserName().toLowerCase();
+        factors[3 * i + 1] = i + ".version=" + browser.getVersion().toLowerCase();
+        factors[3 * i + 2] = i + ".platform=" + browser.getPlatform().toLowerCase();
+      }
+      for (int mask = 0; mask < 1 << factorCount; mask++) {
+        if (Integer.bitCount(mask) == Math.min(strength, factorCount)) {
+          StringBuilder interaction = new StringBuilder();
+          for (int factor = 0; factor < factorCount; factor++) {
+            if ((mask & 1 << factor) != 0) {
+              interaction.append(factors[factor]).append(';');
+            }
+          }
+          interactions.add(interaction.toString());
+        }
+      }
+    }
+    return interactions;
+  }
+
+  private static List<EndPoint> endPoints(int count) {
+    List<EndPoint> endPointList = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      endPointList.add(new Browser("http://localhost:4444/wd/hub", Json.createObjectBuilder()
+        .add("browserName", NAMES[i % NAMES.length])
+        .add("version", "" + (60 + i % 5))
+        .add("platform", PLATFORMS[i % PLATFORMS.length])
+        .build()));
+    }
+    return endPointList;
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc.kite.config;
+
+import junit.framework.TestCase;
+
+import javax.json.Json;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TupleGeneratorTest extends TestCase {
+
+  static List<EndPoint> endPoints(int count) {
+    List<EndPoint> endPointList = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      endPointList.add(new Browser("http://localhost:4444/wd/hub", Json.createObjectBuilder()
+        .add("browserName", "chrome")
+        .add("version", "" + (60 + i))
+        .add("platform", "LINUX")
+        .build()));
+    }
+    return endPointList;
+  }
+
+  public void testTotalTuplesWithPermutation() {
+    TupleGenerator generator = new TupleGenerator(endPoints(5), 3, true, false, 1);
+    assertEquals(125, generator.getTotalTuples());
+    assertEquals(125, generator.count());
+  }
+
+  public void testTotalTuplesWithoutPermutation() {
+    // C(5 + 3 - 1, 3) combinations with repetition
+    TupleGenerator generator = new TupleGenerator(endPoints(5), 3, false, false, 1);
+    assertEquals(35, generator.getTotalTuples());
+    assertEquals(35, generator.count());
+  }
+
+  public void testLargeCombinationsDoNotOverflow() {
+    // 200^10 overflows a long, C(209, 10) does not
+    TupleGenerator generator = new TupleGenerator(endPoints(200), 10, false, false, 1);
+    assertEquals(35216131179263320L, generator.getTotalTuples());
+    assertTrue(generator.iterator().hasNext());
+  }
+
+  public void testResumedRunHasTheSameTupleKeys() {
+    // The config name is timestamped differently by each run, the order of the tuples is not
+    long seed = Configurator.getTupleSeed("Matrix %ts");
+    List<String> keys = tupleKeys(new TupleGenerator(endPoints(6), 2, true, false, seed));
+    List<String> resumedKeys = tupleKeys(new TupleGenerator(endPoints(6), 2, true, false,
+      Configurator.getTupleSeed("Matrix %ts")));
+    assertEquals(36, keys.size());
+    assertEquals(keys, resumedKeys);
+  }
+
+  public void testEachCombinationIsGeneratedOnce() {
+    for (int count = 1; count <= 6; count++) {
+      for (int tupleSize = 1; tupleSize <= 3; tupleSize++) {
+        List<EndPoint> endPointList = endPoints(count);
+        Map<List<Integer>, Integer> combinations =
+          multisets(endPointList, new TupleGenerator(endPointList, tupleSize, false, false, count));
+        assertEquals(binomial(count + tupleSize - 1, tupleSize), combinations.size());
+        for (Map.Entry<List<Integer>, Integer> entry : combinations.entrySet()) {
+          assertEquals(count + "^" + tupleSize + " " + entry.getKey(), 1, (int) entry.getValue());
+        }
+      }
+    }
+  }
+
+  public void testRepeatedEndPointsAreCombinedOnce() {
+    // the same configuration listed twice is a single endpoint of the combinations
+    List<EndPoint> endPointList = endPoints(3);
+    endPointList.addAll(endPoints(2));
+    Map<List<Integer>, Integer> combinations =
+      multisets(endPointList, new TupleGenerator(endPointList, 3, false, false, 1));
+    assertEquals(binomial(3 + 3 - 1, 3), combinations.size());
+    for (Map.Entry<List<Integer>, Integer> entry : combinations.entrySet()) {
+      assertEquals(entry.getKey().toString(), 1, (int) entry.getValue());
+    }
+  }
+
+  public void testSameTuplesAsThePermutationFiltering() {
+    Random random = new Random(3);
+    for (int run = 0; run < 60; run++) {
+      List<EndPoint> endPointList = randomEndPoints(random, 1 + random.nextInt(5));
+      int tupleSize = 1 + random.nextInt(3);
+      boolean permute = random.nextBoolean();
+      boolean skipSame = random.nextBoolean();
+      String context = "run " + run + ": " + endPointList.size() + "^" + tupleSize
+        + (permute ? " permute" : "") + (skipSame ? " skipSame" : "");
+
+      List<List<EndPoint>> expected = buildTuples(endPointList, tupleSize, permute, skipSame);
+      List<List<EndPoint>> generated = new ArrayList<>();
+      for (List<EndPoint> tuple : new TupleGenerator(endPointList, tupleSize, permute, skipSame,
+        run)) {
+        generated.add(tuple);
+      }
+      assertEquals(context, expected.size(), generated.size());
+      if (permute) {
+        assertEquals(context, sorted(keys(endPointList, expected, false)),
+          sorted(keys(endPointList, generated, false)));
+      } else {
+        assertEquals(context, multisets(endPointList, expected), multisets(endPointList, generated));
+      }
+    }
+  }
+
+  /**
+   * Distinct endpoints, some of them out of focus. The former filtering did not keep one tuple per
+   * multiset when the same configuration was listed twice.
+   */
+  private static List<EndPoint> randomEndPoints(Random random, int count) {
+    List<EndPoint> endPointList = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      endPointList.add(new Browser("http://localhost:4444/wd/hub", Json.createObjectBuilder()
+        .add("browserName", random.nextBoolean() ? "chrome" : "firefox")
+        .add("version", "" + (60 + i))
+        .add("platform", "LINUX")
+        .add("focus", random.nextInt(4) > 0)
+        .build()));
+    }
+    return endPointList;
+  }
+
+  /**
+   * The former Configurator.buildTuples(), building all the tuples then filtering out the
+   * permutations of the previous ones when permute is false, without the shuffle.
+   */
+  private static List<List<EndPoint>> buildTuples(List<EndPoint> endPointList, int tupleSize,
+                                                  boolean permute, boolean skipSame) {
+    List<EndPoint> focusedList = new ArrayList<>();
+    for (EndPoint browser : endPointList) {
+      if (browser.isFocus()) {
+        focusedList.add(browser);
+      }
+    }
+    List<List<EndPoint>> listOfTuples = new ArrayList<List<EndPoint>>();
+    double totalTuples = Math.pow(endPointList.size(), tupleSize);
+    for (int i = 0; i < totalTuples; i++) {
+      listOfTuples.add(new ArrayList<>());
+    }
+    for (int i = 0; i < tupleSize; i++) {
+      double marge = totalTuples / Math.pow(endPointList.size(), i + 1);
+      double rep = Math.pow(endPointList.size(), i);
+      for (int x = 0; x < rep; x++) {
+        for (int j = 0; j < endPointList.size(); j++) {
+          for (int k = 0; k < marge; k++) {
+            listOfTuples.get((int) (x * totalTuples / rep + j * marge + k))
+              .add(i, endPointList.get(j));
+          }
+        }
+      }
+    }
+    if (!permute) {
+      filterPermutations(listOfTuples);
+    }
+    List<List<EndPoint>> tempListOfTuples = new ArrayList<>(listOfTuples);
+    for (List<EndPoint> tuple : tempListOfTuples) {
+      if (Collections.disjoint(tuple, focusedList)
+        || (skipSame && tuple.stream().distinct().limit(2).count() <= 1)) {
+        listOfTuples.remove(tuple);
+      }
+    }
+    return listOfTuples;
+  }
+
+  private static void filterPermutations(List<List<EndPoint>> listOfTuples) {
+    List<List<EndPoint>> listOfBrowserList1 = new ArrayList<>(listOfTuples);
+    List<List<EndPoint>> listOfBrowserList2 = new ArrayList<>(listOfTuples);
+    for (int i = 0; i < listOfBrowserList1.size(); i++) {
+      List<EndPoint> browserList1 = listOfBrowserList1.get(i);
+      for (int j = i + 1; j < listOfBrowserList2.size(); j++) {
+        List<EndPoint> browserList2 = listOfBrowserList2.get(j);
+        if (listMatch(browserList1, browserList2)) {
+          listOfTuples.remove(browserList2);
+        }
+      }
+    }
+  }
+
+  private static boolean listMatch(List<EndPoint> elements1, List<EndPoint> elements2) {
+    if (elements1.size() != elements2.size()) {
+      return false;
+    }
+    List<EndPoint> work = new ArrayList<>(elements2);
+    for (EndPoint element : elements1) {
+      if (!work.remove(element)) {
+        return false;
+      }
+    }
+    return work.isEmpty();
+  }
+
+  /* the number of occurrences of each multiset of endpoints, equal endpoints being the same */
+  private static Map<List<Integer>, Integer> multisets(List<EndPoint> endPointList,
+                                                       Iterable<List<EndPoint>> tuples) {
+    Map<List<Integer>, Integer> multisets = new HashMap<>();
+    for (List<Integer> key : keys(endPointList, tuples, true)) {
+      multisets.merge(key, 1, Integer::sum);
+    }
+    return multisets;
+  }
+
+  /* each tuple as the indexes of the first endpoints equal to its endpoints, sorted if unordered */
+  private static List<List<Integer>> keys(List<EndPoint> endPointList,
+                                          Iterable<List<EndPoint>> tuples, boolean unordered) {
+    List<List<Integer>> keys = new ArrayList<>();
+    for (List<EndPoint> tuple : tuples) {
+      List<Integer> key = new ArrayList<>();
+      for (EndPoint endPoint : tuple) {
+        key.add(endPointList.indexOf(endPoint));
+      }
+      if (unordered) {
+        Collections.sort(key);
+      }
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  private static List<String> sorted(List<List<Integer>> keys) {
+    List<String> sorted = new ArrayList<>();
+    for (List<Integer> key : keys) {
+      sorted.add(key.toString());
+    }
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private static long binomial(int n, int k) {
+    long binomial = 1;
+    for (int i = 1; i <= k; i++) {
+      binomial = binomial * (n - k + i) / i;
+    }
+    return binomial;
+  }
+
+  /* the index and the endpoints of each tuple, as in the keys of the RunJournal */
+  private static List<String> tupleKeys(TupleGenerator generator) {
+    List<String> keys = new ArrayList<>();
+    for (List<EndPoint> tuple : generator) {
+      keys.add(keys.size() + "#" + Integer.toHexString(tuple.toString().hashCode()));
+    }
+    return keys;
+  }
+}
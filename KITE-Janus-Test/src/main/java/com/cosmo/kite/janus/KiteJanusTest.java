@@ -79,7 +79,8 @@ public class KiteJanusTest extends KiteLoadTest {
                     maxUsersPerRoom,
                     getStatsCollectionTime(),
                     getStatsCollectionInterval(),
-                    getSelectedStats()));
+                    getSelectedStats(),
+                    this));
           }
           if (this.takeScreenshotForEachTest()) {
             callable.addStep(new ScreenshotStep(webDriver));
@@ -90,7 +91,7 @@ public class KiteJanusTest extends KiteLoadTest {
           if (this.getNWInstConfig() != null) {
             callable.addStep(new NWInstrumentationStep(webDriver, getNWInstConfig()));
             callable.addStep(new GetStatsStep(webDriver, maxUsersPerRoom,
-              getStatsCollectionTime(), getStatsCollectionInterval(), getSelectedStats()));
+              getStatsCollectionTime(), getStatsCollectionInterval(), getSelectedStats(), this));
             callable.addStep(new NWInstCleanupStep(webDriver, getNWInstConfig()));
           }
         }
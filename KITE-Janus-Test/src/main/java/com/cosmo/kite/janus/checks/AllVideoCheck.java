@@ -5,14 +5,20 @@ import com.cosmo.kite.janus.pages.JanusPage;
 import com.cosmo.kite.report.custom_kite_allure.Reporter;
 import com.cosmo.kite.steps.TestStep;
 import com.cosmo.kite.report.custom_kite_allure.Status;
+import com.cosmo.kite.util.VideoMonitor;
 import org.apache.log4j.Logger;
+import org.openqa.selenium.ScriptTimeoutException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 
+import javax.json.JsonArray;
+import javax.json.JsonObject;
 import java.util.List;
 
 import static com.cosmo.kite.entities.Timeouts.ONE_SECOND_INTERVAL;
+import static com.cosmo.kite.util.ReportUtils.getStackTrace;
 import static com.cosmo.kite.util.TestUtils.videoCheck;
+import static com.cosmo.kite.util.TestUtils.videoCheckAll;
 import static com.cosmo.kite.util.TestUtils.waitAround;
 
 public class AllVideoCheck extends TestStep {
@@ -44,8 +50,28 @@ public class AllVideoCheck extends TestStep {
       }
       String videoCheck = "";
       boolean error = false;
+      // the videos monitored since FirstVideoCheck are checked without waiting
+      JsonArray metrics = VideoMonitor.getMetrics(webDriver);
+      if (metrics != null) {
+        Reporter.getInstance().jsonAttachment(report, "Video metrics", metrics);
+      }
+      JsonArray checks = null;
+      boolean checkAllFailed = false;
       for (int i = 1; i < numberOfParticipants; i++) {
-        String v = videoCheck(webDriver, i);
+        JsonObject video = VideoMonitor.getVideoMetrics(metrics, i, 3 * ONE_SECOND_INTERVAL / 2);
+        if (video == null && checks == null && !checkAllFailed) {
+          // all the videos checked at once, during the time videoCheck() takes for one video
+          try {
+            checks = videoCheckAll(webDriver, 3 * ONE_SECOND_INTERVAL / 2);
+          } catch (ScriptTimeoutException e) {
+            logger.error("Timeout checking all the videos, checking them one by one:\r\n"
+              + getStackTrace(e));
+            checkAllFailed = true;
+          }
+        }
+        String v = video != null ? video.getString("result")
+          : checks == null ? videoCheck(webDriver, i)
+          : i < checks.size() ? checks.getJsonObject(i).getString("result") : "blank";
         videoCheck += v;
         if (i < numberOfParticipants - 1) {
           videoCheck += "|";
@@ -62,6 +88,17 @@ public class AllVideoCheck extends TestStep {
       throw e;
     } catch (Exception e) {
       throw new KiteTestException("Error looking for the video", Status.BROKEN, e);
+    } finally {
+      // the video monitor started by FirstVideoCheck is not needed anymore
+      stopVideoMonitor();
+    }
+  }
+
+  private void stopVideoMonitor() {
+    try {
+      VideoMonitor.stop(webDriver);
+    } catch (Exception e) {
+      logger.warn("Unable to stop the video monitor:\r\n" + getStackTrace(e));
     }
   }
 }
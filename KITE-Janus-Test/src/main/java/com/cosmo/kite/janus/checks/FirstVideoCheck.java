@@ -5,12 +5,15 @@ import com.cosmo.kite.janus.pages.JanusPage;
 import com.cosmo.kite.report.custom_kite_allure.Reporter;
 import com.cosmo.kite.steps.TestStep;
 import com.cosmo.kite.report.custom_kite_allure.Status;
+import com.cosmo.kite.util.VideoMonitor;
 import org.apache.log4j.Logger;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 
+import javax.json.JsonArray;
 import java.util.List;
 
+import static com.cosmo.kite.util.ReportUtils.getStackTrace;
 import static com.cosmo.kite.util.TestUtils.videoCheck;
 
 public class FirstVideoCheck extends TestStep {
@@ -28,6 +31,7 @@ public class FirstVideoCheck extends TestStep {
 
   @Override
   protected void step() throws KiteTestException {
+    boolean passed = false;
     try {
       logger.info("Looking for video object");
       List<WebElement> videos = janusPage.getVideoElements();
@@ -36,15 +40,35 @@ public class FirstVideoCheck extends TestStep {
             "Unable to find any <video> element on the page", Status.FAILED);
       }
 
+      // monitors the videos until AllVideoCheck, which stops the monitor
+      VideoMonitor.start(webDriver);
       String videoCheck = videoCheck(webDriver, 0);
+      JsonArray metrics = VideoMonitor.getMetrics(webDriver);
+      if (metrics != null) {
+        Reporter.getInstance().jsonAttachment(report, "Video metrics", metrics);
+      }
       if (!"video".equalsIgnoreCase(videoCheck)) {
         Reporter.getInstance().textAttachment(report, "Sent Video", videoCheck, "plain");
         throw new KiteTestException("The first video is " + videoCheck, Status.FAILED);
       }
+      passed = true;
     } catch (KiteTestException e) {
       throw e;
     } catch (Exception e) {
       throw new KiteTestException("Error looking for the video", Status.BROKEN, e);
+    } finally {
+      if (!passed) {
+        // the next steps, AllVideoCheck included, are skipped
+        stopVideoMonitor();
+      }
+    }
+  }
+
+  private void stopVideoMonitor() {
+    try {
+      VideoMonitor.stop(webDriver);
+    } catch (Exception e) {
+      logger.warn("Unable to stop the video monitor:\r\n" + getStackTrace(e));
     }
   }
 }
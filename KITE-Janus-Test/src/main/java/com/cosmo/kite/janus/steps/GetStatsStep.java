@@ -2,17 +2,23 @@ package com.cosmo.kite.janus.steps;
 
 import com.cosmo.kite.exception.KiteTestException;
 import com.cosmo.kite.report.custom_kite_allure.Reporter;
+import com.cosmo.kite.stats.StatsHistogram;
+import com.cosmo.kite.stats.StatsStore;
 import com.cosmo.kite.steps.TestStep;
 import com.cosmo.kite.report.custom_kite_allure.Status;
+import com.cosmo.kite.tests.KiteLoadTest;
 import org.apache.log4j.Logger;
 import org.openqa.selenium.WebDriver;
 
 import javax.json.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import static com.cosmo.kite.util.StatsUtils.buildPCStatObject;
+import static com.cosmo.kite.util.StatsUtils.collectPCStats;
 import static com.cosmo.kite.util.StatsUtils.extractStats;
-import static com.cosmo.kite.util.StatsUtils.getPCStatOvertime;
 
 public class GetStatsStep extends TestStep {
 
@@ -23,14 +29,28 @@ public class GetStatsStep extends TestStep {
   private final int statsCollectionTime;
   private final int statsCollectionInterval;
   private final JsonArray selectedStats;
+  private final KiteLoadTest loadTest;
 
   public GetStatsStep(WebDriver webDriver, int numberOfParticipants, int statsCollectionTime,
                       int statsCollectionInterval, JsonArray selectedStats) {
+    this(webDriver, numberOfParticipants, statsCollectionTime, statsCollectionInterval,
+      selectedStats, null);
+  }
+
+  /**
+   * Constructs a GetStatsStep merging the stats histograms of the participant into the
+   * histograms of the test.
+   *
+   * @param loadTest the test, or null
+   */
+  public GetStatsStep(WebDriver webDriver, int numberOfParticipants, int statsCollectionTime,
+                      int statsCollectionInterval, JsonArray selectedStats, KiteLoadTest loadTest) {
     super(webDriver);
     this.numberOfParticipants = numberOfParticipants;
     this.statsCollectionTime = statsCollectionTime;
     this.statsCollectionInterval = statsCollectionInterval;
     this.selectedStats = selectedStats;
+    this.loadTest = loadTest;
   }
   
   
@@ -43,26 +63,34 @@ public class GetStatsStep extends TestStep {
   protected void step() throws KiteTestException {
     logger.info("Getting WebRTC stats via getStats");
     try {
-      JsonObject sentStats =
-        getPCStatOvertime(webDriver, "window.pc", statsCollectionTime, statsCollectionInterval,
-          selectedStats);
-      JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
-      List<JsonObject> receivedStats = new ArrayList<>();
+      List<String> peerConnections = new ArrayList<>();
+      peerConnections.add("window.pc");
       for (int i = 1; i < numberOfParticipants; i++) {
-        JsonObject receivedObject = getPCStatOvertime(webDriver,
-          "window.remotePc[" + (i-1) + "]",
-          statsCollectionTime,
-          statsCollectionInterval,
-          selectedStats);
-        receivedStats.add(receivedObject);
-        arrayBuilder.add(receivedObject);
+        peerConnections.add("window.remotePc[" + (i-1) + "]");
       }
-      JsonObject json = extractStats(sentStats, receivedStats);
+      // all the peer connections are sampled together, during a single statsCollectionTime
+      List<StatsStore> stats = collectPCStats(webDriver, peerConnections, statsCollectionTime,
+        statsCollectionInterval);
+      JsonObject sentStats = buildPCStatObject(webDriver, peerConnections.get(0), stats.get(0),
+        selectedStats);
+      JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+      for (int i = 1; i < stats.size(); i++) {
+        arrayBuilder.add(buildPCStatObject(webDriver, peerConnections.get(i), stats.get(i),
+          selectedStats));
+      }
+      // the summary is computed from the typed values of the samples
+      Map<String, StatsHistogram> histograms = new LinkedHashMap<>();
+      JsonObject json = extractStats(stats.get(0), stats.subList(1, stats.size()), histograms);
       JsonObjectBuilder builder = Json.createObjectBuilder();
       builder.add("local", sentStats);
       builder.add("remote", arrayBuilder);
       Reporter.getInstance().jsonAttachment(report, "getStatsRaw", builder.build());
       Reporter.getInstance().jsonAttachment(report, "getStatsSummary", json);
+      Reporter.getInstance().jsonAttachment(report, "getStatsHistograms",
+        StatsHistogram.toJson(histograms, true));
+      if (loadTest != null) {
+        loadTest.addStatsHistograms(histograms);
+      }
     } catch (Exception e) {
       e.printStackTrace();
       throw new KiteTestException("Failed to getStats", Status.BROKEN, e);
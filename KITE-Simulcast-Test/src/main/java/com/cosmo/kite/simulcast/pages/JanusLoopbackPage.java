@@ -11,10 +11,9 @@ import org.openqa.selenium.support.ui.WebDriverWait;
 import java.util.List;
 import java.util.StringTokenizer;
 
-import static com.cosmo.kite.entities.Timeouts.ONE_SECOND_INTERVAL;
 import static com.cosmo.kite.entities.Timeouts.TEN_SECOND_INTERVAL;
-import static com.cosmo.kite.util.TestUtils.waitAround;
 import static com.cosmo.kite.util.WebDriverUtils.executeJsScript;
+import static com.cosmo.kite.util.WebDriverUtils.waitForCondition;
 
 public class JanusLoopbackPage extends SimulcastPageBase {
 
@@ -139,10 +138,9 @@ public class JanusLoopbackPage extends SimulcastPageBase {
       return;
     }
     button.sendKeys(Keys.ENTER);
-    int ct = 0;
-    while(button.getAttribute("class").contains("btn-success") && ct < 10) {
-      waitAround(ONE_SECOND_INTERVAL);
-      ct++;
+    if (!waitForCondition(webDriver, "args[0].className.indexOf('btn-success') >= 0",
+      TEN_SECOND_INTERVAL, button)) {
+      logger.warn("button " + button.getText() + " still not selected, class = " + button.getAttribute("class"));
     }
   }
 